@@ -83,6 +83,14 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   /** Default value for IPC_SERVER_HANDLER_QUEUE_SIZE_KEY */
   public static final int     IPC_SERVER_HANDLER_QUEUE_SIZE_DEFAULT = 100;
 
+  /**
+   * Prefix of the per-port call queue settings, which are named
+   * ipc.&lt;port&gt;.&lt;setting&gt;
+   */
+  public static final String  IPC_CALLQUEUE_NAMESPACE = "ipc";
+  /** Class of the call queue, relative to the per-port namespace */
+  public static final String  IPC_CALLQUEUE_IMPL_KEY = "callqueue.impl";
+
   /** Internal buffer size for Lzo compressor/decompressors */
   public static final String  IO_COMPRESSION_CODEC_LZO_BUFFERSIZE_KEY =
     "io.compression.codec.lzo.buffersize";
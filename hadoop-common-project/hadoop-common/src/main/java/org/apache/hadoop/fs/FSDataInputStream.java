@@ -21,6 +21,7 @@
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -35,7 +36,7 @@
 public class FSDataInputStream extends DataInputStream
     implements Seekable, PositionedReadable, Closeable, 
       ByteBufferReadable, HasFileDescriptor, CanSetDropBehind, CanSetReadahead,
-      HasEnhancedByteBufferAccess {
+      HasEnhancedByteBufferAccess, VectoredReadable {
   /**
    * Map ByteBuffers that we have handed out to readers to ByteBufferPool 
    * objects
@@ -138,6 +139,22 @@ public InputStream getWrappedStream() {
     return in;
   }
 
+  /**
+   * Read several byte ranges at once. See
+   * {@link VectoredReadable#readVectored(List, ByteBufferPool)}.
+   * If the wrapped stream cannot do it, the ranges are read one at a time
+   * with positional reads.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException {
+    if (in instanceof VectoredReadable) {
+      ((VectoredReadable)in).readVectored(ranges, bufferPool);
+    } else {
+      VectoredReadUtils.readRangesSequentially(this, ranges, bufferPool);
+    }
+  }
+
   @Override
   public int read(ByteBuffer buf) throws IOException {
     if (in instanceof ByteBufferReadable) {
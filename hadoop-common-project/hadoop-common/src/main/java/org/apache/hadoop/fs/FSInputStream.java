@@ -19,10 +19,12 @@
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.fs.ZeroCopyUnavailableException;
+import org.apache.hadoop.io.ByteBufferPool;
 
 /****************************************************************
  * FSInputStream is a generic old InputStream with a little bit
@@ -32,7 +34,7 @@
 @InterfaceAudience.LimitedPrivate({"HDFS"})
 @InterfaceStability.Unstable
 public abstract class FSInputStream extends InputStream
-    implements Seekable, PositionedReadable {
+    implements Seekable, PositionedReadable, VectoredReadable {
   /**
    * Seek to the given offset from the start of the file.
    * The next read() will be from that location.  Can't
@@ -88,4 +90,15 @@ public void readFully(long position, byte[] buffer)
     throws IOException {
     readFully(position, buffer, 0, buffer.length);
   }
+
+  /**
+   * Read the ranges one at a time with positional reads. Streams that can
+   * do better, e.g. by reading several ranges at once, should override
+   * this.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException {
+    VectoredReadUtils.readRangesSequentially(this, ranges, bufferPool);
+  }
 }
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+
+/**
+ * Helpers for implementing {@link VectoredReadable}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public final class VectoredReadUtils {
+  private static final Comparator<FileRange> BY_OFFSET =
+      new Comparator<FileRange>() {
+        @Override
+        public int compare(FileRange a, FileRange b) {
+          return a.getOffset() < b.getOffset() ? -1 :
+              (a.getOffset() == b.getOffset() ? 0 : 1);
+        }
+      };
+
+  private VectoredReadUtils() {
+  }
+
+  /**
+   * Check the ranges and return them sorted by offset.
+   * @param fileLength the length of the file, or -1 if it is not known
+   * @throws EOFException if a range extends beyond fileLength
+   */
+  public static List<FileRange> sortAndValidateRanges(
+      List<? extends FileRange> ranges, long fileLength) throws IOException {
+    List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+    for (FileRange range : sorted) {
+      if (range.getOffset() < 0 || range.getLength() < 0) {
+        throw new IllegalArgumentException("Invalid " + range);
+      }
+      if (fileLength >= 0 &&
+          range.getOffset() + range.getLength() > fileLength) {
+        throw new EOFException(range + " is beyond the end of the file (" +
+            fileLength + " bytes)");
+      }
+    }
+    Collections.sort(sorted, BY_OFFSET);
+    return sorted;
+  }
+
+  /**
+   * Get a heap buffer of at least the given length from the pool, with its
+   * limit set to that length.
+   */
+  public static ByteBuffer allocate(ByteBufferPool bufferPool, int length) {
+    ByteBuffer buffer = bufferPool.getBuffer(false, length);
+    if (buffer == null || buffer.capacity() < length || !buffer.hasArray()) {
+      // The pool may hand out smaller buffers; they are no use to us
+      if (buffer != null) {
+        bufferPool.putBuffer(buffer);
+      }
+      buffer = ByteBuffer.allocate(length);
+    }
+    buffer.clear();
+    buffer.limit(length);
+    return buffer;
+  }
+
+  /**
+   * Give the buffers of the ranges back to the pool, e.g. after a failed
+   * read.
+   */
+  public static void releaseBuffers(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) {
+    for (FileRange range : ranges) {
+      if (range.getData() != null) {
+        bufferPool.putBuffer(range.getData());
+        range.setData(null);
+      }
+    }
+  }
+
+  /**
+   * Read the ranges one after the other with positional reads. This is the
+   * implementation for streams that have no better way of doing it.
+   */
+  public static void readRangesSequentially(PositionedReadable stream,
+      List<? extends FileRange> ranges, ByteBufferPool bufferPool)
+      throws IOException {
+    List<FileRange> sorted = sortAndValidateRanges(ranges, -1);
+    boolean success = false;
+    try {
+      for (FileRange range : sorted) {
+        ByteBuffer buffer = allocate(bufferPool, range.getLength());
+        range.setData(buffer);
+        stream.readFully(range.getOffset(), buffer.array(),
+            buffer.arrayOffset(), range.getLength());
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        releaseBuffers(sorted, bufferPool);
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+
+/**
+ * Streams that can read several byte ranges in one call implement this
+ * interface. An implementation is free to merge nearby ranges into a
+ * single request and to read independent ranges in parallel.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface VectoredReadable {
+  /**
+   * Read every range in the list. When this returns, each range holds a
+   * buffer taken from <i>bufferPool</i> with exactly its data between the
+   * buffer's position and limit. The caller owns those buffers and should
+   * give them back to the pool when done with them.
+   *
+   * This does not change the current position of the stream.
+   *
+   * @param ranges      the ranges to read, in any order; they may overlap.
+   * @param bufferPool  the pool to take the buffers from.
+   * @throws EOFException if a range extends beyond the end of the file.
+   * @throws IOException if there was an error reading. No range holds a
+   *         buffer in that case.
+   */
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException;
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.io;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Implemented by a {@link RawComparator} that can summarize a serialized key
+ * as a fixed width prefix, so that sorts can order most keys by comparing
+ * prefixes and only fall back to the comparator when two prefixes are equal.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface KeyPrefixComparator {
+
+  /**
+   * Compute the prefix of a serialized key. Prefixes are compared as
+   * unsigned longs; if the prefix of one key is less than that of another,
+   * the first key must compare less than the second. Keys with equal prefixes
+   * may compare in any order.
+   * @param b the buffer holding the key
+   * @param s the offset of the key in the buffer
+   * @param l the length of the key
+   */
+  long getKeyPrefix(byte[] b, int s, int l);
+}
@@ -186,6 +186,20 @@ public static int readInt(byte[] bytes, int start) {
 
   }
 
+  /**
+   * Read the first eight bytes of binary data as a big-endian long, padding
+   * shorter data with zeros. Compared as unsigned longs, these prefixes are
+   * consistent with {@link #compareBytes}.
+   */
+  public static long readBytesPrefix(byte[] bytes, int start, int length) {
+    long prefix = 0;
+    final int n = Math.min(length, 8);
+    for (int i = 0; i < n; i++) {
+      prefix |= (bytes[start + i] & 0xFFL) << (56 - 8 * i);
+    }
+    return prefix;
+  }
+
   /** Parse a float from a byte array. */
   public static float readFloat(byte[] bytes, int start) {
     return Float.intBitsToFloat(readInt(bytes, start));
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.Closeable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.IOUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Owns the queue of calls between the {@link Server} readers and its
+ * handlers. The queue implementation is pluggable per server port through
+ * <code>ipc.&lt;port&gt;.callqueue.impl</code>; it defaults to a single
+ * {@link LinkedBlockingQueue}.
+ */
+@InterfaceAudience.Private
+public class CallQueueManager<E> {
+  public static final Log LOG = LogFactory.getLog(CallQueueManager.class);
+
+  private final BlockingQueue<E> queue;
+
+  /**
+   * Returns the configured call queue class for the given namespace, e.g.
+   * "ipc.8020".
+   */
+  @SuppressWarnings("unchecked")
+  static <E> Class<? extends BlockingQueue<E>> getQueueClass(
+      String namespace, Configuration conf) {
+    String key = namespace + "." +
+        CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY;
+    Class<?> queueClass = conf.getClass(key, LinkedBlockingQueue.class);
+    return (Class<? extends BlockingQueue<E>>) queueClass;
+  }
+
+  public CallQueueManager(Class<? extends BlockingQueue<E>> backingClass,
+      int maxQueueSize, String namespace, Configuration conf) {
+    this.queue = createCallQueueInstance(backingClass, maxQueueSize,
+        namespace, conf);
+    LOG.info("Using callQueue " + backingClass);
+  }
+
+  /**
+   * Instantiates the queue, preferring a constructor that takes
+   * (int capacity, String namespace, Configuration conf), then one that
+   * takes only the capacity, and finally the default constructor.
+   */
+  private static <T extends BlockingQueue<E>, E> T createCallQueueInstance(
+      Class<T> theClass, int maxLen, String ns, Configuration conf) {
+    try {
+      Constructor<T> ctor = theClass.getDeclaredConstructor(int.class,
+          String.class, Configuration.class);
+      return ctor.newInstance(maxLen, ns, conf);
+    } catch (NoSuchMethodException e) {
+      // try the next constructor
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(theClass.getName() +
+          " could not be constructed.", e.getCause());
+    } catch (Exception e) {
+      throw new RuntimeException(theClass.getName() +
+          " could not be constructed.", e);
+    }
+
+    try {
+      Constructor<T> ctor = theClass.getDeclaredConstructor(int.class);
+      return ctor.newInstance(maxLen);
+    } catch (NoSuchMethodException e) {
+      // try the next constructor
+    } catch (Exception e) {
+      throw new RuntimeException(theClass.getName() +
+          " could not be constructed.", e);
+    }
+
+    try {
+      Constructor<T> ctor = theClass.getDeclaredConstructor();
+      return ctor.newInstance();
+    } catch (Exception e) {
+      throw new RuntimeException(theClass.getName() +
+          " does not have a usable constructor.", e);
+    }
+  }
+
+  /**
+   * Insert e into the backing queue, blocking if it is full.
+   */
+  public void put(E e) throws InterruptedException {
+    queue.put(e);
+  }
+
+  /**
+   * Retrieve an element from the backing queue, blocking until one is
+   * available.
+   */
+  public E take() throws InterruptedException {
+    return queue.take();
+  }
+
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * Release the resources of the backing queue, if it holds any.
+   */
+  public void stop() {
+    if (queue instanceof Closeable) {
+      IOUtils.cleanup(LOG, (Closeable) queue);
+    }
+  }
+
+  @VisibleForTesting
+  BlockingQueue<E> getQueue() {
+    return queue;
+  }
+}
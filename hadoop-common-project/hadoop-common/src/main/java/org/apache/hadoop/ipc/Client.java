@@ -35,11 +35,14 @@
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.security.PrivilegedExceptionAction;
 import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -48,6 +51,7 @@
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -393,6 +397,32 @@ private class Connection extends Thread {
     
     private final Object sendRpcRequestLock = new Object();
 
+    /**
+     * Senders of asynchronous calls waiting to run, and whether a task of
+     * the sendParamsExecutor is running them. Both are guarded by
+     * sendRpcRequestLock.
+     */
+    private final Queue<Runnable> asyncSenders = new LinkedList<Runnable>();
+    private boolean asyncSendersRunning = false;
+
+    /** Runs the senders of asynchronous calls one after the other. */
+    private final Runnable runAsyncSenders = new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          Runnable sender;
+          synchronized (sendRpcRequestLock) {
+            sender = asyncSenders.poll();
+            if (sender == null) {
+              asyncSendersRunning = false;
+              return;
+            }
+          }
+          sender.run();
+        }
+      }
+    };
+
     public Connection(ConnectionId remoteId, int serviceClass) throws IOException {
       this.remoteId = remoteId;
       this.server = remoteId.getAddress();
@@ -966,6 +996,20 @@ public void run() {
      */
     public void sendRpcRequest(final Call call)
         throws InterruptedException, IOException {
+      sendRpcRequest(call, true);
+    }
+
+    /** Initiates a rpc call by sending the rpc request to the remote server.
+     * The request is handed to the sender threads in the order of the calls
+     * to this method, but the senders of different callers are not waited
+     * for one after the other, so that requests are pipelined on the
+     * connection.
+     * @param call - the rpc request
+     * @param waitForSend - whether to wait until the request has been
+     *        written; if not, a failure to write it fails the call
+     */
+    void sendRpcRequest(final Call call, final boolean waitForSend)
+        throws InterruptedException, IOException {
       if (shouldCloseConnection.get()) {
         return;
       }
@@ -981,58 +1025,89 @@ public void sendRpcRequest(final Call call)
       // 1) RpcRequestHeader  - is serialized Delimited hence contains length
       // 2) RpcRequest
       //
-      // Items '1' and '2' are prepared here. 
-      final DataOutputBuffer d = new DataOutputBuffer();
+      // All three are prepared here.
       RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
           call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id, call.retry,
           clientId);
-      header.writeDelimitedTo(d);
-      call.rpcRequest.write(d);
+      final byte[] data;
+      final int dataLength;
+      if (call.rpcRequest instanceof ProtobufRpcEngine.RpcWrapper) {
+        // Serialize straight into an array of the exact size
+        data = ProtobufRpcEngine.serializeWithLength(header,
+            (ProtobufRpcEngine.RpcWrapper) call.rpcRequest);
+        dataLength = data.length;
+      } else {
+        DataOutputBuffer d = new DataOutputBuffer();
+        d.writeInt(0); // total length, filled in below
+        header.writeDelimitedTo(d);
+        call.rpcRequest.write(d);
+        data = d.getData();
+        dataLength = d.getLength();
+        ByteBuffer.wrap(data).putInt(0, dataLength - 4);
+      }
 
+      final Runnable sender = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            synchronized (Connection.this.out) {
+              if (shouldCloseConnection.get()) {
+                return;
+              }
+              
+              if (LOG.isDebugEnabled())
+                LOG.debug(getName() + " sending #" + call.id);
+       
+              // Total Length + RpcRequestHeader + RpcRequest
+              out.write(data, 0, dataLength);
+              out.flush();
+            }
+          } catch (IOException e) {
+            // exception at this point would leave the connection in an
+            // unrecoverable state (eg half a call left on the wire).
+            // So, close the connection, killing any outstanding calls
+            markClosed(e);
+          } catch (RuntimeException e) {
+            if (waitForSend) {
+              throw e;
+            }
+            // nobody is waiting to be told, so fail the calls instead
+            markClosed(new IOException("Error sending call #" + call.id, e));
+          }
+        }
+      };
+
+      final Future<?> senderFuture;
       synchronized (sendRpcRequestLock) {
-        Future<?> senderFuture = sendParamsExecutor.submit(new Runnable() {
-          @Override
-          public void run() {
+        if (!waitForSend) {
+          // A single task writes the requests of all asynchronous calls on
+          // this connection, so calls in flight do not each hold a thread.
+          asyncSenders.add(sender);
+          if (!asyncSendersRunning) {
             try {
-              synchronized (Connection.this.out) {
-                if (shouldCloseConnection.get()) {
-                  return;
-                }
-                
-                if (LOG.isDebugEnabled())
-                  LOG.debug(getName() + " sending #" + call.id);
-         
-                byte[] data = d.getData();
-                int totalLength = d.getLength();
-                out.writeInt(totalLength); // Total Length
-                out.write(data, 0, totalLength);// RpcRequestHeader + RpcRequest
-                out.flush();
-              }
-            } catch (IOException e) {
-              // exception at this point would leave the connection in an
-              // unrecoverable state (eg half a call left on the wire).
-              // So, close the connection, killing any outstanding calls
-              markClosed(e);
-            } finally {
-              //the buffer is just an in-memory buffer, but it is still polite to
-              // close early
-              IOUtils.closeStream(d);
+              sendParamsExecutor.execute(runAsyncSenders);
+            } catch (RejectedExecutionException e) {
+              asyncSenders.clear();
+              throw e;
             }
+            asyncSendersRunning = true;
           }
-        });
+          return;
+        }
+        senderFuture = sendParamsExecutor.submit(sender);
+      }
       
-        try {
-          senderFuture.get();
-        } catch (ExecutionException e) {
-          Throwable cause = e.getCause();
-          
-          // cause should only be a RuntimeException as the Runnable above
-          // catches IOException
-          if (cause instanceof RuntimeException) {
-            throw (RuntimeException) cause;
-          } else {
-            throw new RuntimeException("unexpected checked exception", cause);
-          }
+      try {
+        senderFuture.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        
+        // cause should only be a RuntimeException as the Runnable above
+        // catches IOException
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else {
+          throw new RuntimeException("unexpected checked exception", cause);
         }
       }
     }
@@ -1400,6 +1475,17 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
         Thread.currentThread().interrupt();
       }
 
+      return getCallResult(call, connection);
+    }
+  }
+
+  /**
+   * @return the response of a call that is done
+   * @throws IOException the error of the call
+   */
+  private static Writable getCallResult(Call call, Connection connection)
+      throws IOException {
+    synchronized (call) {
       if (call.error != null) {
         if (call.error instanceof RemoteException) {
           call.error.fillInStackTrace();
@@ -1418,6 +1504,103 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
     }
   }
 
+  /**
+   * Make a call, passing <code>rpcRequest</code>, to the IPC server defined
+   * by <code>remoteId</code>, without waiting for the response. The request
+   * is queued for sending before this method returns, and is not waited for
+   * either, so a caller can have many calls in flight on one connection.
+   * The queued requests of a connection are written by a single thread of
+   * the shared sender pool, however many calls are in flight.
+   *
+   * @param rpcKind
+   * @param rpcRequest -  contains serialized method and method parameters
+   * @param remoteId - the target rpc server
+   * @param serviceClass - service class for RPC
+   * @return a future for the rpc response. Its get methods throw an
+   *         ExecutionException whose cause is the exception {@link #call}
+   *         would have thrown. The call cannot be cancelled.
+   * @throws IOException if the call could not be made
+   */
+  public Future<Writable> callAsync(RPC.RpcKind rpcKind, Writable rpcRequest,
+      ConnectionId remoteId, int serviceClass) throws IOException {
+    final Call call = createCall(rpcKind, rpcRequest);
+    Connection connection = getConnection(remoteId, call, serviceClass);
+    try {
+      connection.sendRpcRequest(call, false);
+    } catch (RejectedExecutionException e) {
+      throw new IOException("connection has been closed", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("interrupted waiting to send rpc request to server", e);
+      throw new IOException(e);
+    }
+    return new CallFuture(call, connection);
+  }
+
+  /** The pending response of a call made by {@link #callAsync}. */
+  private static class CallFuture implements Future<Writable> {
+    private final Call call;
+    private final Connection connection;
+
+    CallFuture(Call call, Connection connection) {
+      this.call = call;
+      this.connection = connection;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      // the request may already be on the wire
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      synchronized (call) {
+        return call.done;
+      }
+    }
+
+    @Override
+    public Writable get() throws InterruptedException, ExecutionException {
+      synchronized (call) {
+        while (!call.done) {
+          call.wait();
+        }
+      }
+      return getResult();
+    }
+
+    @Override
+    public Writable get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = Time.monotonicNow() + unit.toMillis(timeout);
+      synchronized (call) {
+        while (!call.done) {
+          long remaining = deadline - Time.monotonicNow();
+          if (remaining <= 0) {
+            throw new TimeoutException("Timed out waiting for the response " +
+                "to call #" + call.id);
+          }
+          call.wait(remaining);
+        }
+      }
+      return getResult();
+    }
+
+    private Writable getResult() throws ExecutionException {
+      try {
+        return getCallResult(call, connection);
+      } catch (IOException e) {
+        throw new ExecutionException(e);
+      }
+    }
+  }
+
   // for unit testing only
   @InterfaceAudience.Private
   @InterfaceStability.Unstable
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Schedules calls by how much of the recent traffic their identity has
+ * generated. Every call increments a counter for its identity; all counters
+ * are periodically multiplied by a decay factor so that old traffic is
+ * gradually forgotten. An identity responsible for at least
+ * thresholds[i] of the total (decayed) call volume is given priority level
+ * i+1, so the heaviest users land in the lowest priority queues.
+ */
+@InterfaceAudience.Private
+public class DecayRpcScheduler implements RpcScheduler {
+  public static final Log LOG = LogFactory.getLog(DecayRpcScheduler.class);
+
+  /** How often the call counts are decayed, in milliseconds. */
+  public static final String IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY =
+      "faircallqueue.decay-scheduler.period-ms";
+  public static final long IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_DEFAULT =
+      5000L;
+
+  /** Factor the call counts are multiplied by at every decay. */
+  public static final String IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY =
+      "faircallqueue.decay-scheduler.decay-factor";
+  public static final double IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_DEFAULT =
+      0.5;
+
+  /**
+   * Comma separated, ascending fractions of the total traffic at which an
+   * identity drops to the next priority level; one fewer than the number
+   * of levels.
+   */
+  public static final String IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY =
+      "faircallqueue.decay-scheduler.thresholds";
+
+  /** Identity provider used to account calls. */
+  public static final String IPC_CALLQUEUE_IDENTITY_PROVIDER_KEY =
+      "identity-provider.impl";
+
+  /** Identity that calls without a user are accounted against. */
+  public static final String DECAYSCHEDULER_UNKNOWN_IDENTITY =
+      "IdentityProvider.Unknown";
+
+  // Per-identity call counts, decayed over time
+  private final ConcurrentHashMap<Object, AtomicLong> callCounts =
+      new ConcurrentHashMap<Object, AtomicLong>();
+
+  // Sum of all the values in callCounts
+  private final AtomicLong totalCalls = new AtomicLong();
+
+  private final int numLevels;
+  private final double decayFactor;
+  private final long decayPeriodMillis;
+  private final double[] thresholds;
+  private final IdentityProvider identityProvider;
+  private final Timer timer;
+
+  public DecayRpcScheduler(int numLevels, String ns, Configuration conf) {
+    if (numLevels < 1) {
+      throw new IllegalArgumentException("number of priority levels must be" +
+          " at least 1: " + numLevels);
+    }
+    this.numLevels = numLevels;
+    this.decayFactor = conf.getDouble(
+        ns + "." + IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY,
+        IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_DEFAULT);
+    if (decayFactor <= 0 || decayFactor >= 1) {
+      throw new IllegalArgumentException(ns + "." +
+          IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY +
+          " must be between 0 and 1: " + decayFactor);
+    }
+    this.decayPeriodMillis = conf.getLong(
+        ns + "." + IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY,
+        IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_DEFAULT);
+    if (decayPeriodMillis <= 0) {
+      throw new IllegalArgumentException(ns + "." +
+          IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY +
+          " must be positive: " + decayPeriodMillis);
+    }
+    this.thresholds = parseThresholds(ns, conf, numLevels);
+    this.identityProvider = parseIdentityProvider(ns, conf);
+
+    this.timer = new Timer("DecayRpcScheduler decay timer for " + ns, true);
+    this.timer.scheduleAtFixedRate(new TimerTask() {
+      @Override
+      public void run() {
+        decayCurrentCounts();
+      }
+    }, decayPeriodMillis, decayPeriodMillis);
+  }
+
+  private static IdentityProvider parseIdentityProvider(String ns,
+      Configuration conf) {
+    Class<? extends IdentityProvider> clazz = conf.getClass(
+        ns + "." + IPC_CALLQUEUE_IDENTITY_PROVIDER_KEY,
+        UserIdentityProvider.class, IdentityProvider.class);
+    return ReflectionUtils.newInstance(clazz, conf);
+  }
+
+  private static double[] parseThresholds(String ns, Configuration conf,
+      int numLevels) {
+    String[] values = conf.getTrimmedStrings(
+        ns + "." + IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY);
+    double[] result = new double[numLevels - 1];
+    if (values.length == 0) {
+      // Default to exponentially spaced thresholds, e.g. for 4 levels
+      // 0.125, 0.25 and 0.5
+      for (int i = 0; i < result.length; i++) {
+        result[i] = 1.0 / (1 << (result.length - i));
+      }
+      return result;
+    }
+    if (values.length != result.length) {
+      throw new IllegalArgumentException(ns + "." +
+          IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY + " must specify " +
+          result.length + " thresholds for " + numLevels + " levels.");
+    }
+    for (int i = 0; i < values.length; i++) {
+      result[i] = Double.parseDouble(values[i]);
+      if (i > 0 && result[i] < result[i - 1]) {
+        throw new IllegalArgumentException(ns + "." +
+            IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY +
+            " must be in ascending order.");
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Multiply every call count by the decay factor, dropping identities whose
+   * count reaches zero, and recompute the total.
+   */
+  @VisibleForTesting
+  void decayCurrentCounts() {
+    long total = 0;
+    Iterator<Map.Entry<Object, AtomicLong>> it =
+        callCounts.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Object, AtomicLong> entry = it.next();
+      AtomicLong count = entry.getValue();
+      long decayed = (long) (count.get() * decayFactor);
+      // Calls that raced with us are lost, which is fine for an estimate
+      count.set(decayed);
+      if (decayed == 0) {
+        it.remove();
+      } else {
+        total += decayed;
+      }
+    }
+    totalCalls.set(total);
+  }
+
+  /**
+   * Increment the count for the identity and return its new value.
+   */
+  private long getAndIncrement(Object identity) {
+    AtomicLong count = callCounts.get(identity);
+    if (count == null) {
+      AtomicLong newCount = new AtomicLong();
+      count = callCounts.putIfAbsent(identity, newCount);
+      if (count == null) {
+        count = newCount;
+      }
+    }
+    totalCalls.incrementAndGet();
+    return count.incrementAndGet();
+  }
+
+  /**
+   * Map an identity's share of the total traffic to a priority level.
+   */
+  private int computePriorityLevel(long occurrences) {
+    long total = totalCalls.get();
+    double proportion = total > 0 ? (double) occurrences / total : 0;
+    for (int i = thresholds.length - 1; i >= 0; i--) {
+      if (proportion >= thresholds[i]) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public int getPriorityLevel(Schedulable obj) {
+    Object identity = identityProvider.makeIdentity(obj);
+    if (identity == null) {
+      identity = DECAYSCHEDULER_UNKNOWN_IDENTITY;
+    }
+    return computePriorityLevel(getAndIncrement(identity));
+  }
+
+  public int getNumLevels() {
+    return numLevels;
+  }
+
+  @VisibleForTesting
+  long getCallCount(Object identity) {
+    AtomicLong count = callCounts.get(identity);
+    return count == null ? 0 : count.get();
+  }
+
+  @VisibleForTesting
+  long getTotalCallCount() {
+    return totalCalls.get();
+  }
+
+  /** Stop the decay timer. */
+  @Override
+  public void stop() {
+    timer.cancel();
+  }
+}
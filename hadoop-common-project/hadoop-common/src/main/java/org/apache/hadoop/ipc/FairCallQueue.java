@@ -0,0 +1,336 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.Closeable;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A call queue made of several priority levels, each backed by its own
+ * {@link LinkedBlockingQueue}. An {@link RpcScheduler} picks the level of
+ * each incoming call (by default a {@link DecayRpcScheduler}, which demotes
+ * users that generate a large share of the recent traffic) and an
+ * {@link RpcMultiplexer} decides which level a handler serves next.
+ *
+ * Producers on different levels never contend on the same queue lock; the
+ * only state shared by all of them is a semaphore counting the calls that
+ * are available to be taken. Consumers take a permit from the semaphore and
+ * then pick a call under a lock of their own, which they hold only for the
+ * few polls of a scan over the levels.
+ *
+ * To use it, set <code>ipc.&lt;port&gt;.callqueue.impl</code> to
+ * <code>org.apache.hadoop.ipc.FairCallQueue</code>.
+ */
+@InterfaceAudience.Private
+public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
+    implements BlockingQueue<E>, Closeable {
+  public static final Log LOG = LogFactory.getLog(FairCallQueue.class);
+
+  /** Number of priority levels. */
+  public static final String IPC_CALLQUEUE_PRIORITY_LEVELS_KEY =
+      "faircallqueue.priority-levels";
+  public static final int IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT = 4;
+
+  private final List<BlockingQueue<E>> queues;
+  private final RpcScheduler scheduler;
+  private final RpcMultiplexer multiplexer;
+
+  // One permit per call that has been queued but not yet taken
+  private final Semaphore available = new Semaphore(0);
+  // Serializes the scans of consumers, so that a consumer holding a permit
+  // always finds a call
+  private final ReentrantLock takeLock = new ReentrantLock();
+
+  /**
+   * Create a FairCallQueue.
+   * @param capacity total capacity, divided evenly between the levels
+   * @param ns namespace of the configuration keys, e.g. "ipc.8020"
+   * @param conf configuration
+   */
+  public FairCallQueue(int capacity, String ns, Configuration conf) {
+    int numLevels = conf.getInt(ns + "." + IPC_CALLQUEUE_PRIORITY_LEVELS_KEY,
+        IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT);
+    if (numLevels < 1) {
+      throw new IllegalArgumentException("Number of priority levels must be" +
+          " at least 1: " + numLevels);
+    }
+    int levelCapacity = Math.max(1, capacity / numLevels);
+    this.queues = new ArrayList<BlockingQueue<E>>(numLevels);
+    for (int i = 0; i < numLevels; i++) {
+      queues.add(new LinkedBlockingQueue<E>(levelCapacity));
+    }
+    this.scheduler = new DecayRpcScheduler(numLevels, ns, conf);
+    this.multiplexer = new WeightedRoundRobinMultiplexer(numLevels, ns, conf);
+    LOG.info("FairCallQueue is in use with " + numLevels + " levels of " +
+        levelCapacity + " calls each");
+  }
+
+  @VisibleForTesting
+  FairCallQueue(int capacity, int numLevels, RpcScheduler scheduler,
+      RpcMultiplexer multiplexer) {
+    int levelCapacity = Math.max(1, capacity / numLevels);
+    this.queues = new ArrayList<BlockingQueue<E>>(numLevels);
+    for (int i = 0; i < numLevels; i++) {
+      queues.add(new LinkedBlockingQueue<E>(levelCapacity));
+    }
+    this.scheduler = scheduler;
+    this.multiplexer = multiplexer;
+  }
+
+  /**
+   * Remove the next element according to the multiplexer, falling back to
+   * the other levels in priority order if the chosen one is empty.
+   * @return the element, or null if every level is empty
+   */
+  private E removeNextElement() {
+    int chosen = multiplexer.getAndAdvanceCurrentIndex();
+    E e = queues.get(chosen).poll();
+    for (int i = 0; e == null && i < queues.size(); i++) {
+      if (i != chosen) {
+        e = queues.get(i).poll();
+      }
+    }
+    return e;
+  }
+
+  /**
+   * Take the element a permit has been acquired for.
+   * @return the element, or null if the call the permit was released for
+   *         has been removed through the iterator; the caller then needs
+   *         another permit
+   */
+  private E removeReservedElement() {
+    takeLock.lock();
+    try {
+      return removeNextElement();
+    } finally {
+      takeLock.unlock();
+    }
+  }
+
+  private int getPriorityLevel(E e) {
+    int level = scheduler.getPriorityLevel(e);
+    return Math.max(0, Math.min(level, queues.size() - 1));
+  }
+
+  /**
+   * Offer e to its own level or, if that level is full, to a lower one.
+   */
+  private boolean offerFrom(int level, E e) {
+    for (int i = level; i < queues.size(); i++) {
+      if (queues.get(i).offer(e)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queue e at its priority level. If that level and every lower one is
+   * full, block on the lowest level.
+   */
+  @Override
+  public void put(E e) throws InterruptedException {
+    int level = getPriorityLevel(e);
+    if (!offerFrom(level, e)) {
+      queues.get(queues.size() - 1).put(e);
+    }
+    available.release();
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    int level = getPriorityLevel(e);
+    if (!offerFrom(level, e) &&
+        !queues.get(queues.size() - 1).offer(e, timeout, unit)) {
+      return false;
+    }
+    available.release();
+    return true;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (!offerFrom(getPriorityLevel(e), e)) {
+      return false;
+    }
+    available.release();
+    return true;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    E e;
+    do {
+      available.acquire();
+      e = removeReservedElement();
+    } while (e == null);
+    return e;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    do {
+      if (!available.tryAcquire(deadline - System.nanoTime(),
+          TimeUnit.NANOSECONDS)) {
+        return null;
+      }
+      e = removeReservedElement();
+    } while (e == null);
+    return e;
+  }
+
+  @Override
+  public E poll() {
+    if (!available.tryAcquire()) {
+      return null;
+    }
+    return removeReservedElement();
+  }
+
+  @Override
+  public E peek() {
+    for (BlockingQueue<E> q : queues) {
+      E e = q.peek();
+      if (e != null) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (BlockingQueue<E> q : queues) {
+      size += q.size();
+    }
+    return size;
+  }
+
+  @Override
+  public int remainingCapacity() {
+    int sum = 0;
+    for (BlockingQueue<E> q : queues) {
+      sum += q.remainingCapacity();
+    }
+    return sum;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    int drained = 0;
+    E e;
+    while (drained < maxElements && (e = poll()) != null) {
+      c.add(e);
+      drained++;
+    }
+    return drained;
+  }
+
+  /**
+   * Iterates over the levels in priority order. Like the iterators of the
+   * underlying queues, it is weakly consistent: it never throws
+   * ConcurrentModificationException, and may or may not reflect calls
+   * queued or taken while it is in use.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    return new Iterator<E>() {
+      private int level = 0;
+      private Iterator<E> current = queues.get(0).iterator();
+      // the iterator that returned the last element, for remove()
+      private Iterator<E> last;
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext()) {
+          if (++level >= queues.size()) {
+            return false;
+          }
+          current = queues.get(level).iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public E next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = current;
+        return current.next();
+      }
+
+      @Override
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        takeLock.lock();
+        try {
+          last.remove();
+          // The removed call can no longer be taken. If every queued call
+          // is already reserved by a consumer, one of them finds nothing
+          // and waits for another permit.
+          available.tryAcquire();
+        } finally {
+          takeLock.unlock();
+        }
+        last = null;
+      }
+    };
+  }
+
+  /** Stop the scheduler's background work. */
+  @Override
+  public void close() {
+    scheduler.stop();
+  }
+
+  /** @return the number of calls queued at the given level. */
+  @VisibleForTesting
+  int size(int level) {
+    return queues.get(level).size();
+  }
+}
@@ -273,6 +273,36 @@ public ConnectionId getConnectionId() {
 
   interface RpcWrapper extends Writable {
     int getLength();
+
+    /**
+     * Write exactly {@link #getLength()} bytes, in the same format as
+     * {@link #write(DataOutput)}.
+     */
+    void writeTo(CodedOutputStream out) throws IOException;
+  }
+
+  /**
+   * Serialize an RPC message on the wire: its total length as an int,
+   * followed by the delimited header and the body. The message is written
+   * straight into an array of exactly the required size, without going
+   * through intermediate buffers.
+   */
+  static byte[] serializeWithLength(Message header, RpcWrapper body)
+      throws IOException {
+    int headerLen = header.getSerializedSize();
+    int length = CodedOutputStream.computeRawVarint32Size(headerLen) +
+        headerLen + body.getLength();
+    byte[] data = new byte[4 + length];
+    data[0] = (byte) (length >>> 24);
+    data[1] = (byte) (length >>> 16);
+    data[2] = (byte) (length >>> 8);
+    data[3] = (byte) length;
+    CodedOutputStream out = CodedOutputStream.newInstance(data, 4, length);
+    out.writeRawVarint32(headerLen);
+    header.writeTo(out);
+    body.writeTo(out);
+    out.checkNoSpaceLeft();
+    return data;
   }
   /**
    * Wrapper for Protocol Buffer Requests
@@ -303,6 +333,19 @@ public void write(DataOutput out) throws IOException {
       theRequest.writeDelimitedTo(os);
     }
 
+    @Override
+    public void writeTo(CodedOutputStream out) throws IOException {
+      out.writeRawVarint32(requestHeader.getSerializedSize());
+      requestHeader.writeTo(out);
+      if (theRequest != null) {
+        out.writeRawVarint32(theRequest.getSerializedSize());
+        theRequest.writeTo(out);
+      } else {
+        out.writeRawVarint32(theRequestRead.length);
+        out.writeRawBytes(theRequestRead);
+      }
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
       requestHeader = parseHeaderFrom(readVarintBytes(in));
@@ -438,6 +481,17 @@ public void write(DataOutput out) throws IOException {
       theResponse.writeDelimitedTo(os);   
     }
 
+    @Override
+    public void writeTo(CodedOutputStream out) throws IOException {
+      if (theResponse != null) {
+        out.writeRawVarint32(theResponse.getSerializedSize());
+        theResponse.writeTo(out);
+      } else {
+        out.writeRawVarint32(theResponseRead.length);
+        out.writeRawBytes(theResponseRead);
+      }
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
       int length = ProtoUtil.readRawVarint32(in);
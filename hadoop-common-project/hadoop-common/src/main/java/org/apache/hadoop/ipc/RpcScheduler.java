@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Assigns a priority level to each incoming call. Level 0 is the highest
+ * priority; larger numbers indicate progressively lower priority.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public interface RpcScheduler {
+  /**
+   * Returns the priority level for the given object and records that the
+   * object was seen.
+   * @param obj the object to schedule
+   * @return a level between 0 (inclusive) and the number of levels
+   *         (exclusive)
+   */
+  int getPriorityLevel(Schedulable obj);
+
+  /**
+   * Release any resources, such as threads, held by the scheduler.
+   */
+  void stop();
+}
@@ -35,6 +35,7 @@
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -111,6 +112,7 @@
 import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Message;
@@ -364,7 +366,7 @@ public static boolean isRpcInvocation() {
   private final boolean tcpNoDelay; // if T then disable Nagle's Algorithm
 
   volatile private boolean running = true;         // true while server runs
-  private BlockingQueue<Call> callQueue; // queued calls
+  private CallQueueManager<Call> callQueue; // queued calls
 
   // maintains the set of client connections and handles idle timeouts
   private ConnectionManager connectionManager;
@@ -460,7 +462,7 @@ public ServiceAuthorizationManager getServiceAuthorizationManager() {
   }
 
   /** A call queued for handling. */
-  public static class Call {
+  public static class Call implements Schedulable {
     private final int callId;             // the client's call id
     private final int retryCount;        // the retry count of the call
     private final Writable rpcRequest;    // Serialized Rpc request from client
@@ -470,6 +472,9 @@ public static class Call {
     private ByteBuffer rpcResponse;       // the response for this call
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
+    // number of parties that must release the response before it is sent;
+    // the handler is always one of them
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
 
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
@@ -498,6 +503,44 @@ public String toString() {
     public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
+
+    /**
+     * Whether the response to this call may be postponed. Responses wrapped
+     * by SASL must be sent in the order they are wrapped, so they cannot.
+     */
+    public boolean canPostponeResponse() {
+      return connection != null && !connection.useWrap;
+    }
+
+    /**
+     * Hold the response to this call back after the handler is done with
+     * it, e.g. until the call's effects are durable. Each postponement must
+     * be matched by a call to {@link #sendResponse()}, possibly from another
+     * thread; the response is sent once the handler and all postponements
+     * have released it.
+     */
+    public void postponeResponse() {
+      Preconditions.checkState(canPostponeResponse(),
+          "Response to %s cannot be postponed", this);
+      int count = responseWaitCount.incrementAndGet();
+      assert count > 1 : "response has already been sent";
+    }
+
+    /**
+     * Release one hold on the response, sending it if this was the last.
+     */
+    public void sendResponse() throws IOException {
+      int count = responseWaitCount.decrementAndGet();
+      assert count >= 0 : "response has already been sent";
+      if (count == 0) {
+        connection.sendResponse(this);
+      }
+    }
+
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return connection == null ? null : connection.user;
+    }
   }
 
   /** Listens on the socket. Creates jobs for the handler threads*/
@@ -923,15 +966,28 @@ private boolean processResponse(LinkedList<Call> responseQueue,
           //
           // Send as much data as we can in the non-blocking fashion
           //
-          int numBytes = channelWrite(channel, call.rpcResponse);
+          int numBytes = numElements > 1 ?
+              channelWriteGathering(channel, call, responseQueue) :
+              channelWrite(channel, call.rpcResponse);
           if (numBytes < 0) {
             return true;
           }
+          // calls whose responses were sent by the gathering write
+          while (!responseQueue.isEmpty() &&
+              !responseQueue.getFirst().rpcResponse.hasRemaining()) {
+            Call next = responseQueue.removeFirst();
+            next.rpcResponse = null;
+            next.connection.decRpcCount();
+            if (LOG.isDebugEnabled()) {
+              LOG.debug(getName() + ": responding to " + next +
+                  " in a gathering write");
+            }
+          }
           if (!call.rpcResponse.hasRemaining()) {
             //Clear out the response buffer so it can be collected
             call.rpcResponse = null;
             call.connection.decRpcCount();
-            if (numElements == 1) {    // last call fully processes.
+            if (responseQueue.isEmpty()) { // last call fully processes.
               done = true;             // no more data for this channel.
             } else {
               done = false;            // more calls pending to be sent.
@@ -1903,6 +1959,14 @@ public void setServiceClass(int serviceClass) {
       this.serviceClass = serviceClass;
     }
 
+    /**
+     * Queue the response to a call on this connection. Callers must have
+     * set the response up already.
+     */
+    private void sendResponse(Call call) throws IOException {
+      responder.doRespond(call);
+    }
+
     private synchronized void close() {
       disposeSasl();
       data = null;
@@ -2014,7 +2078,7 @@ public Writable run() throws Exception {
                   + call.toString());
               buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
             }
-            responder.doRespond(call);
+            call.sendResponse();
           }
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
@@ -2096,7 +2160,11 @@ protected Server(String bindAddress, int port,
     this.readerPendingConnectionQueue = conf.getInt(
         CommonConfigurationKeys.IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_KEY,
         CommonConfigurationKeys.IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_DEFAULT);
-    this.callQueue  = new LinkedBlockingQueue<Call>(maxQueueSize); 
+    // Setup appropriate callqueue
+    final String prefix = getQueueClassPrefix();
+    this.callQueue = new CallQueueManager<Call>(
+        CallQueueManager.<Call>getQueueClass(prefix, conf), maxQueueSize,
+        prefix, conf);
     this.secretManager = (SecretManager<TokenIdentifier>) secretManager;
     this.authorize = 
       conf.getBoolean(CommonConfigurationKeys.HADOOP_SECURITY_AUTHORIZATION, 
@@ -2126,6 +2194,14 @@ protected Server(String bindAddress, int port,
     this.exceptionsHandler.addTerseExceptions(StandbyException.class);
   }
   
+  /**
+   * @return the namespace of the per-port call queue configuration,
+   *         e.g. "ipc.8020"
+   */
+  private String getQueueClassPrefix() {
+    return CommonConfigurationKeys.IPC_CALLQUEUE_NAMESPACE + "." + port;
+  }
+
   private RpcSaslProto buildNegotiateResponse(List<AuthMethod> authMethods)
       throws IOException {
     RpcSaslProto.Builder negotiateBuilder = RpcSaslProto.newBuilder();
@@ -2210,7 +2286,14 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
       int fullLength  = CodedOutputStream.computeRawVarint32Size(headerLen) +
           headerLen;
       try {
-        if (rv instanceof ProtobufRpcEngine.RpcWrapper) {
+        if (rv instanceof ProtobufRpcEngine.RpcWrapper &&
+            !call.connection.useWrap) {
+          // Serialize straight into the response buffer
+          call.setResponse(ByteBuffer.wrap(
+              ProtobufRpcEngine.serializeWithLength(header,
+                  (ProtobufRpcEngine.RpcWrapper) rv)));
+          return;
+        } else if (rv instanceof ProtobufRpcEngine.RpcWrapper) {
           ProtobufRpcEngine.RpcWrapper resWrapper = 
               (ProtobufRpcEngine.RpcWrapper) rv;
           fullLength += resWrapper.getLength();
@@ -2350,6 +2433,7 @@ public synchronized void stop() {
     listener.interrupt();
     listener.doStop();
     responder.interrupt();
+    callQueue.stop();
     notifyAll();
     if (this.rpcMetrics != null) {
       this.rpcMetrics.shutdown();
@@ -2464,6 +2548,11 @@ public int getNumReaders() {
    * be smaller.
    */
   private static int NIO_BUFFER_LIMIT = 8*1024; //should not be more than 64KB.
+
+  /**
+   * Maximum number of queued responses sent with a single gathering write.
+   */
+  private static final int MAX_GATHERED_RESPONSES = 16;
   
   /**
    * This is a wrapper around {@link WritableByteChannel#write(ByteBuffer)}.
@@ -2487,6 +2576,40 @@ private int channelWrite(WritableByteChannel channel,
   }
   
   
+  /**
+   * Write the response of call, followed by those of the calls queued after
+   * it, with a single gathering write. Responses that do not fit in
+   * {@link #NIO_BUFFER_LIMIT} are left for later. The caller removes the
+   * queued calls whose responses were written out completely.
+   *
+   * @see GatheringByteChannel#write(ByteBuffer[])
+   */
+  @VisibleForTesting
+  int channelWriteGathering(GatheringByteChannel channel, Call call,
+      List<Call> responseQueue) throws IOException {
+    if (call.rpcResponse.remaining() > NIO_BUFFER_LIMIT) {
+      return channelWrite(channel, call.rpcResponse);
+    }
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(
+        Math.min(responseQueue.size() + 1, MAX_GATHERED_RESPONSES));
+    buffers.add(call.rpcResponse);
+    long remaining = call.rpcResponse.remaining();
+    for (Call next : responseQueue) {
+      if (buffers.size() == MAX_GATHERED_RESPONSES ||
+          remaining + next.rpcResponse.remaining() > NIO_BUFFER_LIMIT) {
+        break;
+      }
+      buffers.add(next.rpcResponse);
+      remaining += next.rpcResponse.remaining();
+    }
+    int count = (int) channel.write(
+        buffers.toArray(new ByteBuffer[buffers.size()]));
+    if (count > 0) {
+      rpcMetrics.incrSentBytes(count);
+    }
+    return count;
+  }
+
   /**
    * This is a wrapper around {@link ReadableByteChannel#read(ByteBuffer)}.
    * If the amount of data is large, it writes to channel in smaller chunks. 
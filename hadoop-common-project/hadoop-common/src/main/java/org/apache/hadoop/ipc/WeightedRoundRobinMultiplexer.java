@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Serves queues in a round-robin fashion, reading from queue i up to
+ * weight[i] times before moving on to queue i+1. With the default weights
+ * of 2^(n-1), 2^(n-2), ..., 1 each level is served twice as often as the
+ * next lower one, so low priority callers are slowed down but never
+ * starved.
+ *
+ * The state is advanced without locking; concurrent handlers may
+ * occasionally read a queue one time more or less than its weight, which
+ * is harmless for fairness.
+ */
+@InterfaceAudience.Private
+public class WeightedRoundRobinMultiplexer implements RpcMultiplexer {
+  public static final Log LOG =
+      LogFactory.getLog(WeightedRoundRobinMultiplexer.class);
+
+  // Comma separated weights, one per queue
+  public static final String IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY =
+      "faircallqueue.multiplexer.weights";
+
+  private final int numQueues;
+  private final int[] queueWeights;
+
+  // The index of the queue currently being served
+  private final AtomicInteger currentQueueIndex = new AtomicInteger(0);
+  // How many more reads the current queue is entitled to
+  private final AtomicInteger requestsLeft;
+
+  public WeightedRoundRobinMultiplexer(int numQueues, String ns,
+      Configuration conf) {
+    if (numQueues <= 0) {
+      throw new IllegalArgumentException("Requested queues (" + numQueues +
+          ") must be greater than zero.");
+    }
+    this.numQueues = numQueues;
+    int[] weights = conf.getInts(ns + "." + IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY);
+    if (weights.length == 0) {
+      weights = new int[numQueues];
+      for (int i = 0; i < numQueues; i++) {
+        weights[i] = 1 << (numQueues - i - 1);
+      }
+    } else if (weights.length != numQueues) {
+      throw new IllegalArgumentException(ns + "." +
+          IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY + " must specify exactly " +
+          numQueues + " weights: one for each priority level.");
+    }
+    for (int w : weights) {
+      if (w <= 0) {
+        throw new IllegalArgumentException(ns + "." +
+            IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY + " must be positive: " + w);
+      }
+    }
+    this.queueWeights = weights;
+    this.requestsLeft = new AtomicInteger(queueWeights[0]);
+    LOG.info("WeightedRoundRobinMultiplexer is being used with weights " +
+        Arrays.toString(queueWeights));
+  }
+
+  private void moveToNextQueue(int current) {
+    int next = (current + 1) % numQueues;
+    if (currentQueueIndex.compareAndSet(current, next)) {
+      requestsLeft.set(queueWeights[next]);
+    }
+  }
+
+  @Override
+  public int getAndAdvanceCurrentIndex() {
+    int current = currentQueueIndex.get();
+    if (requestsLeft.decrementAndGet() <= 0) {
+      moveToNextQueue(current);
+    }
+    return current;
+  }
+}
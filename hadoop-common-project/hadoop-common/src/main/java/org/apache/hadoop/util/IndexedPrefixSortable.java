@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * An {@link IndexedSortable} whose items can be summarized by a fixed width
+ * prefix, allowing {@link PrefixRadixSort} to order most of them without
+ * calling {@link #compare(int, int)}.
+ */
+@InterfaceAudience.LimitedPrivate({"MapReduce"})
+@InterfaceStability.Unstable
+public interface IndexedPrefixSortable extends IndexedSortable {
+
+  /**
+   * Get the prefix of the item at the given address. Prefixes are compared
+   * as unsigned longs, and must be consistent with {@link #compare(int, int)}:
+   * if the prefix of i is less than that of j, i must compare less than j.
+   * It is called a few times per item as the items are distributed.
+   */
+  long getPrefix(int i);
+}
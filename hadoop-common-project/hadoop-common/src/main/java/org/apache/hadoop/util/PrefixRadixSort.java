@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Sorts an {@link IndexedPrefixSortable} by the prefixes of its items,
+ * falling back to {@link IndexedSortable#compare(int, int)} only for items
+ * whose prefixes are equal.
+ *
+ * The items are distributed in place, most significant prefix byte first,
+ * with the swaps of the sortable: an American flag sort, which needs no
+ * memory beyond the bucket counts of each level, so that the memory of a
+ * sortable such as the map output buffer stays the only memory the sort
+ * uses. Ranges too small to be worth distributing, and runs of equal
+ * prefixes, are finished with {@link QuickSort}, comparing the prefixes
+ * first. Sortables that do not provide prefixes are sorted with
+ * {@link QuickSort}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public final class PrefixRadixSort implements IndexedSorter {
+
+  // ranges smaller than this are sorted by comparison
+  private static final int RADIX_THRESHOLD = 64;
+
+  private final QuickSort quickSort = new QuickSort();
+
+  public PrefixRadixSort() { }
+
+  @Override
+  public void sort(IndexedSortable s, int p, int r) {
+    sort(s, p, r, null);
+  }
+
+  @Override
+  public void sort(IndexedSortable s, int p, int r, Progressable rep) {
+    if (!(s instanceof IndexedPrefixSortable) || r - p < RADIX_THRESHOLD) {
+      quickSort.sort(s, p, r, rep);
+      return;
+    }
+    final IndexedPrefixSortable ps = (IndexedPrefixSortable) s;
+    radixSort(ps, new PrefixOrder(ps), p, r, 56, rep);
+  }
+
+  private static int bucket(long prefix, int shift) {
+    return (int) ((prefix >>> shift) & 0xFF);
+  }
+
+  /**
+   * Sort [lo, hi) of the sortable by the prefix byte at the given shift and,
+   * recursively, by the following bytes.
+   */
+  private void radixSort(IndexedPrefixSortable s, PrefixOrder order,
+      int lo, int hi, int shift, Progressable rep) {
+    while (true) {
+      if (hi - lo < RADIX_THRESHOLD || shift < 0) {
+        // small range, or every prefix is equal
+        quickSort.sort(order, lo, hi, rep);
+        return;
+      }
+      if (null != rep) {
+        rep.progress();
+      }
+      final int[] counts = new int[256];
+      for (int i = lo; i < hi; ++i) {
+        ++counts[bucket(s.getPrefix(i), shift)];
+      }
+      boolean shared = false;
+      for (int b = 0; b < 256; ++b) {
+        if (counts[b] == hi - lo) {
+          shared = true;
+          break;
+        }
+      }
+      if (shared) {
+        // all items share this byte, move on to the next one
+        shift -= 8;
+        continue;
+      }
+      // next[b] is the first item of bucket b not yet known to belong there
+      final int[] next = new int[256];
+      final int[] ends = new int[256];
+      int end = lo;
+      for (int b = 0; b < 256; ++b) {
+        next[b] = end;
+        end += counts[b];
+        ends[b] = end;
+      }
+      for (int b = 0; b < 256; ++b) {
+        while (next[b] < ends[b]) {
+          final int i = next[b];
+          final int dst = bucket(s.getPrefix(i), shift);
+          if (dst == b) {
+            ++next[b];
+          } else {
+            // move the item to its bucket and look at the one it displaced
+            s.swap(i, next[dst]++);
+          }
+        }
+      }
+      int start = lo;
+      for (int b = 0; b < 256; ++b) {
+        if (ends[b] - start > 1) {
+          radixSort(s, order, start, ends[b], shift - 8, rep);
+        }
+        start = ends[b];
+      }
+      return;
+    }
+  }
+
+  /**
+   * Compares the items of the sortable by prefix, then by the sortable, to
+   * finish the ranges the radix sort leaves.
+   */
+  private static final class PrefixOrder implements IndexedSortable {
+    final IndexedPrefixSortable s;
+
+    PrefixOrder(IndexedPrefixSortable s) {
+      this.s = s;
+    }
+
+    @Override
+    public int compare(int i, int j) {
+      final long pi = s.getPrefix(i) ^ Long.MIN_VALUE;
+      final long pj = s.getPrefix(j) ^ Long.MIN_VALUE;
+      if (pi != pj) {
+        return pi < pj ? -1 : 1;
+      }
+      return s.compare(i, j);
+    }
+
+    @Override
+    public void swap(int i, int j) {
+      s.swap(i, j);
+    }
+  }
+}
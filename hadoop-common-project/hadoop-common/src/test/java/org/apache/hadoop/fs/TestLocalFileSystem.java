@@ -19,6 +19,7 @@
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem.Statistics;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.StringUtils;
@@ -27,7 +28,9 @@
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.*;
@@ -521,6 +524,58 @@ public void testRenameMoveToExistingNonEmptyDirectory() throws IOException {
     assertFalse(fileSys.exists(src));
   }
   
+  /**
+   * Vectored reads on a stream without native support fall back to
+   * positional reads, and must not move the stream.
+   */
+  @Test
+  public void testVectoredRead() throws IOException {
+    byte[] buf = new byte[10*1024];
+    new Random().nextBytes(buf);
+    FSDataOutputStream stream = fileSys.create(TEST_PATH);
+    try {
+      stream.write(buf);
+    } finally {
+      stream.close();
+    }
+
+    // Unsorted, overlapping and empty ranges
+    List<FileRange> ranges = Arrays.asList(new FileRange(8000, 2000),
+        new FileRange(0, 100), new FileRange(50, 4000),
+        new FileRange(9000, 0));
+    ElasticByteBufferPool pool = new ElasticByteBufferPool();
+    FSDataInputStream stm = fileSys.open(TEST_PATH);
+    try {
+      stm.seek(10);
+      stm.readVectored(ranges, pool);
+      assertEquals(10, stm.getPos());
+      for (FileRange range : ranges) {
+        ByteBuffer data = range.getData();
+        assertEquals(range.getLength(), data.remaining());
+        byte[] actual = new byte[data.remaining()];
+        data.get(actual);
+        byte[] expected = Arrays.copyOfRange(buf, (int) range.getOffset(),
+            (int) range.getOffset() + range.getLength());
+        assertArrayEquals("Wrong data for " + range, expected, actual);
+        pool.putBuffer(data);
+      }
+
+      List<FileRange> beyondEof = Arrays.asList(new FileRange(0, 10),
+          new FileRange(buf.length - 10, 20));
+      try {
+        stm.readVectored(beyondEof, pool);
+        fail("Expected EOFException");
+      } catch (EOFException e) {
+        // expected
+      }
+      for (FileRange range : beyondEof) {
+        assertNull(range.getData());
+      }
+    } finally {
+      stm.close();
+    }
+  }
+
   private void verifyRead(FSDataInputStream stm, byte[] fileContents,
        int seekOff, int toRead) throws IOException {
     byte[] out = new byte[toRead];
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+public class TestCallQueueManager {
+
+  private static class FakeCall implements Schedulable {
+    private final UserGroupInformation ugi;
+
+    FakeCall(String user) {
+      this.ugi = UserGroupInformation.createRemoteUser(user);
+    }
+
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return ugi;
+    }
+  }
+
+  @Test
+  public void testDefaultQueueClass() throws Exception {
+    Configuration conf = new Configuration();
+    CallQueueManager<FakeCall> manager = new CallQueueManager<FakeCall>(
+        CallQueueManager.<FakeCall>getQueueClass("ipc.8020", conf), 10,
+        "ipc.8020", conf);
+    assertEquals(LinkedBlockingQueue.class, manager.getQueue().getClass());
+
+    FakeCall call = new FakeCall("alice");
+    manager.put(call);
+    assertEquals(1, manager.size());
+    assertSame(call, manager.take());
+    assertEquals(0, manager.size());
+  }
+
+  @Test
+  public void testPerPortQueueClass() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("ipc.8020." + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY,
+        FairCallQueue.class.getName());
+
+    CallQueueManager<FakeCall> fair = new CallQueueManager<FakeCall>(
+        CallQueueManager.<FakeCall>getQueueClass("ipc.8020", conf), 100,
+        "ipc.8020", conf);
+    assertEquals(FairCallQueue.class, fair.getQueue().getClass());
+
+    // Other ports keep the default queue
+    CallQueueManager<FakeCall> other = new CallQueueManager<FakeCall>(
+        CallQueueManager.<FakeCall>getQueueClass("ipc.8021", conf), 100,
+        "ipc.8021", conf);
+    assertEquals(LinkedBlockingQueue.class, other.getQueue().getClass());
+
+    FakeCall call = new FakeCall("bob");
+    fair.put(call);
+    assertSame(call, fair.take());
+  }
+}
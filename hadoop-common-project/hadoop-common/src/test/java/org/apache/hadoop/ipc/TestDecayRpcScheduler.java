@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+public class TestDecayRpcScheduler {
+
+  private static Schedulable mockCall(String user) {
+    final UserGroupInformation ugi =
+        UserGroupInformation.createRemoteUser(user);
+    return new Schedulable() {
+      @Override
+      public UserGroupInformation getUserGroupInformation() {
+        return ugi;
+      }
+    };
+  }
+
+  private static Configuration newConf() {
+    Configuration conf = new Configuration();
+    // Keep the timer out of the way; the tests decay explicitly
+    conf.setLong("ns." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY,
+        Long.MAX_VALUE / 2);
+    return conf;
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidDecayFactor() {
+    Configuration conf = newConf();
+    conf.set("ns." + DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY,
+        "1.5");
+    new DecayRpcScheduler(4, "ns", conf);
+  }
+
+  @Test
+  public void testHeavyUserIsDemoted() {
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(4, "ns", newConf());
+    try {
+      // A single user owns all of the traffic so far
+      assertEquals(3, scheduler.getPriorityLevel(mockCall("heavy")));
+      for (int i = 0; i < 99; i++) {
+        scheduler.getPriorityLevel(mockCall("heavy"));
+      }
+      // A light user has a tiny share and keeps the highest priority
+      assertEquals(0, scheduler.getPriorityLevel(mockCall("light")));
+      assertEquals(3, scheduler.getPriorityLevel(mockCall("heavy")));
+      assertEquals(101, scheduler.getCallCount("heavy"));
+      assertEquals(102, scheduler.getTotalCallCount());
+    } finally {
+      scheduler.stop();
+    }
+  }
+
+  @Test
+  public void testDecay() {
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(2, "ns", newConf());
+    try {
+      for (int i = 0; i < 8; i++) {
+        scheduler.getPriorityLevel(mockCall("a"));
+      }
+      scheduler.getPriorityLevel(mockCall("b"));
+      scheduler.decayCurrentCounts();
+      assertEquals(4, scheduler.getCallCount("a"));
+      assertEquals(0, scheduler.getCallCount("b"));
+      assertEquals(4, scheduler.getTotalCallCount());
+      scheduler.decayCurrentCounts();
+      scheduler.decayCurrentCounts();
+      scheduler.decayCurrentCounts();
+      assertEquals(0, scheduler.getTotalCallCount());
+    } finally {
+      scheduler.stop();
+    }
+  }
+}
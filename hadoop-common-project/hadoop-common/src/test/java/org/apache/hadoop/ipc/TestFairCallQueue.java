@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+public class TestFairCallQueue {
+
+  /** A call whose priority level is fixed by the test. */
+  private static class LevelCall implements Schedulable {
+    final int level;
+
+    LevelCall(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return null;
+    }
+  }
+
+  private static final RpcScheduler FIXED_SCHEDULER = new RpcScheduler() {
+    @Override
+    public int getPriorityLevel(Schedulable obj) {
+      return ((LevelCall) obj).level;
+    }
+
+    @Override
+    public void stop() {
+    }
+  };
+
+  /** Always serves queue 0 first, so the queue falls back in order. */
+  private static final RpcMultiplexer FIRST_MUX = new RpcMultiplexer() {
+    @Override
+    public int getAndAdvanceCurrentIndex() {
+      return 0;
+    }
+  };
+
+  @Test
+  public void testPrioritizesHigherLevels() throws Exception {
+    FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(10, 2, FIXED_SCHEDULER, FIRST_MUX);
+    LevelCall low = new LevelCall(1);
+    LevelCall high = new LevelCall(0);
+    fcq.put(low);
+    fcq.put(high);
+    assertEquals(2, fcq.size());
+    assertEquals(1, fcq.size(0));
+    assertEquals(1, fcq.size(1));
+    assertSame(high, fcq.take());
+    assertSame(low, fcq.take());
+    assertNull(fcq.poll());
+  }
+
+  @Test
+  public void testOverflowsToLowerLevel() throws Exception {
+    // Capacity of 1 per level
+    FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(2, 2, FIXED_SCHEDULER, FIRST_MUX);
+    assertTrue(fcq.offer(new LevelCall(0)));
+    assertTrue(fcq.offer(new LevelCall(0)));
+    assertEquals(1, fcq.size(1));
+    assertFalse(fcq.offer(new LevelCall(0)));
+    assertEquals(0, fcq.remainingCapacity());
+    assertFalse(fcq.offer(new LevelCall(1), 10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testWeightedRoundRobin() throws Exception {
+    RpcMultiplexer mux =
+        new WeightedRoundRobinMultiplexer(2, "ns", new Configuration());
+    FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(100, 2, FIXED_SCHEDULER, mux);
+    for (int i = 0; i < 10; i++) {
+      fcq.put(new LevelCall(0));
+      fcq.put(new LevelCall(1));
+    }
+    // Default weights are 2:1, so the low level is still served
+    List<Integer> levels = new ArrayList<Integer>();
+    for (int i = 0; i < 6; i++) {
+      levels.add(fcq.take().level);
+    }
+    assertEquals(Arrays.asList(0, 0, 1, 0, 0, 1), levels);
+    assertEquals(14, fcq.size());
+  }
+
+  @Test
+  public void testFallsBackInPriorityOrder() throws Exception {
+    RpcMultiplexer middleMux = new RpcMultiplexer() {
+      @Override
+      public int getAndAdvanceCurrentIndex() {
+        return 1;
+      }
+    };
+    FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(30, 3, FIXED_SCHEDULER, middleMux);
+    fcq.put(new LevelCall(2));
+    fcq.put(new LevelCall(0));
+    fcq.put(new LevelCall(1));
+    assertEquals(1, fcq.take().level);
+    // level 1 is empty, so the highest priority level is served next
+    assertEquals(0, fcq.take().level);
+    assertEquals(2, fcq.take().level);
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(30, 3, FIXED_SCHEDULER, FIRST_MUX);
+    LevelCall low = new LevelCall(2);
+    LevelCall high = new LevelCall(0);
+    LevelCall other = new LevelCall(0);
+    fcq.put(low);
+    fcq.put(high);
+    assertTrue(fcq.contains(low));
+    assertTrue(fcq.contains(high));
+    assertFalse(fcq.contains(other));
+    assertEquals(2, fcq.toArray().length);
+    assertSame(high, fcq.iterator().next());
+
+    assertTrue(fcq.remove(high));
+    assertFalse(fcq.remove(high));
+    assertEquals(1, fcq.size());
+    // the removed call does not leave a permit behind
+    assertSame(low, fcq.poll());
+    assertNull(fcq.poll());
+    assertFalse(fcq.iterator().hasNext());
+  }
+
+  @Test
+  public void testCloseStopsScheduler() throws Exception {
+    final AtomicInteger stops = new AtomicInteger();
+    RpcScheduler scheduler = new RpcScheduler() {
+      @Override
+      public int getPriorityLevel(Schedulable obj) {
+        return 0;
+      }
+
+      @Override
+      public void stop() {
+        stops.incrementAndGet();
+      }
+    };
+    FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(10, 2, scheduler, FIRST_MUX);
+    fcq.close();
+    assertEquals(1, stops.get());
+  }
+
+  @Test(timeout=10000)
+  public void testTakeBlocksUntilPut() throws Exception {
+    final FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(10, 2, FIXED_SCHEDULER, FIRST_MUX);
+    assertNull(fcq.poll(10, TimeUnit.MILLISECONDS));
+    final LevelCall call = new LevelCall(1);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+          fcq.put(call);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    producer.start();
+    assertSame(call, fcq.take());
+    producer.join();
+  }
+
+  @Test(timeout=60000)
+  public void testConcurrentProducersAndConsumers() throws Exception {
+    final RpcMultiplexer mux =
+        new WeightedRoundRobinMultiplexer(4, "ns", new Configuration());
+    final FairCallQueue<LevelCall> fcq =
+        new FairCallQueue<LevelCall>(40, 4, FIXED_SCHEDULER, mux);
+    final int threads = 4;
+    final int callsPerThread = 20000;
+    final AtomicInteger taken = new AtomicInteger();
+    List<Thread> workers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      workers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < callsPerThread; i++) {
+              fcq.put(new LevelCall((i + offset) % 4));
+            }
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      workers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            // every consumer is owed exactly as many calls as a producer
+            // puts, so a lost call makes the test time out
+            for (int i = 0; i < callsPerThread; i++) {
+              fcq.take();
+              taken.incrementAndGet();
+            }
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(threads * callsPerThread, taken.get());
+    assertEquals(0, fcq.size());
+    assertNull(fcq.poll());
+  }
+}
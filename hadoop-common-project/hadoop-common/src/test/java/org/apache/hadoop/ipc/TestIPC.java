@@ -47,6 +47,8 @@
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -227,6 +229,39 @@ public ConnectionId getConnectionId() {
     }
   }
   
+  @Test(timeout=60000)
+  public void testAsyncCalls() throws Exception {
+    Server server = new TestServer(2, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      ConnectionId remoteId = ConnectionId.getConnectionId(
+          addr, null, null, 0, conf);
+      // many calls in flight on one connection at the same time
+      List<LongWritable> params = new ArrayList<LongWritable>();
+      List<Future<Writable>> futures = new ArrayList<Future<Writable>>();
+      for (int i = 0; i < 100; i++) {
+        LongWritable param = new LongWritable(RANDOM.nextLong());
+        params.add(param);
+        futures.add(client.callAsync(RpcKind.RPC_BUILTIN, param, remoteId,
+            RPC.RPC_SERVICE_CLASS_DEFAULT));
+      }
+      assertEquals(1, client.getConnectionIds().size());
+      for (int i = 0; i < futures.size(); i++) {
+        Future<Writable> future = futures.get(i);
+        assertEquals(params.get(i), future.get(10, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(true));
+      }
+      // and the server saw them all on a single connection
+      assertEquals(1, server.getNumOpenConnections());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
   @Test(timeout=60000)
   public void testSerial() throws IOException, InterruptedException {
     internalTestSerial(3, false, 2, 5, 100);
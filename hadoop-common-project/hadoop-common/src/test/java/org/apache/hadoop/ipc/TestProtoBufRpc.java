@@ -20,14 +20,23 @@
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.apache.hadoop.test.MetricsAsserts.assertCounterGt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto.RpcErrorCodeProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto.RpcStatusProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoResponseProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EmptyRequestProto;
@@ -257,4 +266,130 @@ public void testExtraLongRpc() throws Exception {
       // expected
     }
   }
+
+  @Test
+  public void testSerializeWithLength() throws Exception {
+    RpcResponseHeaderProto header = RpcResponseHeaderProto.newBuilder()
+        .setCallId(7).setStatus(RpcStatusProto.SUCCESS).build();
+    EchoResponseProto response = EchoResponseProto.newBuilder()
+        .setMessage(StringUtils.repeat("X", 1000)).build();
+    ProtobufRpcEngine.RpcWrapper wrapper =
+        new ProtobufRpcEngine.RpcResponseWrapper(response);
+
+    // the same bytes as a length, the delimited header and the body
+    DataOutputBuffer expected = new DataOutputBuffer();
+    expected.writeInt(header.getSerializedSize() + 1 + wrapper.getLength());
+    header.writeDelimitedTo(expected);
+    wrapper.write(expected);
+    byte[] actual = ProtobufRpcEngine.serializeWithLength(header, wrapper);
+    Assert.assertArrayEquals(
+        Arrays.copyOf(expected.getData(), expected.getLength()), actual);
+  }
+
+  @Test (timeout=10000)
+  public void testConcurrentCallsOnOneConnection() throws Exception {
+    // Responses queued for the same connection are sent together
+    final TestRpcService client = getClient();
+    Thread[] threads = new Thread[10];
+    final AtomicReference<Throwable> failure =
+        new AtomicReference<Throwable>();
+    for (int i = 0; i < threads.length; i++) {
+      final String message = StringUtils.repeat("" + i, 100 * i);
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 100; j++) {
+              EchoRequestProto echoRequest = EchoRequestProto.newBuilder()
+                  .setMessage(message).build();
+              Assert.assertEquals(message,
+                  client.echo(null, echoRequest).getMessage());
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    Assert.assertNull(failure.get());
+  }
+
+  /**
+   * Records what is written to it, and how.
+   */
+  private static class CountingChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private int writes;
+    private int gatheringWrites;
+
+    @Override
+    public int write(ByteBuffer src) {
+      writes++;
+      return consume(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      gatheringWrites++;
+      long count = 0;
+      for (int i = offset; i < offset + length; i++) {
+        count += consume(srcs[i]);
+      }
+      return count;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    private int consume(ByteBuffer src) {
+      int count = src.remaining();
+      byte[] b = new byte[count];
+      src.get(b);
+      written.write(b, 0, count);
+      return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static Server.Call callWithResponse(int id, int length) {
+    Server.Call call = new Server.Call(id, 0, null, null);
+    byte[] response = new byte[length];
+    Arrays.fill(response, (byte) id);
+    call.setResponse(ByteBuffer.wrap(response));
+    return call;
+  }
+
+  @Test
+  public void testGatheringWrite() throws Exception {
+    // Queued responses are sent with the first one in a single write, up to
+    // the NIO buffer limit
+    Server.Call first = callWithResponse(1, 100);
+    LinkedList<Server.Call> queued = new LinkedList<Server.Call>();
+    queued.add(callWithResponse(2, 200));
+    queued.add(callWithResponse(3, 8000));
+    CountingChannel channel = new CountingChannel();
+
+    Assert.assertEquals(300,
+        server.channelWriteGathering(channel, first, queued));
+    Assert.assertEquals(1, channel.gatheringWrites);
+    Assert.assertEquals(0, channel.writes);
+    byte[] expected = new byte[300];
+    Arrays.fill(expected, 0, 100, (byte) 1);
+    Arrays.fill(expected, 100, 300, (byte) 2);
+    Assert.assertArrayEquals(expected, channel.written.toByteArray());
+  }
 }
@@ -158,6 +158,33 @@ public void testQuickSort() throws Exception {
     assertTrue(Arrays.equals(values, check));
   }
 
+  public void testPrefixRadixSort() throws Exception {
+    PrefixRadixSort sorter = new PrefixRadixSort();
+    sortRandom(sorter);
+    sortSingleRecord(sorter);
+    sortSequential(sorter);
+    sortSorted(sorter);
+    sortAllEqual(sorter);
+    sortWritable(sorter);
+
+    // prefixes decide most comparisons; only ties reach the sortable
+    final int SAMPLE = 256 * 1024;
+    SampleSortable s = new SampleSortable(SAMPLE);
+    int[] values = s.getValues();
+    MeasuredSortable q = new MeasuredSortable(new SampleSortable(values));
+    new QuickSort().sort(q, 0, SAMPLE);
+    Arrays.sort(values);
+    MeasuredSortable m = new MeasuredSortable(s);
+    sorter.sort(m, 0, SAMPLE);
+    System.out.println("PrefixRadixSort cmp/swp: " +
+        m.getCmp() + "/" + m.getSwp() + ", QuickSort cmp/swp: " +
+        q.getCmp() + "/" + q.getSwp());
+    assertTrue("seed: " + s.getSeed() + "\ndoesn't match\n",
+        Arrays.equals(values, s.getSorted()));
+    assertTrue("Expected fewer comparisons than QuickSort",
+        m.getCmp() < q.getCmp() / 2);
+  }
+
   public void testHeapSort() throws Exception {
     HeapSort sorter = new HeapSort();
     sortRandom(sorter);
@@ -170,7 +197,7 @@ public void testHeapSort() throws Exception {
 
   // Sortables //
 
-  private static class SampleSortable implements IndexedSortable {
+  private static class SampleSortable implements IndexedPrefixSortable {
     private int[] valindex;
     private int[] valindirect;
     private int[] values;
@@ -221,6 +248,12 @@ public void swap(int i, int j) {
       valindex[j] = tmp;
     }
 
+    @Override
+    public long getPrefix(int i) {
+      // coarse, so that equal prefixes fall back to compare
+      return ((long) (values[valindirect[valindex[i]]] / 4)) << 40;
+    }
+
     public int[] getSorted() {
       int[] ret = new int[values.length];
       for (int i = 0; i < ret.length; ++i) {
@@ -237,7 +270,7 @@ public int[] getValues() {
 
   }
 
-  public static class MeasuredSortable implements IndexedSortable {
+  public static class MeasuredSortable implements IndexedPrefixSortable {
 
     private int comparisions;
     private int swaps;
@@ -276,16 +309,21 @@ public void swap(int i, int j) {
       s.swap(i, j);
     }
 
+    @Override
+    public long getPrefix(int i) {
+      return ((IndexedPrefixSortable) s).getPrefix(i);
+    }
+
   }
 
-  private static class WritableSortable implements IndexedSortable {
+  private static class WritableSortable implements IndexedPrefixSortable {
 
     private static Random r = new Random();
     private final int eob;
     private final int[] indices;
     private final int[] offsets;
     private final byte[] bytes;
-    private final WritableComparator comparator;
+    private final Text.Comparator comparator;
     private final String[] check;
     private final long seed;
 
@@ -311,7 +349,7 @@ public WritableSortable(int j) throws IOException {
       }
       eob = dob.getLength();
       bytes = dob.getData();
-      comparator = WritableComparator.get(Text.class);
+      comparator = (Text.Comparator) WritableComparator.get(Text.class);
     }
 
     public long getSeed() {
@@ -343,6 +381,13 @@ public void swap(int i, int j) {
       indices[j] = tmp;
     }
 
+    @Override
+    public long getPrefix(int i) {
+      final int ii = indices[i];
+      return comparator.getKeyPrefix(bytes, offsets[ii],
+        ((ii + 1 == indices.length) ? eob : offsets[ii + 1]) - offsets[ii]);
+    }
+
     public String[] getValues() {
       return check;
     }
@@ -91,6 +91,11 @@ class BlockReaderLocal implements BlockReader {
   private final ExtendedBlock block;
   
   private final FileInputStreamCache fisCache;
+  /**
+   * Set once a read has failed; the streams are then closed rather than
+   * handed back to fisCache, which is shared with other readers.
+   */
+  private boolean readFailed = false;
   private ClientMmap clientMmap;
   private boolean mmapDisabled;
   
@@ -216,6 +221,15 @@ private void writeSlice(ByteBuffer from, ByteBuffer to, int length) {
 
   @Override
   public synchronized int read(ByteBuffer buf) throws IOException {
+    try {
+      return readInternal(buf);
+    } catch (IOException e) {
+      readFailed = true;
+      throw e;
+    }
+  }
+
+  private synchronized int readInternal(ByteBuffer buf) throws IOException {
     int nRead = 0;
     if (verifyChecksum) {
       // A 'direct' read actually has three phases. The first drains any
@@ -406,6 +420,16 @@ private synchronized int fillSlowReadBuffer(int len) throws IOException {
 
   @Override
   public synchronized int read(byte[] buf, int off, int len) throws IOException {
+    try {
+      return readInternal(buf, off, len);
+    } catch (IOException e) {
+      readFailed = true;
+      throw e;
+    }
+  }
+
+  private synchronized int readInternal(byte[] buf, int off, int len)
+      throws IOException {
     if (LOG.isTraceEnabled()) {
       LOG.trace("read off " + off + " len " + len);
     }
@@ -499,7 +523,7 @@ public synchronized void close() throws IOException {
       clientMmap.unref();
       clientMmap = null;
     }
-    if (fisCache != null) {
+    if (fisCache != null && !readFailed) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("putting FileInputStream for " + filename +
             " back into FileInputStreamCache");
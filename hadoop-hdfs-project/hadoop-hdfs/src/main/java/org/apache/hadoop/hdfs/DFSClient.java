@@ -69,6 +69,7 @@
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -76,6 +77,13 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 import javax.net.SocketFactory;
 
@@ -154,6 +162,7 @@
 import org.apache.hadoop.ipc.Client;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.DNS;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
@@ -212,7 +221,26 @@ public class DFSClient implements java.io.Closeable {
   private final CachingStrategy defaultReadCachingStrategy;
   private final CachingStrategy defaultWriteCachingStrategy;
   private ClientMmapManager mmapManager;
+  private FileInputStreamCache fileInputStreamCache;
   
+  /**
+   * Thread pool shared by all the clients of this JVM for hedged reads.
+   * Created by the first client that enables hedged reads.
+   */
+  private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+  private static final DFSHedgedReadMetrics HEDGED_READ_METRIC =
+      new DFSHedgedReadMetrics();
+  /**
+   * Thread pool shared by all the clients of this JVM for reading the
+   * blocks of a vectored read in parallel.
+   */
+  private static ThreadPoolExecutor VECTORED_READ_THREAD_POOL;
+  /**
+   * Thread pool shared by all the clients of this JVM for fetching pages of
+   * recursive listings ahead of their consumers.
+   */
+  private static ThreadPoolExecutor LISTING_THREAD_POOL;
+
   private static final ClientMmapManagerFactory MMAP_MANAGER_FACTORY =
       new ClientMmapManagerFactory();
 
@@ -248,6 +276,49 @@ synchronized void unref(ClientMmapManager mmapManager) {
     }
   }
 
+  private static final FileInputStreamCacheFactory FIS_CACHE_FACTORY =
+      new FileInputStreamCacheFactory();
+
+  /**
+   * Hands out the FileInputStreamCache shared by all the clients of this
+   * JVM, so that file descriptors received for short-circuit reads are
+   * reused across DFSClient instances, e.g. those of different users.
+   */
+  private static final class FileInputStreamCacheFactory {
+    private FileInputStreamCache cache = null;
+    /**
+     * Tracks the number of users of cache.
+     */
+    private int refcnt = 0;
+
+    synchronized FileInputStreamCache get(Conf conf) {
+      if (refcnt++ == 0) {
+        cache = new FileInputStreamCache(conf.shortCircuitStreamsCacheSize,
+            conf.shortCircuitStreamsCacheExpiryMs);
+      } else if (cache.getMaxCacheSize() != conf.shortCircuitStreamsCacheSize
+          || cache.getExpiryTimeMs() !=
+              conf.shortCircuitStreamsCacheExpiryMs) {
+        LOG.warn("The FileInputStreamCache settings you specified (size " +
+            conf.shortCircuitStreamsCacheSize + ", expiry " +
+            conf.shortCircuitStreamsCacheExpiryMs + " ms) have been " +
+            "ignored because another client created the cache first with " +
+            "size " + cache.getMaxCacheSize() + ", expiry " +
+            cache.getExpiryTimeMs() + " ms.");
+      }
+      return cache;
+    }
+
+    synchronized void unref(FileInputStreamCache cache) {
+      if (this.cache != cache) {
+        throw new IllegalArgumentException();
+      }
+      if (--refcnt == 0) {
+        cache.close();
+        this.cache = null;
+      }
+    }
+  }
+
   /**
    * DFSClient configuration 
    */
@@ -261,6 +332,7 @@ public static class Conf {
     final int ioBufferSize;
     final ChecksumOpt defaultChecksumOpt;
     final int writePacketSize;
+    final int writeMaxPacketsInFlight;
     final int socketTimeout;
     final int socketCacheCapacity;
     final long socketCacheExpiry;
@@ -289,6 +361,15 @@ public static class Conf {
     final boolean domainSocketDataTraffic;
     final int shortCircuitStreamsCacheSize;
     final long shortCircuitStreamsCacheExpiryMs; 
+    final int hedgedReadThreadpoolSize;
+    final long hedgedReadThresholdMillis;
+    final int vectoredReadMergeGap;
+    final int vectoredReadMaxMergedSize;
+    final int vectoredReadThreadpoolSize;
+    final int metadataCacheSize;
+    final long metadataCacheExpiryMs;
+    final int batchedFileInfoSize;
+    final int listingPrefetchThreadpoolSize;
 
     public Conf(Configuration conf) {
       // The hdfsTimeout is currently the same as the ipc timeout 
@@ -318,6 +399,9 @@ public Conf(Configuration conf) {
       /** dfs.write.packet.size is an internal config variable */
       writePacketSize = conf.getInt(DFS_CLIENT_WRITE_PACKET_SIZE_KEY,
           DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT);
+      writeMaxPacketsInFlight = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_IN_FLIGHT_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_IN_FLIGHT_DEFAULT);
       defaultBlockSize = conf.getLongBytes(DFS_BLOCK_SIZE_KEY,
           DFS_BLOCK_SIZE_DEFAULT);
       defaultReplication = (short) conf.getInt(
@@ -396,6 +480,34 @@ public Conf(Configuration conf) {
       shortCircuitStreamsCacheExpiryMs = conf.getLong(
           DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY,
           DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_DEFAULT);
+      hedgedReadThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_DEFAULT);
+      hedgedReadThresholdMillis = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_DEFAULT);
+      vectoredReadMergeGap = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MERGE_GAP_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MERGE_GAP_DEFAULT);
+      vectoredReadMaxMergedSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_DEFAULT);
+      vectoredReadThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_DEFAULT);
+      metadataCacheSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_SIZE_DEFAULT);
+      metadataCacheExpiryMs = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_EXPIRY_MS_KEY,
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_EXPIRY_MS_DEFAULT);
+      int listLimit = conf.getInt(DFSConfigKeys.DFS_LIST_LIMIT,
+          DFSConfigKeys.DFS_LIST_LIMIT_DEFAULT);
+      batchedFileInfoSize = listLimit > 0 ?
+          listLimit : DFSConfigKeys.DFS_LIST_LIMIT_DEFAULT;
+      listingPrefetchThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_DEFAULT);
     }
 
     private DataChecksum.Type getChecksumType(Configuration conf) {
@@ -457,6 +569,9 @@ Configuration getConfiguration() {
   private final Map<String, DFSOutputStream> filesBeingWritten
       = new HashMap<String, DFSOutputStream>();
 
+  /** Cache of file status and block locations; null if disabled. */
+  private final DFSMetadataCache metadataCache;
+
   private final DomainSocketFactory domainSocketFactory;
   
   /**
@@ -576,6 +691,152 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     this.defaultWriteCachingStrategy =
         new CachingStrategy(writeDropBehind, readahead);
     this.mmapManager = MMAP_MANAGER_FACTORY.get(conf);
+    this.fileInputStreamCache = FIS_CACHE_FACTORY.get(dfsClientConf);
+    if (dfsClientConf.hedgedReadThreadpoolSize > 0) {
+      initThreadsNumForHedgedReads(dfsClientConf.hedgedReadThreadpoolSize);
+    }
+    if (dfsClientConf.vectoredReadThreadpoolSize > 0) {
+      initThreadsNumForVectoredReads(
+          dfsClientConf.vectoredReadThreadpoolSize);
+    }
+    if (dfsClientConf.listingPrefetchThreadpoolSize > 0) {
+      initThreadsNumForListingPrefetch(
+          dfsClientConf.listingPrefetchThreadpoolSize);
+    }
+    if (dfsClientConf.metadataCacheSize > 0) {
+      this.metadataCache = new DFSMetadataCache(
+          dfsClientConf.metadataCacheSize,
+          dfsClientConf.metadataCacheExpiryMs);
+    } else {
+      this.metadataCache = null;
+    }
+  }
+
+  /**
+   * Create a pool of daemon threads that grows up to the given size and
+   * lets idle threads expire.
+   */
+  private static ThreadPoolExecutor newDaemonThreadPool(
+      final String namePrefix, int maxThreads,
+      RejectedExecutionHandler rejectedExecutionHandler) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, maxThreads, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, namePrefix +
+                threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          }
+        },
+        rejectedExecutionHandler);
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Create the hedged read thread pool if no client has done so yet. When
+   * every thread is busy a hedged read is run in the reading thread itself,
+   * which then degrades to an ordinary sequential read.
+   */
+  private static synchronized void initThreadsNumForHedgedReads(int num) {
+    if (HEDGED_READ_THREAD_POOL != null) {
+      return;
+    }
+    HEDGED_READ_THREAD_POOL = newDaemonThreadPool("hedgedRead-", num,
+        new ThreadPoolExecutor.CallerRunsPolicy() {
+          @Override
+          public void rejectedExecution(Runnable runnable,
+              ThreadPoolExecutor e) {
+            LOG.info("Execution rejected, executing in current thread");
+            HEDGED_READ_METRIC.incHedgedReadOpsInCurThread();
+            super.rejectedExecution(runnable, e);
+          }
+        });
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using hedged reads; pool threads=" + num);
+    }
+  }
+
+  /**
+   * Create the vectored read thread pool if no client has done so yet. When
+   * every thread is busy a block is read by the calling thread itself.
+   */
+  private static synchronized void initThreadsNumForVectoredReads(int num) {
+    if (VECTORED_READ_THREAD_POOL != null) {
+      return;
+    }
+    VECTORED_READ_THREAD_POOL = newDaemonThreadPool("vectoredRead-", num,
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using parallel vectored reads; pool threads=" + num);
+    }
+  }
+
+  /**
+   * @return the pool to read the blocks of a vectored read with, or null if
+   *         this client reads them one after the other.
+   */
+  ThreadPoolExecutor getVectoredReadThreadPool() {
+    if (dfsClientConf.vectoredReadThreadpoolSize <= 0) {
+      return null;
+    }
+    synchronized (DFSClient.class) {
+      return VECTORED_READ_THREAD_POOL;
+    }
+  }
+
+  /**
+   * Create the listing prefetch thread pool if no client has done so yet.
+   */
+  private static synchronized void initThreadsNumForListingPrefetch(int num) {
+    if (LISTING_THREAD_POOL != null) {
+      return;
+    }
+    LISTING_THREAD_POOL = newDaemonThreadPool("listingPrefetch-", num,
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using listing prefetch; pool threads=" + num);
+    }
+  }
+
+  /**
+   * @return the pool to fetch pages of recursive listings ahead with, or
+   *         null if this client fetches them only when they are needed.
+   */
+  ThreadPoolExecutor getListingThreadPool() {
+    if (dfsClientConf.listingPrefetchThreadpoolSize <= 0) {
+      return null;
+    }
+    synchronized (DFSClient.class) {
+      return LISTING_THREAD_POOL;
+    }
+  }
+
+  /**
+   * @return true if positional reads of this client are hedged.
+   */
+  boolean isHedgedReadsEnabled() {
+    return dfsClientConf.hedgedReadThreadpoolSize > 0 &&
+        getHedgedReadsThreadPool() != null;
+  }
+
+  static synchronized ThreadPoolExecutor getHedgedReadsThreadPool() {
+    return HEDGED_READ_THREAD_POOL;
+  }
+
+  long getHedgedReadTimeout() {
+    return dfsClientConf.hedgedReadThresholdMillis;
+  }
+
+  /**
+   * @return the hedged read counters, shared by all the clients of this JVM.
+   */
+  public DFSHedgedReadMetrics getHedgedReadMetrics() {
+    return HEDGED_READ_METRIC;
   }
   
   /**
@@ -682,12 +943,14 @@ public LeaseRenewer getLeaseRenewer() throws IOException {
   /** Get a lease and start automatic renewal */
   private void beginFileLease(final String src, final DFSOutputStream out) 
       throws IOException {
+    invalidateCachedMetadata(src);
     getLeaseRenewer().put(src, out, this);
   }
 
   /** Stop renewal of lease for the file. */
   void endFileLease(final String src) throws IOException {
     getLeaseRenewer().closeFile(src, this);
+    invalidateCachedMetadata(src);
   }
     
 
@@ -723,6 +986,13 @@ boolean isFilesBeingWrittenEmpty() {
       return filesBeingWritten.isEmpty();
     }
   }
+
+  /** Is the file being written by this client? */
+  boolean isFileBeingWritten(String src) {
+    synchronized(filesBeingWritten) {
+      return filesBeingWritten.containsKey(src);
+    }
+  }
   
   /** @return true if the client is running */
   boolean isClientRunning() {
@@ -784,6 +1054,10 @@ void abort() {
       MMAP_MANAGER_FACTORY.unref(mmapManager);
       mmapManager = null;
     }
+    if (fileInputStreamCache != null) {
+      FIS_CACHE_FACTORY.unref(fileInputStreamCache);
+      fileInputStreamCache = null;
+    }
     clientRunning = false;
     closeAllFilesBeingWritten(true);
     try {
@@ -833,6 +1107,10 @@ public synchronized void close() throws IOException {
       MMAP_MANAGER_FACTORY.unref(mmapManager);
       mmapManager = null;
     }
+    if (fileInputStreamCache != null) {
+      FIS_CACHE_FACTORY.unref(fileInputStreamCache);
+      fileInputStreamCache = null;
+    }
     if(clientRunning) {
       closeAllFilesBeingWritten(false);
       clientRunning = false;
@@ -1070,6 +1348,25 @@ public short getDefaultReplication() {
     return dfsClientConf.defaultReplication;
   }
   
+  /**
+   * @return the cache of NameNode metadata, or null if it is disabled
+   */
+  public DFSMetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Drop anything cached about the given paths, their descendants and
+   * their parents.
+   */
+  void invalidateCachedMetadata(String... srcs) {
+    if (metadataCache != null) {
+      for (String src : srcs) {
+        metadataCache.invalidate(src);
+      }
+    }
+  }
+
   public LocatedBlocks getLocatedBlocks(String src, long start)
       throws IOException {
     return getLocatedBlocks(src, start, dfsClientConf.prefetchSize);
@@ -1082,7 +1379,16 @@ public LocatedBlocks getLocatedBlocks(String src, long start)
   @VisibleForTesting
   public LocatedBlocks getLocatedBlocks(String src, long start, long length)
       throws IOException {
-    return callGetBlockLocations(namenode, src, start, length);
+    if (metadataCache == null || start != 0) {
+      return callGetBlockLocations(namenode, src, start, length);
+    }
+    LocatedBlocks blocks = metadataCache.getLocatedBlocks(src, start, length);
+    if (blocks == null) {
+      long generation = metadataCache.getGeneration();
+      blocks = callGetBlockLocations(namenode, src, start, length);
+      metadataCache.putLocatedBlocks(src, blocks, generation);
+    }
+    return blocks;
   }
 
   /**
@@ -1115,6 +1421,8 @@ boolean recoverLease(String src) throws IOException {
       throw re.unwrapRemoteException(FileNotFoundException.class,
                                      AccessControlException.class,
                                      UnresolvedPathException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
 
@@ -1485,6 +1793,8 @@ public void createSymlink(String target, String link, boolean createParent)
                                      DSQuotaExceededException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(link);
     }
   }
 
@@ -1571,6 +1881,8 @@ public boolean setReplication(String src, short replication)
                                      DSQuotaExceededException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
 
@@ -1590,6 +1902,8 @@ public boolean rename(String src, String dst) throws IOException {
                                      DSQuotaExceededException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src, dst);
     }
   }
 
@@ -1605,6 +1919,9 @@ public void concat(String trg, String [] srcs) throws IOException {
       throw re.unwrapRemoteException(AccessControlException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(trg);
+      invalidateCachedMetadata(srcs);
     }
   }
   /**
@@ -1626,6 +1943,8 @@ public void rename(String src, String dst, Options.Rename... options)
                                      NSQuotaExceededException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src, dst);
     }
   }
   /**
@@ -1635,7 +1954,11 @@ public void rename(String src, String dst, Options.Rename... options)
   @Deprecated
   public boolean delete(String src) throws IOException {
     checkOpen();
-    return namenode.delete(src, true);
+    try {
+      return namenode.delete(src, true);
+    } finally {
+      invalidateCachedMetadata(src);
+    }
   }
 
   /**
@@ -1655,6 +1978,8 @@ public boolean delete(String src, boolean recursive) throws IOException {
                                      SafeModeException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
   
@@ -1707,7 +2032,18 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
   public HdfsFileStatus getFileInfo(String src) throws IOException {
     checkOpen();
     try {
-      return namenode.getFileInfo(src);
+      if (metadataCache == null) {
+        return namenode.getFileInfo(src);
+      }
+      HdfsFileStatus status = metadataCache.getFileInfo(src);
+      if (status == null) {
+        long generation = metadataCache.getGeneration();
+        status = namenode.getFileInfo(src);
+        if (!isFileBeingWritten(src)) {
+          metadataCache.putFileInfo(src, status, generation);
+        }
+      }
+      return status;
     } catch(RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
                                      FileNotFoundException.class,
@@ -1715,6 +2051,65 @@ public HdfsFileStatus getFileInfo(String src) throws IOException {
     }
   }
   
+  /**
+   * Get the file info for several files or directories. The paths are sent
+   * to the NameNode in batches of at most dfs.ls.limit; a NameNode that does
+   * not support batched calls is asked for one path at a time.
+   * @param srcs The string representations of the paths
+   * @param needLocation if block locations of files should be returned
+   * @return the status of each path, in the order of srcs; an element is
+   *         null if its path is not found
+   *
+   * @see ClientProtocol#getBatchedFileInfo(String[], boolean)
+   */
+  public HdfsFileStatus[] getBatchedFileInfo(String[] srcs,
+      boolean needLocation) throws IOException {
+    checkOpen();
+    HdfsFileStatus[] result = new HdfsFileStatus[srcs.length];
+    int batchSize = dfsClientConf.batchedFileInfoSize;
+    try {
+      for (int off = 0; off < srcs.length; off += batchSize) {
+        String[] batch = Arrays.copyOfRange(srcs, off,
+            Math.min(srcs.length, off + batchSize));
+        HdfsFileStatus[] stats;
+        try {
+          stats = namenode.getBatchedFileInfo(batch, needLocation);
+        } catch (RemoteException re) {
+          if (!RpcNoSuchMethodException.class.getName().equals(
+              re.getClassName())) {
+            throw re;
+          }
+          stats = new HdfsFileStatus[batch.length];
+          for (int i = 0; i < batch.length; i++) {
+            stats[i] = needLocation ? getLocatedFileInfo(batch[i]) :
+                namenode.getFileInfo(batch[i]);
+          }
+        }
+        System.arraycopy(stats, 0, result, off, stats.length);
+      }
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     FileNotFoundException.class,
+                                     UnresolvedPathException.class);
+    }
+    return result;
+  }
+
+  /**
+   * Get the located status of a single path from a NameNode without batched
+   * calls, through a listing of the path.
+   */
+  private HdfsFileStatus getLocatedFileInfo(String src) throws IOException {
+    HdfsFileStatus status = namenode.getFileInfo(src);
+    if (status == null || status.isDir()) {
+      return status;
+    }
+    DirectoryListing listing = namenode.getListing(src,
+        HdfsFileStatus.EMPTY_NAME, true);
+    return listing == null || listing.getPartialListing().length == 0 ?
+        null : listing.getPartialListing()[0];
+  }
+
   /**
    * Close status of a file
    * @return true if file is already closed
@@ -2080,6 +2475,8 @@ public void setPermission(String src, FsPermission permission)
                                      SafeModeException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
 
@@ -2102,6 +2499,8 @@ public void setOwner(String src, String username, String groupname)
                                      SafeModeException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);                                   
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
 
@@ -2210,6 +2609,8 @@ public void deleteSnapshot(String snapshotRoot, String snapshotName)
       namenode.deleteSnapshot(snapshotRoot, snapshotName);
     } catch(RemoteException re) {
       throw re.unwrapRemoteException();
+    } finally {
+      invalidateCachedMetadata(snapshotRoot);
     }
   }
   
@@ -2228,6 +2629,8 @@ public void renameSnapshot(String snapshotDir, String snapshotOldName,
       namenode.renameSnapshot(snapshotDir, snapshotOldName, snapshotNewName);
     } catch(RemoteException re) {
       throw re.unwrapRemoteException();
+    } finally {
+      invalidateCachedMetadata(snapshotDir);
     }
   }
   
@@ -2515,6 +2918,8 @@ public boolean primitiveMkdir(String src, FsPermission absPermission,
                                      DSQuotaExceededException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
   
@@ -2576,6 +2981,8 @@ public void setTimes(String src, long mtime, long atime) throws IOException {
                                      FileNotFoundException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
 
@@ -2636,4 +3043,12 @@ public CachingStrategy getDefaultWriteCachingStrategy() {
   public ClientMmapManager getMmapManager() {
     return mmapManager;
   }
+
+  /**
+   * @return the cache of short-circuit file descriptors shared by all the
+   *         clients of this JVM
+   */
+  FileInputStreamCache getFileInputStreamCache() {
+    return fileInputStreamCache;
+  }
 }
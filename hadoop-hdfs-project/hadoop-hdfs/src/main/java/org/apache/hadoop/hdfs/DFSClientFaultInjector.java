@@ -46,4 +46,8 @@ public boolean uncorruptPacket() {
   public boolean failPacket() {
     return false;
   }
+
+  public void startFetchFromDatanode() {}
+
+  public void delayAck() {}
 }
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Counters for the hedged reads done by the DFSClients of this JVM.
+ */
+@InterfaceAudience.Private
+public class DFSHedgedReadMetrics {
+  /** Number of hedged reads started. */
+  final AtomicLong hedgedReadOps = new AtomicLong();
+  /** Number of hedged reads that returned before the original read. */
+  final AtomicLong hedgedReadOpsWin = new AtomicLong();
+  /**
+   * Number of hedged reads run in the reading thread because the thread
+   * pool was exhausted.
+   */
+  final AtomicLong hedgedReadOpsInCurThread = new AtomicLong();
+
+  public void incHedgedReadOps() {
+    hedgedReadOps.incrementAndGet();
+  }
+
+  public void incHedgedReadOpsWin() {
+    hedgedReadOpsWin.incrementAndGet();
+  }
+
+  public void incHedgedReadOpsInCurThread() {
+    hedgedReadOpsInCurThread.incrementAndGet();
+  }
+
+  public long getHedgedReadOps() {
+    return hedgedReadOps.get();
+  }
+
+  public long getHedgedReadWins() {
+    return hedgedReadOpsWin.get();
+  }
+
+  public long getHedgedReadOpsInCurThread() {
+    return hedgedReadOpsInCurThread.get();
+  }
+}
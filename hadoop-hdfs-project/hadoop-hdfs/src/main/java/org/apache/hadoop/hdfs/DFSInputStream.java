@@ -19,11 +19,13 @@
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,7 +34,15 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -42,9 +52,11 @@
 import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
 import org.apache.hadoop.hdfs.client.ClientMmap;
 import org.apache.hadoop.hdfs.net.DomainPeer;
 import org.apache.hadoop.hdfs.net.Peer;
@@ -69,6 +81,7 @@
 import org.apache.hadoop.util.IdentityHashStore;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /****************************************************************
  * DFSInputStream provides bytes from a named file.  It handles 
@@ -222,9 +235,7 @@ void addToDeadNodes(DatanodeInfo dnInfo) {
     this.buffersize = buffersize;
     this.src = src;
     this.peerCache = dfsClient.peerCache;
-    this.fileInputStreamCache = new FileInputStreamCache(
-        dfsClient.getConf().shortCircuitStreamsCacheSize,
-        dfsClient.getConf().shortCircuitStreamsCacheExpiryMs);
+    this.fileInputStreamCache = dfsClient.getFileInputStreamCache();
     this.cachingStrategy =
         dfsClient.getDefaultReadCachingStrategy().duplicate();
     openInfo();
@@ -447,7 +458,8 @@ private synchronized void fetchBlockAt(long offset) throws IOException {
     if (targetBlockIdx < 0) { // block is not cached
       targetBlockIdx = LocatedBlocks.getInsertIndex(targetBlockIdx);
     }
-    // fetch blocks
+    // fetch blocks, bypassing any cached locations that led us here
+    dfsClient.invalidateCachedMetadata(src);
     final LocatedBlocks newBlocks = dfsClient.getLocatedBlocks(src, offset);
     if (newBlocks == null) {
       throw new IOException("Could not find target position " + offset);
@@ -646,7 +658,6 @@ public void accept(ByteBuffer k, Object v) {
       blockReader = null;
     }
     super.close();
-    fileInputStreamCache.close();
     closed = true;
   }
 
@@ -861,15 +872,18 @@ public synchronized int read(final ByteBuffer buf) throws IOException {
    */
   private void addIntoCorruptedBlockMap(ExtendedBlock blk, DatanodeInfo node, 
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap) {
-    Set<DatanodeInfo> dnSet = null;
-    if((corruptedBlockMap.containsKey(blk))) {
-      dnSet = corruptedBlockMap.get(blk);
-    }else {
-      dnSet = new HashSet<DatanodeInfo>();
-    }
-    if (!dnSet.contains(node)) {
-      dnSet.add(node);
-      corruptedBlockMap.put(blk, dnSet);
+    // Hedged reads may report corruption from several threads at once
+    synchronized (corruptedBlockMap) {
+      Set<DatanodeInfo> dnSet = null;
+      if((corruptedBlockMap.containsKey(blk))) {
+        dnSet = corruptedBlockMap.get(blk);
+      }else {
+        dnSet = new HashSet<DatanodeInfo>();
+      }
+      if (!dnSet.contains(node)) {
+        dnSet.add(node);
+        corruptedBlockMap.put(blk, dnSet);
+      }
     }
   }
       
@@ -917,6 +931,7 @@ private DNAddrPair chooseDataNode(LocatedBlock block)
         } catch (InterruptedException iex) {
         }
         deadNodes.clear(); //2nd option is to remove only nodes[blockId]
+        dfsClient.invalidateCachedMetadata(src);
         openInfo();
         block = getBlockAt(block.getStartOffset(), false);
         failures++;
@@ -925,24 +940,66 @@ private DNAddrPair chooseDataNode(LocatedBlock block)
     }
   } 
       
+  /**
+   * Pick the best replica of the block that is neither dead nor in
+   * <i>ignored</i>, without going back to the NameNode.
+   * @return the node, or null if there is none
+   */
+  private DNAddrPair getBestNodeDNAddrPair(LocatedBlock block,
+      Collection<DatanodeInfo> ignored) {
+    DatanodeInfo[] nodes = block.getLocations();
+    if (nodes == null) {
+      return null;
+    }
+    for (DatanodeInfo node : nodes) {
+      if (!deadNodes.containsKey(node) && !ignored.contains(node)) {
+        final String dnAddr =
+            node.getXferAddr(dfsClient.getConf().connectToDnViaHostname);
+        return new DNAddrPair(node, NetUtils.createSocketAddr(dnAddr));
+      }
+    }
+    return null;
+  }
+
   private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       byte[] buf, int offset,
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
       throws IOException {
-    //
-    // Connect to best DataNode for desired Block, with potential offset
-    //
-    int refetchToken = 1; // only need to get a new access token once
-    int refetchEncryptionKey = 1; // only need to get a new encryption key once
-    
     while (true) {
       // cached block locations may have been updated by chooseDataNode()
       // or fetchBlockAt(). Always get the latest list of locations at the 
       // start of the loop.
       block = getBlockAt(block.getStartOffset(), false);
-      DNAddrPair retval = chooseDataNode(block);
-      DatanodeInfo chosenNode = retval.info;
-      InetSocketAddress targetAddr = retval.addr;
+      DNAddrPair addressPair = chooseDataNode(block);
+      try {
+        actualGetFromOneDataNode(addressPair, block, start, end, buf, offset,
+            corruptedBlockMap);
+        return;
+      } catch (IOException e) {
+        // Already logged, and the node has been put into the dead list.
+        // Try the next one.
+      }
+    }
+  }
+
+  /**
+   * Read the byte range from one DataNode, retrying it after refreshing the
+   * block token or the encryption key if those were rejected. Any other
+   * failure puts the node into the dead list and is rethrown.
+   */
+  private void actualGetFromOneDataNode(DNAddrPair datanode,
+      LocatedBlock block, long start, long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    DFSClientFaultInjector.get().startFetchFromDatanode();
+    DatanodeInfo chosenNode = datanode.info;
+    InetSocketAddress targetAddr = datanode.addr;
+    int refetchToken = 1; // only need to get a new access token once
+    int refetchEncryptionKey = 1; // only need to get a new encryption key once
+    
+    while (true) {
+      // The block token may have been refreshed by fetchBlockAt()
+      block = getBlockAt(block.getStartOffset(), false);
       BlockReader reader = null;
           
       try {
@@ -964,6 +1021,8 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
                  e.getPos() + " from " + chosenNode);
         // we want to remember what we have tried
         addIntoCorruptedBlockMap(block.getBlock(), chosenNode, corruptedBlockMap);
+        addToDeadNodes(chosenNode);
+        throw e;
       } catch (AccessControlException ex) {
         DFSClient.LOG.warn("Short circuit access failed " + ex);
         dfsClient.disableLegacyBlockReaderLocal();
@@ -976,6 +1035,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
           // The encryption key used is invalid.
           refetchEncryptionKey--;
           dfsClient.clearDataEncryptionKey();
+          continue;
         } else if (e instanceof InvalidBlockTokenException && refetchToken > 0) {
           DFSClient.LOG.info("Will get a new access token and retry, "
               + "access token was invalid when connecting to " + targetAddr
@@ -990,13 +1050,142 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
             DFSClient.LOG.debug("Connection failure ", e);
           }
         }
+        // Put chosen node into dead list
+        addToDeadNodes(chosenNode);
+        throw e;
       } finally {
         if (reader != null) {
           reader.close();
         }
       }
-      // Put chosen node into dead list, continue
-      addToDeadNodes(chosenNode);
+    }
+  }
+
+  private Callable<byte[]> getFromOneDataNode(final DNAddrPair datanode,
+      final LocatedBlock block, final long start, final long end,
+      final Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap) {
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        byte[] buf = new byte[(int) (end - start + 1)];
+        actualGetFromOneDataNode(datanode, block, start, end, buf, 0,
+            corruptedBlockMap);
+        return buf;
+      }
+    };
+  }
+
+  /**
+   * Like {@link #fetchBlockByteRange}, but if the DataNode has not answered
+   * within the hedged read threshold the same range is also requested from
+   * another replica, and the first successful response is used. Every
+   * request reads into its own buffer because the slower ones cannot be
+   * stopped from writing once they have started.
+   */
+  private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
+      long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    final DFSHedgedReadMetrics metrics = dfsClient.getHedgedReadMetrics();
+    final long threshold = dfsClient.getHedgedReadTimeout();
+    CompletionService<byte[]> hedgedService =
+        new ExecutorCompletionService<byte[]>(
+            DFSClient.getHedgedReadsThreadPool());
+    List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+    Set<DatanodeInfo> ignored = new HashSet<DatanodeInfo>();
+    // The request that was started with no other request in flight
+    Future<byte[]> original = null;
+    try {
+      while (true) {
+        block = getBlockAt(block.getStartOffset(), false);
+        DNAddrPair chosenNode;
+        if (futures.isEmpty()) {
+          // Every node tried so far has failed and is in the dead list, so
+          // this may go back to the NameNode for new locations.
+          ignored.clear();
+          chosenNode = chooseDataNode(block);
+        } else {
+          chosenNode = getBestNodeDNAddrPair(block, ignored);
+        }
+        if (chosenNode != null) {
+          Future<byte[]> request = hedgedService.submit(getFromOneDataNode(
+              chosenNode, block, start, end, corruptedBlockMap));
+          if (futures.isEmpty()) {
+            original = request;
+          } else {
+            metrics.incHedgedReadOps();
+          }
+          futures.add(request);
+          ignored.add(chosenNode.info);
+        }
+
+        Future<byte[]> done;
+        try {
+          if (chosenNode != null) {
+            done = hedgedService.poll(threshold, TimeUnit.MILLISECONDS);
+            if (done == null) {
+              if (DFSClient.LOG.isDebugEnabled()) {
+                DFSClient.LOG.debug("Waited " + threshold + "ms to read " +
+                    block.getBlock() + " from " + chosenNode.info +
+                    "; spawning hedged read");
+              }
+              continue;
+            }
+          } else {
+            // No replica left to hedge against; wait for the reads in flight
+            done = hedgedService.take();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while reading " +
+              block.getBlock() + " of " + src);
+        }
+        futures.remove(done);
+        try {
+          byte[] result = done.get();
+          System.arraycopy(result, 0, buf, offset, result.length);
+          if (done != original) {
+            metrics.incHedgedReadOpsWin();
+          }
+          return;
+        } catch (InterruptedException e) {
+          // Cannot happen, the future has completed
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while reading " +
+              block.getBlock() + " of " + src);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          // An IOException: already logged, and the node is in the dead
+          // list. Try another one straight away.
+        }
+      }
+    } finally {
+      // Let the reads still in flight run to completion: a read interrupted
+      // in the middle of a transfer would leave its connection unusable.
+      for (Future<byte[]> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Read bytes [start, end] of the block into buf, hedging the read if
+   * this client does hedged reads.
+   */
+  private void fetchRange(LocatedBlock block, long start, long end,
+      byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    if (dfsClient.isHedgedReadsEnabled()) {
+      hedgedFetchBlockByteRange(block, start, end, buf, offset,
+          corruptedBlockMap);
+    } else {
+      fetchBlockByteRange(block, start, end, buf, offset, corruptedBlockMap);
     }
   }
 
@@ -1205,8 +1394,8 @@ public int read(long position, byte[] buffer, int offset, int length)
       long targetStart = position - blk.getStartOffset();
       long bytesToRead = Math.min(remaining, blk.getBlockSize() - targetStart);
       try {
-        fetchBlockByteRange(blk, targetStart, 
-            targetStart + bytesToRead - 1, buffer, offset, corruptedBlockMap);
+        fetchRange(blk, targetStart, targetStart + bytesToRead - 1, buffer,
+            offset, corruptedBlockMap);
       } finally {
         // Check and report if any block replicas are corrupted.
         // BlockMissingException may be caught if all block replicas are
@@ -1225,6 +1414,188 @@ public int read(long position, byte[] buffer, int offset, int length)
     return realLen;
   }
   
+  /**
+   * A contiguous part of one block that is fetched with a single request.
+   * It covers the parts of one or more requested ranges that fall into the
+   * block, and the gaps between them.
+   */
+  private static class MergedRead {
+    final LocatedBlock block;
+    /** File offset of the first byte. */
+    final long start;
+    /** File offset just after the last byte. */
+    long end;
+    final List<FileRange> ranges = new ArrayList<FileRange>();
+
+    MergedRead(LocatedBlock block, long start, long end) {
+      this.block = block;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Read several ranges of the file. The ranges are split at block
+   * boundaries; within a block, ranges that are at most
+   * dfs.client.read.vectored.merge.gap bytes apart are fetched with a single
+   * request of up to dfs.client.read.vectored.max.merged.size bytes. If a
+   * vectored read thread pool is configured, the blocks are fetched in
+   * parallel.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException {
+    dfsClient.checkOpen();
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    failures = 0;
+    List<FileRange> sorted =
+        VectoredReadUtils.sortAndValidateRanges(ranges, getFileLength());
+    boolean success = false;
+    try {
+      for (FileRange range : sorted) {
+        range.setData(
+            VectoredReadUtils.allocate(bufferPool, range.getLength()));
+      }
+      List<List<MergedRead>> blockReads = planVectoredRead(sorted);
+      ThreadPoolExecutor pool = dfsClient.getVectoredReadThreadPool();
+      if (pool == null || blockReads.size() < 2) {
+        for (List<MergedRead> reads : blockReads) {
+          readMergedReads(reads);
+        }
+      } else {
+        readBlocksInParallel(pool, blockReads);
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        VectoredReadUtils.releaseBuffers(sorted, bufferPool);
+      }
+    }
+  }
+
+  /**
+   * Turn the ranges, sorted by offset, into the requests to send, grouped
+   * by block in file order.
+   */
+  private List<List<MergedRead>> planVectoredRead(List<FileRange> sorted)
+      throws IOException {
+    final int mergeGap = dfsClient.getConf().vectoredReadMergeGap;
+    final int maxMergedSize = dfsClient.getConf().vectoredReadMaxMergedSize;
+    Map<Long, List<MergedRead>> readsByBlock =
+        new TreeMap<Long, List<MergedRead>>();
+    for (FileRange range : sorted) {
+      long offset = range.getOffset();
+      long end = offset + range.getLength();
+      while (offset < end) {
+        LocatedBlock blk = getBlockAt(offset, false);
+        long blockEnd = blk.getStartOffset() + blk.getBlockSize();
+        if (blockEnd <= offset) {
+          throw new IOException("Block " + blk.getBlock() + " of " + src +
+              " does not contain offset " + offset);
+        }
+        long pieceEnd = Math.min(end, blockEnd);
+        List<MergedRead> reads = readsByBlock.get(blk.getStartOffset());
+        if (reads == null) {
+          reads = new ArrayList<MergedRead>();
+          readsByBlock.put(blk.getStartOffset(), reads);
+        }
+        // Within a block the pieces arrive in offset order, so only the
+        // last request can absorb this one
+        MergedRead last = reads.isEmpty() ? null : reads.get(reads.size() - 1);
+        if (last != null && offset - last.end <= mergeGap &&
+            Math.max(last.end, pieceEnd) - last.start <= maxMergedSize) {
+          last.end = Math.max(last.end, pieceEnd);
+        } else {
+          last = new MergedRead(blk, offset, pieceEnd);
+          reads.add(last);
+        }
+        last.ranges.add(range);
+        offset = pieceEnd;
+      }
+    }
+    return new ArrayList<List<MergedRead>>(readsByBlock.values());
+  }
+
+  /**
+   * Fetch the requests for one block one after the other, and copy the data
+   * into the buffers of their ranges.
+   */
+  private void readMergedReads(List<MergedRead> reads) throws IOException {
+    Map<ExtendedBlock,Set<DatanodeInfo>> corruptedBlockMap 
+      = new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
+    LocatedBlock blk = reads.get(0).block;
+    try {
+      for (MergedRead read : reads) {
+        int len = (int) (read.end - read.start);
+        long start = read.start - blk.getStartOffset();
+        FileRange first = read.ranges.get(0);
+        if (read.ranges.size() == 1 && first.getOffset() == read.start &&
+            first.getLength() == len) {
+          // Nothing to merge or split: read straight into the range's buffer
+          ByteBuffer data = first.getData();
+          fetchRange(blk, start, start + len - 1, data.array(),
+              data.arrayOffset() + data.position(), corruptedBlockMap);
+        } else {
+          byte[] buf = new byte[len];
+          fetchRange(blk, start, start + len - 1, buf, 0, corruptedBlockMap);
+          for (FileRange range : read.ranges) {
+            long from = Math.max(range.getOffset(), read.start);
+            long to = Math.min(range.getOffset() + range.getLength(),
+                read.end);
+            ByteBuffer data = range.getData();
+            System.arraycopy(buf, (int) (from - read.start), data.array(),
+                data.arrayOffset() + data.position() +
+                    (int) (from - range.getOffset()),
+                (int) (to - from));
+          }
+        }
+        if (dfsClient.stats != null) {
+          dfsClient.stats.incrementBytesRead(len);
+        }
+      }
+    } finally {
+      // Check and report if any block replicas are corrupted.
+      reportCheckSumFailure(corruptedBlockMap, blk.getLocations().length);
+    }
+  }
+
+  private void readBlocksInParallel(ThreadPoolExecutor pool,
+      List<List<MergedRead>> blockReads) throws IOException {
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (final List<MergedRead> reads : blockReads) {
+      futures.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          readMergedReads(reads);
+          return null;
+        }
+      }));
+    }
+    // Wait for every block even after a failure, since the reads still
+    // running write into buffers that the caller will release
+    Throwable failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IOException(failure);
+    }
+  }
+
   /**
    * DFSInputStream reports checksum failure.
    * Case I : client has tried multiple data nodes and at least one of the
@@ -1240,25 +1611,31 @@ public int read(long position, byte[] buffer, int offset, int length)
   private void reportCheckSumFailure(
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap, 
       int dataNodeCount) {
-    if (corruptedBlockMap.isEmpty()) {
-      return;
-    }
-    Iterator<Entry<ExtendedBlock, Set<DatanodeInfo>>> it = corruptedBlockMap
-        .entrySet().iterator();
-    Entry<ExtendedBlock, Set<DatanodeInfo>> entry = it.next();
-    ExtendedBlock blk = entry.getKey();
-    Set<DatanodeInfo> dnSet = entry.getValue();
-    if (((dnSet.size() < dataNodeCount) && (dnSet.size() > 0))
-        || ((dataNodeCount == 1) && (dnSet.size() == dataNodeCount))) {
-      DatanodeInfo[] locs = new DatanodeInfo[dnSet.size()];
-      int i = 0;
-      for (DatanodeInfo dn:dnSet) {
-        locs[i++] = dn;
+    LocatedBlock [] lblocks;
+    synchronized (corruptedBlockMap) {
+      if (corruptedBlockMap.isEmpty()) {
+        return;
+      }
+      Iterator<Entry<ExtendedBlock, Set<DatanodeInfo>>> it = corruptedBlockMap
+          .entrySet().iterator();
+      Entry<ExtendedBlock, Set<DatanodeInfo>> entry = it.next();
+      ExtendedBlock blk = entry.getKey();
+      Set<DatanodeInfo> dnSet = entry.getValue();
+      lblocks = null;
+      if (((dnSet.size() < dataNodeCount) && (dnSet.size() > 0))
+          || ((dataNodeCount == 1) && (dnSet.size() == dataNodeCount))) {
+        DatanodeInfo[] locs = new DatanodeInfo[dnSet.size()];
+        int i = 0;
+        for (DatanodeInfo dn:dnSet) {
+          locs[i++] = dn;
+        }
+        lblocks = new LocatedBlock[] { new LocatedBlock(blk, locs) };
       }
-      LocatedBlock [] lblocks = { new LocatedBlock(blk, locs) };
+      corruptedBlockMap.clear();
+    }
+    if (lblocks != null) {
       dfsClient.reportChecksumFailure(src, lblocks);
     }
-    corruptedBlockMap.clear();
   }
 
   @Override
@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded, time-limited cache of the file status and block locations
+ * returned by the NameNode, used by {@link DFSClient} to avoid repeating
+ * getFileInfo and getBlockLocations calls for paths that are looked up
+ * again and again, e.g. while planning a job over many partitions.
+ *
+ * Only block locations of closed files are cached, and only when they cover
+ * the whole file. Entries are dropped when this client changes the path
+ * (or one of its parents), but changes made by other clients may go
+ * unnoticed until an entry expires.
+ *
+ * Every change made by this client gets a new generation number, recorded
+ * against the changed path and, for its modification time, against the
+ * status of its parent. An entry remembers the generation at which its
+ * lookup started and is stale if the path, or any of its ancestors, changed
+ * since. This invalidates whole subtrees without scanning the cache, and
+ * keeps a lookup that raced with a change from caching its stale answer.
+ */
+@InterfaceAudience.Private
+public class DFSMetadataCache {
+  /** A cached value and the generation at which it was looked up. */
+  private static class Entry<T> {
+    final T value;
+    final long generation;
+
+    Entry(T value, long generation) {
+      this.value = value;
+      this.generation = generation;
+    }
+  }
+
+  private final Cache<String, Entry<HdfsFileStatus>> fileStatuses;
+  private final Cache<String, Entry<LocatedBlocks>> locatedBlocks;
+
+  private final AtomicLong generation = new AtomicLong();
+  // The last generation at which a path and everything below it changed
+  private final Cache<String, Long> subtreeChanges;
+  // The last generation at which the status of a directory changed
+  private final Cache<String, Long> statusChanges;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  DFSMetadataCache(int maxEntries, long expiryMs) {
+    this.fileStatuses = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(expiryMs, TimeUnit.MILLISECONDS)
+        .build();
+    this.locatedBlocks = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(expiryMs, TimeUnit.MILLISECONDS)
+        .build();
+    // A change only matters to entries that have not expired yet. These are
+    // not bounded in size, as forgetting a change early would revive the
+    // entries it made stale; they outlive the entries they guard, which may
+    // be written a little after the change they race with.
+    this.subtreeChanges = CacheBuilder.newBuilder()
+        .expireAfterWrite(2 * expiryMs, TimeUnit.MILLISECONDS)
+        .build();
+    this.statusChanges = CacheBuilder.newBuilder()
+        .expireAfterWrite(2 * expiryMs, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * @return the current generation, to be passed to the put methods along
+   *         with the result of a lookup started after this call
+   */
+  long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @return the cached status of src, or null if it is not cached
+   */
+  HdfsFileStatus getFileInfo(String src) {
+    Entry<HdfsFileStatus> e = fileStatuses.getIfPresent(src);
+    if (e != null && isStale(src, e.generation, true)) {
+      fileStatuses.invalidate(src);
+      e = null;
+    }
+    return count(e == null ? null : e.value);
+  }
+
+  /**
+   * Cache the status of src, looked up at the given generation.
+   */
+  void putFileInfo(String src, HdfsFileStatus status, long generation) {
+    if (status != null && !isStale(src, generation, true)) {
+      fileStatuses.put(src, new Entry<HdfsFileStatus>(status, generation));
+    }
+  }
+
+  /**
+   * @return the cached block locations of src if they answer a request for
+   *         the given range, otherwise null
+   */
+  LocatedBlocks getLocatedBlocks(String src, long start, long length) {
+    LocatedBlocks blocks = null;
+    if (start == 0) {
+      Entry<LocatedBlocks> e = locatedBlocks.getIfPresent(src);
+      if (e != null && isStale(src, e.generation, false)) {
+        locatedBlocks.invalidate(src);
+        e = null;
+      }
+      blocks = e == null ? null : e.value;
+      if (blocks != null && length < blocks.getFileLength()) {
+        // Return no more than the caller asked for
+        blocks = null;
+      }
+    }
+    return count(blocks == null ? null : copy(blocks));
+  }
+
+  /**
+   * Cache the block locations of src, looked up at the given generation, if
+   * the file is closed and they cover all of it.
+   */
+  void putLocatedBlocks(String src, LocatedBlocks blocks, long generation) {
+    if (blocks == null || blocks.isUnderConstruction() ||
+        !blocks.isLastBlockComplete()) {
+      return;
+    }
+    long covered = 0;
+    for (LocatedBlock b : blocks.getLocatedBlocks()) {
+      if (b.getStartOffset() != covered) {
+        return;
+      }
+      covered += b.getBlockSize();
+    }
+    if (covered == blocks.getFileLength() &&
+        !isStale(src, generation, false)) {
+      locatedBlocks.put(src,
+          new Entry<LocatedBlocks>(copy(blocks), generation));
+    }
+  }
+
+  /**
+   * Drop everything cached for src and for any path below it, as well as
+   * the status of its parent, whose modification time changes with it.
+   * Entries below src are only found to be stale when they are next looked
+   * up.
+   */
+  void invalidate(String src) {
+    long changed = generation.incrementAndGet();
+    subtreeChanges.put(src, changed);
+    fileStatuses.invalidate(src);
+    locatedBlocks.invalidate(src);
+    String parent = getParent(src);
+    if (parent != null) {
+      statusChanges.put(parent, changed);
+      fileStatuses.invalidate(parent);
+    }
+  }
+
+  /**
+   * @return whether src, or one of its ancestors, changed after the given
+   *         generation; with isStatus, also whether the status of src did
+   */
+  private boolean isStale(String src, long generation, boolean isStatus) {
+    if (isStatus && changedAfter(statusChanges, src, generation)) {
+      return true;
+    }
+    for (String p = src; p != null; p = getParent(p)) {
+      if (changedAfter(subtreeChanges, p, generation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean changedAfter(Cache<String, Long> changes,
+      String path, long generation) {
+    Long changed = changes.getIfPresent(path);
+    return changed != null && changed > generation;
+  }
+
+  /**
+   * @return the parent of an absolute path, or null for the root
+   */
+  private static String getParent(String path) {
+    int end = path.length();
+    // ignore a trailing separator
+    if (end > 1 && path.endsWith(Path.SEPARATOR)) {
+      end--;
+    }
+    int lastSlash = path.lastIndexOf(Path.SEPARATOR_CHAR, end - 1);
+    if (lastSlash < 0 || end <= 1) {
+      return null;
+    }
+    return lastSlash == 0 ? Path.SEPARATOR : path.substring(0, lastSlash);
+  }
+
+  void invalidateAll() {
+    // the root is an ancestor of every path
+    subtreeChanges.put(Path.SEPARATOR, generation.incrementAndGet());
+    fileStatuses.invalidateAll();
+    locatedBlocks.invalidateAll();
+  }
+
+  /**
+   * Readers modify the block list they are given, so never hand out or
+   * keep the instance shared with them.
+   */
+  private static LocatedBlocks copy(LocatedBlocks blocks) {
+    return new LocatedBlocks(blocks.getFileLength(),
+        blocks.isUnderConstruction(),
+        new ArrayList<LocatedBlock>(blocks.getLocatedBlocks()),
+        blocks.getLastLocatedBlock(), blocks.isLastBlockComplete());
+  }
+
+  private <T> T count(T cached) {
+    if (cached != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return cached;
+  }
+
+  /** @return the number of lookups answered from the cache */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** @return the number of lookups that had to go to the NameNode */
+  public long getMisses() {
+    return misses.get();
+  }
+}
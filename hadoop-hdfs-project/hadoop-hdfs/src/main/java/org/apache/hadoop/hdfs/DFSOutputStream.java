@@ -119,8 +119,9 @@
 @InterfaceAudience.Private
 public class DFSOutputStream extends FSOutputSummer
     implements Syncable, CanSetDropBehind {
-  private static final int MAX_PACKETS = 80; // each packet 64K, total 5MB
   private final DFSClient dfsClient;
+  // packets queued or awaiting ack before the writer blocks
+  private final int maxPacketsInFlight;
   private Socket s;
   // closed is accessed by different threads under different locks.
   private volatile boolean closed = false;
@@ -499,6 +500,10 @@ public void run() {
           assert one != null;
 
           // get new block from namenode.
+          // This is only done once the previous block has been closed: addBlock
+          // commits the previous block, after which a failure closing its
+          // pipeline could no longer be recovered. Only the packet window,
+          // maxPacketsInFlight, overlaps the pipeline round trips.
           if (stage == BlockConstructionStage.PIPELINE_SETUP_CREATE) {
             if(DFSClient.LOG.isDebugEnabled()) {
               DFSClient.LOG.debug("Allocating new block");
@@ -710,6 +715,7 @@ public void run() {
           try {
             // read an ack from the pipeline
             ack.readFields(blockReplyStream);
+            DFSClientFaultInjector.get().delayAck();
             if (DFSClient.LOG.isDebugEnabled()) {
               DFSClient.LOG.debug("DFSClient " + ack);
             }
@@ -1361,6 +1367,8 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
     this.blockSize = stat.getBlockSize();
     this.blockReplication = stat.getReplication();
     this.progress = progress;
+    this.maxPacketsInFlight =
+        Math.max(1, dfsClient.getConf().writeMaxPacketsInFlight);
     this.cachingStrategy =
         dfsClient.getDefaultWriteCachingStrategy().duplicate();
     if ((progress != null) && DFSClient.LOG.isDebugEnabled()) {
@@ -1486,7 +1494,8 @@ private void waitAndQueueCurrentPacket() throws IOException {
     synchronized (dataQueue) {
       try {
       // If queue is full, then wait till we have enough space
-      while (!closed && dataQueue.size() + ackQueue.size()  > MAX_PACKETS) {
+      while (!closed &&
+          dataQueue.size() + ackQueue.size() >= maxPacketsInFlight) {
         try {
           dataQueue.wait();
         } catch (InterruptedException e) {
@@ -1496,7 +1505,7 @@ private void waitAndQueueCurrentPacket() throws IOException {
           //
           // Rather than wait around for space in the queue, we should instead try to
           // return to the caller as soon as possible, even though we slightly overrun
-          // the MAX_PACKETS length.
+          // the maxPacketsInFlight length.
           Thread.currentThread().interrupt();
           break;
         }
@@ -1796,7 +1805,9 @@ private void flushInternal() throws IOException {
       //
       // If there is data in the current buffer, send it across
       //
-      queueCurrentPacket();
+      if (currentPacket != null) {
+        waitAndQueueCurrentPacket();
+      }
       toWaitFor = lastQueuedSeqno;
     }
 
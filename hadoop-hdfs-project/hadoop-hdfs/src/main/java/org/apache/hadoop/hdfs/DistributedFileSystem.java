@@ -20,11 +20,17 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -778,6 +784,251 @@ public LocatedFileStatus next() throws IOException {
       }
     };
   }
+
+  /**
+   * {@inheritDoc}
+   *
+   * If dfs.client.listing.prefetch.threadpool.size is set, a recursive
+   * listing fetches its next pages from the NameNode in the background
+   * while the caller consumes the current one. Files are then not returned
+   * in any particular order, and symbolic links are not followed.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(Path f,
+      boolean recursive) throws FileNotFoundException, IOException {
+    ExecutorService pool = dfs.getListingThreadPool();
+    if (!recursive || pool == null) {
+      return super.listFiles(f, recursive);
+    }
+    return new PrefetchingFileIterator(fixRelativePart(f), pool,
+        dfs.getConf().listingPrefetchThreadpoolSize);
+  }
+
+  /**
+   * Lists every file below a directory, keeping up to a given number of
+   * listing pages in flight to the NameNode.
+   */
+  private class PrefetchingFileIterator
+      implements RemoteIterator<LocatedFileStatus> {
+    /** A page of a directory listing, requested or still to be requested. */
+    private class Page {
+      final String src;
+      final Path dir;
+      final byte[] startAfter;
+      Future<DirectoryListing> listing;
+
+      Page(String src, Path dir, byte[] startAfter) {
+        this.src = src;
+        this.dir = dir;
+        this.startAfter = startAfter;
+      }
+    }
+
+    private final Path root;
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    // Pages requested from the NameNode, in the order they are consumed
+    private final LinkedList<Page> inFlight = new LinkedList<Page>();
+    // Pages not requested yet
+    private final LinkedList<Page> waiting = new LinkedList<Page>();
+    private HdfsFileStatus[] entries = new HdfsFileStatus[0];
+    private Path entriesDir;
+    private int i;
+    private LocatedFileStatus curFile;
+
+    PrefetchingFileIterator(Path root, ExecutorService pool, int maxInFlight)
+        throws IOException {
+      this.root = root;
+      this.pool = pool;
+      this.maxInFlight = Math.max(1, maxInFlight);
+      // Fully resolve symlinks in the root so that the pages can be fetched
+      // without further resolution
+      Path resolved = resolvePath(root);
+      waiting.add(new Page(getPathName(resolved), root,
+          HdfsFileStatus.EMPTY_NAME));
+      requestPages();
+    }
+
+    private void requestPages() {
+      while (inFlight.size() < maxInFlight && !waiting.isEmpty()) {
+        final Page page = waiting.removeFirst();
+        page.listing = pool.submit(new Callable<DirectoryListing>() {
+          @Override
+          public DirectoryListing call() throws IOException {
+            return dfs.listPaths(page.src, page.startAfter, true);
+          }
+        });
+        inFlight.add(page);
+      }
+    }
+
+    /**
+     * Wait for the oldest page in flight and queue the requests it leads to.
+     * @return false if there are no more pages
+     */
+    private boolean nextPage() throws IOException {
+      if (inFlight.isEmpty()) {
+        return false;
+      }
+      Page page = inFlight.removeFirst();
+      DirectoryListing listing;
+      try {
+        listing = page.listing.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while listing " +
+            page.dir);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Failed to list " + page.dir, cause);
+      }
+      statistics.incrementReadOps(1);
+      if (listing == null) {
+        if (page.dir == root) {
+          throw new FileNotFoundException("File " + root +
+              " does not exist.");
+        }
+        // The directory was removed while we were listing the tree
+        entries = new HdfsFileStatus[0];
+      } else {
+        entries = listing.getPartialListing();
+        if (listing.hasMore()) {
+          // Finish this directory before starting on new ones
+          waiting.addFirst(new Page(page.src, page.dir,
+              listing.getLastName()));
+        }
+        for (HdfsFileStatus entry : entries) {
+          if (entry.isDir()) {
+            String src = entry.getFullPath(new Path(page.src)).toUri()
+                .getPath();
+            waiting.add(new Page(src, entry.getFullPath(page.dir),
+                HdfsFileStatus.EMPTY_NAME));
+          }
+        }
+      }
+      entriesDir = page.dir;
+      i = 0;
+      requestPages();
+      return true;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (curFile == null) {
+        if (i < entries.length) {
+          HdfsFileStatus entry = entries[i++];
+          if (!entry.isDir() && !entry.isSymlink()) {
+            curFile = ((HdfsLocatedFileStatus) entry).makeQualifiedLocated(
+                getUri(), entriesDir);
+          }
+        } else if (!nextPage()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public LocatedFileStatus next() throws IOException {
+      if (hasNext()) {
+        LocatedFileStatus result = curFile;
+        curFile = null;
+        return result;
+      }
+      throw new java.util.NoSuchElementException("No more entry in " + root);
+    }
+  }
+
+  /**
+   * Get the status of several files or directories, with as few calls to
+   * the NameNode as possible.
+   *
+   * @param paths the paths to get the status of
+   * @return the status of each path, in the order of paths; an element is
+   *         null if its path does not exist
+   */
+  public FileStatus[] getFileStatuses(Path[] paths) throws IOException {
+    HdfsFileStatus[] stats = getBatchedFileInfo(paths, false);
+    if (stats == null) {
+      // Some of the paths contain symlinks, resolve them one by one
+      FileStatus[] result = new FileStatus[paths.length];
+      for (int i = 0; i < paths.length; i++) {
+        try {
+          result[i] = getFileStatus(paths[i]);
+        } catch (FileNotFoundException e) {
+          result[i] = null;
+        }
+      }
+      return result;
+    }
+    FileStatus[] result = new FileStatus[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      if (stats[i] != null) {
+        result[i] = stats[i].makeQualified(getUri(),
+            fixRelativePart(paths[i]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the status and the block locations of several files or
+   * directories, with as few calls to the NameNode as possible.
+   *
+   * @param paths the paths to get the status of
+   * @return the status of each path, in the order of paths; an element is
+   *         null if its path does not exist
+   */
+  public LocatedFileStatus[] getLocatedFileStatuses(Path[] paths)
+      throws IOException {
+    HdfsFileStatus[] stats = getBatchedFileInfo(paths, true);
+    LocatedFileStatus[] result = new LocatedFileStatus[paths.length];
+    if (stats == null) {
+      // Some of the paths contain symlinks, resolve them one by one
+      for (int i = 0; i < paths.length; i++) {
+        try {
+          FileStatus stat = getFileStatus(paths[i]);
+          result[i] = new LocatedFileStatus(stat, stat.isFile() ?
+              getFileBlockLocations(stat, 0, stat.getLen()) : null);
+        } catch (FileNotFoundException e) {
+          result[i] = null;
+        }
+      }
+      return result;
+    }
+    for (int i = 0; i < paths.length; i++) {
+      Path p = fixRelativePart(paths[i]);
+      if (stats[i] instanceof HdfsLocatedFileStatus) {
+        result[i] = ((HdfsLocatedFileStatus) stats[i]).makeQualifiedLocated(
+            getUri(), p);
+      } else if (stats[i] != null) {
+        result[i] = new LocatedFileStatus(stats[i].makeQualified(getUri(), p),
+            null);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the statuses of the paths, or null if any of them contains a
+   *         symlink
+   */
+  private HdfsFileStatus[] getBatchedFileInfo(Path[] paths,
+      boolean needLocation) throws IOException {
+    String[] srcs = new String[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      srcs[i] = getPathName(fixRelativePart(paths[i]));
+    }
+    statistics.incrementReadOps(1);
+    try {
+      return dfs.getBatchedFileInfo(srcs, needLocation);
+    } catch (UnresolvedLinkException e) {
+      return null;
+    }
+  }
   
   /**
    * Create a directory, only when the parent directories exist.
@@ -804,6 +804,25 @@ public CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
   @Idempotent
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
+
+  /**
+   * Get the file info for several files or directories in one call. The
+   * number of paths is limited to the NameNode's listing limit
+   * (dfs.ls.limit).
+   * @param srcs The string representations of the paths
+   * @param needLocation if block locations of files should be returned
+   *
+   * @return an array with the status of each path, in the order of srcs; an
+   *         element is null if its path is not found. If needLocation is
+   *         set, the statuses of files are {@link HdfsLocatedFileStatus}.
+   * @throws AccessControlException permission denied for any of the paths
+   * @throws UnresolvedLinkException if a path contains a symlink.
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  public HdfsFileStatus[] getBatchedFileInfo(String[] srcs,
+      boolean needLocation) throws AccessControlException,
+      UnresolvedLinkException, IOException;
   
   /**
    * Get the close status of a file
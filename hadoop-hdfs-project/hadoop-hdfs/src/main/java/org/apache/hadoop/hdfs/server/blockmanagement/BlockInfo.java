@@ -39,31 +39,42 @@ public class BlockInfo extends Block implements LightWeightGSet.LinkedElement {
   private LightWeightGSet.LinkedElement nextLinkedElement;
 
   /**
-   * This array contains triplets of references. For each i-th datanode the
-   * block belongs to triplets[3*i] is the reference to the DatanodeDescriptor
-   * and triplets[3*i+1] and triplets[3*i+2] are references to the previous and
+   * For each i-th datanode the block belongs to, triplet i holds the
+   * reference to the DatanodeDescriptor and references to the previous and
    * the next blocks, respectively, in the list of blocks belonging to this
-   * data-node.
+   * data-node. Triplet element j of replica i is at position 3*i+j.
    * 
    * Using previous and next in Object triplets is done instead of a
    * {@link LinkedList} list to efficiently use memory. With LinkedList the cost
    * per replica is 42 bytes (LinkedList#Entry object per replica) versus 16
    * bytes using the triplets.
+   *
+   * The triplets of the first {@link #INLINE_REPLICAS} replicas are stored in
+   * fields rather than in an array, which saves an object and its header per
+   * block for the usual replication factors. Only blocks with more replicas
+   * than that allocate {@link #moreTriplets}.
    */
-  private Object[] triplets;
+  static final int INLINE_REPLICAS = 3;
+  private static final int INLINE_TRIPLETS = 3 * INLINE_REPLICAS;
+
+  private Object node0, prev0, next0;
+  private Object node1, prev1, next1;
+  private Object node2, prev2, next2;
+  /** Triplets of the replicas beyond the inline ones, or null. */
+  private Object[] moreTriplets;
 
   /**
    * Construct an entry for blocksmap
    * @param replication the block's replication factor
    */
   public BlockInfo(int replication) {
-    this.triplets = new Object[3*replication];
+    this.moreTriplets = allocateMoreTriplets(replication);
     this.bc = null;
   }
   
   public BlockInfo(Block blk, int replication) {
     super(blk);
-    this.triplets = new Object[3*replication];
+    this.moreTriplets = allocateMoreTriplets(replication);
     this.bc = null;
   }
 
@@ -77,6 +88,46 @@ protected BlockInfo(BlockInfo from) {
     this.bc = from.bc;
   }
 
+  private static Object[] allocateMoreTriplets(int replication) {
+    return replication > INLINE_REPLICAS ?
+        new Object[3 * (replication - INLINE_REPLICAS)] : null;
+  }
+
+  /** @return the number of triplet slots. */
+  private int tripletsLength() {
+    return INLINE_TRIPLETS + (moreTriplets == null ? 0 : moreTriplets.length);
+  }
+
+  private Object getTriplet(int i) {
+    switch (i) {
+    case 0: return node0;
+    case 1: return prev0;
+    case 2: return next0;
+    case 3: return node1;
+    case 4: return prev1;
+    case 5: return next1;
+    case 6: return node2;
+    case 7: return prev2;
+    case 8: return next2;
+    default: return moreTriplets[i - INLINE_TRIPLETS];
+    }
+  }
+
+  private void setTriplet(int i, Object o) {
+    switch (i) {
+    case 0: node0 = o; break;
+    case 1: prev0 = o; break;
+    case 2: next0 = o; break;
+    case 3: node1 = o; break;
+    case 4: prev1 = o; break;
+    case 5: next1 = o; break;
+    case 6: node2 = o; break;
+    case 7: prev2 = o; break;
+    case 8: next2 = o; break;
+    default: moreTriplets[i - INLINE_TRIPLETS] = o;
+    }
+  }
+
   public BlockCollection getBlockCollection() {
     return bc;
   }
@@ -86,15 +137,13 @@ public void setBlockCollection(BlockCollection bc) {
   }
 
   public DatanodeDescriptor getDatanode(int index) {
-    assert this.triplets != null : "BlockInfo is not initialized";
-    assert index >= 0 && index*3 < triplets.length : "Index is out of bound";
-    return (DatanodeDescriptor)triplets[index*3];
+    assert index >= 0 && index*3 < tripletsLength() : "Index is out of bound";
+    return (DatanodeDescriptor)getTriplet(index*3);
   }
 
   private BlockInfo getPrevious(int index) {
-    assert this.triplets != null : "BlockInfo is not initialized";
-    assert index >= 0 && index*3+1 < triplets.length : "Index is out of bound";
-    BlockInfo info = (BlockInfo)triplets[index*3+1];
+    assert index >= 0 && index*3+1 < tripletsLength() : "Index is out of bound";
+    BlockInfo info = (BlockInfo)getTriplet(index*3+1);
     assert info == null || 
         info.getClass().getName().startsWith(BlockInfo.class.getName()) : 
               "BlockInfo is expected at " + index*3;
@@ -102,9 +151,8 @@ private BlockInfo getPrevious(int index) {
   }
 
   BlockInfo getNext(int index) {
-    assert this.triplets != null : "BlockInfo is not initialized";
-    assert index >= 0 && index*3+2 < triplets.length : "Index is out of bound";
-    BlockInfo info = (BlockInfo)triplets[index*3+2];
+    assert index >= 0 && index*3+2 < tripletsLength() : "Index is out of bound";
+    BlockInfo info = (BlockInfo)getTriplet(index*3+2);
     assert info == null || 
         info.getClass().getName().startsWith(BlockInfo.class.getName()) : 
               "BlockInfo is expected at " + index*3;
@@ -113,12 +161,11 @@ BlockInfo getNext(int index) {
 
   private void setDatanode(int index, DatanodeDescriptor node, BlockInfo previous,
       BlockInfo next) {
-    assert this.triplets != null : "BlockInfo is not initialized";
     int i = index * 3;
-    assert index >= 0 && i+2 < triplets.length : "Index is out of bound";
-    triplets[i] = node;
-    triplets[i+1] = previous;
-    triplets[i+2] = next;
+    assert index >= 0 && i+2 < tripletsLength() : "Index is out of bound";
+    setTriplet(i, node);
+    setTriplet(i+1, previous);
+    setTriplet(i+2, next);
   }
 
   /**
@@ -130,10 +177,9 @@ private void setDatanode(int index, DatanodeDescriptor node, BlockInfo previous,
    * @return current previous block on the list of blocks
    */
   private BlockInfo setPrevious(int index, BlockInfo to) {
-	assert this.triplets != null : "BlockInfo is not initialized";
-	assert index >= 0 && index*3+1 < triplets.length : "Index is out of bound";
-    BlockInfo info = (BlockInfo)triplets[index*3+1];
-    triplets[index*3+1] = to;
+    assert index >= 0 && index*3+1 < tripletsLength() : "Index is out of bound";
+    BlockInfo info = (BlockInfo)getTriplet(index*3+1);
+    setTriplet(index*3+1, to);
     return info;
   }
 
@@ -146,17 +192,14 @@ private BlockInfo setPrevious(int index, BlockInfo to) {
    *    * @return current next block on the list of blocks
    */
   private BlockInfo setNext(int index, BlockInfo to) {
-	assert this.triplets != null : "BlockInfo is not initialized";
-	assert index >= 0 && index*3+2 < triplets.length : "Index is out of bound";
-    BlockInfo info = (BlockInfo)triplets[index*3+2];
-    triplets[index*3+2] = to;
+    assert index >= 0 && index*3+2 < tripletsLength() : "Index is out of bound";
+    BlockInfo info = (BlockInfo)getTriplet(index*3+2);
+    setTriplet(index*3+2, to);
     return info;
   }
 
   public int getCapacity() {
-    assert this.triplets != null : "BlockInfo is not initialized";
-    assert triplets.length % 3 == 0 : "Malformed BlockInfo";
-    return triplets.length / 3;
+    return tripletsLength() / 3;
   }
 
   /**
@@ -164,15 +207,17 @@ public int getCapacity() {
    * @return first free triplet index.
    */
   private int ensureCapacity(int num) {
-    assert this.triplets != null : "BlockInfo is not initialized";
     int last = numNodes();
-    if(triplets.length >= (last+num)*3)
+    if(tripletsLength() >= (last+num)*3)
       return last;
     /* Not enough space left. Create a new array. Should normally 
      * happen only when replication is manually increased by the user. */
-    Object[] old = triplets;
-    triplets = new Object[(last+num)*3];
-    System.arraycopy(old, 0, triplets, 0, last*3);
+    Object[] old = moreTriplets;
+    moreTriplets = new Object[(last+num)*3 - INLINE_TRIPLETS];
+    if (old != null) {
+      System.arraycopy(old, 0, moreTriplets, 0,
+          Math.max(0, last*3 - INLINE_TRIPLETS));
+    }
     return last;
   }
 
@@ -180,8 +225,6 @@ private int ensureCapacity(int num) {
    * Count the number of data-nodes the block belongs to.
    */
   public int numNodes() {
-    assert this.triplets != null : "BlockInfo is not initialized";
-    assert triplets.length % 3 == 0 : "Malformed BlockInfo";
     for(int idx = getCapacity()-1; idx >= 0; idx--) {
       if(getDatanode(idx) != null)
         return idx+1;
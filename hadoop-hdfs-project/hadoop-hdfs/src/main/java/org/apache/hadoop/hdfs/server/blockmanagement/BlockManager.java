@@ -22,6 +22,7 @@
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -174,6 +175,16 @@ public int getPendingDataNodeMessageCount() {
    */
   private final Set<Block> postponedMisreplicatedBlocks = Sets.newHashSet();
 
+  /**
+   * Committed blocks that reached the minimum replication while only the
+   * block management lock was held. Completing a block replaces it in the
+   * file's block list, which is namespace state, so with fine-grained
+   * locking it is deferred until {@link #completeDeferredBlocks()} is called
+   * under the namesystem write lock.
+   */
+  private final List<BlockInfo> deferredCompleteBlocks =
+      new ArrayList<BlockInfo>();
+
   /**
    * Maps a StorageID to the set of blocks that are "extra" for this
    * DataNode. We'll eventually remove these extras.
@@ -221,6 +232,12 @@ public int getPendingDataNodeMessageCount() {
   // Max number of blocks to log info about during a block report.
   private final long maxNumBlocksToLog;
 
+  /**
+   * Number of changes a full block report applies under the write lock
+   * before releasing it; 0 to process every report under the lock at once.
+   */
+  private final int blockReportChunkSize;
+
   /**
    * When running inside a Standby node, the node may receive block reports
    * from datanodes before receiving the corresponding namespace edits from
@@ -305,6 +322,10 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+
+    this.blockReportChunkSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_CHUNK_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_CHUNK_SIZE_DEFAULT);
     
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
@@ -314,6 +335,7 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("blockReportChunkSize       = " + blockReportChunkSize);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -430,7 +452,7 @@ public void setBlockPlacementPolicy(BlockPlacementPolicy newpolicy) {
 
   /** Dump meta data to out. */
   public void metaSave(PrintWriter out) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     final List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
     final List<DatanodeDescriptor> dead = new ArrayList<DatanodeDescriptor>();
     datanodeManager.fetchDatanodes(live, dead, false);
@@ -626,6 +648,46 @@ private BlockInfo completeBlock(final BlockCollection bc,
     return block;
   }
   
+  /**
+   * Complete a committed block if the namespace may be modified, or defer
+   * it to {@link #completeDeferredBlocks()} otherwise.
+   */
+  private BlockInfo completeOrDeferBlock(final BlockCollection bc,
+      final BlockInfo block) throws IOException {
+    if (namesystem.hasWriteLock()) {
+      return completeBlock(bc, block, false);
+    }
+    deferredCompleteBlocks.add(block);
+    return block;
+  }
+
+  /** @return true if some blocks are waiting to be completed */
+  public boolean hasDeferredCompleteBlocks() {
+    assert namesystem.hasBlockManagerReadLock();
+    return !deferredCompleteBlocks.isEmpty();
+  }
+
+  /**
+   * Complete the blocks whose completion was deferred because the namespace
+   * was not write-locked at the time. Blocks that were deleted, completed by
+   * their file being closed, or lost replicas in the meantime are skipped.
+   */
+  public void completeDeferredBlocks() {
+    assert namesystem.hasWriteLock();
+    for (BlockInfo block : deferredCompleteBlocks) {
+      final BlockCollection bc = block.getBlockCollection();
+      if (bc == null || block.getBlockUCState() != BlockUCState.COMMITTED) {
+        continue;
+      }
+      try {
+        completeBlock(bc, block, false);
+      } catch (IOException e) {
+        LOG.debug("Not completing " + block + ": " + e.getMessage());
+      }
+    }
+    deferredCompleteBlocks.clear();
+  }
+
   /**
    * Force the given block in the given file to be marked as complete,
    * regardless of whether enough replicas are present. This is necessary
@@ -817,7 +879,7 @@ public LocatedBlocks createLocatedBlocks(final BlockInfo[] blocks,
       final boolean isFileUnderConstruction, final long offset,
       final long length, final boolean needBlockToken, final boolean inSnapshot)
       throws IOException {
-    assert namesystem.hasReadLock();
+    assert namesystem.hasBlockManagerReadLock();
     if (blocks == null) {
       return null;
     } else if (blocks.length == 0) {
@@ -930,12 +992,12 @@ public void verifyReplication(String src,
   public BlocksWithLocations getBlocks(DatanodeID datanode, long size
       ) throws IOException {
     namesystem.checkOperation(OperationCategory.READ);
-    namesystem.readLock();
+    namesystem.blockManagerReadLock();
     try {
       namesystem.checkOperation(OperationCategory.READ);
       return getBlocksWithLocations(datanode, size);  
     } finally {
-      namesystem.readUnlock();
+      namesystem.blockManagerReadUnlock();
     }
   }
 
@@ -1036,7 +1098,7 @@ private void addToInvalidates(Block b) {
    */
   public void findAndMarkBlockAsCorrupt(final ExtendedBlock blk,
       final DatanodeInfo dn, String reason) throws IOException {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     final BlockInfo storedBlock = getStoredBlock(blk.getLocalBlock());
     if (storedBlock == null) {
       // Check if the replica is in the blockMap, if not
@@ -1174,13 +1236,13 @@ int computeInvalidateWork(int nodesToProcess) {
    */
   int computeReplicationWork(int blocksToProcess) {
     List<List<Block>> blocksToReplicate = null;
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       // Choose the blocks to be replicated
       blocksToReplicate = neededReplications
           .chooseUnderReplicatedBlocks(blocksToProcess);
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
     return computeReplicationWorkForBlocks(blocksToReplicate);
   }
@@ -1201,7 +1263,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     int scheduledWork = 0;
     List<ReplicationWork> work = new LinkedList<ReplicationWork>();
 
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       synchronized (neededReplications) {
         for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
@@ -1256,7 +1318,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
 
     final Set<Node> excludedNodes = new HashSet<Node>();
@@ -1274,7 +1336,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       rw.chooseTargets(blockplacement, excludedNodes);
     }
 
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       for(ReplicationWork rw : work){
         DatanodeDescriptor[] targets = rw.targets;
@@ -1346,7 +1408,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
 
     if (blockLog.isInfoEnabled()) {
@@ -1524,7 +1586,7 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
   private void processPendingReplications() {
     Block[] timedOutItems = pendingReplications.getTimedOutBlocks();
     if (timedOutItems != null) {
-      namesystem.writeLock();
+      namesystem.blockManagerWriteLock();
       try {
         for (int i = 0; i < timedOutItems.length; i++) {
           NumberReplicas num = countNodes(timedOutItems[i]);
@@ -1537,7 +1599,7 @@ private void processPendingReplications() {
           }
         }
       } finally {
-        namesystem.writeUnlock();
+        namesystem.blockManagerWriteUnlock();
       }
       /* If we know the target datanodes where the replication timedout,
        * we could invoke decBlocksScheduled() on it. Its ok for now.
@@ -1611,7 +1673,11 @@ public String toString() {
    */
   public void processReport(final DatanodeID nodeID, final String poolId,
       final BlockListAsLongs newReport) throws IOException {
-    namesystem.writeLock();
+    if (blockReportChunkSize > 0) {
+      processReportInChunks(nodeID, newReport);
+      return;
+    }
+    namesystem.blockManagerWriteLock();
     final long startTime = Time.now(); //after acquiring write lock
     final long endTime;
     try {
@@ -1633,7 +1699,7 @@ public void processReport(final DatanodeID nodeID, final String poolId,
       if (node.numBlocks() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(node, newReport);
+        processFirstBlockReport(node, newReport, false);
       } else {
         processReport(node, newReport);
       }
@@ -1651,7 +1717,7 @@ public void processReport(final DatanodeID nodeID, final String poolId,
       
     } finally {
       endTime = Time.now();
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
 
     // Log the block report processing stats from Namenode perspective
@@ -1664,6 +1730,171 @@ public void processReport(final DatanodeID nodeID, final String poolId,
         + ", processing time: " + (endTime - startTime) + " msecs");
   }
 
+  /**
+   * Process a full block report without holding the write lock for all of
+   * it. The difference between the report and the blocks known to be on the
+   * node is computed under the read lock, so the reports of several datanodes
+   * can be compared concurrently. The resulting changes are then applied
+   * under the write lock, which is released every blockReportChunkSize
+   * changes to let other operations in.
+   */
+  private void processReportInChunks(final DatanodeID nodeID,
+      final BlockListAsLongs newReport) throws IOException {
+    final long startTime = Time.now();
+    final DatanodeDescriptor node;
+    namesystem.blockManagerReadLock();
+    try {
+      node = datanodeManager.getDatanode(nodeID);
+      if (node == null || !node.isAlive) {
+        throw new IOException(
+            "ProcessReport from dead or unregistered node: " + nodeID);
+      }
+      if (namesystem.isInStartupSafeMode() && !node.isFirstBlockReport()) {
+        blockLog.info("BLOCK* processReport: "
+            + "discarded non-initial block report from " + nodeID
+            + " because namenode still in startup phase");
+        return;
+      }
+    } finally {
+      namesystem.blockManagerReadUnlock();
+    }
+
+    synchronized (node.getBlockReportLock()) {
+      Collection<BlockInfo> toAdd = new LinkedList<BlockInfo>();
+      Collection<Block> toRemove = new LinkedList<Block>();
+      Collection<Block> toInvalidate = new LinkedList<Block>();
+      Collection<BlockToMarkCorrupt> toCorrupt =
+          new LinkedList<BlockToMarkCorrupt>();
+      Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
+
+      // Compare the report with the blocks map
+      final boolean firstReport;
+      boolean writeLocked = false;
+      namesystem.blockManagerReadLock();
+      try {
+        if (shouldPostponeBlocksFromFuture) {
+          // queueing blocks from the future modifies shared state
+          namesystem.blockManagerReadUnlock();
+          namesystem.blockManagerWriteLock();
+          writeLocked = true;
+        }
+        checkNodeIsAlive(node);
+        firstReport = node.numBlocks() == 0;
+        if (!firstReport) {
+          reportDiffById(node, newReport, toAdd, toRemove, toInvalidate,
+              toCorrupt, toUC);
+        }
+      } finally {
+        if (writeLocked) {
+          namesystem.blockManagerWriteUnlock();
+        } else {
+          namesystem.blockManagerReadUnlock();
+        }
+      }
+
+      // Apply the changes
+      namesystem.blockManagerWriteLock();
+      try {
+        checkNodeIsAlive(node);
+        if (firstReport) {
+          processFirstBlockReport(node, newReport, true);
+        } else {
+          applyReportDiff(node, toAdd, toRemove, toInvalidate, toCorrupt,
+              toUC);
+        }
+
+        boolean staleBefore = node.areBlockContentsStale();
+        node.receivedBlockReport();
+        if (staleBefore && !node.areBlockContentsStale()) {
+          LOG.info("BLOCK* processReport: Received first block report from "
+              + node + " after starting up or becoming active. Its block "
+              + "contents are no longer considered stale");
+          rescanPostponedMisreplicatedBlocks();
+        }
+      } finally {
+        namesystem.blockManagerWriteUnlock();
+      }
+    }
+
+    final long endTime = Time.now();
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addBlockReport((int) (endTime - startTime));
+    }
+    blockLog.info("BLOCK* processReport: from "
+        + nodeID + ", blocks: " + newReport.getNumberOfBlocks()
+        + ", processing time: " + (endTime - startTime) + " msecs"
+        + " in chunks of " + blockReportChunkSize);
+  }
+
+  private static void checkNodeIsAlive(DatanodeDescriptor node)
+      throws IOException {
+    if (!node.isAlive) {
+      throw new IOException("Datanode " + node
+          + " was removed while its block report was being processed");
+    }
+  }
+
+  /**
+   * Count a change applied under the write lock for a block report
+   * processed in chunks, and release and reacquire the lock at the end of
+   * every chunk.
+   * @return the number of changes applied in the current chunk
+   */
+  private int yieldWriteLock(int changes, DatanodeDescriptor node)
+      throws IOException {
+    if (++changes < blockReportChunkSize) {
+      return changes;
+    }
+    namesystem.blockManagerWriteUnlock();
+    namesystem.blockManagerWriteLock();
+    checkNodeIsAlive(node);
+    return 0;
+  }
+
+  /**
+   * Apply the changes computed by {@link #reportDiffById}, in the same
+   * order as {@link #processReport(DatanodeDescriptor, BlockListAsLongs)}.
+   * Anything may have changed since they were computed, which the methods
+   * applying them already tolerate: blocks may have been deleted and
+   * replicas may have been added or removed concurrently.
+   */
+  private void applyReportDiff(final DatanodeDescriptor node,
+      Collection<BlockInfo> toAdd, Collection<Block> toRemove,
+      Collection<Block> toInvalidate, Collection<BlockToMarkCorrupt> toCorrupt,
+      Collection<StatefulBlockInfo> toUC) throws IOException {
+    int changes = 0;
+    for (StatefulBlockInfo b : toUC) { 
+      changes = yieldWriteLock(changes, node);
+      addStoredBlockUnderConstruction(b.storedBlock, node, b.reportedState);
+    }
+    for (Block b : toRemove) {
+      changes = yieldWriteLock(changes, node);
+      removeStoredBlock(b, node);
+    }
+    int numBlocksLogged = 0;
+    for (BlockInfo b : toAdd) {
+      changes = yieldWriteLock(changes, node);
+      addStoredBlock(b, node, null, numBlocksLogged < maxNumBlocksToLog);
+      numBlocksLogged++;
+    }
+    if (numBlocksLogged > maxNumBlocksToLog) {
+      blockLog.info("BLOCK* processReport: logged info for " + maxNumBlocksToLog
+          + " of " + numBlocksLogged + " reported.");
+    }
+    for (Block b : toInvalidate) {
+      changes = yieldWriteLock(changes, node);
+      blockLog.info("BLOCK* processReport: "
+          + b + " on " + node + " size " + b.getNumBytes()
+          + " does not belong to any file");
+      addToInvalidates(b, node);
+    }
+    for (BlockToMarkCorrupt b : toCorrupt) {
+      changes = yieldWriteLock(changes, node);
+      markBlockAsCorrupt(b, node);
+    }
+  }
+
   /**
    * Rescan the list of blocks which were previously postponed.
    */
@@ -1744,16 +1975,21 @@ private void processReport(final DatanodeDescriptor node,
    * the next block report.
    * @param node - DatanodeDescriptor of the node that sent the report
    * @param report - the initial block report, to be processed
+   * @param inChunks - whether to release the write lock between chunks
    * @throws IOException 
    */
   private void processFirstBlockReport(final DatanodeDescriptor node,
-      final BlockListAsLongs report) throws IOException {
+      final BlockListAsLongs report, boolean inChunks) throws IOException {
     if (report == null) return;
-    assert (namesystem.hasWriteLock());
+    assert (namesystem.hasBlockManagerWriteLock());
     assert (node.numBlocks() == 0);
     BlockReportIterator itBR = report.getBlockReportIterator();
+    int changes = 0;
 
     while(itBR.hasNext()) {
+      if (inChunks) {
+        changes = yieldWriteLock(changes, node);
+      }
       Block iblk = itBR.next();
       ReplicaState reportedState = itBR.getCurrentReplicaState();
       
@@ -1843,6 +2079,44 @@ private void reportDiff(DatanodeDescriptor dn,
     dn.removeBlock(delimiter);
   }
 
+  /**
+   * Like {@link #reportDiff}, but without modifying the block list of the
+   * datanode, so that it only needs the read lock. The ids of the reported
+   * blocks that are kept on the node are sorted, and every block on the
+   * node that is not among them is to be removed.
+   */
+  private void reportDiffById(DatanodeDescriptor dn,
+      BlockListAsLongs newReport,
+      Collection<BlockInfo> toAdd,              // add to DatanodeDescriptor
+      Collection<Block> toRemove,           // remove from DatanodeDescriptor
+      Collection<Block> toInvalidate,       // should be removed from DN
+      Collection<BlockToMarkCorrupt> toCorrupt, // add to corrupt replicas list
+      Collection<StatefulBlockInfo> toUC) { // add to under-construction list
+    if (newReport == null)
+      newReport = new BlockListAsLongs();
+    long[] kept = new long[newReport.getNumberOfBlocks()];
+    int numKept = 0;
+    BlockReportIterator itBR = newReport.getBlockReportIterator();
+    while(itBR.hasNext()) {
+      Block iblk = itBR.next();
+      ReplicaState iState = itBR.getCurrentReplicaState();
+      BlockInfo storedBlock = processReportedBlock(dn, iblk, iState,
+                                  toAdd, toInvalidate, toCorrupt, toUC);
+      if (storedBlock != null && storedBlock.findDatanode(dn) >= 0) {
+        kept[numKept++] = storedBlock.getBlockId();
+      }
+    }
+    Arrays.sort(kept, 0, numKept);
+    // collect blocks that have not been reported
+    Iterator<BlockInfo> it = dn.getBlockIterator();
+    while(it.hasNext()) {
+      BlockInfo b = it.next();
+      if (Arrays.binarySearch(kept, 0, numKept, b.getBlockId()) < 0) {
+        toRemove.add(b);
+      }
+    }
+  }
+
   /**
    * Process a block replica reported by the data-node.
    * No side effects except adding to the passed-in Collections.
@@ -2131,7 +2405,7 @@ void addStoredBlockUnderConstruction(
   private void addStoredBlockImmediate(BlockInfo storedBlock,
                                DatanodeDescriptor node)
   throws IOException {
-    assert (storedBlock != null && namesystem.hasWriteLock());
+    assert (storedBlock != null && namesystem.hasBlockManagerWriteLock());
     if (!namesystem.isInStartupSafeMode() 
         || namesystem.isPopulatingReplQueues()) {
       addStoredBlock(storedBlock, node, null, false);
@@ -2145,7 +2419,7 @@ private void addStoredBlockImmediate(BlockInfo storedBlock,
     int numCurrentReplica = countLiveNodes(storedBlock);
     if (storedBlock.getBlockUCState() == BlockUCState.COMMITTED
         && numCurrentReplica >= minReplication) {
-      completeBlock(storedBlock.getBlockCollection(), storedBlock, false);
+      completeOrDeferBlock(storedBlock.getBlockCollection(), storedBlock);
     } else if (storedBlock.isComplete()) {
       // check whether safe replication is reached for the block
       // only complete blocks are counted towards that.
@@ -2165,7 +2439,7 @@ private Block addStoredBlock(final BlockInfo block,
                                DatanodeDescriptor delNodeHint,
                                boolean logEveryBlock)
   throws IOException {
-    assert block != null && namesystem.hasWriteLock();
+    assert block != null && namesystem.hasBlockManagerWriteLock();
     BlockInfo storedBlock;
     if (block instanceof BlockInfoUnderConstruction) {
       //refresh our copy in case the block got completed in another thread
@@ -2215,7 +2489,7 @@ private Block addStoredBlock(final BlockInfo block,
 
     if(storedBlock.getBlockUCState() == BlockUCState.COMMITTED &&
         numLiveReplicas >= minReplication) {
-      storedBlock = completeBlock(bc, storedBlock, false);
+      storedBlock = completeOrDeferBlock(bc, storedBlock);
     } else if (storedBlock.isComplete()) {
       // check whether safe replication is reached for the block
       // only complete blocks are counted towards that
@@ -2318,7 +2592,7 @@ private void invalidateCorruptReplicas(BlockInfo blk) {
    * over or under replicated. Place it into the respective queue.
    */
   public void processMisReplicatedBlocks() {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
 
     long nrInvalid = 0, nrOverReplicated = 0, nrUnderReplicated = 0, nrPostponed = 0,
          nrUnderConstruction = 0;
@@ -2440,7 +2714,7 @@ public void setReplication(final short oldRepl, final short newRepl,
   private void processOverReplicatedBlock(final Block block,
       final short replication, final DatanodeDescriptor addedNode,
       DatanodeDescriptor delNodeHint) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     if (addedNode == delNodeHint) {
       delNodeHint = null;
     }
@@ -2493,7 +2767,7 @@ private void chooseExcessReplicates(Collection<DatanodeDescriptor> nonExcess,
                               DatanodeDescriptor addedNode,
                               DatanodeDescriptor delNodeHint,
                               BlockPlacementPolicy replicator) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     // first form a rack to datanodes map and
     BlockCollection bc = getBlockCollection(b);
     final Map<String, List<DatanodeDescriptor>> rackMap
@@ -2547,7 +2821,7 @@ private void chooseExcessReplicates(Collection<DatanodeDescriptor> nonExcess,
   }
 
   private void addToExcessReplicate(DatanodeInfo dn, Block block) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     LightWeightLinkedSet<Block> excessBlocks = excessReplicateMap.get(dn.getStorageID());
     if (excessBlocks == null) {
       excessBlocks = new LightWeightLinkedSet<Block>();
@@ -2572,7 +2846,7 @@ public void removeStoredBlock(Block block, DatanodeDescriptor node) {
       blockLog.debug("BLOCK* removeStoredBlock: "
           + block + " from " + node);
     }
-    assert (namesystem.hasWriteLock());
+    assert (namesystem.hasBlockManagerWriteLock());
     {
       if (!blocksMap.removeNode(block, node)) {
         if(blockLog.isDebugEnabled()) {
@@ -2710,7 +2984,7 @@ private void processAndHandleReportedBlock(DatanodeDescriptor node, Block block,
   public void processIncrementalBlockReport(final DatanodeID nodeID,
       final String poolId, final ReceivedDeletedBlockInfo blockInfos[])
       throws IOException {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     int received = 0;
     int deleted = 0;
     int receiving = 0;
@@ -2938,7 +3212,7 @@ public int getTotalBlocks() {
   }
 
   public void removeBlock(Block block) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     // No need to ACK blocks that are being removed entirely
     // from the namespace, since the removal of the associated
     // file already removes them from the block map below.
@@ -2961,7 +3235,7 @@ public BlockInfo getStoredBlock(Block block) {
   /** updates a block in under replication queue */
   private void updateNeededReplications(final Block block,
       final int curReplicasDelta, int expectedReplicasDelta) {
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       if (!namesystem.isPopulatingReplQueues()) {
         return;
@@ -2979,7 +3253,7 @@ private void updateNeededReplications(final Block block,
                                   oldExpectedReplicas);
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
   }
 
@@ -3022,7 +3296,7 @@ private int invalidateWorkForOneNode(String nodeId) {
     final List<Block> toInvalidate;
     final DatanodeDescriptor dn;
     
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       // blocks should not be replicated or removed if safe mode is on
       if (namesystem.isInSafeMode()) {
@@ -3041,7 +3315,7 @@ private int invalidateWorkForOneNode(String nodeId) {
         return 0;
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
     if (blockLog.isInfoEnabled()) {
       blockLog.info("BLOCK* " + getClass().getSimpleName()
@@ -3120,11 +3394,11 @@ public void removeBlockFromMap(Block block) {
   }
 
   public int getCapacity() {
-    namesystem.readLock();
+    namesystem.blockManagerReadLock();
     try {
       return blocksMap.getCapacity();
     } finally {
-      namesystem.readUnlock();
+      namesystem.blockManagerReadUnlock();
     }
   }
   
@@ -3226,12 +3500,12 @@ int computeDatanodeWork() {
     int workFound = this.computeReplicationWork(blocksToProcess);
 
     // Update counters
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       this.updateState();
       this.scheduledReplicationBlocksCount = workFound;
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
     workFound += this.computeInvalidateWork(nodesToProcess);
     return workFound;
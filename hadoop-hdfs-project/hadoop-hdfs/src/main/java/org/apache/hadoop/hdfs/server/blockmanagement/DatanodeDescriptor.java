@@ -225,6 +225,12 @@ public CachedBlocksList getPendingUncached() {
   
   /** Set to false after processing first block report */
   private boolean firstBlockReport = true;
+
+  /**
+   * Held while a full block report of this node is processed in chunks, so
+   * that two reports of the same node are never interleaved.
+   */
+  private final Object blockReportLock = new Object();
   
   /** 
    * When set to true, the node is not in include list and is not allowed
@@ -684,6 +690,10 @@ boolean isFirstBlockReport() {
     return firstBlockReport;
   }
 
+  Object getBlockReportLock() {
+    return blockReportLock;
+  }
+
   @Override
   public String dumpDatanode() {
     StringBuilder sb = new StringBuilder(super.dumpDatanode());
@@ -467,7 +467,7 @@ void datanodeDump(final PrintWriter out) {
    * @param nodeInfo datanode descriptor.
    */
   private void removeDatanode(DatanodeDescriptor nodeInfo) {
-    assert namesystem.hasWriteLock();
+    assert namesystem.hasBlockManagerWriteLock();
     heartbeatManager.removeDatanode(nodeInfo);
     blockManager.removeBlocksAssociatedTo(nodeInfo);
     networktopology.remove(nodeInfo);
@@ -485,7 +485,7 @@ private void removeDatanode(DatanodeDescriptor nodeInfo) {
    */
   public void removeDatanode(final DatanodeID node
       ) throws UnregisteredNodeException {
-    namesystem.writeLock();
+    namesystem.blockManagerWriteLock();
     try {
       final DatanodeDescriptor descriptor = getDatanode(node);
       if (descriptor != null) {
@@ -495,7 +495,7 @@ public void removeDatanode(final DatanodeID node
                                      + node + " does not exist");
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.blockManagerWriteUnlock();
     }
   }
 
@@ -1238,6 +1238,7 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
       long capacity, long dfsUsed, long remaining, long blockPoolUsed,
       long cacheCapacity, long cacheUsed, int xceiverCount, int maxTransfers,
       int failedVolumes) throws IOException {
+    final BlockInfoUnderConstruction[] recoveryBlocks;
     synchronized (heartbeatManager) {
       synchronized (datanodeMap) {
         DatanodeDescriptor nodeinfo = null;
@@ -1268,97 +1269,118 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
         }
 
         //check lease recovery
-        BlockInfoUnderConstruction[] blocks = nodeinfo
-            .getLeaseRecoveryCommand(Integer.MAX_VALUE);
-        if (blocks != null) {
-          BlockRecoveryCommand brCommand = new BlockRecoveryCommand(
-              blocks.length);
-          for (BlockInfoUnderConstruction b : blocks) {
-            DatanodeDescriptor[] expectedLocations = b.getExpectedLocations();
-            // Skip stale nodes during recovery - not heart beated for some time (30s by default).
-            List<DatanodeDescriptor> recoveryLocations =
-                new ArrayList<DatanodeDescriptor>(expectedLocations.length);
-            for (int i = 0; i < expectedLocations.length; i++) {
-              if (!expectedLocations[i].isStale(this.staleInterval)) {
-                recoveryLocations.add(expectedLocations[i]);
-              }
-            }
-            // If we only get 1 replica after eliminating stale nodes, then choose all
-            // replicas for recovery and let the primary data node handle failures.
-            if (recoveryLocations.size() > 1) {
-              if (recoveryLocations.size() != expectedLocations.length) {
-                LOG.info("Skipped stale nodes for recovery : " +
-                    (expectedLocations.length - recoveryLocations.size()));
-              }
-              brCommand.add(new RecoveringBlock(
-                  new ExtendedBlock(blockPoolId, b),
-                  recoveryLocations.toArray(new DatanodeDescriptor[recoveryLocations.size()]),
-                  b.getBlockRecoveryId()));
-            } else {
-              // If too many replicas are stale, then choose all replicas to participate
-              // in block recovery.
-              brCommand.add(new RecoveringBlock(
-                  new ExtendedBlock(blockPoolId, b),
-                  expectedLocations,
-                  b.getBlockRecoveryId()));
-            }
-          }
-          return new DatanodeCommand[] { brCommand };
+        recoveryBlocks = nodeinfo.getLeaseRecoveryCommand(Integer.MAX_VALUE);
+        if (recoveryBlocks == null) {
+          return getPendingCommands(nodeinfo, blockPoolId, maxTransfers);
         }
+      }
+    }
 
-        final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
-        //check pending replication
-        List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
-              maxTransfers);
-        if (pendingList != null) {
-          cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
-              pendingList));
-        }
-        //check block invalidation
-        Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
-        if (blks != null) {
-          cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
-              blockPoolId, blks));
+    // The expected locations of the blocks being recovered are block
+    // management state. Read them outside the monitors above, which threads
+    // holding the block management write lock may be waiting for.
+    namesystem.blockManagerReadLock();
+    try {
+      return new DatanodeCommand[] {
+          getBlockRecoveryCommand(blockPoolId, recoveryBlocks) };
+    } finally {
+      namesystem.blockManagerReadUnlock();
+    }
+  }
+
+  private BlockRecoveryCommand getBlockRecoveryCommand(String blockPoolId,
+      BlockInfoUnderConstruction[] blocks) {
+    BlockRecoveryCommand brCommand = new BlockRecoveryCommand(
+        blocks.length);
+    for (BlockInfoUnderConstruction b : blocks) {
+      DatanodeDescriptor[] expectedLocations = b.getExpectedLocations();
+      // Skip stale nodes during recovery - not heart beated for some time (30s by default).
+      List<DatanodeDescriptor> recoveryLocations =
+          new ArrayList<DatanodeDescriptor>(expectedLocations.length);
+      for (int i = 0; i < expectedLocations.length; i++) {
+        if (!expectedLocations[i].isStale(this.staleInterval)) {
+          recoveryLocations.add(expectedLocations[i]);
         }
-        boolean sendingCachingCommands = false;
-        long nowMs = Time.monotonicNow();
-        if (shouldSendCachingCommands && 
-            ((nowMs - nodeinfo.getLastCachingDirectiveSentTimeMs()) >=
-                timeBetweenResendingCachingDirectivesMs)) {
-          DatanodeCommand pendingCacheCommand =
-              getCacheCommand(nodeinfo.getPendingCached(), nodeinfo,
-                DatanodeProtocol.DNA_CACHE, blockPoolId);
-          if (pendingCacheCommand != null) {
-            cmds.add(pendingCacheCommand);
-            sendingCachingCommands = true;
-          }
-          DatanodeCommand pendingUncacheCommand =
-              getCacheCommand(nodeinfo.getPendingUncached(), nodeinfo,
-                DatanodeProtocol.DNA_UNCACHE, blockPoolId);
-          if (pendingUncacheCommand != null) {
-            cmds.add(pendingUncacheCommand);
-            sendingCachingCommands = true;
-          }
-          if (sendingCachingCommands) {
-            nodeinfo.setLastCachingDirectiveSentTimeMs(nowMs);
-          }
+      }
+      // If we only get 1 replica after eliminating stale nodes, then choose all
+      // replicas for recovery and let the primary data node handle failures.
+      if (recoveryLocations.size() > 1) {
+        if (recoveryLocations.size() != expectedLocations.length) {
+          LOG.info("Skipped stale nodes for recovery : " +
+              (expectedLocations.length - recoveryLocations.size()));
         }
+        brCommand.add(new RecoveringBlock(
+            new ExtendedBlock(blockPoolId, b),
+            recoveryLocations.toArray(new DatanodeDescriptor[recoveryLocations.size()]),
+            b.getBlockRecoveryId()));
+      } else {
+        // If too many replicas are stale, then choose all replicas to participate
+        // in block recovery.
+        brCommand.add(new RecoveringBlock(
+            new ExtendedBlock(blockPoolId, b),
+            expectedLocations,
+            b.getBlockRecoveryId()));
+      }
+    }
+    return brCommand;
+  }
 
-        blockManager.addKeyUpdateCommand(cmds, nodeinfo);
+  /**
+   * @return the replication, invalidation, caching and other pending
+   *         commands for a datanode
+   */
+  private DatanodeCommand[] getPendingCommands(DatanodeDescriptor nodeinfo,
+      String blockPoolId, int maxTransfers) {
+    final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
+    //check pending replication
+    List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
+          maxTransfers);
+    if (pendingList != null) {
+      cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
+          pendingList));
+    }
+    //check block invalidation
+    Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
+    if (blks != null) {
+      cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
+          blockPoolId, blks));
+    }
+    boolean sendingCachingCommands = false;
+    long nowMs = Time.monotonicNow();
+    if (shouldSendCachingCommands && 
+        ((nowMs - nodeinfo.getLastCachingDirectiveSentTimeMs()) >=
+            timeBetweenResendingCachingDirectivesMs)) {
+      DatanodeCommand pendingCacheCommand =
+          getCacheCommand(nodeinfo.getPendingCached(), nodeinfo,
+            DatanodeProtocol.DNA_CACHE, blockPoolId);
+      if (pendingCacheCommand != null) {
+        cmds.add(pendingCacheCommand);
+        sendingCachingCommands = true;
+      }
+      DatanodeCommand pendingUncacheCommand =
+          getCacheCommand(nodeinfo.getPendingUncached(), nodeinfo,
+            DatanodeProtocol.DNA_UNCACHE, blockPoolId);
+      if (pendingUncacheCommand != null) {
+        cmds.add(pendingUncacheCommand);
+        sendingCachingCommands = true;
+      }
+      if (sendingCachingCommands) {
+        nodeinfo.setLastCachingDirectiveSentTimeMs(nowMs);
+      }
+    }
 
-        // check for balancer bandwidth update
-        if (nodeinfo.getBalancerBandwidth() > 0) {
-          cmds.add(new BalancerBandwidthCommand(nodeinfo.getBalancerBandwidth()));
-          // set back to 0 to indicate that datanode has been sent the new value
-          nodeinfo.setBalancerBandwidth(0);
-        }
+    blockManager.addKeyUpdateCommand(cmds, nodeinfo);
 
-        if (!cmds.isEmpty()) {
-          return cmds.toArray(new DatanodeCommand[cmds.size()]);
-        }
-      }
+    // check for balancer bandwidth update
+    if (nodeinfo.getBalancerBandwidth() > 0) {
+      cmds.add(new BalancerBandwidthCommand(nodeinfo.getBalancerBandwidth()));
+      // set back to 0 to indicate that datanode has been sent the new value
+      nodeinfo.setBalancerBandwidth(0);
     }
 
+    if (!cmds.isEmpty()) {
+      return cmds.toArray(new DatanodeCommand[cmds.size()]);
+    }
     return new DatanodeCommand[0];
   }
 
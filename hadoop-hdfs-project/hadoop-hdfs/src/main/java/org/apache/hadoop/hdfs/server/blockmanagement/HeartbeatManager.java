@@ -249,8 +249,8 @@ void heartbeatCheck() {
 
       allAlive = dead == null;
       if (!allAlive) {
-        // acquire the fsnamesystem lock, and then remove the dead node.
-        namesystem.writeLock();
+        // acquire the block manager lock, and then remove the dead node.
+        namesystem.blockManagerWriteLock();
         try {
           if (namesystem.isInStartupSafeMode()) {
             return;
@@ -259,7 +259,7 @@ void heartbeatCheck() {
             dm.removeDeadDatanode(dead);
           }
         } finally {
-          namesystem.writeUnlock();
+          namesystem.blockManagerWriteUnlock();
         }
       }
     }
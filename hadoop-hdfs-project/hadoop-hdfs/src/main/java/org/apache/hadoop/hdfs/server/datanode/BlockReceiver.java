@@ -43,8 +43,11 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketReceiver;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PipelineAck;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats.IoType;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
@@ -112,6 +115,8 @@ class BlockReceiver implements Closeable {
   private final ExtendedBlock block; 
   /** the replica to write */
   private final ReplicaInPipelineInterface replicaInfo;
+  /** I/O statistics of the volume of the replica, if known */
+  private VolumeIoStats ioStats;
   /** pipeline stage */
   private final BlockConstructionStage stage;
   private final boolean isTransfer;
@@ -203,6 +208,9 @@ class BlockReceiver implements Closeable {
       
       final boolean isCreate = isDatanode || isTransfer 
           || stage == BlockConstructionStage.PIPELINE_SETUP_CREATE;
+      FsVolumeSpi volume = replicaInfo instanceof ReplicaInfo ?
+          ((ReplicaInfo)replicaInfo).getVolume() : null;
+      ioStats = volume != null ? volume.getIoStats() : null;
       streams = replicaInfo.createStreams(isCreate, requestedChecksum);
       assert streams != null : "null streams!";
 
@@ -274,9 +282,7 @@ public void close() throws IOException {
         checksumOut.flush();
         long flushEndNanos = System.nanoTime();
         if (syncOnClose && (cout instanceof FileOutputStream)) {
-          long fsyncStartNanos = flushEndNanos;
-          ((FileOutputStream)cout).getChannel().force(true);
-          datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+          fsync((FileOutputStream)cout);
         }
         flushTotalNanos += flushEndNanos - flushStartNanos;
         measuredFlushTime = true;
@@ -296,9 +302,7 @@ public void close() throws IOException {
         out.flush();
         long flushEndNanos = System.nanoTime();
         if (syncOnClose && (out instanceof FileOutputStream)) {
-          long fsyncStartNanos = flushEndNanos;
-          ((FileOutputStream)out).getChannel().force(true);
-          datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+          fsync((FileOutputStream)out);
         }
         flushTotalNanos += flushEndNanos - flushStartNanos;
         measuredFlushTime = true;
@@ -321,6 +325,25 @@ public void close() throws IOException {
     }
   }
 
+  /**
+   * Force a replica file to disk, accounting the time to the volume.
+   */
+  private void fsync(FileOutputStream fos) throws IOException {
+    if (ioStats != null) {
+      ioStats.beginIo();
+    }
+    long fsyncStartNanos = System.nanoTime();
+    try {
+      fos.getChannel().force(true);
+    } finally {
+      long fsyncNanos = System.nanoTime() - fsyncStartNanos;
+      if (ioStats != null) {
+        ioStats.endIo(IoType.SYNC, fsyncNanos, 0);
+      }
+      datanode.metrics.addFsyncNanos(fsyncNanos);
+    }
+  }
+
   /**
    * Flush block data and metadata files to disk.
    * @throws IOException
@@ -332,9 +355,7 @@ void flushOrSync(boolean isSync) throws IOException {
       checksumOut.flush();
       long flushEndNanos = System.nanoTime();
       if (isSync && (cout instanceof FileOutputStream)) {
-        long fsyncStartNanos = flushEndNanos;
-        ((FileOutputStream)cout).getChannel().force(true);
-        datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+        fsync((FileOutputStream)cout);
       }
       flushTotalNanos += flushEndNanos - flushStartNanos;
     }
@@ -343,9 +364,7 @@ void flushOrSync(boolean isSync) throws IOException {
       out.flush();
       long flushEndNanos = System.nanoTime();
       if (isSync && (out instanceof FileOutputStream)) {
-        long fsyncStartNanos = flushEndNanos;
-        ((FileOutputStream)out).getChannel().force(true);
-        datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+        fsync((FileOutputStream)out);
       }
       flushTotalNanos += flushEndNanos - flushStartNanos;
     }
@@ -564,7 +583,19 @@ private int receivePacket() throws IOException {
           int numBytesToDisk = (int)(offsetInBlock-onDiskLen);
           
           // Write data to disk.
-          out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
+          if (ioStats != null) {
+            ioStats.beginIo();
+          }
+          long writeStartNanos = System.nanoTime();
+          try {
+            out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
+          } finally {
+            long writeNanos = System.nanoTime() - writeStartNanos;
+            if (ioStats != null) {
+              ioStats.endIo(IoType.WRITE, writeNanos, numBytesToDisk);
+            }
+            datanode.metrics.addWriteIoNanos(writeNanos);
+          }
 
           // If this is a partial chunk, then verify that this is the only
           // chunk in the packet. Calculate new crc for this chunk.
@@ -31,12 +31,16 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats.IoType;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -106,6 +110,8 @@ class BlockSender implements java.io.Closeable {
   private final ExtendedBlock block;
   /** Stream to read block data from */
   private InputStream blockIn;
+  /** I/O statistics of the volume of the replica, if known */
+  private VolumeIoStats ioStats;
   /** updated while using transferTo() */
   private long blockInPosition = -1;
   /** Stream to read checksum */
@@ -224,9 +230,14 @@ class BlockSender implements java.io.Closeable {
       
       final Replica replica;
       final long replicaVisibleLength;
-      synchronized(datanode.data) { 
-        replica = getReplica(block, datanode);
-        replicaVisibleLength = replica.getVisibleLength();
+      final Lock blockLock = datanode.data.lockBlock(block.getBlockId());
+      try {
+        synchronized(datanode.data) { 
+          replica = getReplica(block, datanode);
+          replicaVisibleLength = replica.getVisibleLength();
+        }
+      } finally {
+        blockLock.unlock();
       }
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
@@ -247,6 +258,9 @@ class BlockSender implements java.io.Closeable {
       if (DataNode.LOG.isDebugEnabled()) {
         DataNode.LOG.debug("block=" + block + ", replica=" + replica);
       }
+      FsVolumeSpi volume = replica instanceof ReplicaInfo ?
+          ((ReplicaInfo)replica).getVolume() : null;
+      ioStats = volume != null ? volume.getIoStats() : null;
 
       // transferToFully() fails on 32 bit platforms for block sizes >= 2GB,
       // use normal transfer in those cases
@@ -527,7 +541,12 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     
     int dataOff = checksumOff + checksumDataLen;
     if (!transferTo) { // normal transfer
-      IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+      long readStartNanos = beginReadIo();
+      try {
+        IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+      } finally {
+        endReadIo(System.nanoTime() - readStartNanos, dataLen);
+      }
 
       if (verifyChecksum) {
         verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
@@ -544,8 +563,14 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
         FileChannel fileCh = ((FileInputStream)blockIn).getChannel();
         LongWritable waitTime = new LongWritable();
         LongWritable transferTime = new LongWritable();
-        sockOut.transferToFully(fileCh, blockInPosition, dataLen, 
-            waitTime, transferTime);
+        beginReadIo();
+        try {
+          sockOut.transferToFully(fileCh, blockInPosition, dataLen, 
+              waitTime, transferTime);
+        } finally {
+          // the transfer time excludes the time blocked on the network
+          endReadIo(transferTime.get(), dataLen);
+        }
         datanode.metrics.addSendDataPacketBlockedOnNetworkNanos(waitTime.get());
         datanode.metrics.addSendDataPacketTransferNanos(transferTime.get());
         blockInPosition += dataLen;
@@ -586,6 +611,24 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     return dataLen;
   }
   
+  /**
+   * Account a read of replica data to the volume.
+   * @return the start time of the read
+   */
+  private long beginReadIo() {
+    if (ioStats != null) {
+      ioStats.beginIo();
+    }
+    return System.nanoTime();
+  }
+
+  private void endReadIo(long latencyNanos, int len) {
+    if (ioStats != null) {
+      ioStats.endIo(IoType.READ, latencyNanos, len);
+    }
+    datanode.metrics.addReadIoNanos(latencyNanos);
+  }
+
   /**
    * Read checksum into given buffer
    * @param buf buffer to read the checksum into
@@ -95,6 +95,7 @@
 import java.security.PrivilegedExceptionAction;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 import javax.management.ObjectName;
 
@@ -1312,10 +1313,21 @@ private void handleDiskError(String errMsgr) {
     shouldRun = false;
   }
     
-  /** Number of concurrent xceivers per node. */
+  /**
+   * Number of concurrent xceivers per node, including those whose idle
+   * connections are parked without a thread.
+   */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    int count = threadGroup.activeCount();
+    if (dataXceiverServer != null) {
+      count += ((DataXceiverServer) dataXceiverServer.getRunnable())
+          .getNumIdlePeers();
+    }
+    return count;
   }
   
   int getXmitsInProgress() {
@@ -2211,28 +2223,33 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
-      Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
-          b.getBlockId());
-      if (null == storedBlock) {
-        throw new IOException(b + " not found in datanode.");
-      }
-      storedGS = storedBlock.getGenerationStamp();
-      if (storedGS < b.getGenerationStamp()) {
-        throw new IOException(storedGS
-            + " = storedGS < b.getGenerationStamp(), b=" + b);
-      }
-      // Update the genstamp with storedGS
-      b.setGenerationStamp(storedGS);
-      if (data.isValidRbw(b)) {
-        stage = BlockConstructionStage.TRANSFER_RBW;
-      } else if (data.isValidBlock(b)) {
-        stage = BlockConstructionStage.TRANSFER_FINALIZED;
-      } else {
-        final String r = data.getReplicaString(b.getBlockPoolId(), b.getBlockId());
-        throw new IOException(b + " is neither a RBW nor a Finalized, r=" + r);
+    final Lock blockLock = data.lockBlock(b.getBlockId());
+    try {
+      synchronized(data) {
+        Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
+            b.getBlockId());
+        if (null == storedBlock) {
+          throw new IOException(b + " not found in datanode.");
+        }
+        storedGS = storedBlock.getGenerationStamp();
+        if (storedGS < b.getGenerationStamp()) {
+          throw new IOException(storedGS
+              + " = storedGS < b.getGenerationStamp(), b=" + b);
+        }
+        // Update the genstamp with storedGS
+        b.setGenerationStamp(storedGS);
+        if (data.isValidRbw(b)) {
+          stage = BlockConstructionStage.TRANSFER_RBW;
+        } else if (data.isValidBlock(b)) {
+          stage = BlockConstructionStage.TRANSFER_FINALIZED;
+        } else {
+          final String r = data.getReplicaString(b.getBlockPoolId(), b.getBlockId());
+          throw new IOException(b + " is neither a RBW nor a Finalized, r=" + r);
+        }
+        visible = data.getReplicaVisibleLength(b);
       }
-      visible = data.getReplicaVisibleLength(b);
+    } finally {
+      blockLock.unlock();
     }
     //set visible length
     b.setNumBytes(visible);
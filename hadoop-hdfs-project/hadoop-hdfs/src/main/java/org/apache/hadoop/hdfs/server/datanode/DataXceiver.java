@@ -100,6 +100,12 @@ class DataXceiver extends Receiver implements Runnable {
    * on the socket.
    */
   private String previousOpClientName;
+
+  /**
+   * Number of operations processed on this connection. Kept across the
+   * threads that run this xceiver when its idle connection is parked.
+   */
+  private int opsProcessed = 0;
   
   public static DataXceiver create(Peer peer, DataNode dn,
       DataXceiverServer dataXceiverServer) throws IOException {
@@ -155,32 +161,36 @@ private OutputStream getOutputStream() {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
 
-    dataXceiverServer.addPeer(peer);
     try {
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      if (dnConf.encryptDataTransfer) {
-        IOStreamPair encryptedStreams = null;
-        try {
-          encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
-              socketIn, datanode.blockPoolTokenSecretManager,
-              dnConf.encryptionAlgorithm);
-        } catch (InvalidMagicNumberException imne) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-          return;
+      // A parked xceiver resumes with its streams already set up
+      if (opsProcessed == 0) {
+        dataXceiverServer.addPeer(peer);
+        peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+        InputStream input = socketIn;
+        if (dnConf.encryptDataTransfer) {
+          IOStreamPair encryptedStreams = null;
+          try {
+            encryptedStreams = DataTransferEncryptor.getEncryptedStreams(
+                socketOut, socketIn, datanode.blockPoolTokenSecretManager,
+                dnConf.encryptionAlgorithm);
+          } catch (InvalidMagicNumberException imne) {
+            LOG.info("Failed to read expected encryption handshake from " +
+                "client at " + peer.getRemoteAddressString() + ". Perhaps " +
+                "the client is running an older version of Hadoop which " +
+                "does not support encryption");
+            return;
+          }
+          input = encryptedStreams.in;
+          socketOut = encryptedStreams.out;
         }
-        input = encryptedStreams.in;
-        socketOut = encryptedStreams.out;
+        input = new BufferedInputStream(input,
+            HdfsConstants.SMALL_BUFFER_SIZE);
+
+        super.initialize(new DataInputStream(input));
       }
-      input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
-      
-      super.initialize(new DataInputStream(input));
       
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
@@ -220,6 +230,15 @@ public void run() {
         opStartTime = now();
         processOp(op);
         ++opsProcessed;
+
+        // Rather than block this thread until the next request, let the
+        // server wait for it. Buffered bytes mean it has already arrived.
+        if (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0 &&
+            in.available() == 0 &&
+            dataXceiverServer.parkIdleXceiver(this, peer)) {
+          parked = true;
+          break;
+        }
       } while (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0);
     } catch (Throwable t) {
       LOG.error(datanode.getDisplayName() + ":DataXceiver error processing " +
@@ -227,13 +246,16 @@ public void run() {
                 " src: " + remoteAddress +
                 " dest: " + localAddress, t);
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
+      // Once parked, the xceiver may already be running on another thread
+      if (!parked) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        dataXceiverServer.closePeer(peer);
+        IOUtils.closeStream(in);
       }
-      updateCurrentThreadName("Cleaning up");
-      dataXceiverServer.closePeer(peer);
-      IOUtils.closeStream(in);
     }
   }
 
@@ -20,8 +20,17 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
@@ -31,7 +40,9 @@
 import org.apache.hadoop.hdfs.server.balancer.Balancer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
 
 
 /**
@@ -103,7 +114,12 @@ synchronized void release() {
    * i.e. either the actual block size or the default block size.
    */
   long estimateBlockSize;
-  
+
+  /**
+   * Watches the connections of idle xceivers, or null if idle xceivers
+   * keep their thread.
+   */
+  private final IdlePeerWatcher idlePeerWatcher;
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
       DataNode datanode) {
@@ -122,17 +138,40 @@ synchronized void release() {
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong(DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY, 
                    DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT));
+
+    IdlePeerWatcher watcher = null;
+    if (conf.getBoolean(DFSConfigKeys.DFS_DATANODE_PARK_IDLE_XCEIVERS_KEY,
+        DFSConfigKeys.DFS_DATANODE_PARK_IDLE_XCEIVERS_DEFAULT)) {
+      try {
+        watcher = new IdlePeerWatcher(conf.getInt(
+            DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+            DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT));
+      } catch (IOException e) {
+        LOG.warn("Could not open a selector for idle xceivers; they will " +
+            "keep their threads", e);
+      }
+    }
+    this.idlePeerWatcher = watcher;
   }
 
   @Override
   public void run() {
+    Daemon watcherThread = null;
+    if (idlePeerWatcher != null) {
+      // Not in datanode.threadGroup, whose threads count as xceivers
+      watcherThread = new Daemon(datanode.threadGroup.getParent(),
+          idlePeerWatcher);
+      watcherThread.setName("DataXceiverServer idle peer watcher");
+      watcherThread.start();
+    }
     Peer peer = null;
     while (datanode.shouldRun) {
       try {
         peer = peerServer.accept();
 
-        // Make sure the xceiver count is not exceeded
-        int curXceiverCount = datanode.getXceiverCount();
+        // Make sure the xceiver count is not exceeded. Parked connections
+        // do not hold a thread, so they do not count against the limit.
+        int curXceiverCount = datanode.getXceiverCount() - getNumIdlePeers();
         if (curXceiverCount > maxXceiverCount) {
           throw new IOException("Xceiver count " + curXceiverCount
               + " exceeds the limit of concurrent xcievers: "
@@ -170,6 +209,14 @@ public void run() {
         datanode.shouldRun = false;
       }
     }
+    if (watcherThread != null) {
+      idlePeerWatcher.stop();
+      try {
+        watcherThread.join();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
     synchronized (this) {
       for (Peer p : peers) {
         IOUtils.cleanup(LOG, p);
@@ -201,4 +248,193 @@ synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     IOUtils.cleanup(null, peer);
   }
+
+  /** @return the number of parked connections, which hold no thread. */
+  int getNumIdlePeers() {
+    return idlePeerWatcher == null ? 0 : idlePeerWatcher.numParked.get();
+  }
+
+  /**
+   * Park the connection of an xceiver that is waiting for its next
+   * operation. If this returns true, the xceiver's thread must exit without
+   * touching the xceiver again: it is run again on a new thread once the
+   * next request arrives, and its peer is closed if none arrives within the
+   * keepalive timeout.
+   *
+   * @return false if the connection cannot be parked, in which case the
+   *         caller keeps waiting for the next operation itself
+   */
+  boolean parkIdleXceiver(DataXceiver xceiver, Peer peer) {
+    if (idlePeerWatcher == null || datanode.getDnConf().encryptDataTransfer) {
+      return false;
+    }
+    SelectableChannel channel = getSelectableChannel(peer);
+    if (channel == null || channel.isBlocking()) {
+      return false;
+    }
+    return idlePeerWatcher.park(new ParkedXceiver(xceiver, peer, channel));
+  }
+
+  /**
+   * @return the channel a selector can wait on for the peer's next request,
+   *         or null if the peer has none, e.g. a UNIX domain socket
+   */
+  private static SelectableChannel getSelectableChannel(Peer peer) {
+    ReadableByteChannel channel = peer.getInputStreamChannel();
+    if (channel instanceof SocketInputStream) {
+      channel = ((SocketInputStream) channel).getChannel();
+    }
+    return channel instanceof SelectableChannel ?
+        (SelectableChannel) channel : null;
+  }
+
+  /** An xceiver waiting for its next operation without a thread. */
+  private static class ParkedXceiver {
+    final DataXceiver xceiver;
+    final Peer peer;
+    final SelectableChannel channel;
+    long deadline;
+    SelectionKey key;
+
+    ParkedXceiver(DataXceiver xceiver, Peer peer, SelectableChannel channel) {
+      this.xceiver = xceiver;
+      this.peer = peer;
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * Waits on a single selector for requests on the parked connections.
+   * When one becomes readable its xceiver is resumed on a new thread in the
+   * xceiver thread group; when one stays idle past the keepalive timeout it
+   * is closed, as the xceiver itself would have done.
+   */
+  private class IdlePeerWatcher implements Runnable {
+    private final Selector selector;
+    private final int keepaliveTimeout;
+    /** Parked by xceiver threads, not yet registered with the selector. */
+    private final List<ParkedXceiver> pending = new ArrayList<ParkedXceiver>();
+    /** Registered with the selector, in deadline order. */
+    private final Set<ParkedXceiver> parked =
+        new LinkedHashSet<ParkedXceiver>();
+    private final AtomicInteger numParked = new AtomicInteger();
+    private volatile boolean running = true;
+
+    IdlePeerWatcher(int keepaliveTimeout) throws IOException {
+      this.selector = Selector.open();
+      this.keepaliveTimeout = keepaliveTimeout;
+    }
+
+    boolean park(ParkedXceiver p) {
+      synchronized (pending) {
+        if (!running) {
+          return false;
+        }
+        p.deadline = Time.monotonicNow() + keepaliveTimeout;
+        pending.add(p);
+        numParked.incrementAndGet();
+      }
+      selector.wakeup();
+      return true;
+    }
+
+    void stop() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running && datanode.shouldRun) {
+          // Keys found ready while deregistering are still selected
+          if (selector.selectedKeys().isEmpty()) {
+            long timeout = 0;
+            if (!parked.isEmpty()) {
+              timeout = Math.max(1, parked.iterator().next().deadline -
+                  Time.monotonicNow());
+            }
+            selector.select(timeout);
+          }
+          boolean cancelled = false;
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            key.cancel();
+            cancelled = true;
+            ParkedXceiver p = (ParkedXceiver) key.attachment();
+            parked.remove(p);
+            resume(p);
+          }
+          long now = Time.monotonicNow();
+          for (Iterator<ParkedXceiver> it = parked.iterator(); it.hasNext();) {
+            ParkedXceiver p = it.next();
+            if (p.deadline > now) {
+              break;
+            }
+            it.remove();
+            p.key.cancel();
+            cancelled = true;
+            expire(p);
+          }
+          if (cancelled) {
+            // Deregister the cancelled keys now, so that their channels can
+            // be registered again as soon as they are parked again
+            selector.selectNow();
+          }
+          registerPending();
+        }
+      } catch (Throwable t) {
+        LOG.error(datanode.getDisplayName() +
+            ":DataXceiverServer: idle peer watcher exiting", t);
+      } finally {
+        synchronized (pending) {
+          running = false;
+          parked.addAll(pending);
+          pending.clear();
+        }
+        for (ParkedXceiver p : parked) {
+          expire(p);
+        }
+        parked.clear();
+        IOUtils.cleanup(LOG, selector);
+      }
+    }
+
+    private void registerPending() {
+      synchronized (pending) {
+        for (ParkedXceiver p : pending) {
+          try {
+            p.key = p.channel.register(selector, SelectionKey.OP_READ, p);
+            parked.add(p);
+          } catch (IOException e) {
+            // The peer was closed while being parked
+            expire(p);
+          }
+        }
+        pending.clear();
+      }
+    }
+
+    private void resume(ParkedXceiver p) {
+      try {
+        new Daemon(datanode.threadGroup, p.xceiver).start();
+      } catch (Throwable t) {
+        LOG.warn(datanode.getDisplayName() +
+            ":DataXceiverServer: could not resume xceiver for " + p.peer, t);
+        closePeer(p.peer);
+      } finally {
+        numParked.decrementAndGet();
+      }
+    }
+
+    private void expire(ParkedXceiver p) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Closing idle " + p.peer);
+      }
+      closePeer(p.peer);
+      numParked.decrementAndGet();
+    }
+  }
 }
@@ -321,6 +321,10 @@ public long getGenStamp() {
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
+    if (threads <= 0) {
+      // Compile the reports of all the volumes at once
+      threads = Math.max(1, dataset.getVolumes().size());
+    }
 
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
@@ -427,7 +431,10 @@ void scan() {
     clear();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
+    // Hold FSDataset lock to prevent further changes to the block map by
+    // recovery operations. Replicas are still created and finalized under
+    // their block locks only, so the differences found are candidates that
+    // checkAndUpdate checks again under the lock of each block.
     synchronized(dataset) {
       for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
         String bpid = entry.getKey();
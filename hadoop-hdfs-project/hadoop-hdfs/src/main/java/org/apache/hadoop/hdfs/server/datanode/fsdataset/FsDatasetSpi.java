@@ -23,6 +23,7 @@
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
@@ -123,6 +124,15 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b
    */
   public long getLength(ExtendedBlock b) throws IOException;
 
+  /**
+   * Acquire the lock that serializes the changes to the replica of a block.
+   * Hold it, before synchronizing on the dataset if that is needed too, to
+   * look at a replica consistently across several calls.
+   * @param blockId the block
+   * @return the acquired lock, which the caller must unlock
+   */
+  public Lock lockBlock(long blockId);
+
   /**
    * Get reference to the replica meta info in the replicasMap. 
    * To be called from methods that are synchronized on {@link FSDataset}
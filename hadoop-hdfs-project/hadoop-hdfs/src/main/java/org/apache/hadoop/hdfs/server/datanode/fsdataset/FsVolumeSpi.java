@@ -38,4 +38,7 @@ public interface FsVolumeSpi {
 
   /** @return the directory for the finalized blocks in the block pool. */
   public File getFinalizedDir(String bpid) throws IOException;
+
+  /** @return the I/O statistics of the volume, or null if not tracked. */
+  public VolumeIoStats getIoStats();
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_KEY;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+
+/**
+ * A DN volume choosing policy which takes into account how busy each volume
+ * is when assigning a new replica. The load of a volume is the expected time
+ * for a new I/O to complete on it, estimated from the operations in progress
+ * and the recent latency reported by its {@link VolumeIoStats}, so reads
+ * count as well as writes. Volumes whose latency is not known yet, or has
+ * decayed away while they were idle, are taken to have the mean latency of
+ * the others. New replicas go round robin to the volumes whose load is
+ * within the configured fraction of the least loaded volume with enough
+ * space.
+ */
+public class LeastLoadedVolumeChoosingPolicy<V extends FsVolumeSpi>
+    implements VolumeChoosingPolicy<V>, Configurable {
+
+  private static final Log LOG =
+      LogFactory.getLog(LeastLoadedVolumeChoosingPolicy.class);
+
+  private float balancedLoadFraction =
+      DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_DEFAULT;
+
+  private final VolumeChoosingPolicy<V> roundRobinPolicy =
+      new RoundRobinVolumeChoosingPolicy<V>();
+
+  @Override
+  public synchronized void setConf(Configuration conf) {
+    balancedLoadFraction = conf.getFloat(
+        DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_KEY,
+        DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_DEFAULT);
+    LOG.info("Least loaded volume choosing policy initialized: " +
+        DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_KEY +
+        " = " + balancedLoadFraction);
+    if (balancedLoadFraction < 0) {
+      LOG.warn("The value of " +
+          DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_KEY +
+          " is negative; only the least loaded volumes will be chosen");
+      balancedLoadFraction = 0;
+    }
+  }
+
+  @Override
+  public synchronized Configuration getConf() {
+    // Nothing to do. Only added to fulfill the Configurable contract.
+    return null;
+  }
+
+  @Override
+  public synchronized V chooseVolume(List<V> volumes, final long replicaSize)
+      throws IOException {
+    if (volumes.size() < 1) {
+      throw new DiskOutOfSpaceException("No more available volumes");
+    }
+
+    // Sample the statistics of the volumes with room for the replica once
+    List<V> candidates = new ArrayList<V>(volumes.size());
+    List<Long> latencies = new ArrayList<Long>(volumes.size());
+    List<Integer> pendingIos = new ArrayList<Integer>(volumes.size());
+    long totalLatency = 0;
+    int knownLatencies = 0;
+    for (V volume : volumes) {
+      if (volume.getAvailable() > replicaSize) {
+        VolumeIoStats stats = volume.getIoStats();
+        long latency = stats != null ? stats.getAverageIoNanos() : 0;
+        candidates.add(volume);
+        latencies.add(latency);
+        pendingIos.add(stats != null ? stats.getPendingIoCount() : 0);
+        if (latency > 0) {
+          totalLatency += latency;
+          knownLatencies++;
+        }
+      }
+    }
+    if (candidates.isEmpty()) {
+      // Let the round robin policy report the volume with the most space
+      return roundRobinPolicy.chooseVolume(volumes, replicaSize);
+    }
+
+    // Without any latency, the operations in progress decide alone
+    long defaultLatency =
+        knownLatencies > 0 ? Math.max(1, totalLatency / knownLatencies) : 1;
+    List<Long> loads = new ArrayList<Long>(candidates.size());
+    long leastLoad = Long.MAX_VALUE;
+    for (int i = 0; i < candidates.size(); i++) {
+      long latency = latencies.get(i) > 0 ? latencies.get(i) : defaultLatency;
+      long load = (pendingIos.get(i) + 1) * latency;
+      loads.add(load);
+      leastLoad = Math.min(leastLoad, load);
+    }
+
+    long maxLoad = leastLoad + (long)(leastLoad * balancedLoadFraction);
+    List<V> leastLoaded = new ArrayList<V>(candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      if (loads.get(i) <= maxLoad) {
+        leastLoaded.add(candidates.get(i));
+      }
+    }
+    V volume = roundRobinPolicy.chooseVolume(leastLoaded, replicaSize);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Selecting " + volume + " out of " + leastLoaded.size() +
+          " volumes with a load of at most " + maxLoad + "ns for write of" +
+          " block size " + replicaSize);
+    }
+    return volume;
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * I/O statistics of a volume: the number of operations in progress, the
+ * count, bytes and time of completed operations by type, and a moving
+ * average of the latency of data reads and writes. Used to report
+ * per-volume load and by
+ * {@link LeastLoadedVolumeChoosingPolicy} to steer writes away from busy
+ * disks.
+ */
+@InterfaceAudience.Private
+public class VolumeIoStats {
+  /** Types of operations on a volume. */
+  public static enum IoType {
+    /** Read of replica data. */
+    READ,
+    /** Write of replica data. */
+    WRITE,
+    /** fsync of a replica file. */
+    SYNC,
+    /** Creation, rename or deletion of a replica file. */
+    METADATA
+  }
+
+  // Weight of the latest operation in the moving average of the latency
+  private static final double LATENCY_ALPHA = 1.0 / 16;
+  // Time for the average to halve while the volume is idle
+  private static final long LATENCY_HALF_LIFE_NANOS =
+      TimeUnit.SECONDS.toNanos(1);
+
+  private final AtomicInteger pendingIo = new AtomicInteger();
+  private final AtomicLong[] counts = newCounters();
+  private final AtomicLong[] bytes = newCounters();
+  private final AtomicLong[] nanos = newCounters();
+  private volatile long averageIoNanos = 0;
+  private volatile long lastIoNanos = 0;
+
+  private static AtomicLong[] newCounters() {
+    AtomicLong[] counters = new AtomicLong[IoType.values().length];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new AtomicLong();
+    }
+    return counters;
+  }
+
+  /**
+   * Called before an operation is issued to the volume. Must be followed by
+   * {@link #endIo(IoType, long, long)}, whether or not it succeeds.
+   */
+  public void beginIo() {
+    pendingIo.incrementAndGet();
+  }
+
+  /**
+   * Called when an operation started by {@link #beginIo()} finishes.
+   * @param type the type of the operation
+   * @param latencyNanos the time the operation took
+   * @param numBytes the bytes read or written, if any
+   */
+  public void endIo(IoType type, long latencyNanos, long numBytes) {
+    pendingIo.decrementAndGet();
+    int i = type.ordinal();
+    counts[i].incrementAndGet();
+    bytes[i].addAndGet(numBytes);
+    nanos[i].addAndGet(latencyNanos);
+    if (type == IoType.READ || type == IoType.WRITE) {
+      // fsyncs and metadata operations take far longer than data transfers,
+      // most of which hit the page cache, so they are left out.
+      final long now = now();
+      // decay the average only for the time the volume was idle before this
+      // operation started, if it was idle at all
+      long avg = getAverageIoNanos(now - latencyNanos);
+      // updates that race with this one are lost, which is fine for an
+      // estimate
+      averageIoNanos = avg + (long)((latencyNanos - avg) * LATENCY_ALPHA);
+      lastIoNanos = now;
+    }
+  }
+
+  /** @return the number of operations in progress on the volume. */
+  public int getPendingIoCount() {
+    return pendingIo.get();
+  }
+
+  /**
+   * @return the moving average of the latency of recent data reads and
+   *         writes. It decays while the volume is idle, so that a few slow
+   *         operations do not keep new ones away for good; 0 if unknown.
+   */
+  public long getAverageIoNanos() {
+    return getAverageIoNanos(now());
+  }
+
+  private long getAverageIoNanos(long now) {
+    final long avg = averageIoNanos;
+    final long idleNanos = now - lastIoNanos;
+    if (idleNanos <= 0 || getPendingIoCount() > 0) {
+      return avg;
+    }
+    return (long)(avg *
+        Math.pow(0.5, (double)idleNanos / LATENCY_HALF_LIFE_NANOS));
+  }
+
+  /** @return the current time in nanoseconds; overridden by tests. */
+  long now() {
+    return System.nanoTime();
+  }
+
+  /** @return the number of completed operations of the type. */
+  public long getCount(IoType type) {
+    return counts[type.ordinal()].get();
+  }
+
+  /** @return the bytes transferred by completed operations of the type. */
+  public long getBytes(IoType type) {
+    return bytes[type.ordinal()].get();
+  }
+
+  /** @return the total time taken by completed operations of the type. */
+  public long getTotalNanos(IoType type) {
+    return nanos[type.ordinal()].get();
+  }
+}
@@ -18,11 +18,19 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.DU;
@@ -30,6 +38,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
@@ -40,15 +49,22 @@
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
+import org.apache.hadoop.util.Time;
 
 /**
  * A block pool slice represents a portion of a block pool stored on a volume.  
  * Taken together, all BlockPoolSlices sharing a block pool ID across a 
  * cluster represent a single block pool.
  * 
- * This class is synchronized by {@link FsVolumeImpl}.
+ * This class is synchronized by {@link FsVolumeImpl}, except for the
+ * finalized directory tree, which has its own lock so that replicas can be
+ * finalized on different volumes concurrently.
  */
 class BlockPoolSlice {
+  // File in currentDir with the replicas saved at the last clean shutdown
+  private static final String REPLICAS_FILE = "replicas";
+  private static final int REPLICAS_FILE_VERSION = 1;
+
   private final String bpid;
   private final FsVolumeImpl volume; // volume to which this BlockPool belongs to
   private final File currentDir; // StorageDirectory/current/bpid/current
@@ -59,6 +75,10 @@ class BlockPoolSlice {
   // TODO:FEDERATION scalability issue - a thread per DU is needed
   private final DU dfsUsage;
 
+  private final boolean persistReplicas;
+  // Finalized replicas read from REPLICAS_FILE, until added to the map
+  private List<FinalizedReplica> savedReplicas;
+
   /**
    * Create a blook pool slice 
    * @param bpid Block pool Id
@@ -94,7 +114,24 @@ class BlockPoolSlice {
     final int maxBlocksPerDir = conf.getInt(
         DFSConfigKeys.DFS_DATANODE_NUMBLOCKS_KEY,
         DFSConfigKeys.DFS_DATANODE_NUMBLOCKS_DEFAULT);
-    this.finalizedDir = new LDir(finalizedDir, maxBlocksPerDir);
+    this.persistReplicas = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_REPLICAS_PERSIST_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICAS_PERSIST_DEFAULT);
+    long savedDfsUsed = -1L;
+    if (persistReplicas && finalizedDir.isDirectory()) {
+      savedDfsUsed = readSavedReplicas(finalizedDir, conf.getLong(
+          DFSConfigKeys.DFS_DATANODE_REPLICAS_PERSIST_MAX_AGE_MS_KEY,
+          DFSConfigKeys.DFS_DATANODE_REPLICAS_PERSIST_MAX_AGE_MS_DEFAULT));
+    }
+    if (savedReplicas != null) {
+      List<File> replicaDirs = new ArrayList<File>(savedReplicas.size());
+      for (FinalizedReplica replica : savedReplicas) {
+        replicaDirs.add(replica.getBlockFile().getParentFile());
+      }
+      this.finalizedDir = new LDir(finalizedDir, maxBlocksPerDir, replicaDirs);
+    } else {
+      this.finalizedDir = new LDir(finalizedDir, maxBlocksPerDir);
+    }
     if (!rbwDir.mkdirs()) {  // create rbw directory if not exist
       if (!rbwDir.isDirectory()) {
         throw new IOException("Mkdirs failed to create " + rbwDir.toString());
@@ -105,7 +142,7 @@ class BlockPoolSlice {
         throw new IOException("Mkdirs failed to create " + tmpDir.toString());
       }
     }
-    this.dfsUsage = new DU(bpDir, conf);
+    this.dfsUsage = new DU(bpDir, conf, savedDfsUsed);
     this.dfsUsage.start();
   }
 
@@ -149,21 +186,39 @@ File createRbwFile(Block b) throws IOException {
   }
 
   File addBlock(Block b, File f) throws IOException {
-    File blockFile = finalizedDir.addBlock(b, f);
+    File blockFile;
+    synchronized (finalizedDir) {
+      blockFile = finalizedDir.addBlock(b, f);
+    }
     File metaFile = FsDatasetUtil.getMetaFile(blockFile, b.getGenerationStamp());
     dfsUsage.incDfsUsed(b.getNumBytes()+metaFile.length());
     return blockFile;
   }
     
   void checkDirs() throws DiskErrorException {
-    finalizedDir.checkDirTree();
+    synchronized (finalizedDir) {
+      finalizedDir.checkDirTree();
+    }
     DiskChecker.checkDir(tmpDir);
     DiskChecker.checkDir(rbwDir);
   }
     
   void getVolumeMap(ReplicaMap volumeMap) throws IOException {
-    // add finalized replicas
-    finalizedDir.getVolumeMap(bpid, volumeMap, volume);
+    if (savedReplicas != null) {
+      // add the finalized replicas saved at the last shutdown
+      for (FinalizedReplica replica : savedReplicas) {
+        ReplicaInfo oldReplica = volumeMap.add(bpid, replica);
+        if (oldReplica != null) {
+          FsDatasetImpl.LOG.warn("Two block files with the same block id " +
+              "exist on disk: " + oldReplica.getBlockFile() + " and " +
+              replica.getBlockFile());
+        }
+      }
+      savedReplicas = null;
+    } else {
+      // add finalized replicas
+      finalizedDir.getVolumeMap(bpid, volumeMap, volume);
+    }
     // add rbw replicas
     addToReplicasMap(volumeMap, rbwDir, false);
   }
@@ -203,6 +258,152 @@ void addToReplicasMap(ReplicaMap volumeMap, File dir, boolean isFinalized
     }
   }
   
+  /**
+   * Save the finalized replicas of this slice in volumeMap, and the space
+   * it uses, so that the next start can skip walking the directories. The
+   * file is written under a temporary name and then renamed, so that a
+   * partially written file is never read.
+   */
+  void saveReplicas(ReplicaMap volumeMap) {
+    if (!persistReplicas) {
+      return;
+    }
+    Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+    if (replicas == null) {
+      return;
+    }
+    final File file = new File(currentDir, REPLICAS_FILE);
+    final File tmpFile = new File(currentDir, REPLICAS_FILE + ".tmp");
+    final String prefix = finalizedDir.dir.getPath() + File.separator;
+
+    // Directories are written once and referred to by their index
+    Map<String, Integer> dirs = new LinkedHashMap<String, Integer>();
+    List<ReplicaInfo> finalized = new ArrayList<ReplicaInfo>();
+    List<Integer> dirIndexes = new ArrayList<Integer>();
+    for (ReplicaInfo replica : replicas) {
+      if (replica.getVolume() != volume ||
+          replica.getState() != ReplicaState.FINALIZED) {
+        continue;
+      }
+      String dir = replica.getBlockFile().getParent();
+      if (dir.equals(finalizedDir.dir.getPath())) {
+        dir = "";
+      } else if (dir.startsWith(prefix)) {
+        dir = dir.substring(prefix.length());
+      } else {
+        FsDatasetImpl.LOG.warn("Not saving the replicas of " + this +
+            " since " + replica.getBlockFile() + " is outside of " +
+            finalizedDir.dir);
+        return;
+      }
+      Integer idx = dirs.get(dir);
+      if (idx == null) {
+        idx = dirs.size();
+        dirs.put(dir, idx);
+      }
+      finalized.add(replica);
+      dirIndexes.add(idx);
+    }
+
+    DataOutputStream out = null;
+    try {
+      long dfsUsed = dfsUsage.getUsed();
+      out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tmpFile), HdfsConstants.IO_FILE_BUFFER_SIZE));
+      out.writeInt(REPLICAS_FILE_VERSION);
+      out.writeLong(Time.now());
+      out.writeLong(dfsUsed);
+      out.writeInt(dirs.size());
+      for (String dir : dirs.keySet()) {
+        out.writeUTF(dir);
+      }
+      out.writeInt(finalized.size());
+      for (int i = 0; i < finalized.size(); i++) {
+        ReplicaInfo replica = finalized.get(i);
+        out.writeInt(dirIndexes.get(i));
+        out.writeLong(replica.getBlockId());
+        out.writeLong(replica.getNumBytes());
+        out.writeLong(replica.getGenerationStamp());
+      }
+      out.close();
+      out = null;
+      if (!tmpFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tmpFile + " to " + file);
+      }
+      FsDatasetImpl.LOG.info("Saved " + finalized.size() + " replicas to " +
+          file);
+    } catch (IOException e) {
+      FsDatasetImpl.LOG.warn("Failed to save the replicas to " + file, e);
+      IOUtils.closeStream(out);
+      tmpFile.delete();
+    }
+  }
+
+  /**
+   * Read the replicas saved by {@link #saveReplicas(ReplicaMap)} into
+   * savedReplicas. The file is deleted whether or not it can be used, so
+   * that replicas saved at one shutdown are never read twice.
+   * @param finalizedDir the directory of the finalized replicas
+   * @param maxAgeMs saved replicas older than this are ignored
+   * @return the space used by the slice when the replicas were saved, or
+   *         -1 if they cannot be used
+   */
+  private long readSavedReplicas(File finalizedDir, long maxAgeMs) {
+    final File file = new File(currentDir, REPLICAS_FILE);
+    if (!file.exists()) {
+      return -1L;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file), HdfsConstants.IO_FILE_BUFFER_SIZE));
+      int version = in.readInt();
+      if (version != REPLICAS_FILE_VERSION) {
+        FsDatasetImpl.LOG.info("Ignoring " + file + " with version " +
+            version);
+        return -1L;
+      }
+      long age = Time.now() - in.readLong();
+      if (age < 0 || age > maxAgeMs) {
+        FsDatasetImpl.LOG.info("Ignoring " + file + " saved " + age +
+            "ms ago");
+        return -1L;
+      }
+      long dfsUsed = in.readLong();
+      File[] dirs = new File[in.readInt()];
+      for (int i = 0; i < dirs.length; i++) {
+        String dir = in.readUTF();
+        dirs[i] = dir.isEmpty() ? finalizedDir : new File(finalizedDir, dir);
+      }
+      int numReplicas = in.readInt();
+      List<FinalizedReplica> replicas =
+          new ArrayList<FinalizedReplica>(numReplicas);
+      for (int i = 0; i < numReplicas; i++) {
+        int idx = in.readInt();
+        if (idx < 0 || idx >= dirs.length) {
+          throw new IOException("Invalid directory index " + idx);
+        }
+        long blockId = in.readLong();
+        long numBytes = in.readLong();
+        long genStamp = in.readLong();
+        replicas.add(new FinalizedReplica(blockId, numBytes, genStamp,
+            volume, dirs[idx]));
+      }
+      savedReplicas = replicas;
+      FsDatasetImpl.LOG.info("Read " + numReplicas + " replicas from " +
+          file);
+      return dfsUsed;
+    } catch (IOException e) {
+      FsDatasetImpl.LOG.warn("Failed to read the replicas from " + file, e);
+      return -1L;
+    } finally {
+      IOUtils.closeStream(in);
+      if (!file.delete()) {
+        FsDatasetImpl.LOG.warn("Failed to delete " + file);
+      }
+    }
+  }
+
   /**
    * Find out the number of bytes in the block that match its crc.
    * 
@@ -272,7 +473,9 @@ private long validateIntegrity(File blockFile, long genStamp) {
   }
     
   void clearPath(File f) {
-    finalizedDir.clearPath(f);
+    synchronized (finalizedDir) {
+      finalizedDir.clearPath(f);
+    }
   }
     
   @Override
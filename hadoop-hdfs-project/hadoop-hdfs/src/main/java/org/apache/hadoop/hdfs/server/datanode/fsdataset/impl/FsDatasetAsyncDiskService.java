@@ -189,7 +189,15 @@ public String toString() {
     @Override
     public void run() {
       long dfsBytes = blockFile.length() + metaFile.length();
-      if (!blockFile.delete() || (!metaFile.delete() && metaFile.exists())) {
+      long begin = volume.beginMetadataOp();
+      boolean deleted;
+      try {
+        deleted = blockFile.delete() &&
+            (metaFile.delete() || !metaFile.exists());
+      } finally {
+        volume.endMetadataOp(begin);
+      }
+      if (!deleted) {
         LOG.warn("Unexpected error trying to delete block "
             + block.getBlockPoolId() + " " + block.getLocalBlock()
             + " at file " + blockFile + ". Ignored.");
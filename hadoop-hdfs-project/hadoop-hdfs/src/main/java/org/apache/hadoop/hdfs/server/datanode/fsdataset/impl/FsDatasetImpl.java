@@ -33,6 +33,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -74,6 +75,8 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats.IoType;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
@@ -109,13 +112,13 @@ public List<FsVolumeImpl> getVolumes() {
   }
 
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r =  volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null? (FsVolumeImpl)r.getVolume(): null;
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
     File blockfile = getFile(bpid, blkid);
     if (blockfile == null) {
@@ -177,6 +180,20 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   // Used for synchronizing access to usage stats
   private final Object statsLock = new Object();
 
+  /** Number of stripes of {@link #blockLocks}; a power of two. */
+  private static final int NUM_BLOCK_LOCKS = 1024;
+
+  /**
+   * Striped locks serializing the operations that change the state of a
+   * replica. A block lock is always taken before the dataset lock. Creating,
+   * finalizing and deleting replicas only hold their block lock while they
+   * do disk I/O, so that a slow disk does not stall the operations on the
+   * other volumes; the replica map and the finalized directory trees have
+   * their own locks. Rarer operations like append and recovery still hold
+   * the dataset lock as well.
+   */
+  private final ReentrantLock[] blockLocks;
+
   /**
    * An FSDataset has a directory where it loads its data files.
    */
@@ -215,6 +232,10 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
       LOG.info("Added volume - " + dir);
     }
     volumeMap = new ReplicaMap(this);
+    blockLocks = new ReentrantLock[NUM_BLOCK_LOCKS];
+    for (int i = 0; i < blockLocks.length; i++) {
+      blockLocks[i] = new ReentrantLock();
+    }
 
     @SuppressWarnings("unchecked")
     final VolumeChoosingPolicy<FsVolumeImpl> blockChooserImpl =
@@ -347,10 +368,8 @@ File getBlockFile(String bpid, Block b) throws IOException {
    */
   private File getBlockFileNoExistsCheck(ExtendedBlock b)
       throws IOException {
-    final File f;
-    synchronized(this) {
-      f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
-    }
+    final File f = getFile(b.getBlockPoolId(),
+        b.getLocalBlock().getBlockId());
     if (f == null) {
       throw new IOException("Block " + b + " is not valid");
     }
@@ -420,7 +439,7 @@ private ReplicaInfo getReplicaInfo(String bpid, long blkid)
    * Returns handles to the block file and its metadata file
    */
   @Override // FsDatasetSpi
-  public synchronized ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
+  public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
                           long blkOffset, long ckoff) throws IOException {
     ReplicaInfo info = getReplicaInfo(b);
     File blockFile = info.getBlockFile();
@@ -513,33 +532,41 @@ static private void truncateBlock(File blockFile, File metaFile,
 
 
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline append(ExtendedBlock b,
+  public ReplicaInPipeline append(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    // If the block was successfully finalized because all packets
-    // were successfully processed at the Datanode but the ack for
-    // some of the packets were not received by the client. The client 
-    // re-opens the connection and retries sending those packets.
-    // The other reason is that an "append" is occurring to this block.
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      synchronized (this) {
+        // If the block was successfully finalized because all packets
+        // were successfully processed at the Datanode but the ack for
+        // some of the packets were not received by the client. The client 
+        // re-opens the connection and retries sending those packets.
+        // The other reason is that an "append" is occurring to this block.
     
-    // check the validity of the parameter
-    if (newGS < b.getGenerationStamp()) {
-      throw new IOException("The new generation stamp " + newGS + 
-          " should be greater than the replica " + b + "'s generation stamp");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    LOG.info("Appending to " + replicaInfo);
-    if (replicaInfo.getState() != ReplicaState.FINALIZED) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
-    }
-    if (replicaInfo.getNumBytes() != expectedBlockLen) {
-      throw new IOException("Corrupted replica " + replicaInfo + 
-          " with a length of " + replicaInfo.getNumBytes() + 
-          " expected length is " + expectedBlockLen);
-    }
+        // check the validity of the parameter
+        if (newGS < b.getGenerationStamp()) {
+          throw new IOException("The new generation stamp " + newGS + 
+              " should be greater than the replica " + b +
+              "'s generation stamp");
+        }
+        ReplicaInfo replicaInfo = getReplicaInfo(b);
+        LOG.info("Appending to " + replicaInfo);
+        if (replicaInfo.getState() != ReplicaState.FINALIZED) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
+        }
+        if (replicaInfo.getNumBytes() != expectedBlockLen) {
+          throw new IOException("Corrupted replica " + replicaInfo + 
+              " with a length of " + replicaInfo.getNumBytes() + 
+              " expected length is " + expectedBlockLen);
+        }
 
-    return append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
-        b.getNumBytes());
+        return append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
+            b.getNumBytes());
+      }
+    } finally {
+      blockLock.unlock();
+    }
   }
   
   /** Append to a finalized replica
@@ -662,33 +689,45 @@ private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS,
   }
   
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverAppend(ExtendedBlock b,
+  public ReplicaInPipeline recoverAppend(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed append to " + b);
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      synchronized (this) {
+        LOG.info("Recover failed append to " + b);
 
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+        ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
 
-    // change the replica's state/gs etc.
-    if (replicaInfo.getState() == ReplicaState.FINALIZED ) {
-      return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS, 
-          b.getNumBytes());
-    } else { //RBW
-      bumpReplicaGS(replicaInfo, newGS);
-      return (ReplicaBeingWritten)replicaInfo;
+        // change the replica's state/gs etc.
+        if (replicaInfo.getState() == ReplicaState.FINALIZED ) {
+          return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo,
+              newGS, b.getNumBytes());
+        } else { //RBW
+          bumpReplicaGS(replicaInfo, newGS);
+          return (ReplicaBeingWritten)replicaInfo;
+        }
+      }
+    } finally {
+      blockLock.unlock();
     }
   }
 
   @Override // FsDatasetSpi
   public void recoverClose(ExtendedBlock b, long newGS,
       long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed close " + b);
-    // check replica's state
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-    // bump the replica's GS
-    bumpReplicaGS(replicaInfo, newGS);
-    // finalize the replica if RBW
-    if (replicaInfo.getState() == ReplicaState.RBW) {
-      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      LOG.info("Recover failed close " + b);
+      // check replica's state
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      // bump the replica's GS
+      bumpReplicaGS(replicaInfo, newGS);
+      // finalize the replica if RBW
+      if (replicaInfo.getState() == ReplicaState.RBW) {
+        finalizeReplica(b.getBlockPoolId(), replicaInfo);
+      }
+    } finally {
+      blockLock.unlock();
     }
   }
   
@@ -722,161 +761,185 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createRbw(ExtendedBlock b)
+  public ReplicaInPipeline createRbw(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-      " already exists in state " + replicaInfo.getState() +
-      " and thus cannot be created.");
-    }
-    // create a new block
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a rbw file to hold block in the designated volume
-    File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    return newReplicaInfo;
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+        " already exists in state " + replicaInfo.getState() +
+        " and thus cannot be created.");
+      }
+      // create a new block
+      FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
+      // create a rbw file to hold block in the designated volume
+      File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+      ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(
+          b.getBlockId(), b.getGenerationStamp(), v, f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      return newReplicaInfo;
+    } finally {
+      blockLock.unlock();
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverRbw(ExtendedBlock b,
+  public ReplicaInPipeline recoverRbw(ExtendedBlock b,
       long newGS, long minBytesRcvd, long maxBytesRcvd)
       throws IOException {
-    LOG.info("Recover RBW replica " + b);
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      synchronized (this) {
+        LOG.info("Recover RBW replica " + b);
 
-    ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
+        ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(),
+            b.getBlockId());
     
-    // check the replica's state
-    if (replicaInfo.getState() != ReplicaState.RBW) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
-    }
-    ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
+        // check the replica's state
+        if (replicaInfo.getState() != ReplicaState.RBW) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
+        }
+        ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
+    
+        LOG.info("Recovering " + rbw);
+
+        // Stop the previous writer
+        rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
+        rbw.setWriter(Thread.currentThread());
+
+        // check generation stamp
+        long replicaGenerationStamp = rbw.getGenerationStamp();
+        if (replicaGenerationStamp < b.getGenerationStamp() ||
+            replicaGenerationStamp > newGS) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
+              ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
+              newGS + "].");
+        }
     
-    LOG.info("Recovering " + rbw);
+        // check replica length
+        long bytesAcked = rbw.getBytesAcked();
+        long numBytes = rbw.getNumBytes();
+        if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
+          throw new ReplicaNotFoundException("Unmatched length replica " + 
+              replicaInfo + ": BytesAcked = " + bytesAcked + 
+              " BytesRcvd = " + numBytes + " are not in the range of [" + 
+              minBytesRcvd + ", " + maxBytesRcvd + "].");
+        }
 
-    // Stop the previous writer
-    rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
-    rbw.setWriter(Thread.currentThread());
+        // Truncate the potentially corrupt portion.
+        // If the source was client and the last node in the pipeline was lost,
+        // any corrupt data written after the acked length can go unnoticed. 
+        if (numBytes > bytesAcked) {
+          final File replicafile = rbw.getBlockFile();
+          truncateBlock(replicafile, rbw.getMetaFile(), numBytes, bytesAcked);
+          rbw.setNumBytes(bytesAcked);
+          rbw.setLastChecksumAndDataLen(bytesAcked, null);
+        }
 
-    // check generation stamp
-    long replicaGenerationStamp = rbw.getGenerationStamp();
-    if (replicaGenerationStamp < b.getGenerationStamp() ||
-        replicaGenerationStamp > newGS) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
-          ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
-          newGS + "].");
-    }
-    
-    // check replica length
-    long bytesAcked = rbw.getBytesAcked();
-    long numBytes = rbw.getNumBytes();
-    if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
-      throw new ReplicaNotFoundException("Unmatched length replica " + 
-          replicaInfo + ": BytesAcked = " + bytesAcked + 
-          " BytesRcvd = " + numBytes + " are not in the range of [" + 
-          minBytesRcvd + ", " + maxBytesRcvd + "].");
-    }
-
-    // Truncate the potentially corrupt portion.
-    // If the source was client and the last node in the pipeline was lost,
-    // any corrupt data written after the acked length can go unnoticed. 
-    if (numBytes > bytesAcked) {
-      final File replicafile = rbw.getBlockFile();
-      truncateBlock(replicafile, rbw.getMetaFile(), numBytes, bytesAcked);
-      rbw.setNumBytes(bytesAcked);
-      rbw.setLastChecksumAndDataLen(bytesAcked, null);
-    }
-
-    // bump the replica's generation stamp to newGS
-    bumpReplicaGS(rbw, newGS);
+        // bump the replica's generation stamp to newGS
+        bumpReplicaGS(rbw, newGS);
     
-    return rbw;
+        return rbw;
+      }
+    } finally {
+      blockLock.unlock();
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline convertTemporaryToRbw(
+  public ReplicaInPipeline convertTemporaryToRbw(
       final ExtendedBlock b) throws IOException {
-    final long blockId = b.getBlockId();
-    final long expectedGs = b.getGenerationStamp();
-    final long visible = b.getNumBytes();
-    LOG.info("Convert " + b + " from Temporary to RBW, visible length="
-        + visible);
-
-    final ReplicaInPipeline temp;
-    {
-      // get replica
-      final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
-      if (r == null) {
-        throw new ReplicaNotFoundException(
-            ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      final long blockId = b.getBlockId();
+      final long expectedGs = b.getGenerationStamp();
+      final long visible = b.getNumBytes();
+      LOG.info("Convert " + b + " from Temporary to RBW, visible length="
+          + visible);
+
+      final ReplicaInPipeline temp;
+      {
+        // get replica
+        final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (r == null) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+        }
+        // check the replica's state
+        if (r.getState() != ReplicaState.TEMPORARY) {
+          throw new ReplicaAlreadyExistsException(
+              "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+        }
+        temp = (ReplicaInPipeline)r;
       }
-      // check the replica's state
-      if (r.getState() != ReplicaState.TEMPORARY) {
+      // check generation stamp
+      if (temp.getGenerationStamp() != expectedGs) {
         throw new ReplicaAlreadyExistsException(
-            "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+            "temp.getGenerationStamp() != expectedGs = " + expectedGs
+            + ", temp=" + temp);
       }
-      temp = (ReplicaInPipeline)r;
-    }
-    // check generation stamp
-    if (temp.getGenerationStamp() != expectedGs) {
-      throw new ReplicaAlreadyExistsException(
-          "temp.getGenerationStamp() != expectedGs = " + expectedGs
-          + ", temp=" + temp);
-    }
 
-    // TODO: check writer?
-    // set writer to the current thread
-    // temp.setWriter(Thread.currentThread());
+      // TODO: check writer?
+      // set writer to the current thread
+      // temp.setWriter(Thread.currentThread());
 
-    // check length
-    final long numBytes = temp.getNumBytes();
-    if (numBytes < visible) {
-      throw new IOException(numBytes + " = numBytes < visible = "
-          + visible + ", temp=" + temp);
-    }
-    // check volume
-    final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
-    if (v == null) {
-      throw new IOException("r.getVolume() = null, temp="  + temp);
-    }
+      // check length
+      final long numBytes = temp.getNumBytes();
+      if (numBytes < visible) {
+        throw new IOException(numBytes + " = numBytes < visible = "
+            + visible + ", temp=" + temp);
+      }
+      // check volume
+      final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
+      if (v == null) {
+        throw new IOException("r.getVolume() = null, temp="  + temp);
+      }
     
-    // move block files to the rbw directory
-    BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
-    final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
-        bpslice.getRbwDir());
-    // create RBW
-    final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
-        blockId, numBytes, expectedGs,
-        v, dest.getParentFile(), Thread.currentThread());
-    rbw.setBytesAcked(visible);
-    // overwrite the RBW in the volume map
-    volumeMap.add(b.getBlockPoolId(), rbw);
-    return rbw;
+      // move block files to the rbw directory
+      BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
+      final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
+          bpslice.getRbwDir());
+      // create RBW
+      final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
+          blockId, numBytes, expectedGs,
+          v, dest.getParentFile(), Thread.currentThread());
+      rbw.setBytesAcked(visible);
+      // overwrite the RBW in the volume map
+      volumeMap.add(b.getBlockPoolId(), rbw);
+      return rbw;
+    } finally {
+      blockLock.unlock();
+    }
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createTemporary(ExtendedBlock b)
+  public ReplicaInPipeline createTemporary(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-          " already exists in state " + replicaInfo.getState() +
-          " and thus cannot be created.");
-    }
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+            " already exists in state " + replicaInfo.getState() +
+            " and thus cannot be created.");
+      }
     
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a temporary file to hold block in the designated volume
-    File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
+      // create a temporary file to hold block in the designated volume
+      File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+      ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
+          b.getGenerationStamp(), v, f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
     
-    return newReplicaInfo;
+      return newReplicaInfo;
+    } finally {
+      blockLock.unlock();
+    }
   }
 
   /**
@@ -909,21 +972,27 @@ public void adjustCrcChannelPosition(ExtendedBlock b, ReplicaOutputStreams strea
    * Complete the block write!
    */
   @Override // FsDatasetSpi
-  public synchronized void finalizeBlock(ExtendedBlock b) throws IOException {
-    if (Thread.interrupted()) {
-      // Don't allow data modifications from interrupted threads
-      throw new IOException("Cannot finalize block from Interrupted Thread");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-      // this is legal, when recovery happens on a file that has
-      // been opened for append but never modified
-      return;
+  public void finalizeBlock(ExtendedBlock b) throws IOException {
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      if (Thread.interrupted()) {
+        // Don't allow data modifications from interrupted threads
+        throw new IOException("Cannot finalize block from Interrupted Thread");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+        // this is legal, when recovery happens on a file that has
+        // been opened for append but never modified
+        return;
+      }
+      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    } finally {
+      blockLock.unlock();
     }
-    finalizeReplica(b.getBlockPoolId(), replicaInfo);
   }
   
-  private synchronized FinalizedReplica finalizeReplica(String bpid,
+  /** Finalize a replica. The caller must hold the lock of its block. */
+  private FinalizedReplica finalizeReplica(String bpid,
       ReplicaInfo replicaInfo) throws IOException {
     FinalizedReplica newReplicaInfo = null;
     if (replicaInfo.getState() == ReplicaState.RUR &&
@@ -950,18 +1019,24 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
    * Remove the temporary block file (if any)
    */
   @Override // FsDatasetSpi
-  public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getLocalBlock());
-    if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
-      // remove from volumeMap
-      volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
+  public void unfinalizeBlock(ExtendedBlock b) throws IOException {
+    final ReentrantLock blockLock = lockBlock(b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getLocalBlock());
+      if (replicaInfo != null &&
+          replicaInfo.getState() == ReplicaState.TEMPORARY) {
+        // remove from volumeMap
+        volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
       
-      // delete the on-disk temp file
-      if (delBlockFromDisk(replicaInfo.getBlockFile(), 
-          replicaInfo.getMetaFile(), b.getLocalBlock())) {
-        LOG.warn("Block " + b + " unfinalized and removed. " );
+        // delete the on-disk temp file
+        if (delBlockFromDisk(replicaInfo.getBlockFile(), 
+            replicaInfo.getMetaFile(), b.getLocalBlock())) {
+          LOG.warn("Block " + b + " unfinalized and removed. " );
+        }
       }
+    } finally {
+      blockLock.unlock();
     }
   }
 
@@ -1076,11 +1151,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
    */
   File validateBlockFile(String bpid, Block b) {
     //Should we check for metadata file too?
-    final File f;
-    synchronized(this) {
-      f = getFile(bpid, b.getBlockId());
-    }
-    
+    final File f = getFile(bpid, b.getBlockId());
     if(f != null ) {
       if(f.exists())
         return f;
@@ -1128,7 +1199,8 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
     for (int i = 0; i < invalidBlks.length; i++) {
       final File f;
       final FsVolumeImpl v;
-      synchronized (this) {
+      final ReentrantLock blockLock = lockBlock(invalidBlks[i].getBlockId());
+      try {
         f = getFile(bpid, invalidBlks[i].getBlockId());
         ReplicaInfo info = volumeMap.get(bpid, invalidBlks[i]);
         if (info == null) {
@@ -1171,6 +1243,8 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
           v.clearPath(bpid, parent);
         }
         volumeMap.remove(bpid, invalidBlks[i]);
+      } finally {
+        blockLock.unlock();
       }
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, invalidBlks[i].getBlockId());
@@ -1252,11 +1326,19 @@ public void uncache(String bpid, long[] blockIds) {
   }
 
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId) != null;
   }
 
+  @Override // FsDatasetSpi
+  public ReentrantLock lockBlock(long blockId) {
+    final ReentrantLock lock = blockLocks[
+        (int) (blockId ^ (blockId >>> 32)) & (NUM_BLOCK_LOCKS - 1)];
+    lock.lock();
+    return lock;
+  }
+
   /**
    * Turn the block identifier into a filename
    * @param bpid Block pool Id
@@ -1360,6 +1442,9 @@ public void shutdown() {
     }
     
     if(volumes != null) {
+      synchronized (this) {
+        volumes.saveReplicas(volumeMap);
+      }
       volumes.shutdown();
     }
   }
@@ -1397,125 +1482,132 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
       File diskMetaFile, FsVolumeSpi vol) {
     Block corruptBlock = null;
     ReplicaInfo memBlockInfo;
-    synchronized (this) {
-      memBlockInfo = volumeMap.get(bpid, blockId);
-      if (memBlockInfo != null && memBlockInfo.getState() != ReplicaState.FINALIZED) {
-        // Block is not finalized - ignore the difference
-        return;
-      }
-
-      final long diskGS = diskMetaFile != null && diskMetaFile.exists() ?
-          Block.getGenerationStamp(diskMetaFile.getName()) :
-            GenerationStamp.GRANDFATHER_GENERATION_STAMP;
+    // The difference may have been found while a writer was changing the
+    // replica, so look at it again under its lock
+    final ReentrantLock blockLock = lockBlock(blockId);
+    try {
+      synchronized (this) {
+        memBlockInfo = volumeMap.get(bpid, blockId);
+        if (memBlockInfo != null && memBlockInfo.getState() != ReplicaState.FINALIZED) {
+          // Block is not finalized - ignore the difference
+          return;
+        }
 
-      if (diskFile == null || !diskFile.exists()) {
-        if (memBlockInfo == null) {
-          // Block file does not exist and block does not exist in memory
-          // If metadata file exists then delete it
-          if (diskMetaFile != null && diskMetaFile.exists()
-              && diskMetaFile.delete()) {
-            LOG.warn("Deleted a metadata file without a block "
-                + diskMetaFile.getAbsolutePath());
+        final long diskGS = diskMetaFile != null && diskMetaFile.exists() ?
+            Block.getGenerationStamp(diskMetaFile.getName()) :
+              GenerationStamp.GRANDFATHER_GENERATION_STAMP;
+
+        if (diskFile == null || !diskFile.exists()) {
+          if (memBlockInfo == null) {
+            // Block file does not exist and block does not exist in memory
+            // If metadata file exists then delete it
+            if (diskMetaFile != null && diskMetaFile.exists()
+                && diskMetaFile.delete()) {
+              LOG.warn("Deleted a metadata file without a block "
+                  + diskMetaFile.getAbsolutePath());
+            }
+            return;
+          }
+          if (!memBlockInfo.getBlockFile().exists()) {
+            // Block is in memory and not on the disk
+            // Remove the block from volumeMap
+            volumeMap.remove(bpid, blockId);
+            final DataBlockScanner blockScanner = datanode.getBlockScanner();
+            if (blockScanner != null) {
+              blockScanner.deleteBlock(bpid, new Block(blockId));
+            }
+            LOG.warn("Removed block " + blockId
+                + " from memory with missing block file on the disk");
+            // Finally remove the metadata file
+            if (diskMetaFile != null && diskMetaFile.exists()
+                && diskMetaFile.delete()) {
+              LOG.warn("Deleted a metadata file for the deleted block "
+                  + diskMetaFile.getAbsolutePath());
+            }
           }
           return;
         }
-        if (!memBlockInfo.getBlockFile().exists()) {
-          // Block is in memory and not on the disk
-          // Remove the block from volumeMap
-          volumeMap.remove(bpid, blockId);
+        /*
+         * Block file exists on the disk
+         */
+        if (memBlockInfo == null) {
+          // Block is missing in memory - add the block to volumeMap
+          ReplicaInfo diskBlockInfo = new FinalizedReplica(blockId, 
+              diskFile.length(), diskGS, vol, diskFile.getParentFile());
+          volumeMap.add(bpid, diskBlockInfo);
           final DataBlockScanner blockScanner = datanode.getBlockScanner();
           if (blockScanner != null) {
-            blockScanner.deleteBlock(bpid, new Block(blockId));
-          }
-          LOG.warn("Removed block " + blockId
-              + " from memory with missing block file on the disk");
-          // Finally remove the metadata file
-          if (diskMetaFile != null && diskMetaFile.exists()
-              && diskMetaFile.delete()) {
-            LOG.warn("Deleted a metadata file for the deleted block "
-                + diskMetaFile.getAbsolutePath());
+            blockScanner.addBlock(new ExtendedBlock(bpid, diskBlockInfo));
           }
+          LOG.warn("Added missing block to memory " + diskBlockInfo);
+          return;
         }
-        return;
-      }
-      /*
-       * Block file exists on the disk
-       */
-      if (memBlockInfo == null) {
-        // Block is missing in memory - add the block to volumeMap
-        ReplicaInfo diskBlockInfo = new FinalizedReplica(blockId, 
-            diskFile.length(), diskGS, vol, diskFile.getParentFile());
-        volumeMap.add(bpid, diskBlockInfo);
-        final DataBlockScanner blockScanner = datanode.getBlockScanner();
-        if (blockScanner != null) {
-          blockScanner.addBlock(new ExtendedBlock(bpid, diskBlockInfo));
-        }
-        LOG.warn("Added missing block to memory " + diskBlockInfo);
-        return;
-      }
-      /*
-       * Block exists in volumeMap and the block file exists on the disk
-       */
-      // Compare block files
-      File memFile = memBlockInfo.getBlockFile();
-      if (memFile.exists()) {
-        if (memFile.compareTo(diskFile) != 0) {
-          LOG.warn("Block file " + memFile.getAbsolutePath()
-              + " does not match file found by scan "
-              + diskFile.getAbsolutePath());
-          // TODO: Should the diskFile be deleted?
-        }
-      } else {
-        // Block refers to a block file that does not exist.
-        // Update the block with the file found on the disk. Since the block
-        // file and metadata file are found as a pair on the disk, update
-        // the block based on the metadata file found on the disk
-        LOG.warn("Block file in volumeMap "
-            + memFile.getAbsolutePath()
-            + " does not exist. Updating it to the file found during scan "
-            + diskFile.getAbsolutePath());
-        memBlockInfo.setDir(diskFile.getParentFile());
-        memFile = diskFile;
-
-        LOG.warn("Updating generation stamp for block " + blockId
-            + " from " + memBlockInfo.getGenerationStamp() + " to " + diskGS);
-        memBlockInfo.setGenerationStamp(diskGS);
-      }
-
-      // Compare generation stamp
-      if (memBlockInfo.getGenerationStamp() != diskGS) {
-        File memMetaFile = FsDatasetUtil.getMetaFile(diskFile, 
-            memBlockInfo.getGenerationStamp());
-        if (memMetaFile.exists()) {
-          if (memMetaFile.compareTo(diskMetaFile) != 0) {
-            LOG.warn("Metadata file in memory "
-                + memMetaFile.getAbsolutePath()
+        /*
+         * Block exists in volumeMap and the block file exists on the disk
+         */
+        // Compare block files
+        File memFile = memBlockInfo.getBlockFile();
+        if (memFile.exists()) {
+          if (memFile.compareTo(diskFile) != 0) {
+            LOG.warn("Block file " + memFile.getAbsolutePath()
                 + " does not match file found by scan "
-                + (diskMetaFile == null? null: diskMetaFile.getAbsolutePath()));
+                + diskFile.getAbsolutePath());
+            // TODO: Should the diskFile be deleted?
           }
         } else {
-          // Metadata file corresponding to block in memory is missing
-          // If metadata file found during the scan is on the same directory
-          // as the block file, then use the generation stamp from it
-          long gs = diskMetaFile != null && diskMetaFile.exists()
-              && diskMetaFile.getParent().equals(memFile.getParent()) ? diskGS
-              : GenerationStamp.GRANDFATHER_GENERATION_STAMP;
+          // Block refers to a block file that does not exist.
+          // Update the block with the file found on the disk. Since the block
+          // file and metadata file are found as a pair on the disk, update
+          // the block based on the metadata file found on the disk
+          LOG.warn("Block file in volumeMap "
+              + memFile.getAbsolutePath()
+              + " does not exist. Updating it to the file found during scan "
+              + diskFile.getAbsolutePath());
+          memBlockInfo.setDir(diskFile.getParentFile());
+          memFile = diskFile;
 
           LOG.warn("Updating generation stamp for block " + blockId
-              + " from " + memBlockInfo.getGenerationStamp() + " to " + gs);
+              + " from " + memBlockInfo.getGenerationStamp() + " to " + diskGS);
+          memBlockInfo.setGenerationStamp(diskGS);
+        }
 
-          memBlockInfo.setGenerationStamp(gs);
+        // Compare generation stamp
+        if (memBlockInfo.getGenerationStamp() != diskGS) {
+          File memMetaFile = FsDatasetUtil.getMetaFile(diskFile, 
+              memBlockInfo.getGenerationStamp());
+          if (memMetaFile.exists()) {
+            if (memMetaFile.compareTo(diskMetaFile) != 0) {
+              LOG.warn("Metadata file in memory "
+                  + memMetaFile.getAbsolutePath()
+                  + " does not match file found by scan "
+                  + (diskMetaFile == null? null: diskMetaFile.getAbsolutePath()));
+            }
+          } else {
+            // Metadata file corresponding to block in memory is missing
+            // If metadata file found during the scan is on the same directory
+            // as the block file, then use the generation stamp from it
+            long gs = diskMetaFile != null && diskMetaFile.exists()
+                && diskMetaFile.getParent().equals(memFile.getParent()) ? diskGS
+                : GenerationStamp.GRANDFATHER_GENERATION_STAMP;
+
+            LOG.warn("Updating generation stamp for block " + blockId
+                + " from " + memBlockInfo.getGenerationStamp() + " to " + gs);
+
+            memBlockInfo.setGenerationStamp(gs);
+          }
         }
-      }
 
-      // Compare block size
-      if (memBlockInfo.getNumBytes() != memFile.length()) {
-        // Update the length based on the block file
-        corruptBlock = new Block(memBlockInfo);
-        LOG.warn("Updating size of block " + blockId + " from "
-            + memBlockInfo.getNumBytes() + " to " + memFile.length());
-        memBlockInfo.setNumBytes(memFile.length());
+        // Compare block size
+        if (memBlockInfo.getNumBytes() != memFile.length()) {
+          // Update the length based on the block file
+          corruptBlock = new Block(memBlockInfo);
+          LOG.warn("Updating size of block " + blockId + " from "
+              + memBlockInfo.getNumBytes() + " to " + memFile.length());
+          memBlockInfo.setNumBytes(memFile.length());
+        }
       }
+    } finally {
+      blockLock.unlock();
     }
 
     // Send corrupt block report outside the lock
@@ -1540,17 +1632,25 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override 
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null? "null": r.toString();
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaRecoveryInfo initReplicaRecovery(
+  public ReplicaRecoveryInfo initReplicaRecovery(
       RecoveringBlock rBlock) throws IOException {
-    return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
-        rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
-        datanode.getDnConf().getXceiverStopTimeout());
+    final ReentrantLock blockLock = lockBlock(rBlock.getBlock().getBlockId());
+    try {
+      synchronized (this) {
+        return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(),
+            volumeMap, rBlock.getBlock().getLocalBlock(),
+            rBlock.getNewGenerationStamp(),
+            datanode.getDnConf().getXceiverStopTimeout());
+      }
+    } finally {
+      blockLock.unlock();
+    }
   }
 
   /** static version of {@link #initReplicaRecovery(Block, long)}. */
@@ -1619,54 +1719,62 @@ static ReplicaRecoveryInfo initReplicaRecovery(String bpid, ReplicaMap map,
   }
 
   @Override // FsDatasetSpi
-  public synchronized String updateReplicaUnderRecovery(
+  public String updateReplicaUnderRecovery(
                                     final ExtendedBlock oldBlock,
                                     final long recoveryId,
                                     final long newlength) throws IOException {
-    //get replica
-    final String bpid = oldBlock.getBlockPoolId();
-    final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
-    LOG.info("updateReplica: " + oldBlock
-        + ", recoveryId=" + recoveryId
-        + ", length=" + newlength
-        + ", replica=" + replica);
+    final ReentrantLock blockLock = lockBlock(oldBlock.getBlockId());
+    try {
+      synchronized (this) {
+        //get replica
+        final String bpid = oldBlock.getBlockPoolId();
+        final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
+        LOG.info("updateReplica: " + oldBlock
+            + ", recoveryId=" + recoveryId
+            + ", length=" + newlength
+            + ", replica=" + replica);
+
+        //check replica
+        if (replica == null) {
+          throw new ReplicaNotFoundException(oldBlock);
+        }
 
-    //check replica
-    if (replica == null) {
-      throw new ReplicaNotFoundException(oldBlock);
-    }
+        //check replica state
+        if (replica.getState() != ReplicaState.RUR) {
+          throw new IOException("replica.getState() != " + ReplicaState.RUR
+              + ", replica=" + replica);
+        }
 
-    //check replica state
-    if (replica.getState() != ReplicaState.RUR) {
-      throw new IOException("replica.getState() != " + ReplicaState.RUR
-          + ", replica=" + replica);
-    }
+        //check replica's byte on disk
+        if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
+          throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
+              + " replica.getBytesOnDisk() != block.getNumBytes(), block="
+              + oldBlock + ", replica=" + replica);
+        }
 
-    //check replica's byte on disk
-    if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
-      throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
-          + " replica.getBytesOnDisk() != block.getNumBytes(), block="
-          + oldBlock + ", replica=" + replica);
+        //check replica files before update
+        checkReplicaFiles(replica);
+
+        //update replica
+        final FinalizedReplica finalized = updateReplicaUnderRecovery(
+            oldBlock.getBlockPoolId(), (ReplicaUnderRecovery) replica,
+            recoveryId, newlength);
+        assert finalized.getBlockId() == oldBlock.getBlockId()
+            && finalized.getGenerationStamp() == recoveryId
+            && finalized.getNumBytes() == newlength
+            : "Replica information mismatched: oldBlock=" + oldBlock
+                + ", recoveryId=" + recoveryId + ", newlength=" + newlength
+                + ", finalized=" + finalized;
+
+        //check replica files after update
+        checkReplicaFiles(finalized);
+
+        //return storage ID
+        return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
+      }
+    } finally {
+      blockLock.unlock();
     }
-
-    //check replica files before update
-    checkReplicaFiles(replica);
-
-    //update replica
-    final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
-        .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId, newlength);
-    assert finalized.getBlockId() == oldBlock.getBlockId()
-        && finalized.getGenerationStamp() == recoveryId
-        && finalized.getNumBytes() == newlength
-        : "Replica information mismatched: oldBlock=" + oldBlock
-            + ", recoveryId=" + recoveryId + ", newlength=" + newlength
-            + ", finalized=" + finalized;
-
-    //check replica files after update
-    checkReplicaFiles(finalized);
-
-    //return storage ID
-    return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
   }
 
   private FinalizedReplica updateReplicaUnderRecovery(
@@ -1701,7 +1809,7 @@ private FinalizedReplica updateReplicaUnderRecovery(
   }
 
   @Override // FsDatasetSpi
-  public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+  public long getReplicaVisibleLength(final ExtendedBlock block)
   throws IOException {
     final Replica replica = getReplicaInfo(block.getBlockPoolId(), 
         block.getBlockId());
@@ -1742,12 +1850,14 @@ private static class VolumeInfo {
     final long usedSpace;
     final long freeSpace;
     final long reservedSpace;
+    final VolumeIoStats ioStats;
 
     VolumeInfo(FsVolumeImpl v, long usedSpace, long freeSpace) {
       this.directory = v.toString();
       this.usedSpace = usedSpace;
       this.freeSpace = freeSpace;
       this.reservedSpace = v.getReserved();
+      this.ioStats = v.getIoStats();
     }
   }  
 
@@ -1779,6 +1889,14 @@ public Map<String, Object> getVolumeInfoMap() {
       innerInfo.put("usedSpace", v.usedSpace);
       innerInfo.put("freeSpace", v.freeSpace);
       innerInfo.put("reservedSpace", v.reservedSpace);
+      innerInfo.put("pendingIo", v.ioStats.getPendingIoCount());
+      innerInfo.put("averageIoNanos", v.ioStats.getAverageIoNanos());
+      for (IoType type : IoType.values()) {
+        String prefix = type.name().toLowerCase();
+        innerInfo.put(prefix + "Ops", v.ioStats.getCount(type));
+        innerInfo.put(prefix + "Bytes", v.ioStats.getBytes(type));
+        innerInfo.put(prefix + "Nanos", v.ioStats.getTotalNanos(type));
+      }
       info.put(v.directory, innerInfo);
     }
     return info;
@@ -19,10 +19,10 @@
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
@@ -37,6 +37,8 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats.IoType;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -50,11 +52,13 @@
 class FsVolumeImpl implements FsVolumeSpi {
   private final FsDatasetImpl dataset;
   private final String storageID;
+  // Read without the dataset lock when finalizing replicas
   private final Map<String, BlockPoolSlice> bpSlices
-      = new HashMap<String, BlockPoolSlice>();
+      = new ConcurrentHashMap<String, BlockPoolSlice>();
   private final File currentDir;    // <StorageDirectory>/current
   private final DF usage;           
   private final long reserved;
+  private final VolumeIoStats ioStats = new VolumeIoStats();
   /**
    * Per-volume worker pool that processes new blocks to cache.
    * The maximum number of workers per volume is bounded (configurable via
@@ -180,7 +184,12 @@ public String[] getBlockPoolList() {
    * the block is finalized.
    */
   File createTmpFile(String bpid, Block b) throws IOException {
-    return getBlockPoolSlice(bpid).createTmpFile(b);
+    long begin = beginMetadataOp();
+    try {
+      return getBlockPoolSlice(bpid).createTmpFile(b);
+    } finally {
+      endMetadataOp(begin);
+    }
   }
 
   /**
@@ -188,11 +197,39 @@ File createTmpFile(String bpid, Block b) throws IOException {
    * the block is finalized.
    */
   File createRbwFile(String bpid, Block b) throws IOException {
-    return getBlockPoolSlice(bpid).createRbwFile(b);
+    long begin = beginMetadataOp();
+    try {
+      return getBlockPoolSlice(bpid).createRbwFile(b);
+    } finally {
+      endMetadataOp(begin);
+    }
   }
 
   File addBlock(String bpid, Block b, File f) throws IOException {
-    return getBlockPoolSlice(bpid).addBlock(b, f);
+    long begin = beginMetadataOp();
+    try {
+      return getBlockPoolSlice(bpid).addBlock(b, f);
+    } finally {
+      endMetadataOp(begin);
+    }
+  }
+
+  /**
+   * Account a creation, rename or deletion of replica files on this volume.
+   * @return the start time, to be passed to {@link #endMetadataOp(long)}
+   */
+  long beginMetadataOp() {
+    ioStats.beginIo();
+    return System.nanoTime();
+  }
+
+  void endMetadataOp(long beginNanos) {
+    ioStats.endIo(IoType.METADATA, System.nanoTime() - beginNanos, 0);
+  }
+
+  @Override
+  public VolumeIoStats getIoStats() {
+    return ioStats;
   }
 
   Executor getCacheExecutor() {
@@ -215,6 +252,12 @@ void getVolumeMap(ReplicaMap volumeMap) throws IOException {
   void getVolumeMap(String bpid, ReplicaMap volumeMap) throws IOException {
     getBlockPoolSlice(bpid).getVolumeMap(volumeMap);
   }
+
+  void saveReplicas(ReplicaMap volumeMap) {
+    for (BlockPoolSlice s : bpSlices.values()) {
+      s.saveReplicas(volumeMap);
+    }
+  }
   
   /**
    * Add replicas under the given directory to the volume map
@@ -19,11 +19,13 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
@@ -98,21 +100,83 @@ void getVolumeMap(ReplicaMap volumeMap) throws IOException {
     }
   }
   
-  void getVolumeMap(String bpid, ReplicaMap volumeMap) throws IOException {
+  /**
+   * Add the replicas of the block pool on every volume to the map. The
+   * volumes are scanned in parallel, each into a map of its own that is
+   * merged into volumeMap at the end, since the caller holds the lock that
+   * volumeMap is synchronized on.
+   */
+  void getVolumeMap(final String bpid, ReplicaMap volumeMap)
+      throws IOException {
     long totalStartTime = System.currentTimeMillis();
-    for (FsVolumeImpl v : volumes) {
-      FsDatasetImpl.LOG.info("Adding replicas to map for block pool " + bpid +
-          " on volume " + v + "...");
-      long startTime = System.currentTimeMillis();
-      v.getVolumeMap(bpid, volumeMap);
-      long timeTaken = System.currentTimeMillis() - startTime;
-      FsDatasetImpl.LOG.info("Time to add replicas to map for block pool " + bpid +
-          " on volume " + v + ": " + timeTaken + "ms");
+
+    final List<IOException> exceptions = Collections.synchronizedList(
+        new ArrayList<IOException>());
+    List<ReplicaMap> volumeMaps = new ArrayList<ReplicaMap>(volumes.size());
+    List<Thread> replicaAddingThreads = new ArrayList<Thread>();
+    for (final FsVolumeImpl v : volumes) {
+      final ReplicaMap m = new ReplicaMap(new Object());
+      volumeMaps.add(m);
+      Thread t = new Thread() {
+        public void run() {
+          try {
+            FsDatasetImpl.LOG.info("Adding replicas to map for block pool " +
+                bpid + " on volume " + v + "...");
+            long startTime = System.currentTimeMillis();
+            v.getVolumeMap(bpid, m);
+            long timeTaken = System.currentTimeMillis() - startTime;
+            FsDatasetImpl.LOG.info("Time to add replicas to map for block pool"
+                + " " + bpid + " on volume " + v + ": " + timeTaken + "ms");
+          } catch (IOException ioe) {
+            FsDatasetImpl.LOG.info("Caught exception while adding replicas " +
+                "from " + v + ". Will throw later.", ioe);
+            exceptions.add(ioe);
+          }
+        }
+      };
+      replicaAddingThreads.add(t);
+      t.start();
     }
+    for (Thread t : replicaAddingThreads) {
+      try {
+        t.join();
+      } catch (InterruptedException ie) {
+        throw new IOException(ie);
+      }
+    }
+    if (!exceptions.isEmpty()) {
+      throw exceptions.get(0);
+    }
+
+    for (ReplicaMap m : volumeMaps) {
+      Collection<ReplicaInfo> replicas = m.replicas(bpid);
+      if (replicas == null) {
+        continue;
+      }
+      for (ReplicaInfo replica : replicas) {
+        ReplicaInfo oldReplica = volumeMap.add(bpid, replica);
+        if (oldReplica != null) {
+          FsDatasetImpl.LOG.warn("Two block files with the same block id " +
+              "exist on disk: " + oldReplica.getBlockFile() + " and " +
+              replica.getBlockFile());
+        }
+      }
+    }
+
     long totalTimeTaken = System.currentTimeMillis() - totalStartTime;
     FsDatasetImpl.LOG.info("Total time to add all replicas to map: "
         + totalTimeTaken + "ms");
   }
+
+  /**
+   * Save the finalized replicas of every volume so that the next start can
+   * skip scanning the disks. Must be called with the lock of volumeMap.
+   */
+  void saveReplicas(ReplicaMap volumeMap) {
+    for (FsVolumeImpl v : volumes) {
+      v.saveReplicas(volumeMap);
+    }
+  }
     
   /**
    * Calls {@link FsVolumeImpl#checkDirs()} on each volume, removing any
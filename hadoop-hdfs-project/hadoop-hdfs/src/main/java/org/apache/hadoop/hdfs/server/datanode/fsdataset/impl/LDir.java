@@ -21,7 +21,9 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.hdfs.DFSUtil;
@@ -65,6 +67,45 @@ class LDir {
       }
     }
   }
+
+  /**
+   * Build the tree from the directories of known replicas, with one entry
+   * per replica, instead of listing the disk. Directories that hold no
+   * replica are left out of the tree.
+   */
+  LDir(File dir, int maxBlocksPerDir, List<File> replicaDirs) {
+    this.dir = dir;
+    this.maxBlocksPerDir = maxBlocksPerDir;
+
+    // Group the replicas below this directory by the child they are in
+    Map<File, List<File>> childDirs = new LinkedHashMap<File, List<File>>();
+    for (File replicaDir : replicaDirs) {
+      if (replicaDir.equals(dir)) {
+        numBlocks++;
+        continue;
+      }
+      File child = replicaDir;
+      while (child != null && !dir.equals(child.getParentFile())) {
+        child = child.getParentFile();
+      }
+      if (child == null) {
+        continue;
+      }
+      List<File> dirs = childDirs.get(child);
+      if (dirs == null) {
+        dirs = new ArrayList<File>();
+        childDirs.put(child, dirs);
+      }
+      dirs.add(replicaDir);
+    }
+    if (!childDirs.isEmpty()) {
+      children = new LDir[childDirs.size()];
+      int idx = 0;
+      for (Map.Entry<File, List<File>> e : childDirs.entrySet()) {
+        children[idx++] = new LDir(e.getKey(), maxBlocksPerDir, e.getValue());
+      }
+    }
+  }
       
   File addBlock(Block b, File src) throws IOException {
     //First try without creating subdirectories
@@ -85,6 +85,9 @@ public class DataNodeMetrics {
   
   @Metric MutableRate fsyncNanos;
   MutableQuantiles[] fsyncNanosQuantiles;
+
+  @Metric MutableRate readIoNanos;
+  @Metric MutableRate writeIoNanos;
   
   @Metric MutableRate sendDataPacketBlockedOnNetworkNanos;
   MutableQuantiles[] sendDataPacketBlockedOnNetworkNanosQuantiles;
@@ -244,6 +247,14 @@ public void addFsyncNanos(long latencyNanos) {
     }
   }
 
+  public void addReadIoNanos(long latencyNanos) {
+    readIoNanos.add(latencyNanos);
+  }
+
+  public void addWriteIoNanos(long latencyNanos) {
+    writeIoNanos.add(latencyNanos);
+  }
+
   public void shutdown() {
     DefaultMetricsSystem.shutdown();
   }
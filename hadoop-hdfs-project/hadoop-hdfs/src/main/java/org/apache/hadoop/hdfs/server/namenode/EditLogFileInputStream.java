@@ -55,6 +55,7 @@ public class EditLogFileInputStream extends EditLogInputStream {
   private final long lastTxId;
   private final boolean isInProgress;
   private int maxOpSize;
+  private boolean reuseOps = true;
   static private enum State {
     UNINIT,
     OPEN,
@@ -138,6 +139,7 @@ private void init() throws LogHeaderCorruptException, IOException {
       }
       reader = new FSEditLogOp.Reader(dataIn, tracker, logVersion);
       reader.setMaxOpSize(maxOpSize);
+      reader.setReuseOps(reuseOps);
       state = State.OPEN;
     } finally {
       if (reader == null) {
@@ -422,4 +424,13 @@ public void setMaxOpSize(int maxOpSize) {
       reader.setMaxOpSize(maxOpSize);
     }
   }
+
+  @Override
+  public boolean disableOpReuse() {
+    this.reuseOps = false;
+    if (reader != null) {
+      reader.setReuseOps(false);
+    }
+    return true;
+  }
 }
@@ -183,4 +183,16 @@ public boolean skipUntil(long txid) throws IOException {
    * Set the maximum opcode size in bytes.
    */
   public abstract void setMaxOpSize(int maxOpSize);
+
+  /**
+   * Make every later call to {@link #readOp()} return a new op object,
+   * rather than one that may be re-used by the calls after it, so that the
+   * caller can hold on to several ops at once.
+   *
+   * @return false if the stream does not support this, in which case ops
+   *         may still be re-used
+   */
+  public boolean disableOpReuse() {
+    return false;
+  }
 }
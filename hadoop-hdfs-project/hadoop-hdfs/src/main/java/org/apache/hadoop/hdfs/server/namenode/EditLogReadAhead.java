@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the ops of a sequence of edit log streams on its own thread, up to
+ * a bounded number of ops ahead of the thread applying them, so that
+ * reading and decoding the edits overlaps with applying them to the
+ * namespace.
+ *
+ * The streams must hand out a new op object for every op read; see
+ * {@link #disableOpReuse(Iterable)}.
+ */
+@InterfaceAudience.Private
+class EditLogReadAhead implements Closeable {
+  static final Log LOG = LogFactory.getLog(EditLogReadAhead.class);
+
+  /** An op, along with the layout version of the stream it was read from. */
+  static class DecodedOp {
+    private final FSEditLogOp op;
+    private final int logVersion;
+
+    private DecodedOp(FSEditLogOp op, int logVersion) {
+      this.op = op;
+      this.logVersion = logVersion;
+    }
+
+    FSEditLogOp getOp() {
+      return op;
+    }
+
+    int getLogVersion() {
+      return logVersion;
+    }
+  }
+
+  /** Queued after the last op, or after the last op before an error. */
+  private static final DecodedOp END = new DecodedOp(null, 0);
+
+  private final Iterable<EditLogInputStream> streams;
+  private final BlockingQueue<DecodedOp> queue;
+  private final Thread reader;
+  private volatile IOException error = null;
+  private volatile boolean closed = false;
+  private boolean ended = false;
+
+  /**
+   * @param streams the streams to read, in order
+   * @param capacity maximum number of ops read ahead
+   */
+  EditLogReadAhead(Iterable<EditLogInputStream> streams, int capacity) {
+    Preconditions.checkArgument(capacity > 0,
+        "Read-ahead capacity must be positive: %s", capacity);
+    this.streams = streams;
+    this.queue = new ArrayBlockingQueue<DecodedOp>(capacity);
+    this.reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readOps();
+      }
+    }, "Edit log read-ahead");
+    this.reader.setDaemon(true);
+  }
+
+  /**
+   * Ask every stream to hand out a new op object for every op read.
+   * @return false if a stream does not support this, in which case its ops
+   *         cannot be read ahead
+   */
+  static boolean disableOpReuse(Iterable<EditLogInputStream> streams) {
+    for (EditLogInputStream in : streams) {
+      if (!in.disableOpReuse()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  void start() {
+    reader.start();
+  }
+
+  private void readOps() {
+    EditLogInputStream in = null;
+    try {
+      for (EditLogInputStream stream : streams) {
+        in = stream;
+        FSEditLogOp op;
+        while (!closed && (op = in.readOp()) != null) {
+          queue.put(new DecodedOp(op, in.getVersion()));
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed while waiting for room in the queue
+      return;
+    } catch (Throwable t) {
+      error = in == null ? new IOException(t) :
+          new IOException("Error reading edit log " + in.getName() +
+              " at position " + in.getPosition(), t);
+    }
+    try {
+      queue.put(END);
+    } catch (InterruptedException e) {
+      // closed, nobody is waiting for the end
+    }
+  }
+
+  /**
+   * Wait for the next op.
+   * @return the next op, or null once every stream has been read
+   * @throws IOException if an op could not be read; every op read before
+   *         it has been returned first
+   */
+  DecodedOp take() throws IOException, InterruptedException {
+    if (ended) {
+      return null;
+    }
+    DecodedOp op = queue.take();
+    if (op == END) {
+      ended = true;
+      if (error != null) {
+        throw error;
+      }
+      return null;
+    }
+    return op;
+  }
+
+  /**
+   * @return the next op if it has already been read, otherwise null,
+   *         including when every stream has been read
+   */
+  DecodedOp poll() {
+    DecodedOp op = queue.peek();
+    if (op == null || op == END) {
+      return null;
+    }
+    return queue.poll();
+  }
+
+  /**
+   * Stop reading ahead. The streams themselves are left open.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while stopping " + reader.getName(),
+          e);
+    }
+  }
+}
@@ -1577,6 +1577,40 @@ HdfsFileStatus getFileInfo(String src, boolean resolveLink)
     }
   }
   
+  /**
+   * Get the file info for a specific file, including the locations of its
+   * blocks if needLocation is set.
+   * @param src The string representation of the path to the file
+   * @param resolveLink whether to throw UnresolvedLinkException
+   * @param needLocation if block locations need to be included or not
+   * @return object containing information regarding the file
+   *         or null if file not found
+   */
+  HdfsFileStatus getFileInfo(String src, boolean resolveLink,
+      boolean needLocation) throws UnresolvedLinkException, IOException {
+    if (!needLocation) {
+      return getFileInfo(src, resolveLink);
+    }
+    String srcs = normalizePath(src);
+    readLock();
+    try {
+      if (srcs.endsWith(HdfsConstants.SEPARATOR_DOT_SNAPSHOT_DIR)) {
+        return getFileInfo4DotSnapshot(srcs);
+      }
+      final INodesInPath inodesInPath = rootDir.getLastINodeInPath(srcs, resolveLink);
+      final INode i = inodesInPath.getINode(0);
+      return i == null? null: createFileStatus(HdfsFileStatus.EMPTY_NAME, i,
+          true, inodesInPath.getPathSnapshot());
+    } finally {
+      readUnlock();
+    }
+  }
+
+  /** @return the maximum number of entries returned by one listing call */
+  int getLsLimit() {
+    return lsLimit;
+  }
+
   /**
    * Currently we only support "ls /xxx/.snapshot" which will return all the
    * snapshots of a directory. The FSCommand Ls will first call getFileInfo to
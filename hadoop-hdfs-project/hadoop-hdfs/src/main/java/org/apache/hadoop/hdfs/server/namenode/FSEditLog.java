@@ -205,6 +205,23 @@ protected synchronized TransactionId initialValue() {
   FSEditLog(Configuration conf, NNStorage storage, List<URI> editsDirs) {
     init(conf, storage, editsDirs);
   }
+
+  /**
+   * Create the edit log configured for the namenode: an
+   * {@link FSEditLogAsync} if asynchronous logging is enabled, otherwise a
+   * plain FSEditLog.
+   */
+  static FSEditLog newInstance(Configuration conf, NNStorage storage,
+      List<URI> editsDirs) {
+    boolean asyncEditLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
+    LOG.info("Edit logging is async:" + asyncEditLogging);
+    if (asyncEditLogging) {
+      return new FSEditLogAsync(conf, storage, editsDirs);
+    }
+    return new FSEditLog(conf, storage, editsDirs);
+  }
   
   private void init(Configuration conf, NNStorage storage, List<URI> editsDirs) {
     isSyncRunning = false;
@@ -414,7 +431,7 @@ assert isOpenForWrite() :
     }
     
     // sync buffered edit log entries to persistent store
-    logSync();
+    logSyncBlocking();
   }
 
   /**
@@ -518,7 +535,22 @@ void logSyncAll() {
       id.txid = txid;
     }
     // Then make sure we're synced up to this point
-    logSync();
+    logSyncBlocking();
+  }
+
+  /**
+   * @return the id of the last transaction written by this thread.
+   */
+  long getMyTxId() {
+    return myTransactionId.get().txid;
+  }
+
+  /**
+   * Sync all modifications done by this thread, waiting for the sync to
+   * complete even if {@link #logSync()} would defer it.
+   */
+  void logSyncBlocking() {
+    logSync(getMyTxId());
   }
   
   /**
@@ -550,11 +582,16 @@ void logSyncAll() {
    * waitForSyncToFinish() before assuming they are running alone.
    */
   public void logSync() {
+    // Fetch the transactionId of this thread. 
+    logSync(getMyTxId());
+  }
+
+  /**
+   * Sync all modifications up to and including the given transaction.
+   */
+  protected void logSync(long mytxid) {
     long syncStart = 0;
 
-    // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
-    
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -1123,7 +1160,7 @@ synchronized void startLogSegmentAndWriteHeaderTxn(final long segmentTxId
 
     logEdit(LogSegmentOp.getInstance(cache.get(),
         FSEditLogOpCodes.OP_START_LOG_SEGMENT));
-    logSync();
+    logSyncBlocking();
   }
 
   /**
@@ -1138,7 +1175,7 @@ synchronized void endCurrentLogSegment(boolean writeEndTxn) {
     if (writeEndTxn) {
       logEdit(LogSegmentOp.getInstance(cache.get(), 
           FSEditLogOpCodes.OP_END_LOG_SEGMENT));
-      logSync();
+      logSyncBlocking();
     }
 
     printStatistics(true);
@@ -1293,7 +1330,7 @@ public synchronized void journal(long firstTxId, int numTxns, byte[] data) {
         firstTxId, expectedTxId);
     setNextTxId(firstTxId + numTxns - 1);
     logEdit(data.length, data);
-    logSync();
+    logSyncBlocking();
   }
 
   /**
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.util.ExitUtil.terminate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.Server;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An edit log whose {@link #logSync()} does not block RPC handlers.
+ *
+ * When called from an RPC handler, logSync() postpones the response to the
+ * current call and hands its transaction id to a dedicated sync thread
+ * instead of syncing itself. The sync thread drains every pending request,
+ * syncs once up to the highest transaction id among them, and then releases
+ * their responses. A client therefore still only hears back once its edits
+ * are durable, but the handler is free to serve other calls while the sync
+ * is in progress, and many calls share one journal flush.
+ *
+ * Calls that cannot be postponed, and logSync() outside of an RPC handler,
+ * sync synchronously exactly like {@link FSEditLog}.
+ */
+@InterfaceAudience.Private
+class FSEditLogAsync extends FSEditLog implements Runnable {
+  static final Log LOG = LogFactory.getLog(FSEditLogAsync.class);
+
+  // maximum number of calls released by a single sync
+  private static final int MAX_SYNC_BATCH_SIZE = 1000;
+
+  private final BlockingQueue<PendingSync> pendingSyncs =
+      new LinkedBlockingQueue<PendingSync>();
+
+  // guards syncThread and running against calls being queued
+  private final Object syncThreadLock = new Object();
+  private Thread syncThread;
+  private volatile boolean running = false;
+
+  FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
+    super(conf, storage, editsDirs);
+  }
+
+  @Override
+  synchronized void openForWrite() throws IOException {
+    super.openForWrite();
+    startSyncThread();
+  }
+
+  @Override
+  void close() {
+    // let the sync thread release everything it has been handed before the
+    // final segment is closed
+    stopSyncThread();
+    super.close();
+  }
+
+  private void startSyncThread() {
+    synchronized (syncThreadLock) {
+      if (syncThread != null) {
+        return;
+      }
+      running = true;
+      syncThread = new Thread(this, "FSEditLogAsync");
+      syncThread.setDaemon(true);
+      syncThread.start();
+    }
+  }
+
+  private void stopSyncThread() {
+    Thread t;
+    synchronized (syncThreadLock) {
+      t = syncThread;
+      syncThread = null;
+      running = false;
+    }
+    if (t == null) {
+      return;
+    }
+    try {
+      t.join();
+    } catch (InterruptedException ie) {
+      LOG.warn("Interrupted waiting for the edit log sync thread to exit");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void logSync() {
+    Server.Call call = Server.getCurCall().get();
+    if (call != null && call.canPostponeResponse()) {
+      synchronized (syncThreadLock) {
+        if (running) {
+          call.postponeResponse();
+          pendingSyncs.add(new PendingSync(getMyTxId(), call));
+          return;
+        }
+      }
+    }
+    super.logSync();
+  }
+
+  @Override
+  public void run() {
+    List<PendingSync> batch = new ArrayList<PendingSync>();
+    try {
+      while (true) {
+        PendingSync first = pendingSyncs.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          // nothing can be queued once running is cleared, so an empty
+          // queue observed after that is final
+          if (!running && pendingSyncs.isEmpty()) {
+            break;
+          }
+          continue;
+        }
+        batch.add(first);
+        pendingSyncs.drainTo(batch, MAX_SYNC_BATCH_SIZE - 1);
+
+        long maxTxId = first.txid;
+        for (PendingSync p : batch) {
+          maxTxId = Math.max(maxTxId, p.txid);
+        }
+        logSync(maxTxId);
+
+        for (PendingSync p : batch) {
+          p.sendResponse();
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException ie) {
+      LOG.info("Edit log sync thread interrupted, exiting");
+    } catch (Throwable t) {
+      terminate(1, t);
+    }
+  }
+
+  @VisibleForTesting
+  int getPendingSyncCount() {
+    return pendingSyncs.size();
+  }
+
+  /**
+   * A call whose response is waiting for its edits to be synced.
+   */
+  private static class PendingSync {
+    final long txid;
+    final Server.Call call;
+
+    PendingSync(long txid, Server.Call call) {
+      this.txid = txid;
+      this.call = call;
+    }
+
+    void sendResponse() {
+      try {
+        call.sendResponse();
+      } catch (IOException ioe) {
+        LOG.warn("Failed to send the response to " + call, ioe);
+      }
+    }
+  }
+}
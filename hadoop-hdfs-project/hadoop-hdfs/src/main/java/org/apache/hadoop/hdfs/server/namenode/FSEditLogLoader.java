@@ -257,6 +257,38 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
     return numEdits;
   }
   
+  /**
+   * Apply an op read ahead by an {@link EditLogReadAhead}. This behaves as
+   * {@link #loadEditRecords} does outside of recovery mode: a gap in the
+   * transaction IDs or an op that cannot be applied is an error. The caller
+   * must hold the namesystem and directory write locks.
+   */
+  void applyReadAheadOp(FSEditLogOp op, int logVersion) throws IOException {
+    long expectedTxId = lastAppliedTxId + 1;
+    if (op.hasTransactionId()) {
+      if (op.getTransactionId() > expectedTxId) {
+        throw new IOException("There appears to be a gap in the edit log.  " +
+            "We expected txid " + expectedTxId + ", but got txid " +
+            op.getTransactionId() + ".");
+      } else if (op.getTransactionId() < expectedTxId) {
+        throw new IOException("There appears to be an out-of-order edit in " +
+            "the edit log.  We expected txid " + expectedTxId +
+            ", but got txid " + op.getTransactionId() + ".");
+      }
+    }
+    try {
+      applyEditLogOp(op, fsNamesys.dir, logVersion,
+          fsNamesys.getLastInodeId());
+    } catch (Throwable e) {
+      LOG.error("Encountered exception on operation " + op, e);
+      throw new IOException("Failed to apply edit log operation " + op +
+          ": error " + e.getMessage(), e);
+    }
+    if (op.hasTransactionId()) {
+      lastAppliedTxId = op.getTransactionId();
+    }
+  }
+
   // allocate and update last allocated inode id
   private long getAndUpdateLastInodeId(long inodeIdFromOp, int logVersion,
       long lastInodeId) throws IOException {
@@ -127,7 +127,7 @@ protected FSImage(Configuration conf,
       storage.setRestoreFailedStorage(true);
     }
 
-    this.editLog = new FSEditLog(conf, storage, editsDirs);
+    this.editLog = FSEditLog.newInstance(conf, storage, editsDirs);
     
     archivalManager = new NNStorageRetentionManager(conf, storage, editLog);
   }
@@ -747,6 +747,91 @@ public long loadEdits(Iterable<EditLogInputStream> editStreams,
     return lastAppliedTxId - prevLastAppliedTxId;
   }
 
+  /**
+   * Load the specified list of edit files into the image as
+   * {@link #loadEdits} does outside of recovery mode, but without holding
+   * the namesystem write lock while the edits are read: they are read on a
+   * separate thread and applied in batches of at most maxBatchSize ops, each
+   * under its own acquisition of the lock. The last applied transaction ID
+   * is updated before the lock is released, so the namespace is consistent
+   * with it between batches.
+   *
+   * @param readAhead maximum number of ops read ahead of those applied
+   * @return the number of edits loaded
+   */
+  public long loadEditsInBatches(Iterable<EditLogInputStream> editStreams,
+      FSNamesystem target, int maxBatchSize, int readAhead)
+      throws IOException, InterruptedException {
+    if (!EditLogReadAhead.disableOpReuse(editStreams)) {
+      LOG.debug("Edit log streams do not support read-ahead, loading them " +
+          "under a single lock");
+      target.writeLockInterruptibly();
+      try {
+        return loadEdits(editStreams, target, null);
+      } finally {
+        target.writeUnlock();
+      }
+    }
+    LOG.debug("About to load edits in batches:\n  " +
+        Joiner.on("\n  ").join(editStreams));
+
+    long numEdits = 0;
+    boolean interrupted = false;
+    FSEditLogLoader loader = new FSEditLogLoader(target, lastAppliedTxId);
+    EditLogReadAhead reader = new EditLogReadAhead(editStreams, readAhead);
+    reader.start();
+    try {
+      while (true) {
+        EditLogReadAhead.DecodedOp op;
+        try {
+          op = reader.take();
+        } catch (IOException ioe) {
+          throw new EditLogInputException(ioe.getMessage(), ioe.getCause(),
+              numEdits);
+        }
+        if (op == null) {
+          break;
+        }
+        target.writeLockInterruptibly();
+        try {
+          target.dir.writeLock();
+          try {
+            int batchSize = 0;
+            do {
+              loader.applyReadAheadOp(op.getOp(), op.getLogVersion());
+              numEdits++;
+            } while (++batchSize < maxBatchSize &&
+                (op = reader.poll()) != null);
+          } finally {
+            // Update lastAppliedTxId even in case of error, since some ops
+            // may have been successfully applied before the error.
+            lastAppliedTxId = loader.getLastAppliedTxId();
+            target.dir.writeUnlock();
+          }
+        } finally {
+          target.writeUnlock();
+        }
+      }
+    } catch (InterruptedException ie) {
+      interrupted = true;
+      throw ie;
+    } finally {
+      reader.close();
+      FSEditLog.closeAllStreams(editStreams);
+      // Whoever interrupted us may be holding the lock and waiting for us
+      // to exit; the counts are then updated by the next load.
+      if (!interrupted) {
+        target.writeLock();
+        try {
+          updateCountForQuota(target.dir.rootDir);
+        } finally {
+          target.writeUnlock();
+        }
+      }
+    }
+    return numEdits;
+  }
+
   /**
    * Update the count of each directory with quota in the namespace.
    * A directory's count is defined as the total number inodes in the tree
@@ -849,7 +934,9 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd)
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE, txid);
     
-    FSImageFormat.Saver saver = new FSImageFormat.Saver(context);
+    FSImageFormat.Saver saver = new FSImageFormat.Saver(context,
+        conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_DEFAULT));
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
@@ -35,6 +35,10 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.HadoopIllegalArgumentException;
@@ -45,6 +49,7 @@
 import org.apache.hadoop.fs.PathIsNotDirectoryException;
 import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.LayoutVersion;
 import org.apache.hadoop.hdfs.protocol.LayoutVersion.Feature;
@@ -64,10 +69,14 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.hdfs.util.PipelinedInputStream;
+import org.apache.hadoop.hdfs.util.PipelinedOutputStream;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Contains inner classes for reading or writing the on-disk format for
  * FSImages.
@@ -173,6 +182,11 @@
 @InterfaceStability.Evolving
 public class FSImageFormat {
   private static final Log LOG = FSImage.LOG;
+
+  /** Size of each buffer handed between threads in parallel mode. */
+  private static final int PIPELINE_BUFFER_SIZE = 256 * 1024;
+  /** Maximum number of buffers in flight between threads. */
+  private static final int PIPELINE_NUM_BUFFERS = 8;
   
   // Static-only class
   private FSImageFormat() {}
@@ -198,6 +212,9 @@ public static class Loader {
     private Map<Integer, Snapshot> snapshotMap = null;
     private final ReferenceMap referenceMap = new ReferenceMap();
 
+    /** Builds the blocks map while loading; set only during load(). */
+    private BlocksMapUpdater blocksMapUpdater = null;
+
     Loader(Configuration conf, FSNamesystem namesystem) {
       this.conf = conf;
       this.namesystem = namesystem;
@@ -251,7 +268,11 @@ void load(File curFile) throws IOException {
       DigestInputStream fin = new DigestInputStream(
            new FileInputStream(curFile), digester);
 
+      final boolean parallel = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
       DataInputStream in = new DataInputStream(fin);
+      blocksMapUpdater = new BlocksMapUpdater(parallel);
       try {
         // read image version: first appeared in version -1
         int imgVersion = in.readInt();
@@ -326,8 +347,16 @@ void load(File curFile) throws IOException {
           compression = FSImageCompression.createNoopCompression();
         }
         in = compression.unwrapInputStream(fin);
+        if (parallel) {
+          // read, checksum and decompress the rest of the file while it is
+          // being decoded
+          in = new DataInputStream(new PipelinedInputStream(in,
+              PIPELINE_BUFFER_SIZE, PIPELINE_NUM_BUFFERS,
+              "FSImage loader for " + curFile));
+        }
 
-        LOG.info("Loading image file " + curFile + " using " + compression);
+        LOG.info("Loading image file " + curFile + " using " + compression +
+            (parallel ? " in parallel" : ""));
         
         // load all inodes
         LOG.info("Number of files = " + numFiles);
@@ -343,6 +372,9 @@ void load(File curFile) throws IOException {
         } else {
           loadFullNameINodes(numFiles, in, counter);
         }
+        // the last block of a file under construction replaces the one in
+        // the blocks map, so every file must be in the blocks map first
+        blocksMapUpdater.finish();
 
         loadFilesUnderConstruction(in, supportSnapshot, counter);
         prog.endStep(Phase.LOADING_FSIMAGE, step);
@@ -358,6 +390,8 @@ void load(File curFile) throws IOException {
         boolean eof = (in.read() == -1);
         assert eof : "Should have reached the end of image file " + curFile;
       } finally {
+        blocksMapUpdater.abort();
+        blocksMapUpdater = null;
         in.close();
       }
 
@@ -595,6 +629,14 @@ private void addToParent(INodeDirectory parent, INode child) {
   }
 
     public void updateBlocksMap(INodeFile file) {
+      if (blocksMapUpdater != null) {
+        blocksMapUpdater.add(file);
+      } else {
+        addToBlocksMap(file);
+      }
+    }
+
+    private void addToBlocksMap(INodeFile file) {
       // Add file->block mapping
       final BlockInfo[] blocks = file.getBlocks();
       if (blocks != null) {
@@ -605,6 +647,98 @@ public void updateBlocksMap(INodeFile file) {
       }
     }
 
+    /**
+     * Adds the blocks of loaded files to the blocks map. In parallel mode
+     * the files are handed over in batches to a single background thread,
+     * so that they are still added in the order they were loaded while the
+     * namespace itself is being decoded.
+     */
+    private class BlocksMapUpdater {
+      private static final int BATCH_SIZE = 1024;
+
+      private final ExecutorService executor;
+      private final AtomicReference<Throwable> error =
+          new AtomicReference<Throwable>();
+      private List<INodeFile> batch;
+
+      BlocksMapUpdater(boolean parallel) {
+        if (parallel) {
+          executor = Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder().setDaemon(true)
+                  .setNameFormat("FSImage blocks map loader").build());
+          batch = new ArrayList<INodeFile>(BATCH_SIZE);
+        } else {
+          executor = null;
+        }
+      }
+
+      void add(INodeFile file) {
+        if (executor == null || executor.isShutdown()) {
+          addToBlocksMap(file);
+          return;
+        }
+        batch.add(file);
+        if (batch.size() >= BATCH_SIZE) {
+          submitBatch();
+        }
+      }
+
+      private void submitBatch() {
+        if (batch.isEmpty()) {
+          return;
+        }
+        final List<INodeFile> files = batch;
+        batch = new ArrayList<INodeFile>(BATCH_SIZE);
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (error.get() != null) {
+              return;
+            }
+            try {
+              for (INodeFile file : files) {
+                addToBlocksMap(file);
+              }
+            } catch (Throwable t) {
+              error.compareAndSet(null, t);
+            }
+          }
+        });
+      }
+
+      /**
+       * Wait until every file added so far is in the blocks map. Files
+       * added afterwards are added to the blocks map directly.
+       */
+      void finish() throws IOException {
+        if (executor == null || executor.isShutdown()) {
+          return;
+        }
+        submitBatch();
+        executor.shutdown();
+        try {
+          while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            LOG.debug("Waiting for the blocks map to be loaded");
+          }
+        } catch (InterruptedException ie) {
+          executor.shutdownNow();
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted loading the blocks map", ie);
+        }
+        Throwable t = error.get();
+        if (t != null) {
+          throw new IOException("Failed to load the blocks map", t);
+        }
+      }
+
+      /** Stop the background thread, if any, without waiting for it. */
+      void abort() {
+        if (executor != null) {
+          executor.shutdownNow();
+        }
+      }
+    }
+
     /** @return The FSDirectory of the namesystem where the fsimage is loaded */
     public FSDirectory getFSDirectoryInLoading() {
       return namesystem.dir;
@@ -956,8 +1090,16 @@ private void checkNotSaved() {
     }
     
 
+    /** Whether to compress and write the image on a separate thread */
+    private final boolean parallel;
+
     Saver(SaveNamespaceContext context) {
+      this(context, false);
+    }
+
+    Saver(SaveNamespaceContext context, boolean parallel) {
       this.context = context;
+      this.parallel = parallel;
     }
 
     /**
@@ -1010,8 +1152,15 @@ void save(File newFile, FSImageCompression compression) throws IOException {
         
         // write compression info and set up compressed stream
         out = compression.writeHeaderAndWrapStream(fos);
+        if (parallel) {
+          // compress, checksum and write the image while the namespace is
+          // being serialized
+          out = new DataOutputStream(new PipelinedOutputStream(out,
+              PIPELINE_BUFFER_SIZE, PIPELINE_NUM_BUFFERS,
+              "FSImage saver for " + newFile));
+        }
         LOG.info("Saving image file " + newFile +
-                 " using " + compression);
+                 " using " + compression + (parallel ? " in parallel" : ""));
 
         // save the root
         saveINode2Image(fsDir.rootDir, out, false, referenceMap, counter);
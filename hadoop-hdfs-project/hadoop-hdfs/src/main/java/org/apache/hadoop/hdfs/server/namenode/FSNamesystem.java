@@ -57,6 +57,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDIT_LOG_AUTOROLL_MULTIPLIER_THRESHOLD_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FINE_GRAINED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FINE_GRAINED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY;
@@ -468,6 +472,16 @@ private void logAuditEvent(boolean succeeded,
   /** Lock to protect FSNamesystem. */
   private ReentrantReadWriteLock fsLock;
 
+  /**
+   * Lock to protect the block management state (BlockManager and
+   * DatanodeManager) separately from the namespace, or null if
+   * {@link DFSConfigKeys#DFS_NAMENODE_FSLOCK_FINE_GRAINED_KEY} is off and
+   * fsLock protects everything.
+   *
+   * When both locks are needed, fsLock is always acquired first.
+   */
+  private final ReentrantReadWriteLock bmLock;
+
   /**
    * Used when this NN is in standby state to read from the shared edit log.
    */
@@ -647,9 +661,14 @@ public static FSNamesystem loadFromDisk(Configuration conf)
    */
   FSNamesystem(Configuration conf, FSImage fsImage, boolean ignoreRetryCache)
       throws IOException {
-    boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
+    boolean fair = conf.getBoolean(DFS_NAMENODE_FSLOCK_FAIR_KEY,
+        DFS_NAMENODE_FSLOCK_FAIR_DEFAULT);
     LOG.info("fsLock is fair:" + fair);
     fsLock = new ReentrantReadWriteLock(fair);
+    boolean fineGrained = conf.getBoolean(DFS_NAMENODE_FSLOCK_FINE_GRAINED_KEY,
+        DFS_NAMENODE_FSLOCK_FINE_GRAINED_DEFAULT);
+    LOG.info("fsLock is fine-grained:" + fineGrained);
+    bmLock = fineGrained ? new ReentrantReadWriteLock(fair) : null;
     try {
       resourceRecheckInterval = conf.getLong(
           DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_KEY,
@@ -1270,24 +1289,52 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
     return Util.stringCollectionAsURIs(dirNames);
   }
 
+  /**
+   * Acquire the read lock on both the namespace and the block management
+   * state.
+   */
   @Override
   public void readLock() {
     this.fsLock.readLock().lock();
+    if (bmLock != null) {
+      this.bmLock.readLock().lock();
+    }
   }
   @Override
   public void readUnlock() {
+    if (bmLock != null) {
+      this.bmLock.readLock().unlock();
+    }
     this.fsLock.readLock().unlock();
   }
+  /**
+   * Acquire the write lock on both the namespace and the block management
+   * state.
+   */
   @Override
   public void writeLock() {
     this.fsLock.writeLock().lock();
+    if (bmLock != null) {
+      this.bmLock.writeLock().lock();
+    }
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
     this.fsLock.writeLock().lockInterruptibly();
+    if (bmLock != null) {
+      try {
+        this.bmLock.writeLock().lockInterruptibly();
+      } catch (InterruptedException ie) {
+        this.fsLock.writeLock().unlock();
+        throw ie;
+      }
+    }
   }
   @Override
   public void writeUnlock() {
+    if (bmLock != null) {
+      this.bmLock.writeLock().unlock();
+    }
     this.fsLock.writeLock().unlock();
   }
   @Override
@@ -1299,6 +1346,82 @@ public boolean hasReadLock() {
     return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
   }
 
+  /**
+   * Acquire a read lock on the namespace only. Callers must not look at
+   * block locations or other block management state, which may change
+   * concurrently when fine-grained locking is enabled.
+   */
+  void namespaceReadLock() {
+    this.fsLock.readLock().lock();
+  }
+  void namespaceReadUnlock() {
+    this.fsLock.readLock().unlock();
+  }
+
+  /**
+   * Acquire a read lock for block management work. The namespace is
+   * read-locked as well, since block management consults the files that
+   * blocks belong to.
+   */
+  @Override
+  public void blockManagerReadLock() {
+    readLock();
+  }
+  @Override
+  public void blockManagerReadUnlock() {
+    readUnlock();
+  }
+
+  /**
+   * Acquire a write lock for block management work such as processing
+   * block reports. With fine-grained locking only the namespace read lock
+   * is held, so namespace readers that take {@link #namespaceReadLock()}
+   * are not blocked; otherwise this is the same as {@link #writeLock()}.
+   * Namespace changes that block management work leads to, such as
+   * completing blocks or leaving safe mode, are deferred until the write
+   * lock can be taken.
+   */
+  @Override
+  public void blockManagerWriteLock() {
+    if (bmLock == null) {
+      writeLock();
+      return;
+    }
+    this.fsLock.readLock().lock();
+    this.bmLock.writeLock().lock();
+  }
+  @Override
+  public void blockManagerWriteUnlock() {
+    if (bmLock == null) {
+      writeUnlock();
+      return;
+    }
+    // Only the outermost holder can take the write lock afterwards
+    final boolean completeBlocks = bmLock.getWriteHoldCount() == 1
+        && fsLock.getReadHoldCount() == 1 && !hasWriteLock()
+        && blockManager.hasDeferredCompleteBlocks();
+    this.bmLock.writeLock().unlock();
+    this.fsLock.readLock().unlock();
+    if (completeBlocks) {
+      writeLock();
+      try {
+        blockManager.completeDeferredBlocks();
+      } finally {
+        writeUnlock();
+      }
+    }
+  }
+  @Override
+  public boolean hasBlockManagerWriteLock() {
+    return bmLock == null ? hasWriteLock() :
+        this.bmLock.isWriteLockedByCurrentThread();
+  }
+  @Override
+  public boolean hasBlockManagerReadLock() {
+    return bmLock == null ? hasReadLock() :
+        this.bmLock.getReadHoldCount() > 0 || hasBlockManagerWriteLock();
+  }
+
   public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
   }
@@ -1599,7 +1722,7 @@ private LocatedBlocks getBlockLocationsUpdateTimes(String src, long offset,
       boolean isReadOp = (attempt == 0);
       if (isReadOp) { // first attempt is with readlock
         checkOperation(OperationCategory.READ);
-        readLock();
+        namespaceReadLock();
       }  else { // second attempt is with  write lock
         checkOperation(OperationCategory.WRITE);
         writeLock(); // writelock is needed to set accesstime
@@ -1644,9 +1767,17 @@ && doAccessTime && isAccessTimeSupported()) {
           length = Math.min(length, fileSize - offset);
           isUc = false;
         }
-        LocatedBlocks blocks =
-          blockManager.createLocatedBlocks(inode.getBlocks(), fileSize,
-            isUc, offset, length, needBlockToken, iip.isSnapshot());
+        // Only the locations need the block manager lock, so namespace work
+        // above does not wait for block reports
+        LocatedBlocks blocks;
+        blockManagerReadLock();
+        try {
+          blocks = blockManager.createLocatedBlocks(inode.getBlocks(),
+              fileSize, isUc, offset, length, needBlockToken,
+              iip.isSnapshot());
+        } finally {
+          blockManagerReadUnlock();
+        }
         // Set caching information for the located blocks.
         for (LocatedBlock lb: blocks.getLocatedBlocks()) {
           cacheManager.setCachedLocations(lb);
@@ -1654,7 +1785,7 @@ && doAccessTime && isAccessTimeSupported()) {
         return blocks;
       } finally {
         if (isReadOp) {
-          readUnlock();
+          namespaceReadUnlock();
         } else {
           writeUnlock();
         }
@@ -2022,7 +2153,7 @@ long getPreferredBlockSize(String filename)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.READ);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(filename);
-    readLock();
+    namespaceReadLock();
     try {
       checkOperation(OperationCategory.READ);
       filename = FSDirectory.resolvePath(filename, pathComponents, dir);
@@ -2031,7 +2162,7 @@ long getPreferredBlockSize(String filename)
       }
       return dir.getPreferredBlockSize(filename);
     } finally {
-      readUnlock();
+      namespaceReadUnlock();
     }
   }
 
@@ -3259,7 +3390,8 @@ private boolean deleteInternal(String src, boolean recursive,
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync(); 
+    // blocks must not be invalidated before the delete is durable
+    getEditLog().logSyncBlocking();
     removeBlocks(collectedBlocks); // Incremental deletion of blocks
     collectedBlocks.clear();
     dir.writeLock();
@@ -3289,13 +3421,14 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
     List<Block> toDeleteList = blocks.getToDeleteList();
     Iterator<Block> iter = toDeleteList.iterator();
     while (iter.hasNext()) {
-      writeLock();
+      // The blocks are no longer part of the namespace at this point
+      blockManagerWriteLock();
       try {
         for (int i = 0; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
           blockManager.removeBlock(iter.next());
         }
       } finally {
-        writeUnlock();
+        blockManagerWriteUnlock();
       }
     }
   }
@@ -3399,7 +3532,7 @@ HdfsFileStatus getFileInfo(String src, boolean resolveLink)
       throw new InvalidPathException("Invalid file name: " + src);
     }
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    readLock();
+    namespaceReadLock();
     try {
       checkOperation(OperationCategory.READ);
       src = FSDirectory.resolvePath(src, pathComponents, dir);
@@ -3411,11 +3544,71 @@ HdfsFileStatus getFileInfo(String src, boolean resolveLink)
       logAuditEvent(false, "getfileinfo", src);
       throw e;
     } finally {
-      readUnlock();
+      namespaceReadUnlock();
     }
     logAuditEvent(true, "getfileinfo", src);
     return stat;
   }
+
+  /**
+   * Get the file info for several files or directories under a single
+   * acquisition of the namespace lock.
+   *
+   * @return the status of each path, or null for paths that are not found
+   * @see ClientProtocol#getBatchedFileInfo(String[], boolean)
+   */
+  HdfsFileStatus[] getBatchedFileInfo(String[] srcs, boolean needLocation)
+      throws AccessControlException, UnresolvedLinkException,
+             StandbyException, IOException {
+    if (srcs.length > dir.getLsLimit()) {
+      throw new IOException("Too many paths requested: " + srcs.length +
+          " > " + dir.getLsLimit() + " (" + DFSConfigKeys.DFS_LIST_LIMIT +
+          ")");
+    }
+    byte[][][] pathComponents = new byte[srcs.length][][];
+    for (int i = 0; i < srcs.length; i++) {
+      if (!DFSUtil.isValidName(srcs[i])) {
+        throw new InvalidPathException("Invalid file name: " + srcs[i]);
+      }
+      pathComponents[i] = FSDirectory.getPathComponentsForReservedPath(srcs[i]);
+    }
+    HdfsFileStatus[] stats = new HdfsFileStatus[srcs.length];
+    String[] resolved = new String[srcs.length];
+    FSPermissionChecker pc = getPermissionChecker();
+    checkOperation(OperationCategory.READ);
+    // Block locations are the only block management state needed here
+    if (needLocation) {
+      readLock();
+    } else {
+      namespaceReadLock();
+    }
+    try {
+      checkOperation(OperationCategory.READ);
+      for (int i = 0; i < srcs.length; i++) {
+        String src = FSDirectory.resolvePath(srcs[i], pathComponents[i], dir);
+        resolved[i] = src;
+        if (isPermissionEnabled) {
+          try {
+            checkPermission(pc, src, false, null, null, null, null, true);
+          } catch (AccessControlException e) {
+            logAuditEvent(false, "getfileinfo", src);
+            throw e;
+          }
+        }
+        stats[i] = dir.getFileInfo(src, true, needLocation);
+      }
+    } finally {
+      if (needLocation) {
+        readUnlock();
+      } else {
+        namespaceReadUnlock();
+      }
+    }
+    for (String src : resolved) {
+      logAuditEvent(true, "getfileinfo", src);
+    }
+    return stats;
+  }
   
   /**
    * Returns true if the file is closed
@@ -3425,7 +3618,7 @@ boolean isFileClosed(String src)
       StandbyException, IOException {
     FSPermissionChecker pc = getPermissionChecker();	
     checkOperation(OperationCategory.READ);
-    readLock();
+    namespaceReadLock();
     try {
       checkOperation(OperationCategory.READ);
       if (isPermissionEnabled) {
@@ -3438,7 +3631,7 @@ boolean isFileClosed(String src)
       }
       throw e;
     } finally {
-      readUnlock();
+      namespaceReadUnlock();
     }
   }
 
@@ -3540,7 +3733,7 @@ ContentSummary getContentSummary(String src) throws IOException {
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.READ);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    readLock();
+    namespaceReadLock();
     boolean success = true;
     try {
       checkOperation(OperationCategory.READ);
@@ -3554,7 +3747,7 @@ ContentSummary getContentSummary(String src) throws IOException {
       success = false;
       throw ace;
     } finally {
-      readUnlock();
+      namespaceReadUnlock();
       logAuditEvent(success, "contentSummary", src);
     }
   }
@@ -4051,7 +4244,12 @@ private DirectoryListing getListingInt(String src, byte[] startAfter,
     checkOperation(OperationCategory.READ);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
     String startAfterString = new String(startAfter);
-    readLock();
+    // Block locations are the only block management state a listing needs
+    if (needLocation) {
+      readLock();
+    } else {
+      namespaceReadLock();
+    }
     try {
       checkOperation(OperationCategory.READ);
       src = FSDirectory.resolvePath(src, pathComponents, dir);
@@ -4081,7 +4279,11 @@ private DirectoryListing getListingInt(String src, byte[] startAfter,
       logAuditEvent(true, "listStatus", src);
       dl = dir.getListing(src, startAfter, needLocation);
     } finally {
-      readUnlock();
+      if (needLocation) {
+        readUnlock();
+      } else {
+        namespaceReadUnlock();
+      }
     }
     return dl;
   }
@@ -4149,7 +4351,10 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
       long capacity, long dfsUsed, long remaining, long blockPoolUsed,
       long cacheCapacity, long cacheUsed, int xceiverCount, int xmitsInProgress,
       int failedVolumes) throws IOException {
-    readLock();
+    // The datanode's command queues are synchronized on their own, and the
+    // DatanodeManager takes the block manager lock itself for the little
+    // block management state a heartbeat looks at
+    namespaceReadLock();
     try {
       final int maxTransfer = blockManager.getMaxReplicationStreams()
           - xmitsInProgress;
@@ -4158,7 +4363,7 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
           cacheCapacity, cacheUsed, xceiverCount, maxTransfer, failedVolumes);
       return new HeartbeatResponse(cmds, createHaStatusHeartbeat());
     } finally {
-      readUnlock();
+      namespaceReadUnlock();
     }
   }
 
@@ -4761,9 +4966,9 @@ private boolean needEnter() {
      * Check and trigger safe mode if needed. 
      */
     private void checkMode() {
-      // Have to have write-lock since leaving safemode initializes
-      // repl queues, which requires write lock
-      assert hasWriteLock();
+      // Have to have the block manager write-lock since leaving safemode
+      // initializes repl queues, which requires it
+      assert hasBlockManagerWriteLock();
       // if smmthread is already running, the block threshold must have been 
       // reached before, there is no need to enter the safe mode again
       if (smmthread == null && needEnter()) {
@@ -4778,7 +4983,19 @@ private void checkMode() {
       // the threshold is reached or was reached before
       if (!isOn() ||                           // safe mode is off
           extension <= 0 || threshold <= 0) {  // don't need to wait
-        this.leave(); // leave safe mode
+        if (hasWriteLock()) {
+          this.leave(); // leave safe mode
+        } else {
+          // leaving safe mode changes the namespace, so let the monitor
+          // leave it under the write lock
+          if (reached == 0) {
+            reached = now();
+          }
+          if (smmthread == null) {
+            smmthread = new Daemon(new SafeModeMonitor());
+            smmthread.start();
+          }
+        }
         return;
       }
       if (reached > 0) {  // threshold has already been reached before
@@ -5318,11 +5535,11 @@ NamenodeCommand startCheckpoint(NamenodeRegistration backupNode,
   public void processIncrementalBlockReport(final DatanodeID nodeID,
       final String poolId, final ReceivedDeletedBlockInfo blockInfos[])
       throws IOException {
-    writeLock();
+    blockManagerWriteLock();
     try {
       blockManager.processIncrementalBlockReport(nodeID, poolId, blockInfos);
     } finally {
-      writeUnlock();
+      blockManagerWriteUnlock();
     }
   }
   
@@ -5517,6 +5734,14 @@ public long getMillisSinceLastLoadedEdits() {
     }
   }
   
+  // The difference between its values on the active and on the standby is
+  // how many transactions the standby lags behind
+  @Metric({"LastAppliedOrWrittenTxId",
+      "Last transaction ID applied by the standby or written by the active"})
+  public long getLastAppliedOrWrittenTxId() {
+    return getFSImage().getLastAppliedOrWrittenTxId();
+  }
+
   @Metric
   public int getBlockCapacity() {
     return blockManager.getCapacity();
@@ -7037,7 +7262,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
       writeUnlock();
       RetryCache.setState(cacheEntry, success);
     }
-    getEditLog().logSync();
+    getEditLog().logSyncBlocking();
 
     removeBlocks(collectedBlocks);
     collectedBlocks.clear();
@@ -759,6 +759,15 @@ public HdfsFileStatus getFileInfo(String src)  throws IOException {
     return namesystem.getFileInfo(src, true);
   }
   
+  @Override // ClientProtocol
+  public HdfsFileStatus[] getBatchedFileInfo(String[] srcs,
+      boolean needLocation) throws IOException {
+    HdfsFileStatus[] stats = namesystem.getBatchedFileInfo(srcs, needLocation);
+    metrics.incrBatchedFileInfoOps();
+    metrics.incrFilesInBatchedFileInfoOps(srcs.length);
+    return stats;
+  }
+
   @Override // ClientProtocol
   public boolean isFileClosed(String src) throws IOException{
     return namesystem.isFileClosed(src);
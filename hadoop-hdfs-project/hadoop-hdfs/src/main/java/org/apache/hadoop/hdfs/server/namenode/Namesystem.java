@@ -46,4 +46,28 @@ public interface Namesystem extends RwLock, SafeMode {
   public void checkOperation(OperationCategory read) throws StandbyException;
 
   public boolean isInSnapshot(BlockInfoUnderConstruction blockUC);
+
+  /**
+   * Acquire the lock protecting block management state for reading. Unless
+   * fine-grained locking is enabled this is the same as {@link #readLock()}.
+   */
+  public void blockManagerReadLock();
+
+  /** Release the block management read lock. */
+  public void blockManagerReadUnlock();
+
+  /**
+   * Acquire the lock protecting block management state for writing. Unless
+   * fine-grained locking is enabled this is the same as {@link #writeLock()}.
+   */
+  public void blockManagerWriteLock();
+
+  /** Release the block management write lock. */
+  public void blockManagerWriteUnlock();
+
+  /** Check if the current thread may read block management state. */
+  public boolean hasBlockManagerReadLock();
+
+  /** Check if the current thread may modify block management state. */
+  public boolean hasBlockManagerWriteLock();
 }
\ No newline at end of file
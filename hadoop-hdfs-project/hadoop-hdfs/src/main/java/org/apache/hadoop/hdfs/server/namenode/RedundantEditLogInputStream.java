@@ -279,4 +279,13 @@ public void setMaxOpSize(int maxOpSize) {
       elis.setMaxOpSize(maxOpSize);
     }
   }
+
+  @Override
+  public boolean disableOpReuse() {
+    boolean disabled = true;
+    for (EditLogInputStream elis : streams) {
+      disabled &= elis.disableOpReuse();
+    }
+    return disabled;
+  }
 }
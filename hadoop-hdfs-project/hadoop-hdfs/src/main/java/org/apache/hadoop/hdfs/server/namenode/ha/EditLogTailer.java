@@ -40,6 +40,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.SecurityUtil;
@@ -98,6 +99,24 @@ public class EditLogTailer {
    * available to be read from.
    */
   private long sleepTimeMs;
+
+  /**
+   * Whether edits are read on a separate thread and applied in batches,
+   * releasing the namesystem lock between batches.
+   */
+  private final boolean pipelined;
+
+  /**
+   * Maximum number of transactions applied under one acquisition of the
+   * namesystem lock when pipelined.
+   */
+  private final int maxTxnsPerLock;
+
+  /**
+   * Maximum number of transactions read ahead of those applied when
+   * pipelined.
+   */
+  private final int readAheadTxns;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -124,6 +143,25 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
         DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
     
+    pipelined = conf.getBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_PIPELINED_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PIPELINED_DEFAULT);
+    maxTxnsPerLock = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_MAX_TXNS_PER_LOCK_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_MAX_TXNS_PER_LOCK_DEFAULT);
+    Preconditions.checkArgument(maxTxnsPerLock > 0,
+        "%s must be positive, got %s",
+        DFSConfigKeys.DFS_HA_TAILEDITS_MAX_TXNS_PER_LOCK_KEY, maxTxnsPerLock);
+    readAheadTxns = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_READAHEAD_TXNS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_READAHEAD_TXNS_DEFAULT);
+    Preconditions.checkArgument(readAheadTxns > 0,
+        "%s must be positive, got %s",
+        DFSConfigKeys.DFS_HA_TAILEDITS_READAHEAD_TXNS_KEY, readAheadTxns);
+    if (pipelined) {
+      LOG.info("Will tail edits in batches of at most " + maxTxnsPerLock +
+          " transactions, reading up to " + readAheadTxns + " ahead.");
+    }
+    
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
         " sleepTime=" + sleepTimeMs);
   }
@@ -191,6 +229,10 @@ public Void run() throws Exception {
   
   @VisibleForTesting
   void doTailEdits() throws IOException, InterruptedException {
+    if (pipelined) {
+      doTailEditsInBatches();
+      return;
+    }
     // Write lock needs to be interruptible here because the 
     // transitionToActive RPC takes the write lock before calling
     // tailer.stop() -- so if we're not interruptible, it will
@@ -222,6 +264,7 @@ void doTailEdits() throws IOException, InterruptedException {
       // Once we have streams to load, errors encountered are legitimate cause
       // for concern, so we don't catch them here. Simple errors reading from
       // disk are ignored.
+      long startTime = now();
       long editsLoaded = 0;
       try {
         editsLoaded = image.loadEdits(streams, namesystem, null);
@@ -233,6 +276,10 @@ void doTailEdits() throws IOException, InterruptedException {
           LOG.info(String.format("Loaded %d edits starting from txid %d ",
               editsLoaded, lastTxnId));
         }
+        NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+        if (metrics != null) {
+          metrics.addEditLogTail(now() - startTime, editsLoaded);
+        }
       }
 
       if (editsLoaded > 0) {
@@ -244,6 +291,60 @@ void doTailEdits() throws IOException, InterruptedException {
     }
   }
 
+  /**
+   * Like {@link #doTailEdits()}, but the edits are read on a separate thread
+   * without holding the namesystem write lock, and applied in batches that
+   * each take the lock. The lock is acquired interruptibly for the same
+   * reason as in doTailEdits.
+   */
+  private void doTailEditsInBatches()
+      throws IOException, InterruptedException {
+    FSImage image = namesystem.getFSImage();
+
+    // Only this thread, or the failover after it has stopped, loads edits
+    long lastTxnId = image.getLastAppliedTxId();
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("lastTxnId: " + lastTxnId);
+    }
+    Collection<EditLogInputStream> streams;
+    try {
+      streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+    } catch (IOException ioe) {
+      // As in doTailEdits, this may happen in the middle of a log roll.
+      LOG.warn("Edits tailer failed to find any streams. Will try again " +
+          "later.", ioe);
+      return;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("edit streams to load from: " + streams.size());
+    }
+
+    long startTime = now();
+    long editsLoaded = 0;
+    try {
+      editsLoaded = image.loadEditsInBatches(streams, namesystem,
+          maxTxnsPerLock, readAheadTxns);
+    } catch (EditLogInputException elie) {
+      editsLoaded = elie.getNumEditsLoaded();
+      throw elie;
+    } finally {
+      if (editsLoaded > 0 || LOG.isDebugEnabled()) {
+        LOG.info(String.format("Loaded %d edits starting from txid %d ",
+            editsLoaded, lastTxnId));
+      }
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addEditLogTail(now() - startTime, editsLoaded);
+      }
+    }
+
+    if (editsLoaded > 0) {
+      lastLoadTimestamp = now();
+    }
+    lastLoadedTxnId = image.getLastAppliedTxId();
+  }
+
   /**
    * @return timestamp (in msec) of when we last loaded a non-zero number of edits.
    */
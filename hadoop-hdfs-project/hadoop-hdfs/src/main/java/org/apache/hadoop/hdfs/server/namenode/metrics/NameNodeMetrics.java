@@ -57,6 +57,10 @@ public class NameNodeMetrics {
   @Metric MutableCounterLong createSymlinkOps;
   @Metric MutableCounterLong getLinkTargetOps;
   @Metric MutableCounterLong filesInGetListingOps;
+  @Metric("Number of getBatchedFileInfo operations")
+  MutableCounterLong batchedFileInfoOps;
+  @Metric("Number of paths requested by getBatchedFileInfo operations")
+  MutableCounterLong filesInBatchedFileInfoOps;
   @Metric("Number of allowSnapshot operations")
   MutableCounterLong allowSnapshotOps;
   @Metric("Number of disallowSnapshot operations")
@@ -81,6 +85,10 @@ public class NameNodeMetrics {
   MutableQuantiles[] blockReportQuantiles;
   @Metric("Cache report") MutableRate cacheReport;
   MutableQuantiles[] cacheReportQuantiles;
+  @Metric("Time tailing edits on the standby in msec")
+  MutableRate editLogTail;
+  @Metric("Number of edits loaded by tailing on the standby")
+  MutableCounterLong editLogTailedTxns;
 
   @Metric("Duration in SafeMode at startup in msec")
   MutableGaugeInt safeModeTime;
@@ -173,6 +181,14 @@ public void incrFileInfoOps() {
     fileInfoOps.incr();
   }
 
+  public void incrBatchedFileInfoOps() {
+    batchedFileInfoOps.incr();
+  }
+
+  public void incrFilesInBatchedFileInfoOps(int delta) {
+    filesInBatchedFileInfoOps.incr(delta);
+  }
+
   public void incrCreateSymlinkOps() {
     createSymlinkOps.incr();
   }
@@ -242,6 +258,11 @@ public void addCacheBlockReport(long latency) {
     }
   }
 
+  public void addEditLogTail(long elapsed, long numTxns) {
+    editLogTail.add(elapsed);
+    editLogTailedTxns.incr(numTxns);
+  }
+
   public void setSafeModeTime(long elapsed) {
     safeModeTime.set((int) elapsed);
   }
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * An InputStream that reads ahead from another InputStream on a background
+ * thread. Everything the wrapped stream does per byte, e.g. disk reads,
+ * checksumming or decompression, then overlaps with whatever the reader of
+ * this stream does with the data.
+ *
+ * The stream is not safe for use by multiple readers. The underlying stream
+ * is read until its end or until this stream is closed, whichever comes
+ * first.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class PipelinedInputStream extends InputStream {
+  /** A buffer of data read ahead, or the end of the stream. */
+  private static class Chunk {
+    final byte[] buf;
+    final int len;
+    final Throwable error;
+
+    Chunk(byte[] buf, int len, Throwable error) {
+      this.buf = buf;
+      this.len = len;
+      this.error = error;
+    }
+  }
+
+  private final InputStream in;
+  private final BlockingQueue<Chunk> filled;
+  private final BlockingQueue<byte[]> free;
+  private final Thread reader;
+
+  private Chunk current;
+  private int pos;
+  private boolean closed = false;
+
+  /**
+   * @param in the stream to read ahead from
+   * @param bufferSize size of each read-ahead buffer
+   * @param numBuffers maximum number of buffers read ahead
+   * @param name name of the read-ahead thread
+   */
+  public PipelinedInputStream(InputStream in, int bufferSize, int numBuffers,
+      String name) {
+    Preconditions.checkArgument(bufferSize > 0 && numBuffers > 0,
+        "Invalid buffer size %s or count %s", bufferSize, numBuffers);
+    this.in = in;
+    this.filled = new ArrayBlockingQueue<Chunk>(numBuffers + 1);
+    this.free = new ArrayBlockingQueue<byte[]>(numBuffers);
+    for (int i = 0; i < numBuffers; i++) {
+      free.add(new byte[bufferSize]);
+    }
+    this.reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readAhead();
+      }
+    }, name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void readAhead() {
+    try {
+      while (true) {
+        byte[] buf = free.take();
+        int len = readFully(buf);
+        if (len > 0) {
+          filled.put(new Chunk(buf, len, null));
+        }
+        if (len < buf.length) {
+          filled.put(new Chunk(null, -1, null));
+          return;
+        }
+      }
+    } catch (InterruptedException ie) {
+      // closed by the reader
+    } catch (Throwable t) {
+      // hand anything else to the reader, which would otherwise wait for
+      // data forever; there is always room for the final chunk
+      filled.offer(new Chunk(null, -1, t));
+    }
+  }
+
+  /** Fill buf unless the end of the stream is reached first. */
+  private int readFully(byte[] buf) throws IOException {
+    int off = 0;
+    while (off < buf.length) {
+      int n = in.read(buf, off, buf.length - off);
+      if (n < 0) {
+        break;
+      }
+      off += n;
+    }
+    return off;
+  }
+
+  /**
+   * Make sure current has unread data.
+   * @return false at the end of the stream
+   */
+  private boolean fill() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (current != null && pos < current.len) {
+      return true;
+    }
+    if (current != null && current.len < 0) {
+      return false;
+    }
+    if (current != null) {
+      free.add(current.buf);
+    }
+    try {
+      current = filled.take();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for data");
+    }
+    pos = 0;
+    if (current.error != null) {
+      Throwables.propagateIfPossible(current.error, IOException.class);
+      throw new IOException("Read-ahead failed", current.error);
+    }
+    return current.len > 0;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return current.buf[pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int n = Math.min(len, current.len - pos);
+    System.arraycopy(current.buf, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (closed || current == null || current.len < 0) {
+      return 0;
+    }
+    return current.len - pos;
+  }
+
+  /**
+   * Stop reading ahead and close the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the" +
+          " read-ahead thread to exit");
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * An OutputStream that hands data to another OutputStream on a background
+ * thread. Everything the wrapped stream does per byte, e.g. compression,
+ * checksumming or disk writes, then overlaps with whatever the writer of
+ * this stream does to produce the data.
+ *
+ * The stream is not safe for use by multiple writers. A failure of the
+ * underlying stream is reported by the next write, flush or close.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class PipelinedOutputStream extends OutputStream {
+  /** A buffer to write, a flush request, or the end of the stream. */
+  private static class Chunk {
+    final byte[] buf;
+    final int len;
+    final CountDownLatch flushed;
+
+    Chunk(byte[] buf, int len, CountDownLatch flushed) {
+      this.buf = buf;
+      this.len = len;
+      this.flushed = flushed;
+    }
+  }
+
+  private static final Chunk END = new Chunk(null, -1, null);
+
+  private final OutputStream out;
+  private final BlockingQueue<Chunk> filled;
+  private final BlockingQueue<byte[]> free;
+  private final Thread writer;
+  private volatile Throwable error;
+
+  private byte[] current;
+  private int pos;
+  private boolean closed = false;
+
+  /**
+   * @param out the stream to write to
+   * @param bufferSize size of each buffer
+   * @param numBuffers maximum number of buffers waiting to be written
+   * @param name name of the writer thread
+   */
+  public PipelinedOutputStream(OutputStream out, int bufferSize,
+      int numBuffers, String name) {
+    Preconditions.checkArgument(bufferSize > 0 && numBuffers > 0,
+        "Invalid buffer size %s or count %s", bufferSize, numBuffers);
+    this.out = out;
+    // leave room for a flush request and the end of the stream
+    this.filled = new ArrayBlockingQueue<Chunk>(numBuffers + 2);
+    this.free = new ArrayBlockingQueue<byte[]>(numBuffers);
+    for (int i = 0; i < numBuffers - 1; i++) {
+      free.add(new byte[bufferSize]);
+    }
+    this.current = new byte[bufferSize];
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeBehind();
+      }
+    }, name);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void writeBehind() {
+    try {
+      while (true) {
+        Chunk c = filled.take();
+        if (c == END) {
+          return;
+        }
+        // after an error, keep draining so that the writer never blocks on
+        // a full queue or on a buffer that is never given back
+        if (c.flushed != null) {
+          try {
+            if (error == null) {
+              out.flush();
+            }
+          } catch (Throwable t) {
+            error = t;
+          } finally {
+            c.flushed.countDown();
+          }
+          continue;
+        }
+        try {
+          if (error == null) {
+            out.write(c.buf, 0, c.len);
+          }
+        } catch (Throwable t) {
+          error = t;
+        } finally {
+          free.put(c.buf);
+        }
+      }
+    } catch (InterruptedException ie) {
+      // closed by the writer
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    checkError();
+  }
+
+  /** Rethrow the error of the writer thread, if any. */
+  private void checkError() throws IOException {
+    Throwable t = error;
+    if (t != null) {
+      Throwables.propagateIfPossible(t, IOException.class);
+      throw new IOException("Write-behind failed", t);
+    }
+  }
+
+  /** Hand the current buffer to the writer thread. */
+  private void submit() throws IOException {
+    if (pos == 0) {
+      return;
+    }
+    try {
+      filled.put(new Chunk(current, pos, null));
+      current = free.take();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted handing off data");
+    }
+    pos = 0;
+    checkError();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    checkOpen();
+    if (pos == current.length) {
+      submit();
+    }
+    current[pos++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    while (len > 0) {
+      if (pos == current.length) {
+        submit();
+      }
+      int n = Math.min(len, current.length - pos);
+      System.arraycopy(b, off, current, pos, n);
+      pos += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Wait until everything written so far has been written to, and flushed
+   * by, the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    checkOpen();
+    submit();
+    CountDownLatch flushed = new CountDownLatch(1);
+    try {
+      filled.put(new Chunk(null, 0, flushed));
+      flushed.await();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for flush");
+    }
+    checkOpen();
+  }
+
+  /**
+   * Write out everything buffered, stop the writer thread and close the
+   * underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (error == null) {
+        submit();
+      }
+    } finally {
+      closed = true;
+      try {
+        filled.put(END);
+        writer.join();
+      } catch (InterruptedException ie) {
+        writer.interrupt();
+        Thread.currentThread().interrupt();
+      }
+      out.close();
+    }
+    checkError();
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.junit.Test;
+
+public class TestDFSMetadataCache {
+  private static HdfsFileStatus status(boolean isdir) {
+    return new HdfsFileStatus(0, isdir, 1, 1024, 0, 0,
+        FsPermission.getDefault(), "user", "group", null, null, 0, 0);
+  }
+
+  private static void put(DFSMetadataCache cache, String src,
+      HdfsFileStatus status) {
+    cache.putFileInfo(src, status, cache.getGeneration());
+  }
+
+  @Test
+  public void testInvalidateFile() {
+    DFSMetadataCache cache = new DFSMetadataCache(100, 60 * 1000);
+    HdfsFileStatus dir = status(true);
+    HdfsFileStatus sibling = status(false);
+    put(cache, "/dir", dir);
+    put(cache, "/dir/file", status(false));
+    put(cache, "/dir/sibling", sibling);
+
+    cache.invalidate("/dir/file");
+    assertNull(cache.getFileInfo("/dir/file"));
+    // the modification time of the parent changed too
+    assertNull(cache.getFileInfo("/dir"));
+    assertSame(sibling, cache.getFileInfo("/dir/sibling"));
+
+    // a lookup started after the change may be cached again
+    put(cache, "/dir", dir);
+    assertSame(dir, cache.getFileInfo("/dir"));
+  }
+
+  @Test
+  public void testInvalidateSubtree() {
+    DFSMetadataCache cache = new DFSMetadataCache(100, 60 * 1000);
+    put(cache, "/a/b", status(true));
+    put(cache, "/a/b/c/d", status(false));
+    put(cache, "/a/bc", status(false));
+
+    // e.g. a recursive delete or a rename of /a/b
+    cache.invalidate("/a/b");
+    assertNull(cache.getFileInfo("/a/b"));
+    assertNull(cache.getFileInfo("/a/b/c/d"));
+    assertNotNull(cache.getFileInfo("/a/bc"));
+
+    cache.invalidateAll();
+    assertNull(cache.getFileInfo("/a/bc"));
+  }
+
+  @Test
+  public void testLookupRacingWithChange() {
+    DFSMetadataCache cache = new DFSMetadataCache(100, 60 * 1000);
+    // a lookup starts, the path is changed, then the lookup returns
+    long generation = cache.getGeneration();
+    cache.invalidate("/dir");
+    cache.putFileInfo("/dir/file", status(false), generation);
+    assertNull(cache.getFileInfo("/dir/file"));
+    cache.putFileInfo("/dir", status(true), generation);
+    assertNull(cache.getFileInfo("/dir"));
+    // a change elsewhere does not affect the lookup
+    generation = cache.getGeneration();
+    cache.invalidate("/other");
+    cache.putFileInfo("/dir/file", status(false), generation);
+    assertNotNull(cache.getFileInfo("/dir/file"));
+  }
+}
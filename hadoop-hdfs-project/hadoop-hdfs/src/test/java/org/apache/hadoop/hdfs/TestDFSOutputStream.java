@@ -18,17 +18,24 @@
 package org.apache.hadoop.hdfs;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.internal.util.reflection.Whitebox;
 
+import com.google.common.base.Supplier;
+
 public class TestDFSOutputStream {
   static MiniDFSCluster cluster;
 
@@ -66,6 +73,95 @@ public void testCloseTwice() throws IOException {
     dos.close();
   }
 
+  /**
+   * A writer must not get more than the configured number of packets ahead
+   * of the pipeline's acknowledgements.
+   */
+  @Test(timeout=60000)
+  public void testMaxPacketsInFlight() throws Exception {
+    final int maxPackets = 3;
+    Configuration conf = new Configuration(cluster.getConfiguration(0));
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_IN_FLIGHT_KEY,
+        maxPackets);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 4096);
+    FileSystem fs = FileSystem.newInstance(cluster.getURI(), conf);
+    DFSClientFaultInjector oldInjector = DFSClientFaultInjector.instance;
+    try {
+      Path file = new Path("/testMaxPacketsInFlight");
+      final FSDataOutputStream os = fs.create(file);
+      DFSOutputStream dos = (DFSOutputStream) Whitebox.getInternalState(os,
+          "wrappedStream");
+      final LinkedList<?> dataQueue =
+          (LinkedList<?>) Whitebox.getInternalState(dos, "dataQueue");
+      final LinkedList<?> ackQueue =
+          (LinkedList<?>) Whitebox.getInternalState(dos, "ackQueue");
+
+      // hold back the acks until the writer has filled the window, then
+      // record the packets in flight at every ack
+      final CountDownLatch stalled = new CountDownLatch(1);
+      final AtomicInteger maxInFlight = new AtomicInteger();
+      DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+        @Override
+        public void delayAck() {
+          try {
+            stalled.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          int inFlight = getPacketsInFlight(dataQueue, ackQueue);
+          int max = maxInFlight.get();
+          while (inFlight > max && !maxInFlight.compareAndSet(max, inFlight)) {
+            max = maxInFlight.get();
+          }
+        }
+      };
+
+      final byte[] data = AppendTestUtil.randomBytes(0L, 100 * 1024);
+      final AtomicReference<IOException> failure =
+          new AtomicReference<IOException>();
+      Thread writer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            os.write(data);
+            os.close();
+          } catch (IOException e) {
+            failure.set(e);
+          }
+        }
+      };
+      writer.start();
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return getPacketsInFlight(dataQueue, ackQueue) == maxPackets;
+        }
+      }, 10, 10000);
+      // the writer blocks instead of queueing more packets
+      Thread.sleep(500);
+      Assert.assertTrue(writer.isAlive());
+      Assert.assertEquals(maxPackets, getPacketsInFlight(dataQueue, ackQueue));
+
+      stalled.countDown();
+      writer.join();
+      Assert.assertNull(failure.get());
+      Assert.assertTrue("Too many packets in flight: " + maxInFlight.get(),
+          maxInFlight.get() <= maxPackets);
+      AppendTestUtil.checkFullFile(fs, file, data.length, data,
+          file.toString());
+    } finally {
+      DFSClientFaultInjector.instance = oldInjector;
+      fs.close();
+    }
+  }
+
+  private static int getPacketsInFlight(LinkedList<?> dataQueue,
+      LinkedList<?> ackQueue) {
+    synchronized (dataQueue) {
+      return dataQueue.size() + ackQueue.size();
+    }
+  }
+
   @AfterClass
   public static void tearDown() {
     cluster.shutdown();
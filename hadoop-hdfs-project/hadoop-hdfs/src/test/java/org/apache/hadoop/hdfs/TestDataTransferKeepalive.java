@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_MAX_BLOCK_ACQUIRE_FAILURES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_PARK_IDLE_XCEIVERS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
 import static org.junit.Assert.assertEquals;
@@ -41,11 +42,13 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
 import com.google.common.io.NullOutputStream;
 
 public class TestDataTransferKeepalive {
@@ -163,6 +166,54 @@ public void testSlowReader() throws Exception {
     }
   }
   
+  /**
+   * With idle xceivers parked, a kept alive connection should still count as
+   * an xceiver and be reusable, but should not hold a thread while idle.
+   */
+  @Test(timeout=30000)
+  public void testParkedIdleXceivers() throws Exception {
+    DataNodeProperties props = cluster.stopDataNode(0);
+    props.conf.setBoolean(DFS_DATANODE_PARK_IDLE_XCEIVERS_KEY, true);
+    props.conf.setInt(DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        KEEPALIVE_TIMEOUT * 3);
+    assertTrue(cluster.restartDataNode(props, true));
+    cluster.triggerHeartbeats();
+    dn = cluster.getDataNodes().get(0);
+    // the idle peer watcher thread is not an xceiver
+    assertXceiverCount(0);
+
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+    dfsClient.peerCache.clear();
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, dfsClient.peerCache.size());
+    assertXceiverCount(1);
+    waitForNoXceiverThreads();
+
+    // The next read is served over the parked connection
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, dfsClient.peerCache.size());
+    assertXceiverCount(1);
+    waitForNoXceiverThreads();
+
+    // The idle connection is closed after the keepalive timeout
+    Thread.sleep(KEEPALIVE_TIMEOUT * 6);
+    assertXceiverCount(0);
+  }
+
+  private static void waitForNoXceiverThreads() throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+          if (t.getName().startsWith("DataXceiver for client")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }, 100, 10000);
+  }
+
   @Test(timeout=30000)
   public void testManyClosedSocketsInCache() throws Exception {
     // Make a small file
@@ -20,6 +20,7 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
@@ -33,6 +34,7 @@
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Random;
@@ -874,4 +876,127 @@ public void testListFiles() throws IOException {
       cluster.shutdown();
     }
   }
+
+  @Test(timeout=60000)
+  public void testMetadataCache() throws IOException {
+    Configuration conf = getTestConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_SIZE_KEY, 100);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_EXPIRY_MS_KEY,
+        60 * 1000);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      DFSMetadataCache cache = fs.getClient().getMetadataCache();
+      assertNotNull(cache);
+
+      Path dir = new Path("/testMetadataCache");
+      Path file = new Path(dir, "file");
+      DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0L);
+
+      // Repeated lookups of a closed file are answered from the cache
+      long hits = cache.getHits();
+      fs.getFileStatus(file);
+      fs.getFileStatus(file);
+      assertEquals(hits + 1, cache.getHits());
+      hits = cache.getHits();
+      DFSTestUtil.readFile(fs, file);
+      DFSTestUtil.readFile(fs, file);
+      assertEquals(hits + 1, cache.getHits());
+
+      // The client's own changes are visible immediately
+      FsPermission perm = new FsPermission((short) 0600);
+      fs.setPermission(file, perm);
+      assertEquals(perm, fs.getFileStatus(file).getPermission());
+
+      Path dir2 = new Path("/testMetadataCache2");
+      fs.rename(dir, dir2);
+      assertFalse(fs.exists(file));
+      assertEquals(1024, fs.getFileStatus(new Path(dir2, "file")).getLen());
+
+      FSDataOutputStream out = fs.append(new Path(dir2, "file"));
+      out.write(new byte[1024]);
+      out.close();
+      assertEquals(2048, fs.getFileStatus(new Path(dir2, "file")).getLen());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testGetFileStatuses() throws IOException {
+    Configuration conf = getTestConfiguration();
+    // Force the client to split the paths into several calls
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 2);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/testGetFileStatuses");
+      Path file1 = new Path(dir, "file1");
+      Path file2 = new Path(dir, "file2");
+      DFSTestUtil.createFile(fs, file1, 1024, (short) 1, 0L);
+      DFSTestUtil.createFile(fs, file2, 2048, (short) 1, 0L);
+      Path[] paths = { file1, new Path(dir, "missing"), dir, file2 };
+
+      FileStatus[] stats = fs.getFileStatuses(paths);
+      assertEquals(paths.length, stats.length);
+      assertEquals(fs.getFileStatus(file1), stats[0]);
+      assertEquals(null, stats[1]);
+      assertTrue(stats[2].isDirectory());
+      assertEquals(2048, stats[3].getLen());
+
+      LocatedFileStatus[] located = fs.getLocatedFileStatuses(paths);
+      assertEquals(paths.length, located.length);
+      assertEquals(1, located[0].getBlockLocations().length);
+      assertEquals(null, located[1]);
+      assertTrue(located[2].isDirectory());
+      assertEquals(fs.makeQualified(file2), located[3].getPath());
+      assertEquals(2048, located[3].getBlockLocations()[0].getLength());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testListFilesPrefetch() throws IOException {
+    Configuration conf = getTestConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_LISTING_PREFETCH_THREADPOOL_SIZE_KEY,
+        4);
+    // Make every directory span several listing pages
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 3);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      Path root = new Path("/testListFilesPrefetch");
+      List<Path> expected = new ArrayList<Path>();
+      for (int d = 0; d < 4; d++) {
+        Path dir = new Path(root, "dir" + d + "/sub");
+        for (int f = 0; f < 5; f++) {
+          Path file = new Path(f % 2 == 0 ? dir : dir.getParent(), "f" + f);
+          DFSTestUtil.createFile(fs, file, 10, (short) 1, 0L);
+          expected.add(fs.makeQualified(file));
+        }
+      }
+
+      List<Path> listed = new ArrayList<Path>();
+      RemoteIterator<LocatedFileStatus> it = fs.listFiles(root, true);
+      while (it.hasNext()) {
+        LocatedFileStatus stat = it.next();
+        assertTrue(stat.isFile());
+        assertEquals(1, stat.getBlockLocations().length);
+        listed.add(stat.getPath());
+      }
+      Collections.sort(expected);
+      Collections.sort(listed);
+      assertEquals(expected, listed);
+
+      try {
+        fs.listFiles(new Path("/nonexistent"), true).hasNext();
+        fail("Expecting FileNotFoundException");
+      } catch (FileNotFoundException e) {
+        // expected
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
@@ -19,6 +19,7 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.io.IOUtils;
@@ -29,6 +30,7 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 
 public class TestFileInputStreamCache {
   static final Log LOG = LogFactory.getLog(TestFileInputStreamCache.class);
@@ -123,4 +125,29 @@ public void testEviction() throws Exception {
     pair.close();
     cache.close();
   }
+
+  @Test
+  public void testSharedByClients() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    InetSocketAddress addr = new InetSocketAddress("127.0.0.1", 1);
+    DFSClient client1 = new DFSClient(addr, conf);
+    DFSClient client2 = new DFSClient(addr, conf);
+    FileInputStreamCache cache = client1.getFileInputStreamCache();
+    Assert.assertSame(cache, client2.getFileInputStreamCache());
+
+    // The cache stays usable until its last client is closed
+    client1.close();
+    DatanodeID dnId = new DatanodeID("127.0.0.1", "localhost", 
+        "xyzzy", 8080, 9090, 7070, 6060);
+    ExtendedBlock block = new ExtendedBlock("poolid", 123);
+    TestFileDescriptorPair pair = new TestFileDescriptorPair();
+    cache.put(dnId, block, pair.getFileInputStreams());
+    Assert.assertTrue(pair.compareWith(cache.get(dnId, block)));
+    client2.close();
+
+    DFSClient client3 = new DFSClient(addr, conf);
+    Assert.assertNotSame(cache, client3.getFileInputStreamCache());
+    client3.close();
+    pair.close();
+  }
 }
@@ -22,15 +22,21 @@
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.log4j.Level;
 import org.junit.Test;
 
@@ -208,9 +214,139 @@ public void testPreadDFSNoChecksum() throws IOException {
     dfsPreadTest(true, false);
   }
   
+  /**
+   * Tests positional read in DFS with hedged reads enabled.
+   */
+  @Test
+  public void testHedgedPreadDFSBasic() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS, 100);
+    dfsPreadTest(conf, false, true);
+    dfsPreadTest(conf, true, true);
+  }
+
+  /**
+   * A positional read that is stuck on one DataNode should be answered by
+   * a hedged read from another replica.
+   */
+  @Test
+  public void testHedgedReadFromSlowDatanode() throws IOException {
+    final AtomicInteger fetches = new AtomicInteger();
+    DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+      @Override
+      public void startFetchFromDatanode() {
+        // Only the first read is slow
+        if (fetches.getAndIncrement() == 0) {
+          try {
+            Thread.sleep(10000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS, 50);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    DistributedFileSystem fileSys = cluster.getFileSystem();
+    DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+    long hedgedReads = metrics.getHedgedReadOps();
+    long hedgedWins = metrics.getHedgedReadWins();
+    try {
+      Path file = new Path("hedgedread.dat");
+      DFSTestUtil.createFile(fileSys, file, blockSize, blockSize,
+          blockSize, (short) 3, seed);
+      byte[] expected = new byte[blockSize];
+      new Random(seed).nextBytes(expected);
+
+      FSDataInputStream stm = fileSys.open(file);
+      byte[] actual = new byte[blockSize];
+      stm.readFully(0, actual);
+      stm.close();
+      checkAndEraseData(actual, 0, expected, "Hedged Pread Test");
+      assertEquals(hedgedReads + 1, metrics.getHedgedReadOps());
+      assertEquals(hedgedWins + 1, metrics.getHedgedReadWins());
+    } finally {
+      DFSClientFaultInjector.instance = new DFSClientFaultInjector();
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests vectored reads in DFS, reading the blocks sequentially and in
+   * parallel.
+   */
+  @Test
+  public void testVectoredReadDFS() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    vectoredReadTest(conf);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_KEY, 4);
+    vectoredReadTest(conf);
+  }
+
+  private void vectoredReadTest(Configuration conf) throws IOException {
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MERGE_GAP_KEY, 512);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_KEY,
+        2048);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    FileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file = new Path("vectoredread.dat");
+      DFSTestUtil.createFile(fileSys, file, 12 * blockSize, 12 * blockSize,
+          blockSize, (short) 3, seed);
+      byte[] expected = new byte[12 * blockSize];
+      new Random(seed).nextBytes(expected);
+
+      List<FileRange> ranges = Arrays.asList(
+          // merged into one request
+          new FileRange(100, 100), new FileRange(300, 100),
+          // overlapping
+          new FileRange(350, 1000),
+          // too far apart to be merged
+          new FileRange(3000, 50),
+          // across two block boundaries
+          new FileRange(blockSize - 10, blockSize + 20),
+          // other blocks, out of order
+          new FileRange(11 * blockSize, blockSize),
+          new FileRange(6 * blockSize + 1, 10),
+          new FileRange(5 * blockSize, 0));
+      ElasticByteBufferPool pool = new ElasticByteBufferPool();
+      FSDataInputStream stm = fileSys.open(file);
+      try {
+        stm.readVectored(ranges, pool);
+        assertEquals(0, stm.getPos());
+        for (FileRange range : ranges) {
+          ByteBuffer data = range.getData();
+          assertEquals(range.getLength(), data.remaining());
+          byte[] actual = new byte[data.remaining()];
+          data.get(actual);
+          checkAndEraseData(actual, (int) range.getOffset(), expected,
+              "Vectored Read Test " + range);
+          pool.putBuffer(data);
+        }
+      } finally {
+        stm.close();
+      }
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
   private void dfsPreadTest(boolean disableTransferTo, boolean verifyChecksum)
       throws IOException {
-    Configuration conf = new HdfsConfiguration();
+    dfsPreadTest(new HdfsConfiguration(), disableTransferTo, verifyChecksum);
+  }
+
+  private void dfsPreadTest(Configuration conf, boolean disableTransferTo,
+      boolean verifyChecksum) throws IOException {
     conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 4096);
     conf.setLong(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_SIZE_KEY, 4096);
     if (simulatedStorage) {
@@ -19,6 +19,8 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -121,4 +123,59 @@ public void testBlockListMoveToHead() throws Exception {
           blockInfoList.get(j), dd.getHead());
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Add more replicas than are stored inline, so that the triplets spill
+   * over into an array, and remove them again.
+   */
+  @Test
+  public void testReplicasBeyondInlineCapacity() throws Exception {
+    final int numNodes = BlockInfo.INLINE_REPLICAS + 3;
+    DatanodeDescriptor[] dds = new DatanodeDescriptor[numNodes];
+    BlockInfo[] blockInfos = new BlockInfo[2];
+    for (int i = 0; i < blockInfos.length; i++) {
+      blockInfos[i] = new BlockInfo(
+          new Block(i, 0, GenerationStamp.LAST_RESERVED_STAMP), 1);
+    }
+    for (int i = 0; i < numNodes; i++) {
+      dds[i] = DFSTestUtil.getLocalDatanodeDescriptor();
+      for (BlockInfo b : blockInfos) {
+        assertTrue(dds[i].addBlock(b));
+      }
+    }
+
+    for (BlockInfo b : blockInfos) {
+      assertEquals(numNodes, b.numNodes());
+      assertTrue(b.getCapacity() >= numNodes);
+      for (int i = 0; i < numNodes; i++) {
+        assertEquals(i, b.findDatanode(dds[i]));
+        assertEquals(dds[i], b.getDatanode(i));
+      }
+    }
+    for (int i = 0; i < numNodes; i++) {
+      // the most recently added block is the head of every list
+      assertEquals(blockInfos[1], dds[i].getHead());
+      assertEquals(blockInfos[0], dds[i].getHead().getNext(
+          blockInfos[1].findDatanode(dds[i])));
+      assertEquals(2, dds[i].numBlocks());
+    }
+
+    // removing an inline replica moves the last one into its place
+    assertTrue(dds[0].removeBlock(blockInfos[0]));
+    assertEquals(numNodes - 1, blockInfos[0].numNodes());
+    assertEquals(-1, blockInfos[0].findDatanode(dds[0]));
+    assertEquals(0, blockInfos[0].findDatanode(dds[numNodes - 1]));
+    assertEquals(1, dds[0].numBlocks());
+    assertEquals(blockInfos[0], dds[numNodes - 1].getHead().getNext(
+        blockInfos[1].findDatanode(dds[numNodes - 1])));
+
+    for (int i = 1; i < numNodes; i++) {
+      assertTrue(dds[i].removeBlock(blockInfos[0]));
+    }
+    assertEquals(0, blockInfos[0].numNodes());
+    for (int i = 0; i < numNodes; i++) {
+      assertEquals(blockInfos[1], dds[i].getHead());
+      assertNull(dds[i].getHead().getNext(blockInfos[1].findDatanode(dds[i])));
+    }
+  }
+}
@@ -37,6 +37,7 @@
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor.BlockTargetPair;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.net.NetworkTopology;
@@ -78,6 +79,7 @@ public void setupMockCluster() throws IOException {
         "need to set a dummy value here so it assumes a multi-rack cluster");
     fsn = Mockito.mock(FSNamesystem.class);
     Mockito.doReturn(true).when(fsn).hasWriteLock();
+    Mockito.doReturn(true).when(fsn).hasBlockManagerWriteLock();
     bm = new BlockManager(fsn, fsn, conf);
     nodes = ImmutableList.of(
         DFSTestUtil.getDatanodeDescriptor("1.1.1.1", "/rackA"),
@@ -556,4 +558,81 @@ public void testSafeModeIBRAfterIncremental() throws Exception {
     verify(node).receivedBlockReport();
     assertFalse(node.isFirstBlockReport());
   }
+
+  @Test
+  public void testProcessReportInChunks() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_CHUNK_SIZE_KEY, 2);
+    bm = new BlockManager(fsn, fsn, conf);
+    DatanodeDescriptor node = nodes.get(0);
+    node.setStorageID("dummy-storage");
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    List<Block> blocks = new ArrayList<Block>();
+    for (long blkId = 1; blkId <= 5; blkId++) {
+      Block block = new Block(blkId);
+      addBlockOnNodes(blkId, new ArrayList<DatanodeDescriptor>());
+      blocks.add(block);
+    }
+
+    // the first report adds every replica
+    bm.processReport(node, "pool", new BlockListAsLongs(blocks, null));
+    assertEquals(5, node.numBlocks());
+    assertFalse(node.isFirstBlockReport());
+
+    // a later report drops the replicas that are no longer reported
+    List<Block> remaining = blocks.subList(1, 4);
+    bm.processReport(node, "pool", new BlockListAsLongs(remaining, null));
+    assertEquals(3, node.numBlocks());
+    for (Block b : blocks) {
+      assertEquals(remaining.contains(b) ? 1 : 0,
+          bm.blocksMap.numNodes(b));
+    }
+
+    // an unknown replica is invalidated rather than added
+    List<Block> withUnknown = new ArrayList<Block>(remaining);
+    withUnknown.add(new Block(100L));
+    bm.processReport(node, "pool", new BlockListAsLongs(withUnknown, null));
+    assertEquals(3, node.numBlocks());
+    assertEquals(1, bm.getPendingDeletionBlocksCount());
+  }
+
+  @Test
+  public void testCompleteBlockDeferredWithoutNamespaceLock() throws Exception {
+    // only the block management lock is held, as with fine-grained locking
+    doReturn(false).when(fsn).hasWriteLock();
+    doReturn(true).when(fsn).hasBlockManagerReadLock();
+    DatanodeDescriptor node = nodes.get(0);
+    node.setStorageID("dummy-storage");
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    Block block = new Block(42L, 1024L, 1L);
+    BlockInfoUnderConstruction ucBlock = new BlockInfoUnderConstruction(
+        block, 3, BlockUCState.COMMITTED, new DatanodeDescriptor[0]);
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    doReturn(true).when(bc).isUnderConstruction();
+    doReturn(new BlockInfo[] { ucBlock }).when(bc).getBlocks();
+    bm.blocksMap.addBlockCollection(ucBlock, bc);
+
+    // the replica is recorded, but the file is left alone
+    bm.addBlock(node, block, null);
+    assertEquals(1, bm.blocksMap.numNodes(block));
+    verify(bc, never()).setBlock(anyInt(), any(BlockInfo.class));
+    assertFalse(bm.getStoredBlock(block).isComplete());
+    assertTrue(bm.hasDeferredCompleteBlocks());
+
+    // until the namespace is write-locked
+    doReturn(true).when(fsn).hasWriteLock();
+    bm.completeDeferredBlocks();
+    verify(bc).setBlock(eq(0), any(BlockInfo.class));
+    assertTrue(bm.getStoredBlock(block).isComplete());
+    assertFalse(bm.hasDeferredCompleteBlocks());
+  }
 }
@@ -50,6 +50,7 @@ public void testNumVersionsReportedCorrect() throws IOException {
     //Create the DatanodeManager which will be tested
     FSNamesystem fsn = Mockito.mock(FSNamesystem.class);
     Mockito.when(fsn.hasWriteLock()).thenReturn(true);
+    Mockito.when(fsn.hasBlockManagerWriteLock()).thenReturn(true);
     DatanodeManager dm = new DatanodeManager(Mockito.mock(BlockManager.class),
       fsn, new Configuration());
 
@@ -1043,6 +1043,7 @@ public void testAddStoredBlockDoesNotCauseSkippedReplication()
     Namesystem mockNS = mock(Namesystem.class);
     when(mockNS.isPopulatingReplQueues()).thenReturn(true);
     when(mockNS.hasWriteLock()).thenReturn(true);
+    when(mockNS.hasBlockManagerWriteLock()).thenReturn(true);
     FSClusterStats mockStats = mock(FSClusterStats.class);
     BlockManager bm =
         new BlockManager(mockNS, mockStats, new HdfsConfiguration());
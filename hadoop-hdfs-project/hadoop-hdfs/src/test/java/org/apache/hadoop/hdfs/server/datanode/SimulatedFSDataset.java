@@ -27,6 +27,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -385,6 +387,8 @@ private SimulatedBPStorage getBPStorage(String bpid) throws IOException {
       = new HashMap<String, Map<Block,BInfo>>();
   private final SimulatedStorage storage;
   private final String storageId;
+  /** Replicas change under the dataset lock, so one block lock will do. */
+  private final ReentrantLock blockLock = new ReentrantLock();
   
   public SimulatedFSDataset(DataNode datanode, DataStorage storage,
       Configuration conf) {
@@ -525,6 +529,12 @@ public synchronized long getLength(ExtendedBlock b) throws IOException {
     return binfo.getNumBytes();
   }
 
+  @Override // FsDatasetSpi
+  public Lock lockBlock(long blockId) {
+    blockLock.lock();
+    return blockLock;
+  }
+
   @Override
   @Deprecated
   public Replica getReplica(String bpid, long blockId) {
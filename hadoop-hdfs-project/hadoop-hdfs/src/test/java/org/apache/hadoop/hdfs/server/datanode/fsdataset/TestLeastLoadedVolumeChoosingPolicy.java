@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats.IoType;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestLeastLoadedVolumeChoosingPolicy {
+
+  /** Statistics whose clock only moves when the test advances it. */
+  private static class ManualClockIoStats extends VolumeIoStats {
+    private long nanos = 0;
+
+    @Override
+    long now() {
+      return nanos;
+    }
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+  }
+
+  private static List<FsVolumeSpi> createVolumes(
+      List<ManualClockIoStats> stats, int numVolumes) {
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    for (int i = 0; i < numVolumes; i++) {
+      FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+      ManualClockIoStats volumeStats = new ManualClockIoStats();
+      Mockito.when(volume.getAvailable()).thenReturn(1000L * (i + 1));
+      Mockito.when(volume.getIoStats()).thenReturn(volumeStats);
+      volumes.add(volume);
+      stats.add(volumeStats);
+    }
+    return volumes;
+  }
+
+  private static boolean[] choose(
+      LeastLoadedVolumeChoosingPolicy<FsVolumeSpi> policy,
+      List<FsVolumeSpi> volumes) throws Exception {
+    boolean[] chosen = new boolean[volumes.size()];
+    for (int i = 0; i < 2 * volumes.size(); i++) {
+      chosen[volumes.indexOf(policy.chooseVolume(volumes, 0))] = true;
+    }
+    return chosen;
+  }
+
+  // Volumes without I/O statistics are chosen round robin.
+  @Test
+  public void testRR() throws Exception {
+    @SuppressWarnings("unchecked")
+    final LeastLoadedVolumeChoosingPolicy<FsVolumeSpi> policy =
+        ReflectionUtils.newInstance(LeastLoadedVolumeChoosingPolicy.class,
+            new Configuration());
+    TestRoundRobinVolumeChoosingPolicy.testRR(policy);
+  }
+
+  @Test
+  public void testRRPolicyExceptionMessage() throws Exception {
+    final LeastLoadedVolumeChoosingPolicy<FsVolumeSpi> policy =
+        new LeastLoadedVolumeChoosingPolicy<FsVolumeSpi>();
+    TestRoundRobinVolumeChoosingPolicy.testRRPolicyExceptionMessage(policy);
+  }
+
+  @Test
+  public void testBusyVolumeIsAvoided() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setFloat(DFSConfigKeys.
+        DFS_DATANODE_LEAST_LOADED_VOLUME_CHOOSING_POLICY_BALANCED_LOAD_FRACTION_KEY,
+        0.5f);
+    @SuppressWarnings("unchecked")
+    final LeastLoadedVolumeChoosingPolicy<FsVolumeSpi> policy =
+        ReflectionUtils.newInstance(LeastLoadedVolumeChoosingPolicy.class,
+            conf);
+
+    final List<ManualClockIoStats> stats = new ArrayList<ManualClockIoStats>();
+    final List<FsVolumeSpi> volumes = createVolumes(stats, 3);
+
+    // The first volume is slow and has reads queued up
+    for (int i = 0; i < 4; i++) {
+      stats.get(0).beginIo();
+    }
+    stats.get(0).endIo(IoType.READ, 1600000L, 4096);
+    Assert.assertEquals(3, stats.get(0).getPendingIoCount());
+    Assert.assertEquals(100000L, stats.get(0).getAverageIoNanos());
+    Assert.assertEquals(1, stats.get(0).getCount(IoType.READ));
+    Assert.assertEquals(4096, stats.get(0).getBytes(IoType.READ));
+    Assert.assertEquals(0, stats.get(0).getCount(IoType.WRITE));
+
+    // The idle volumes share the writes
+    boolean[] chosen = choose(policy, volumes);
+    Assert.assertFalse(chosen[0]);
+    Assert.assertTrue(chosen[1]);
+    Assert.assertTrue(chosen[2]);
+
+    // A volume within the balanced fraction of the least load is used too
+    stats.get(1).beginIo();
+    stats.get(1).endIo(IoType.WRITE, 1600000L, 4096);
+    stats.get(2).beginIo();
+    stats.get(2).endIo(IoType.WRITE, 1200000L, 4096);
+    chosen = choose(policy, volumes);
+    Assert.assertFalse(chosen[0]);
+    Assert.assertTrue(chosen[1]);
+    Assert.assertTrue(chosen[2]);
+
+    // Only the last volume has room for the replica
+    Assert.assertEquals(volumes.get(2), policy.chooseVolume(volumes, 2500L));
+  }
+
+  @Test
+  public void testIdleVolumeRecoversAfterSlowOp() throws Exception {
+    final LeastLoadedVolumeChoosingPolicy<FsVolumeSpi> policy =
+        new LeastLoadedVolumeChoosingPolicy<FsVolumeSpi>();
+    final List<ManualClockIoStats> stats = new ArrayList<ManualClockIoStats>();
+    final List<FsVolumeSpi> volumes = createVolumes(stats, 2);
+
+    // One slow write on the first volume, fast ones on the second
+    stats.get(0).advance(100, TimeUnit.MILLISECONDS);
+    stats.get(0).beginIo();
+    stats.get(0).endIo(IoType.WRITE, TimeUnit.MILLISECONDS.toNanos(100), 0);
+    for (int i = 0; i < 16; i++) {
+      stats.get(1).advance(100, TimeUnit.MICROSECONDS);
+      stats.get(1).beginIo();
+      stats.get(1).endIo(IoType.WRITE, TimeUnit.MICROSECONDS.toNanos(100), 0);
+    }
+    boolean[] chosen = choose(policy, volumes);
+    Assert.assertFalse(chosen[0]);
+    Assert.assertTrue(chosen[1]);
+
+    // fsyncs and metadata operations do not count towards the latency
+    long latency = stats.get(1).getAverageIoNanos();
+    stats.get(1).beginIo();
+    stats.get(1).endIo(IoType.SYNC, TimeUnit.MILLISECONDS.toNanos(50), 0);
+    stats.get(1).beginIo();
+    stats.get(1).endIo(IoType.METADATA, TimeUnit.MILLISECONDS.toNanos(50), 0);
+    Assert.assertEquals(latency, stats.get(1).getAverageIoNanos());
+
+    // The latency of the first volume decays while it gets no writes, until
+    // it is chosen again next to the busy second volume
+    stats.get(0).advance(1, TimeUnit.SECONDS);
+    Assert.assertTrue(stats.get(0).getAverageIoNanos() <
+        TimeUnit.MILLISECONDS.toNanos(100) / 16);
+    stats.get(0).advance(30, TimeUnit.SECONDS);
+    Assert.assertEquals(0, stats.get(0).getAverageIoNanos());
+    stats.get(1).advance(100, TimeUnit.MICROSECONDS);
+    stats.get(1).beginIo();
+    stats.get(1).endIo(IoType.WRITE, TimeUnit.MICROSECONDS.toNanos(100), 0);
+    chosen = choose(policy, volumes);
+    Assert.assertTrue(chosen[0]);
+    Assert.assertTrue(chosen[1]);
+  }
+
+  @Test
+  public void testPendingIoWithoutLatency() throws Exception {
+    final LeastLoadedVolumeChoosingPolicy<FsVolumeSpi> policy =
+        new LeastLoadedVolumeChoosingPolicy<FsVolumeSpi>();
+    final List<ManualClockIoStats> stats = new ArrayList<ManualClockIoStats>();
+    final List<FsVolumeSpi> volumes = createVolumes(stats, 3);
+
+    // Right after startup no latency is known; busy volumes are still avoided
+    stats.get(0).beginIo();
+    stats.get(0).beginIo();
+    boolean[] chosen = choose(policy, volumes);
+    Assert.assertFalse(chosen[0]);
+    Assert.assertTrue(chosen[1]);
+    Assert.assertTrue(chosen[2]);
+
+    // A volume with a known latency is compared to the others at its mean
+    stats.get(1).beginIo();
+    stats.get(1).endIo(IoType.READ, TimeUnit.MILLISECONDS.toNanos(16), 0);
+    chosen = choose(policy, volumes);
+    Assert.assertFalse(chosen[0]);
+    Assert.assertTrue(chosen[1]);
+    Assert.assertTrue(chosen[2]);
+  }
+}
@@ -22,8 +22,10 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
@@ -34,6 +36,7 @@
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
@@ -72,6 +75,51 @@ public class TestDatanodeRestart {
     }
   }
   
+  // test finalized replicas saved at shutdown are read back at restart
+  @Test public void testSavedReplicas() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1024L);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 512);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_REPLICAS_PERSIST_KEY, true);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    FileSystem fs = cluster.getFileSystem();
+    try {
+      final String TopDir = "/test";
+      DFSTestUtil util = new DFSTestUtil.Builder().
+          setName("TestDatanodeRestart").setNumFiles(4).build();
+      util.createFiles(fs, TopDir, (short)1);
+      util.waitReplication(fs, TopDir, (short)1);
+
+      String bpid = cluster.getNamesystem().getBlockPoolId();
+      DataNode dn = cluster.getDataNodes().get(0);
+      int numReplicas = dataset(dn).volumeMap.size(bpid);
+      Assert.assertTrue(numReplicas > 0);
+      List<File> savedFiles = new ArrayList<File>();
+      for (FsVolumeSpi v : dataset(dn).getVolumes()) {
+        File bpDir = new File(((FsVolumeImpl)v).getCurrentDir(), bpid);
+        savedFiles.add(new File(bpDir, "current/replicas"));
+      }
+
+      DataNodeProperties dnprop = cluster.stopDataNode(0);
+      for (File f : savedFiles) {
+        Assert.assertTrue(f + " should exist", f.exists());
+      }
+      cluster.restartDataNode(dnprop);
+      cluster.waitActive();
+
+      // the saved replicas are used once only
+      for (File f : savedFiles) {
+        Assert.assertFalse(f + " should be deleted", f.exists());
+      }
+      dn = cluster.getDataNodes().get(0);
+      Assert.assertEquals(numReplicas, dataset(dn).volumeMap.size(bpid));
+      util.checkFiles(fs, TopDir);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   // test rbw replicas persist across DataNode restarts
   public void testRbwReplicas() throws IOException {
     Configuration conf = new HdfsConfiguration();
@@ -17,11 +17,19 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
 import org.junit.Before;
 import org.junit.Test;
@@ -107,4 +115,28 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  /**
+   * Lookups must not wait for a thread holding the mutex, e.g. while it
+   * iterates over the replicas for a block report.
+   */
+  @Test(timeout=10000)
+  public void testGetDoesNotBlockOnMutex() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      synchronized (map.getMutext()) {
+        Future<ReplicaInfo> result = executor.submit(
+            new Callable<ReplicaInfo>() {
+              @Override
+              public ReplicaInfo call() {
+                return map.get(bpid, block.getBlockId());
+              }
+            });
+        assertEquals(block.getBlockId(),
+            result.get(5, TimeUnit.SECONDS).getBlockId());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
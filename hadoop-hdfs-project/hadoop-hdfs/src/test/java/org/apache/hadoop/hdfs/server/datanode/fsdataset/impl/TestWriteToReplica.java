@@ -18,10 +18,13 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
@@ -128,6 +131,84 @@ public void testWriteToTempoary() throws Exception {
     }
   }
   
+  // test that a replica does not change under the lock of its block
+  @Test
+  public void testReplicaStableUnderBlockLock() throws Exception {
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(new HdfsConfiguration()).build();
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataSet = (FsDatasetImpl)DataNodeTestUtils.getFSDataset(dn);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+
+      // a writer finalizing a block waits for a reader holding its lock
+      final ExtendedBlock b = new ExtendedBlock(bpid, 100, 0, 2100);
+      dataSet.createRbw(b).getMetaFile().createNewFile();
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      Thread finalizer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            dataSet.finalizeBlock(b);
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+      Lock blockLock = dataSet.lockBlock(b.getBlockId());
+      try {
+        finalizer.start();
+        finalizer.join(500);
+        Assert.assertTrue(finalizer.isAlive());
+        ReplicaInfo replica = dataSet.getReplica(bpid, b.getBlockId());
+        Assert.assertEquals(ReplicaState.RBW, replica.getState());
+        Assert.assertTrue(replica.getBlockFile().exists());
+      } finally {
+        blockLock.unlock();
+      }
+      finalizer.join();
+      Assert.assertNull(error.get());
+      Assert.assertEquals(ReplicaState.FINALIZED,
+          dataSet.getReplica(bpid, b.getBlockId()).getState());
+
+      // readers under the block lock always find the file of the replica
+      final int numBlocks = 200;
+      Thread writer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < numBlocks; i++) {
+              ExtendedBlock blk = new ExtendedBlock(bpid, 1000 + i, 0, 3000);
+              dataSet.createRbw(blk).getMetaFile().createNewFile();
+              dataSet.finalizeBlock(blk);
+            }
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+      writer.start();
+      while (writer.isAlive()) {
+        for (int i = 0; i < numBlocks; i++) {
+          blockLock = dataSet.lockBlock(1000 + i);
+          try {
+            ReplicaInfo replica = dataSet.getReplica(bpid, 1000 + i);
+            if (replica != null) {
+              Assert.assertTrue(replica + " has no block file",
+                  replica.getBlockFile().exists());
+            }
+          } finally {
+            blockLock.unlock();
+          }
+        }
+      }
+      writer.join();
+      Assert.assertNull(error.get());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   /**
    * Generate testing environment and return a collection of blocks
    * on which to run the tests.
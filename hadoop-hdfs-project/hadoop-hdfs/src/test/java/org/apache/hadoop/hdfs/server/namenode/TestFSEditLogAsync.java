@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+
+/**
+ * Tests the asynchronous edit log sync of {@link FSEditLogAsync}.
+ */
+public class TestFSEditLogAsync {
+  private static final int NUM_THREADS = 8;
+  private static final int OPS_PER_THREAD = 50;
+
+  private static Configuration getConf() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    return conf;
+  }
+
+  @Test
+  public void testAsyncLoggingDisabledByDefault() throws Exception {
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(new HdfsConfiguration())
+        .numDataNodes(0).build();
+    try {
+      cluster.waitActive();
+      assertFalse(cluster.getNamesystem().getEditLog()
+          instanceof FSEditLogAsync);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Many clients modify the namespace concurrently. Every call must only
+   * return once its edits are durable, so all of them must survive a
+   * namenode restart.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentEditsAreDurable() throws Exception {
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(getConf())
+        .numDataNodes(0).build();
+    try {
+      cluster.waitActive();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      assertTrue(editLog instanceof FSEditLogAsync);
+
+      final FileSystem fs = cluster.getFileSystem();
+      final AtomicReference<Throwable> caught =
+          new AtomicReference<Throwable>();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final int id = t;
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < OPS_PER_THREAD; i++) {
+                fs.mkdirs(new Path("/thr-" + id + "/dir-" + i));
+              }
+              fs.delete(new Path("/thr-" + id + "/dir-0"), true);
+            } catch (Throwable e) {
+              caught.compareAndSet(null, e);
+            }
+          }
+        };
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertNull(caught.get());
+
+      // every postponed response has been released
+      assertEquals(0, ((FSEditLogAsync) editLog).getPendingSyncCount());
+
+      cluster.restartNameNode();
+      FileSystem newFs = cluster.getFileSystem();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        assertFalse(newFs.exists(new Path("/thr-" + t + "/dir-0")));
+        for (int i = 1; i < OPS_PER_THREAD; i++) {
+          assertTrue(newFs.exists(new Path("/thr-" + t + "/dir-" + i)));
+        }
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -33,6 +33,7 @@
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -138,7 +139,9 @@ private HdfsDataOutputStream appendFileWithoutClosing(Path file, int length)
   private File saveFSImageToTempFile() throws IOException {
     SaveNamespaceContext context = new SaveNamespaceContext(fsn, txid,
         new Canceler());
-    FSImageFormat.Saver saver = new FSImageFormat.Saver(context);
+    FSImageFormat.Saver saver = new FSImageFormat.Saver(context,
+        conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_DEFAULT));
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     File imageFile = getImageFile(testDir, txid);
     fsn.readLock();
@@ -276,6 +279,17 @@ public void testSaveLoadImage() throws Exception {
     checkImage(s);
   }
 
+  /**
+   * Same as {@link #testSaveLoadImage()}, with the image written and read on
+   * several threads.
+   */
+  @Test
+  public void testSaveLoadImageInParallel() throws Exception {
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY, true);
+    testSaveLoadImage();
+  }
+
   void checkImage(int s) throws IOException {
     final String name = "s" + s;
 
@@ -26,9 +26,11 @@
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -158,4 +160,66 @@ public void testFsLockFairness() throws IOException, InterruptedException{
     fsNamesystem = new FSNamesystem(conf, fsImage);
     assertFalse(fsNamesystem.getFsLockForTests().isFair());
   }  
+
+  @Test(timeout=30000)
+  public void testFineGrainedFsLock() throws Exception {
+    Configuration conf = new Configuration();
+
+    FSEditLog fsEditLog = Mockito.mock(FSEditLog.class);
+    FSImage fsImage = Mockito.mock(FSImage.class);
+    Mockito.when(fsImage.getEditLog()).thenReturn(fsEditLog);
+
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_FSLOCK_FINE_GRAINED_KEY, true);
+    final FSNamesystem fsn = new FSNamesystem(conf, fsImage);
+
+    fsn.blockManagerWriteLock();
+    try {
+      assertTrue(fsn.hasBlockManagerWriteLock());
+      assertTrue(fsn.hasReadLock());
+      assertFalse(fsn.hasWriteLock());
+
+      // Namespace readers are not blocked by block management work...
+      final AtomicBoolean namespaceRead = new AtomicBoolean();
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          fsn.namespaceReadLock();
+          namespaceRead.set(true);
+          fsn.namespaceReadUnlock();
+        }
+      };
+      reader.start();
+      reader.join();
+      assertTrue(namespaceRead.get());
+
+      // ...but full readers are
+      final AtomicBoolean fullRead = new AtomicBoolean();
+      Thread fullReader = new Thread() {
+        @Override
+        public void run() {
+          fsn.readLock();
+          fullRead.set(true);
+          fsn.readUnlock();
+        }
+      };
+      fullReader.start();
+      fullReader.join(500);
+      assertFalse(fullRead.get());
+      fsn.blockManagerWriteUnlock();
+      fullReader.join();
+      assertTrue(fullRead.get());
+    } finally {
+      if (fsn.hasBlockManagerWriteLock()) {
+        fsn.blockManagerWriteUnlock();
+      }
+    }
+
+    fsn.writeLock();
+    try {
+      assertTrue(fsn.hasWriteLock());
+      assertTrue(fsn.hasBlockManagerWriteLock());
+    } finally {
+      fsn.writeUnlock();
+    }
+  }
 }
@@ -58,7 +58,22 @@ public class TestEditLogTailer {
   @Test
   public void testTailer() throws IOException, InterruptedException,
       ServiceFailedException {
+    doTestTailer(new HdfsConfiguration());
+  }
+
+  @Test
+  public void testPipelinedTailer() throws IOException, InterruptedException,
+      ServiceFailedException {
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_PIPELINED_KEY, true);
+    // Several batches and a full read-ahead queue per load
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_MAX_TXNS_PER_LOCK_KEY, 3);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_READAHEAD_TXNS_KEY, 2);
+    doTestTailer(conf);
+  }
+
+  private static void doTestTailer(Configuration conf) throws IOException,
+      InterruptedException, ServiceFailedException {
     conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
 
     HAUtil.setAllowStandbyReads(conf, true);
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+public class TestPipelinedStreams {
+  private static byte[] randomBytes(int len) {
+    byte[] data = new byte[len];
+    new Random(len).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  public void testReadAhead() throws IOException {
+    // not a multiple of the buffer size, so the last buffer is partial
+    byte[] data = randomBytes(10 * 1000 + 7);
+    InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data),
+        1000, 3, "test");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(data[0] & 0xff, in.read());
+    out.write(data[0]);
+    IOUtils.copyBytes(in, out, 333, false);
+    assertEquals(-1, in.read());
+    in.close();
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testReadAheadError() throws IOException {
+    InputStream failing = new InputStream() {
+      private int remaining = 1500;
+      @Override
+      public int read() throws IOException {
+        if (remaining-- == 0) {
+          throw new IOException("injected");
+        }
+        return 0;
+      }
+    };
+    InputStream in = new PipelinedInputStream(failing, 1000, 2, "test");
+    try {
+      IOUtils.copyBytes(in, new ByteArrayOutputStream(), 100, false);
+      fail("Expected the error of the underlying stream");
+    } catch (IOException ioe) {
+      assertEquals("injected", ioe.getMessage());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test(timeout=10000)
+  public void testReadAheadRuntimeException() throws IOException {
+    InputStream failing = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IllegalStateException("injected");
+      }
+    };
+    InputStream in = new PipelinedInputStream(failing, 1000, 2, "test");
+    try {
+      in.read();
+      fail("Expected the error of the underlying stream");
+    } catch (IllegalStateException ise) {
+      assertEquals("injected", ise.getMessage());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testWriteBehind() throws IOException {
+    byte[] data = randomBytes(10 * 1000 + 7);
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    OutputStream out = new PipelinedOutputStream(sink, 1000, 3, "test");
+    out.write(data[0]);
+    out.write(data, 1, 4999);
+    out.flush();
+    // flush returns once everything written so far reached the sink
+    assertEquals(5000, sink.size());
+    out.write(data, 5000, data.length - 5000);
+    out.close();
+    assertArrayEquals(data, sink.toByteArray());
+  }
+
+  @Test
+  public void testWriteBehindError() throws IOException {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("injected");
+      }
+    };
+    OutputStream out = new PipelinedOutputStream(failing, 1000, 2, "test");
+    out.write(new byte[1500]);
+    try {
+      out.close();
+      fail("Expected the error of the underlying stream");
+    } catch (IOException ioe) {
+      assertEquals("injected", ioe.getMessage());
+    }
+    try {
+      out.write(0);
+      fail("Expected the stream to be closed");
+    } catch (IOException ioe) {
+      assertTrue(ioe.getMessage().contains("closed"));
+    }
+  }
+
+  @Test(timeout=10000)
+  public void testWriteBehindRuntimeException() throws IOException {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IllegalStateException("injected");
+      }
+    };
+    OutputStream out = new PipelinedOutputStream(failing, 1000, 2, "test");
+    // more than the buffers can hold, so the writer thread must keep up
+    out.write(new byte[10000]);
+    try {
+      out.close();
+      fail("Expected the error of the underlying stream");
+    } catch (IllegalStateException ise) {
+      assertEquals("injected", ise.getMessage());
+    }
+  }
+
+  @Test(timeout=10000)
+  public void testWriteBehindErrorSingleBuffer() throws IOException {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("injected");
+      }
+    };
+    // the writer thread must give the only spare buffer back on failure
+    OutputStream out = new PipelinedOutputStream(failing, 1000, 1, "test");
+    try {
+      out.write(new byte[10000]);
+      out.close();
+      fail("Expected the error of the underlying stream");
+    } catch (IOException ioe) {
+      assertEquals("injected", ioe.getMessage());
+    } finally {
+      IOUtils.closeStream(out);
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapred.IFile.Writer;
+import org.apache.hadoop.mapred.Merger.Segment;
+import org.apache.hadoop.mapred.Task.CombineOutputCollector;
+import org.apache.hadoop.mapred.Task.CombinerRunner;
+import org.apache.hadoop.mapred.Task.TaskReporter;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * The spills of a map output collector: the index of each spill, cached in
+ * memory up to a limit, the spill of a record too large for the collector's
+ * buffer, and the final merge of the spills into the map output file. Shared
+ * by {@link MapTask.MapOutputBuffer} and {@link OffHeapMapOutputBuffer},
+ * which only differ in how they buffer and sort the records of a spill.
+ */
+class MapOutputSpills<K, V> {
+
+  private static final Log LOG = LogFactory.getLog(MapOutputSpills.class);
+
+  private static final int INDEX_CACHE_MEMORY_LIMIT_DEFAULT = 1024 * 1024;
+
+  private final JobConf job;
+  private final TaskReporter reporter;
+  private final TaskAttemptID mapId;
+  private final MapOutputFile mapOutputFile;
+  private final Progress sortPhase;
+  private final FileSystem rfs;
+  private final int partitions;
+  private final Class<K> keyClass;
+  private final Class<V> valClass;
+  private final CompressionCodec codec;
+  private final CombinerRunner<K, V> combinerRunner;
+  private final CombineOutputCollector<K, V> combineCollector;
+  private final int minSpillsForCombine;
+  private final Counters.Counter spilledRecordsCounter;
+  private final Counters.Counter mapOutputByteCounter;
+
+  private final ArrayList<SpillRecord> indexCacheList =
+    new ArrayList<SpillRecord>();
+  private int totalIndexCacheMemory;
+  private final int indexCacheMemoryLimit;
+  private int numSpills = 0;
+
+  /**
+   * @param context the context of the collector
+   * @param rfs the raw local file system the spills are written to
+   * @param keyClass the class of the map output keys
+   * @param valClass the class of the map output values
+   * @param codec the codec of the spills, or null
+   * @param combinerRunner the combiner, or null
+   * @param combineCollector the collector of the combiner, or null
+   */
+  MapOutputSpills(MapOutputCollector.Context context, FileSystem rfs,
+      Class<K> keyClass, Class<V> valClass, CompressionCodec codec,
+      CombinerRunner<K, V> combinerRunner,
+      CombineOutputCollector<K, V> combineCollector) {
+    this.job = context.getJobConf();
+    this.reporter = context.getReporter();
+    this.mapId = context.getMapTask().getTaskID();
+    this.mapOutputFile = context.getMapTask().getMapOutputFile();
+    this.sortPhase = context.getMapTask().getSortPhase();
+    this.rfs = rfs;
+    this.partitions = job.getNumReduceTasks();
+    this.keyClass = keyClass;
+    this.valClass = valClass;
+    this.codec = codec;
+    this.combinerRunner = combinerRunner;
+    this.combineCollector = combineCollector;
+    this.minSpillsForCombine =
+      job.getInt(JobContext.MAP_COMBINE_MIN_SPILLS, 3);
+    this.spilledRecordsCounter =
+      reporter.getCounter(TaskCounter.SPILLED_RECORDS);
+    this.mapOutputByteCounter =
+      reporter.getCounter(TaskCounter.MAP_OUTPUT_BYTES);
+    this.indexCacheMemoryLimit = job.getInt(
+        JobContext.INDEX_CACHE_MEMORY_LIMIT, INDEX_CACHE_MEMORY_LIMIT_DEFAULT);
+  }
+
+  /** @return the number of spills written so far. */
+  int getNumSpills() {
+    return numSpills;
+  }
+
+  /**
+   * Get a path to write the next spill to.
+   * @param size the approximate size of the spill
+   */
+  Path getSpillFileForWrite(long size) throws IOException {
+    return mapOutputFile.getSpillFileForWrite(numSpills, size);
+  }
+
+  /**
+   * Record the index of the spill just written to
+   * {@link #getSpillFileForWrite(long)}. It is kept in memory, or written
+   * next to the spill once the cached indices exceed their memory limit.
+   */
+  void addSpill(SpillRecord spillRec) throws IOException {
+    if (totalIndexCacheMemory >= indexCacheMemoryLimit) {
+      // create spill index file
+      Path indexFilename =
+          mapOutputFile.getSpillIndexFileForWrite(numSpills, partitions
+              * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH);
+      spillRec.writeToFile(indexFilename, job);
+    } else {
+      indexCacheList.add(spillRec);
+      totalIndexCacheMemory +=
+        spillRec.size() * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH;
+    }
+    ++numSpills;
+  }
+
+  /**
+   * Handles the degenerate case where serialization fails to fit in
+   * the in-memory buffer, so we must spill the record from collect
+   * directly to a spill file. Consider this "losing".
+   * @param bufferSize the size of the collector's buffer
+   */
+  void spillSingleRecord(final K key, final V value, int partition,
+      long bufferSize) throws IOException {
+    long size = bufferSize + partitions * MapTask.APPROX_HEADER_LENGTH;
+    FSDataOutputStream out = null;
+    try {
+      // create spill file
+      final SpillRecord spillRec = new SpillRecord(partitions);
+      final Path filename = getSpillFileForWrite(size);
+      out = rfs.create(filename);
+
+      // we don't run the combiner for a single record
+      IndexRecord rec = new IndexRecord();
+      for (int i = 0; i < partitions; ++i) {
+        IFile.Writer<K, V> writer = null;
+        try {
+          long segmentStart = out.getPos();
+          // Create a new codec, don't care!
+          writer = new IFile.Writer<K,V>(job, out, keyClass, valClass, codec,
+                                          spilledRecordsCounter);
+
+          if (i == partition) {
+            final long recordStart = out.getPos();
+            writer.append(key, value);
+            // Note that our map byte count will not be accurate with
+            // compression
+            mapOutputByteCounter.increment(out.getPos() - recordStart);
+          }
+          writer.close();
+
+          // record offsets
+          rec.startOffset = segmentStart;
+          rec.rawLength = writer.getRawLength();
+          rec.partLength = writer.getCompressedLength();
+          spillRec.putIndex(rec, i);
+
+          writer = null;
+        } catch (IOException e) {
+          if (null != writer) writer.close();
+          throw e;
+        }
+      }
+      addSpill(spillRec);
+    } finally {
+      if (out != null) out.close();
+    }
+  }
+
+  /**
+   * Merge the spills into the final map output file and its index, running
+   * the combiner again if there were enough spills.
+   */
+  void mergeParts() throws IOException, InterruptedException,
+                           ClassNotFoundException {
+    // get the approximate size of the final output/index files
+    long finalOutFileSize = 0;
+    long finalIndexFileSize = 0;
+    final Path[] filename = new Path[numSpills];
+
+    for(int i = 0; i < numSpills; i++) {
+      filename[i] = mapOutputFile.getSpillFile(i);
+      finalOutFileSize += rfs.getFileStatus(filename[i]).getLen();
+    }
+    if (numSpills == 1) { //the spill is the final output
+      sameVolRename(filename[0],
+          mapOutputFile.getOutputFileForWriteInVolume(filename[0]));
+      if (indexCacheList.size() == 0) {
+        sameVolRename(mapOutputFile.getSpillIndexFile(0),
+          mapOutputFile.getOutputIndexFileForWriteInVolume(filename[0]));
+      } else {
+        indexCacheList.get(0).writeToFile(
+          mapOutputFile.getOutputIndexFileForWriteInVolume(filename[0]), job);
+      }
+      sortPhase.complete();
+      return;
+    }
+
+    // read in paged indices
+    for (int i = indexCacheList.size(); i < numSpills; ++i) {
+      Path indexFileName = mapOutputFile.getSpillIndexFile(i);
+      indexCacheList.add(new SpillRecord(indexFileName, job));
+    }
+
+    //make correction in the length to include the sequence file header
+    //lengths for each partition
+    finalOutFileSize += partitions * MapTask.APPROX_HEADER_LENGTH;
+    finalIndexFileSize = partitions * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH;
+    Path finalOutputFile =
+        mapOutputFile.getOutputFileForWrite(finalOutFileSize);
+    Path finalIndexFile =
+        mapOutputFile.getOutputIndexFileForWrite(finalIndexFileSize);
+
+    //The output stream for the final single output file
+    FSDataOutputStream finalOut = rfs.create(finalOutputFile, true, 4096);
+
+    if (numSpills == 0) {
+      //create dummy files
+      IndexRecord rec = new IndexRecord();
+      SpillRecord sr = new SpillRecord(partitions);
+      try {
+        for (int i = 0; i < partitions; i++) {
+          long segmentStart = finalOut.getPos();
+          Writer<K, V> writer =
+            new Writer<K, V>(job, finalOut, keyClass, valClass, codec, null);
+          writer.close();
+          rec.startOffset = segmentStart;
+          rec.rawLength = writer.getRawLength();
+          rec.partLength = writer.getCompressedLength();
+          sr.putIndex(rec, i);
+        }
+        sr.writeToFile(finalIndexFile, job);
+      } finally {
+        finalOut.close();
+      }
+      sortPhase.complete();
+      return;
+    }
+    {
+      sortPhase.addPhases(partitions); // Divide sort phase into sub-phases
+
+      IndexRecord rec = new IndexRecord();
+      final SpillRecord spillRec = new SpillRecord(partitions);
+      for (int parts = 0; parts < partitions; parts++) {
+        //create the segments to be merged
+        List<Segment<K,V>> segmentList =
+          new ArrayList<Segment<K, V>>(numSpills);
+        for(int i = 0; i < numSpills; i++) {
+          IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
+
+          Segment<K,V> s =
+            new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset,
+                             indexRecord.partLength, codec, true);
+          segmentList.add(i, s);
+
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("MapId=" + mapId + " Reducer=" + parts +
+                "Spill =" + i + "(" + indexRecord.startOffset + "," +
+                indexRecord.rawLength + ", " + indexRecord.partLength + ")");
+          }
+        }
+
+        int mergeFactor = job.getInt(JobContext.IO_SORT_FACTOR, 100);
+        // sort the segments only if there are intermediate merges
+        boolean sortSegments = segmentList.size() > mergeFactor;
+        //merge
+        @SuppressWarnings("unchecked")
+        RawKeyValueIterator kvIter = Merger.merge(job, rfs,
+                       keyClass, valClass, codec,
+                       segmentList, mergeFactor,
+                       new Path(mapId.toString()),
+                       job.getOutputKeyComparator(), reporter, sortSegments,
+                       null, spilledRecordsCounter, sortPhase.phase(),
+                       TaskType.MAP);
+
+        //write merged output to disk
+        long segmentStart = finalOut.getPos();
+        Writer<K, V> writer =
+            new Writer<K, V>(job, finalOut, keyClass, valClass, codec,
+                             spilledRecordsCounter);
+        if (combinerRunner == null || numSpills < minSpillsForCombine) {
+          Merger.writeFile(kvIter, writer, reporter, job);
+        } else {
+          combineCollector.setWriter(writer);
+          combinerRunner.combine(kvIter, combineCollector);
+        }
+
+        //close
+        writer.close();
+
+        sortPhase.startNextPhase();
+
+        // record offsets
+        rec.startOffset = segmentStart;
+        rec.rawLength = writer.getRawLength();
+        rec.partLength = writer.getCompressedLength();
+        spillRec.putIndex(rec, parts);
+      }
+      spillRec.writeToFile(finalIndexFile, job);
+      finalOut.close();
+      for(int i = 0; i < numSpills; i++) {
+        rfs.delete(filename[i],true);
+      }
+    }
+  }
+
+  /**
+   * Rename srcPath to dstPath on the same volume. This is the same
+   * as RawLocalFileSystem's rename method, except that it will not
+   * fall back to a copy, and it will create the target directory
+   * if it doesn't exist.
+   */
+  private void sameVolRename(Path srcPath,
+      Path dstPath) throws IOException {
+    RawLocalFileSystem rfs = (RawLocalFileSystem)this.rfs;
+    File src = rfs.pathToFile(srcPath);
+    File dst = rfs.pathToFile(dstPath);
+    if (!dst.getParentFile().exists()) {
+      if (!dst.getParentFile().mkdirs()) {
+        throw new IOException("Unable to rename " + src + " to "
+            + dst + ": couldn't create parent directory");
+      }
+    }
+
+    if (!src.renameTo(dst)) {
+      throw new IOException("Unable to rename " + src + " to " + dst);
+    }
+  }
+}
@@ -21,14 +21,19 @@
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -42,30 +47,31 @@
 import org.apache.hadoop.fs.FileSystem.Statistics;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.RawLocalFileSystem;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.KeyPrefixComparator;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.io.serializer.Serializer;
 import org.apache.hadoop.mapred.IFile.Writer;
-import org.apache.hadoop.mapred.Merger.Segment;
 import org.apache.hadoop.mapred.SortedRanges.SkipRangeIterator;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.TaskCounter;
-import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormatCounter;
 import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormatCounter;
 import org.apache.hadoop.mapreduce.split.JobSplit.TaskSplitIndex;
 import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.util.IndexedPrefixSortable;
 import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.IndexedSorter;
 import org.apache.hadoop.util.Progress;
@@ -74,6 +80,8 @@
 import org.apache.hadoop.util.StringInterner;
 import org.apache.hadoop.util.StringUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /** A Map task. */
 @InterfaceAudience.LimitedPrivate({"MapReduce"})
 @InterfaceStability.Unstable
@@ -84,7 +92,7 @@ public class MapTask extends Task {
   public static final int MAP_OUTPUT_INDEX_RECORD_LENGTH = 24;
 
   private TaskSplitIndex splitMetaInfo = new TaskSplitIndex();
-  private final static int APPROX_HEADER_LENGTH = 150;
+  final static int APPROX_HEADER_LENGTH = 150;
 
   private static final Log LOG = LogFactory.getLog(MapTask.class.getName());
 
@@ -851,18 +859,22 @@ private long getOutputBytes(List<Statistics> stats) {
   @InterfaceAudience.LimitedPrivate({"MapReduce"})
   @InterfaceStability.Unstable
   public static class MapOutputBuffer<K extends Object, V extends Object>
-      implements MapOutputCollector<K, V>, IndexedSortable {
+      implements MapOutputCollector<K, V>, IndexedPrefixSortable {
     private int partitions;
     private JobConf job;
     private TaskReporter reporter;
     private Class<K> keyClass;
     private Class<V> valClass;
     private RawComparator<K> comparator;
+    private KeyPrefixComparator keyPrefixComparator;
+    private int partitionBits;
     private SerializationFactory serializationFactory;
     private Serializer<K> keySerializer;
     private Serializer<V> valSerializer;
     private CombinerRunner<K,V> combinerRunner;
     private CombineOutputCollector<K, V> combineCollector;
+    private Counters.Counter combineInputCounter;
+    private Counters.Counter combineOutputCounter;
 
     // Compression for map-outputs
     private CompressionCodec codec;
@@ -898,9 +910,11 @@ private long getOutputBytes(List<Statistics> stats) {
     int bufferRemaining;
     volatile Throwable sortSpillException = null;
 
-    int numSpills = 0;
-    private int minSpillsForCombine;
+    private MapOutputSpills<K, V> spills;
     private IndexedSorter sorter;
+    private int spillThreads;
+    private ExecutorService spillExecutor;
+    private long spillBufferLimit;
     final ReentrantLock spillLock = new ReentrantLock();
     final Condition spillDone = spillLock.newCondition();
     final Condition spillReady = spillLock.newCondition();
@@ -915,15 +929,8 @@ private long getOutputBytes(List<Statistics> stats) {
     private Counters.Counter mapOutputRecordCounter;
     private Counters.Counter fileOutputByteCounter;
 
-    final ArrayList<SpillRecord> indexCacheList =
-      new ArrayList<SpillRecord>();
-    private int totalIndexCacheMemory;
-    private int indexCacheMemoryLimit;
-    private static final int INDEX_CACHE_MEMORY_LIMIT_DEFAULT = 1024 * 1024;
-
     private MapTask mapTask;
     private MapOutputFile mapOutputFile;
-    private Progress sortPhase;
     private Counters.Counter spilledRecordsCounter;
 
     public MapOutputBuffer() {
@@ -936,7 +943,6 @@ public void init(MapOutputCollector.Context context
       reporter = context.getReporter();
       mapTask = context.getMapTask();
       mapOutputFile = mapTask.getMapOutputFile();
-      sortPhase = mapTask.getSortPhase();
       spilledRecordsCounter = reporter.getCounter(TaskCounter.SPILLED_RECORDS);
       partitions = job.getNumReduceTasks();
       rfs = ((LocalFileSystem)FileSystem.getLocal(job)).getRaw();
@@ -945,8 +951,6 @@ public void init(MapOutputCollector.Context context
       final float spillper =
         job.getFloat(JobContext.MAP_SORT_SPILL_PERCENT, (float)0.8);
       final int sortmb = job.getInt(JobContext.IO_SORT_MB, 100);
-      indexCacheMemoryLimit = job.getInt(JobContext.INDEX_CACHE_MEMORY_LIMIT,
-                                         INDEX_CACHE_MEMORY_LIMIT_DEFAULT);
       if (spillper > (float)1.0 || spillper <= (float)0.0) {
         throw new IOException("Invalid \"" + JobContext.MAP_SORT_SPILL_PERCENT +
             "\": " + spillper);
@@ -979,6 +983,8 @@ public void init(MapOutputCollector.Context context
 
       // k/v serialization
       comparator = job.getOutputKeyComparator();
+      keyPrefixComparator = getKeyPrefixComparator(comparator);
+      partitionBits = 32 - Integer.numberOfLeadingZeros(partitions - 1);
       keyClass = (Class<K>)job.getMapOutputKeyClass();
       valClass = (Class<V>)job.getMapOutputValueClass();
       serializationFactory = new SerializationFactory(job);
@@ -1004,20 +1010,36 @@ public void init(MapOutputCollector.Context context
       }
 
       // combiner
-      final Counters.Counter combineInputCounter =
+      combineInputCounter =
         reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS);
       combinerRunner = CombinerRunner.create(job, getTaskID(), 
                                              combineInputCounter,
                                              reporter, null);
       if (combinerRunner != null) {
-        final Counters.Counter combineOutputCounter =
+        combineOutputCounter =
           reporter.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS);
         combineCollector= new CombineOutputCollector<K,V>(combineOutputCounter, reporter, job);
       } else {
         combineCollector = null;
       }
       spillInProgress = false;
-      minSpillsForCombine = job.getInt(JobContext.MAP_COMBINE_MIN_SPILLS, 3);
+      spills = new MapOutputSpills<K, V>(context, rfs, keyClass, valClass,
+          codec, combinerRunner, combineCollector);
+      spillThreads = job.getInt(JobContext.MAP_SORT_SPILL_THREADS,
+                                JobContext.DEFAULT_MAP_SORT_SPILL_THREADS);
+      if (spillThreads < 1) {
+        throw new IOException("Invalid \"" +
+            JobContext.MAP_SORT_SPILL_THREADS + "\": " + spillThreads);
+      }
+      if (spillThreads > 1) {
+        LOG.info(JobContext.MAP_SORT_SPILL_THREADS + ": " + spillThreads);
+        spillExecutor = Executors.newFixedThreadPool(spillThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("SpillWorker #%d").build());
+        // partitions serialized ahead of the spill file are held on the heap,
+        // outside of the sort buffer; keep them to a fraction of its size
+        spillBufferLimit = kvbuffer.length / 8;
+      }
       spillThread.setDaemon(true);
       spillThread.setName("SpillThread");
       spillLock.lock();
@@ -1157,7 +1179,7 @@ public synchronized void collect(K key, V value, final int partition
         kvindex = (kvindex - NMETA + kvmeta.capacity()) % kvmeta.capacity();
       } catch (MapBufferTooSmallException e) {
         LOG.info("Record too large for in-memory buffer: " + e.getMessage());
-        spillSingleRecord(key, value, partition);
+        spills.spillSingleRecord(key, value, partition, kvbuffer.length);
         mapOutputRecordCounter.increment(1);
         return;
       }
@@ -1248,6 +1270,59 @@ public int compare(final int mi, final int mj) {
           kvmeta.get(kvj + VALSTART) - kvmeta.get(kvj + KEYSTART));
     }
 
+    /**
+     * Get the prefix of the record at the given meta position: the partition
+     * in the high bits, followed by as much of the key prefix as fits.
+     * @see IndexedPrefixSortable#getPrefix
+     */
+    public long getPrefix(final int mi) {
+      final int kvi = offsetFor(mi % maxRec);
+      final long keyPrefix = getKeyPrefix(kvi);
+      if (partitionBits == 0) {
+        return keyPrefix;
+      }
+      return ((long) kvmeta.get(kvi + PARTITION) << (64 - partitionBits)) |
+          (keyPrefix >>> partitionBits);
+    }
+
+    private long getKeyPrefix(final int kvoff) {
+      if (keyPrefixComparator == null) {
+        return 0;
+      }
+      final int keystart = kvmeta.get(kvoff + KEYSTART);
+      return keyPrefixComparator.getKeyPrefix(kvbuffer, keystart,
+          kvmeta.get(kvoff + VALSTART) - keystart);
+    }
+
+    /**
+     * Return the comparator as a KeyPrefixComparator if its prefixes are
+     * consistent with its order. A subclass that overrides the raw compare
+     * without overriding getKeyPrefix, e.g. to reverse the order, inherits
+     * prefixes that do not match it, so they are not used.
+     */
+    static KeyPrefixComparator getKeyPrefixComparator(
+        RawComparator<?> comparator) {
+      if (!(comparator instanceof KeyPrefixComparator)) {
+        return null;
+      }
+      try {
+        final Class<?> compareClass = comparator.getClass().getMethod(
+            "compare", byte[].class, int.class, int.class,
+            byte[].class, int.class, int.class).getDeclaringClass();
+        final Class<?> prefixClass = comparator.getClass().getMethod(
+            "getKeyPrefix", byte[].class, int.class, int.class)
+            .getDeclaringClass();
+        if (!compareClass.isAssignableFrom(prefixClass)) {
+          LOG.info("Not using key prefixes of " +
+              comparator.getClass().getName() + ", which overrides compare");
+          return null;
+        }
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+      return (KeyPrefixComparator) comparator;
+    }
+
     final byte META_BUFFER_TMP[] = new byte[METASIZE];
     /**
      * Swap metadata for items i, j
@@ -1477,14 +1552,21 @@ public void flush() throws IOException, ClassNotFoundException,
       } catch (InterruptedException e) {
         throw new IOException("Spill failed", e);
       }
+      if (spillExecutor != null) {
+        spillExecutor.shutdown();
+      }
       // release sort buffer before the merge
       kvbuffer = null;
-      mergeParts();
+      spills.mergeParts();
       Path outputPath = mapOutputFile.getOutputFile();
       fileOutputByteCounter.increment(rfs.getFileStatus(outputPath).getLen());
     }
 
-    public void close() { }
+    public void close() {
+      if (spillExecutor != null) {
+        spillExecutor.shutdownNow();
+      }
+    }
 
     protected class SpillThread extends Thread {
 
@@ -1561,8 +1643,7 @@ private void sortAndSpill() throws IOException, ClassNotFoundException,
       try {
         // create spill file
         final SpillRecord spillRec = new SpillRecord(partitions);
-        final Path filename =
-            mapOutputFile.getSpillFileForWrite(numSpills, size);
+        final Path filename = spills.getSpillFileForWrite(size);
         out = rfs.create(filename);
 
         final int mstart = kvend / NMETA;
@@ -1570,140 +1651,319 @@ private void sortAndSpill() throws IOException, ClassNotFoundException,
           (kvstart >= kvend
           ? kvstart
           : kvmeta.capacity() + kvstart) / NMETA;
-        sorter.sort(MapOutputBuffer.this, mstart, mend, reporter);
-        int spindex = mstart;
-        final IndexRecord rec = new IndexRecord();
-        final InMemValBytes value = new InMemValBytes();
-        for (int i = 0; i < partitions; ++i) {
-          IFile.Writer<K, V> writer = null;
-          try {
-            long segmentStart = out.getPos();
-            writer = new Writer<K, V>(job, out, keyClass, valClass, codec,
-                                      spilledRecordsCounter);
-            if (combinerRunner == null) {
-              // spill directly
-              DataInputBuffer key = new DataInputBuffer();
-              while (spindex < mend &&
-                  kvmeta.get(offsetFor(spindex % maxRec) + PARTITION) == i) {
-                final int kvoff = offsetFor(spindex % maxRec);
-                int keystart = kvmeta.get(kvoff + KEYSTART);
-                int valstart = kvmeta.get(kvoff + VALSTART);
-                key.reset(kvbuffer, keystart, valstart - keystart);
-                getVBytesForOffset(kvoff, value);
-                writer.append(key, value);
-                ++spindex;
-              }
-            } else {
-              int spstart = spindex;
-              while (spindex < mend &&
-                  kvmeta.get(offsetFor(spindex % maxRec)
-                            + PARTITION) == i) {
-                ++spindex;
-              }
-              // Note: we would like to avoid the combiner if we've fewer
-              // than some threshold of records for a partition
-              if (spstart != spindex) {
-                combineCollector.setWriter(writer);
-                RawKeyValueIterator kvIter =
-                  new MRResultIterator(spstart, spindex);
-                combinerRunner.combine(kvIter, combineCollector);
+        if (spillExecutor != null) {
+          parallelSortAndSpill(out, spillRec, mstart, mend);
+        } else {
+          sorter.sort(MapOutputBuffer.this, mstart, mend, reporter);
+          int spindex = mstart;
+          final IndexRecord rec = new IndexRecord();
+          final InMemValBytes value = new InMemValBytes();
+          for (int i = 0; i < partitions; ++i) {
+            IFile.Writer<K, V> writer = null;
+            try {
+              long segmentStart = out.getPos();
+              writer = new Writer<K, V>(job, out, keyClass, valClass, codec,
+                                        spilledRecordsCounter);
+              if (combinerRunner == null) {
+                // spill directly
+                DataInputBuffer key = new DataInputBuffer();
+                while (spindex < mend &&
+                    kvmeta.get(offsetFor(spindex % maxRec) + PARTITION) == i) {
+                  final int kvoff = offsetFor(spindex % maxRec);
+                  int keystart = kvmeta.get(kvoff + KEYSTART);
+                  int valstart = kvmeta.get(kvoff + VALSTART);
+                  key.reset(kvbuffer, keystart, valstart - keystart);
+                  getVBytesForOffset(kvoff, value);
+                  writer.append(key, value);
+                  ++spindex;
+                }
+              } else {
+                int spstart = spindex;
+                while (spindex < mend &&
+                    kvmeta.get(offsetFor(spindex % maxRec)
+                              + PARTITION) == i) {
+                  ++spindex;
+                }
+                // Note: we would like to avoid the combiner if we've fewer
+                // than some threshold of records for a partition
+                if (spstart != spindex) {
+                  combineCollector.setWriter(writer);
+                  RawKeyValueIterator kvIter =
+                    new MRResultIterator(spstart, spindex);
+                  combinerRunner.combine(kvIter, combineCollector);
+                }
               }
-            }
 
-            // close the writer
-            writer.close();
+              // close the writer
+              writer.close();
 
-            // record offsets
-            rec.startOffset = segmentStart;
-            rec.rawLength = writer.getRawLength();
-            rec.partLength = writer.getCompressedLength();
-            spillRec.putIndex(rec, i);
+              // record offsets
+              rec.startOffset = segmentStart;
+              rec.rawLength = writer.getRawLength();
+              rec.partLength = writer.getCompressedLength();
+              spillRec.putIndex(rec, i);
 
-            writer = null;
-          } finally {
-            if (null != writer) writer.close();
+              writer = null;
+            } finally {
+              if (null != writer) writer.close();
+            }
           }
         }
 
-        if (totalIndexCacheMemory >= indexCacheMemoryLimit) {
-          // create spill index file
-          Path indexFilename =
-              mapOutputFile.getSpillIndexFileForWrite(numSpills, partitions
-                  * MAP_OUTPUT_INDEX_RECORD_LENGTH);
-          spillRec.writeToFile(indexFilename, job);
-        } else {
-          indexCacheList.add(spillRec);
-          totalIndexCacheMemory +=
-            spillRec.size() * MAP_OUTPUT_INDEX_RECORD_LENGTH;
-        }
-        LOG.info("Finished spill " + numSpills);
-        ++numSpills;
+        final int spill = spills.getNumSpills();
+        spills.addSpill(spillRec);
+        LOG.info("Finished spill " + spill);
       } finally {
         if (out != null) out.close();
       }
     }
 
     /**
-     * Handles the degenerate case where serialization fails to fit in
-     * the in-memory buffer, so we must spill the record from collect
-     * directly to a spill file. Consider this "losing".
+     * Sort and write the partitions of a spill on the spill workers. The
+     * metadata is first grouped by partition in place. Partitions ahead of
+     * the one being written are sorted, combined and serialized into their
+     * own buffers by the workers, as long as the estimated size of all the
+     * buffered partitions stays within spillBufferLimit; a partition that is
+     * not buffered by the time it is due is sorted and written straight to
+     * the spill file. Partitions are written in order, so the file and its
+     * SpillRecord are identical to those of a serial spill.
      */
-    private void spillSingleRecord(final K key, final V value,
-                                   int partition) throws IOException {
-      long size = kvbuffer.length + partitions * APPROX_HEADER_LENGTH;
-      FSDataOutputStream out = null;
+    private void parallelSortAndSpill(FSDataOutputStream out,
+        SpillRecord spillRec, int mstart, int mend)
+        throws IOException, ClassNotFoundException, InterruptedException {
+      final int[] bounds = groupByPartition(mstart, mend);
+      // one entry per partition, null for those written directly
+      final List<Future<SpillSegment>> segments =
+        new ArrayList<Future<SpillSegment>>(partitions);
+      final long[] estimates = new long[partitions];
+      long buffered = 0;
+      final IndexRecord rec = new IndexRecord();
+      boolean success = false;
       try {
-        // create spill file
-        final SpillRecord spillRec = new SpillRecord(partitions);
-        final Path filename =
-            mapOutputFile.getSpillFileForWrite(numSpills, size);
-        out = rfs.create(filename);
-
-        // we don't run the combiner for a single record
-        IndexRecord rec = new IndexRecord();
         for (int i = 0; i < partitions; ++i) {
-          IFile.Writer<K, V> writer = null;
-          try {
-            long segmentStart = out.getPos();
-            // Create a new codec, don't care!
-            writer = new IFile.Writer<K,V>(job, out, keyClass, valClass, codec,
-                                            spilledRecordsCounter);
+          if (segments.size() == i) {
+            segments.add(null);
+          }
+          while (segments.size() < partitions) {
+            final int p = segments.size();
+            estimates[p] = estimateSegmentSize(bounds[p], bounds[p + 1]);
+            if (buffered + estimates[p] > spillBufferLimit) {
+              break;
+            }
+            buffered += estimates[p];
+            segments.add(spillExecutor.submit(
+                new PartitionSpiller(bounds[p], bounds[p + 1])));
+          }
+          rec.startOffset = out.getPos();
+          final Future<SpillSegment> future = segments.get(i);
+          if (future == null) {
+            new PartitionSpiller(bounds[i], bounds[i + 1]).spill(out, rec);
+          } else {
+            final SpillSegment segment = getSpillSegment(future);
+            segments.set(i, null);
+            buffered -= estimates[i];
+            out.write(segment.data.getData(), 0, segment.data.getLength());
+            rec.rawLength = segment.rawLength;
+            rec.partLength = segment.partLength;
+          }
+          spillRec.putIndex(rec, i);
+        }
+        success = true;
+      } finally {
+        if (!success) {
+          // workers still read kvbuffer; wait for them before it is reclaimed
+          for (Future<SpillSegment> f : segments) {
+            if (f != null) {
+              try {
+                f.get();
+              } catch (Throwable t) {
+                // already failing
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Estimate the size of the records in [start, end) once serialized: the
+     * bytes of their keys and values, the lengths preceding them and the
+     * IFile trailer. Combining and compression only make it smaller.
+     */
+    private long estimateSegmentSize(int start, int end) {
+      long bytes = APPROX_HEADER_LENGTH;
+      for (int i = start; i < end; ++i) {
+        final int kvoff = offsetFor(i % maxRec);
+        bytes += kvmeta.get(kvoff + VALSTART) - kvmeta.get(kvoff + KEYSTART)
+            + kvmeta.get(kvoff + VALLEN)
+            + 2 * WritableUtils.getVIntSize(Integer.MAX_VALUE);
+      }
+      return bytes;
+    }
 
-            if (i == partition) {
-              final long recordStart = out.getPos();
+    private SpillSegment getSpillSegment(Future<SpillSegment> f)
+        throws IOException, ClassNotFoundException, InterruptedException {
+      try {
+        return f.get();
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof ClassNotFoundException) {
+          throw (ClassNotFoundException) cause;
+        } else if (cause instanceof InterruptedException) {
+          throw (InterruptedException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException("Spill worker failed", cause);
+      }
+    }
+
+    /**
+     * Reorder the metadata in [mstart, mend) so that the records of each
+     * partition are contiguous and partitions appear in order, in a single
+     * counting pass followed by in-place swaps.
+     * @return the partition boundaries; partition p occupies
+     *         [bounds[p], bounds[p + 1])
+     */
+    private int[] groupByPartition(int mstart, int mend) {
+      final int[] bounds = new int[partitions + 1];
+      for (int i = mstart; i < mend; ++i) {
+        ++bounds[kvmeta.get(offsetFor(i % maxRec) + PARTITION) + 1];
+      }
+      bounds[0] = mstart;
+      for (int p = 0; p < partitions; ++p) {
+        bounds[p + 1] += bounds[p];
+      }
+      final int[] next = Arrays.copyOf(bounds, partitions);
+      for (int p = 0; p < partitions; ++p) {
+        while (next[p] < bounds[p + 1]) {
+          final int q = kvmeta.get(offsetFor(next[p] % maxRec) + PARTITION);
+          if (q == p) {
+            ++next[p];
+          } else {
+            // q > p, as every record of a lower partition is already placed
+            swap(next[p], next[q]);
+            ++next[q];
+          }
+        }
+      }
+      return bounds;
+    }
+
+    /**
+     * A partition serialized in IFile format by a spill worker.
+     */
+    private static class SpillSegment {
+      final DataOutputBuffer data = new DataOutputBuffer();
+      long rawLength;
+      long partLength;
+    }
+
+    /**
+     * Sorts and serializes the records of one partition. Each instance has
+     * its own comparator, sorter and combiner, as none of these are required
+     * to be thread-safe; the ranges of different instances do not overlap,
+     * so they may swap metadata concurrently.
+     */
+    private class PartitionSpiller
+        implements Callable<SpillSegment>, IndexedPrefixSortable {
+      private final int start;
+      private final int end;
+      private final RawComparator<K> keyComparator;
+      private final byte[] metaTmp = new byte[METASIZE];
+
+      @SuppressWarnings("unchecked")
+      PartitionSpiller(int start, int end) {
+        this.start = start;
+        this.end = end;
+        this.keyComparator = job.getOutputKeyComparator();
+      }
+
+      @Override
+      public int compare(final int mi, final int mj) {
+        // all records belong to the same partition
+        final int kvi = offsetFor(mi % maxRec);
+        final int kvj = offsetFor(mj % maxRec);
+        return keyComparator.compare(kvbuffer,
+            kvmeta.get(kvi + KEYSTART),
+            kvmeta.get(kvi + VALSTART) - kvmeta.get(kvi + KEYSTART),
+            kvbuffer,
+            kvmeta.get(kvj + KEYSTART),
+            kvmeta.get(kvj + VALSTART) - kvmeta.get(kvj + KEYSTART));
+      }
+
+      @Override
+      public void swap(final int mi, final int mj) {
+        int iOff = (mi % maxRec) * METASIZE;
+        int jOff = (mj % maxRec) * METASIZE;
+        System.arraycopy(kvbuffer, iOff, metaTmp, 0, METASIZE);
+        System.arraycopy(kvbuffer, jOff, kvbuffer, iOff, METASIZE);
+        System.arraycopy(metaTmp, 0, kvbuffer, jOff, METASIZE);
+      }
+
+      @Override
+      public long getPrefix(final int mi) {
+        return getKeyPrefix(offsetFor(mi % maxRec));
+      }
+
+      @Override
+      public SpillSegment call() throws Exception {
+        final SpillSegment segment = new SpillSegment();
+        final IndexRecord rec = new IndexRecord();
+        spill(new FSDataOutputStream(segment.data, null), rec);
+        segment.rawLength = rec.rawLength;
+        segment.partLength = rec.partLength;
+        return segment;
+      }
+
+      /**
+       * Sort the partition and write it to the given stream in IFile format,
+       * recording its lengths in rec.
+       */
+      void spill(FSDataOutputStream out, IndexRecord rec)
+          throws IOException, ClassNotFoundException, InterruptedException {
+        if (end - start > 1) {
+          IndexedSorter partitionSorter = ReflectionUtils.newInstance(
+              job.getClass("map.sort.class", QuickSort.class,
+                  IndexedSorter.class), job);
+          partitionSorter.sort(this, start, end, reporter);
+        }
+        IFile.Writer<K, V> writer = null;
+        try {
+          writer = new Writer<K, V>(job, out, keyClass, valClass, codec,
+              spilledRecordsCounter);
+          if (combinerRunner == null) {
+            // spill directly
+            final DataInputBuffer key = new DataInputBuffer();
+            final InMemValBytes value = new InMemValBytes();
+            for (int spindex = start; spindex < end; ++spindex) {
+              final int kvoff = offsetFor(spindex % maxRec);
+              int keystart = kvmeta.get(kvoff + KEYSTART);
+              int valstart = kvmeta.get(kvoff + VALSTART);
+              key.reset(kvbuffer, keystart, valstart - keystart);
+              getVBytesForOffset(kvoff, value);
               writer.append(key, value);
-              // Note that our map byte count will not be accurate with
-              // compression
-              mapOutputByteCounter.increment(out.getPos() - recordStart);
             }
-            writer.close();
-
-            // record offsets
-            rec.startOffset = segmentStart;
-            rec.rawLength = writer.getRawLength();
-            rec.partLength = writer.getCompressedLength();
-            spillRec.putIndex(rec, i);
-
-            writer = null;
-          } catch (IOException e) {
-            if (null != writer) writer.close();
-            throw e;
+          } else if (start != end) {
+            CombinerRunner<K, V> runner = CombinerRunner.create(job,
+                getTaskID(), combineInputCounter, reporter, null);
+            CombineOutputCollector<K, V> collector =
+              new CombineOutputCollector<K, V>(combineOutputCounter,
+                  reporter, job);
+            collector.setWriter(writer);
+            runner.combine(new MRResultIterator(start, end), collector);
           }
+          writer.close();
+          rec.rawLength = writer.getRawLength();
+          rec.partLength = writer.getCompressedLength();
+          writer = null;
+        } finally {
+          if (null != writer) writer.close();
         }
-        if (totalIndexCacheMemory >= indexCacheMemoryLimit) {
-          // create spill index file
-          Path indexFilename =
-              mapOutputFile.getSpillIndexFileForWrite(numSpills, partitions
-                  * MAP_OUTPUT_INDEX_RECORD_LENGTH);
-          spillRec.writeToFile(indexFilename, job);
-        } else {
-          indexCacheList.add(spillRec);
-          totalIndexCacheMemory +=
-            spillRec.size() * MAP_OUTPUT_INDEX_RECORD_LENGTH;
-        }
-        ++numSpills;
-      } finally {
-        if (out != null) out.close();
       }
     }
 
@@ -1771,163 +2031,6 @@ public Progress getProgress() {
       }
       public void close() { }
     }
-
-    private void mergeParts() throws IOException, InterruptedException, 
-                                     ClassNotFoundException {
-      // get the approximate size of the final output/index files
-      long finalOutFileSize = 0;
-      long finalIndexFileSize = 0;
-      final Path[] filename = new Path[numSpills];
-      final TaskAttemptID mapId = getTaskID();
-
-      for(int i = 0; i < numSpills; i++) {
-        filename[i] = mapOutputFile.getSpillFile(i);
-        finalOutFileSize += rfs.getFileStatus(filename[i]).getLen();
-      }
-      if (numSpills == 1) { //the spill is the final output
-        sameVolRename(filename[0],
-            mapOutputFile.getOutputFileForWriteInVolume(filename[0]));
-        if (indexCacheList.size() == 0) {
-          sameVolRename(mapOutputFile.getSpillIndexFile(0),
-            mapOutputFile.getOutputIndexFileForWriteInVolume(filename[0]));
-        } else {
-          indexCacheList.get(0).writeToFile(
-            mapOutputFile.getOutputIndexFileForWriteInVolume(filename[0]), job);
-        }
-        sortPhase.complete();
-        return;
-      }
-
-      // read in paged indices
-      for (int i = indexCacheList.size(); i < numSpills; ++i) {
-        Path indexFileName = mapOutputFile.getSpillIndexFile(i);
-        indexCacheList.add(new SpillRecord(indexFileName, job));
-      }
-
-      //make correction in the length to include the sequence file header
-      //lengths for each partition
-      finalOutFileSize += partitions * APPROX_HEADER_LENGTH;
-      finalIndexFileSize = partitions * MAP_OUTPUT_INDEX_RECORD_LENGTH;
-      Path finalOutputFile =
-          mapOutputFile.getOutputFileForWrite(finalOutFileSize);
-      Path finalIndexFile =
-          mapOutputFile.getOutputIndexFileForWrite(finalIndexFileSize);
-
-      //The output stream for the final single output file
-      FSDataOutputStream finalOut = rfs.create(finalOutputFile, true, 4096);
-
-      if (numSpills == 0) {
-        //create dummy files
-        IndexRecord rec = new IndexRecord();
-        SpillRecord sr = new SpillRecord(partitions);
-        try {
-          for (int i = 0; i < partitions; i++) {
-            long segmentStart = finalOut.getPos();
-            Writer<K, V> writer =
-              new Writer<K, V>(job, finalOut, keyClass, valClass, codec, null);
-            writer.close();
-            rec.startOffset = segmentStart;
-            rec.rawLength = writer.getRawLength();
-            rec.partLength = writer.getCompressedLength();
-            sr.putIndex(rec, i);
-          }
-          sr.writeToFile(finalIndexFile, job);
-        } finally {
-          finalOut.close();
-        }
-        sortPhase.complete();
-        return;
-      }
-      {
-        sortPhase.addPhases(partitions); // Divide sort phase into sub-phases
-        
-        IndexRecord rec = new IndexRecord();
-        final SpillRecord spillRec = new SpillRecord(partitions);
-        for (int parts = 0; parts < partitions; parts++) {
-          //create the segments to be merged
-          List<Segment<K,V>> segmentList =
-            new ArrayList<Segment<K, V>>(numSpills);
-          for(int i = 0; i < numSpills; i++) {
-            IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
-
-            Segment<K,V> s =
-              new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset,
-                               indexRecord.partLength, codec, true);
-            segmentList.add(i, s);
-
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("MapId=" + mapId + " Reducer=" + parts +
-                  "Spill =" + i + "(" + indexRecord.startOffset + "," +
-                  indexRecord.rawLength + ", " + indexRecord.partLength + ")");
-            }
-          }
-
-          int mergeFactor = job.getInt(JobContext.IO_SORT_FACTOR, 100);
-          // sort the segments only if there are intermediate merges
-          boolean sortSegments = segmentList.size() > mergeFactor;
-          //merge
-          @SuppressWarnings("unchecked")
-          RawKeyValueIterator kvIter = Merger.merge(job, rfs,
-                         keyClass, valClass, codec,
-                         segmentList, mergeFactor,
-                         new Path(mapId.toString()),
-                         job.getOutputKeyComparator(), reporter, sortSegments,
-                         null, spilledRecordsCounter, sortPhase.phase(),
-                         TaskType.MAP);
-
-          //write merged output to disk
-          long segmentStart = finalOut.getPos();
-          Writer<K, V> writer =
-              new Writer<K, V>(job, finalOut, keyClass, valClass, codec,
-                               spilledRecordsCounter);
-          if (combinerRunner == null || numSpills < minSpillsForCombine) {
-            Merger.writeFile(kvIter, writer, reporter, job);
-          } else {
-            combineCollector.setWriter(writer);
-            combinerRunner.combine(kvIter, combineCollector);
-          }
-
-          //close
-          writer.close();
-
-          sortPhase.startNextPhase();
-          
-          // record offsets
-          rec.startOffset = segmentStart;
-          rec.rawLength = writer.getRawLength();
-          rec.partLength = writer.getCompressedLength();
-          spillRec.putIndex(rec, parts);
-        }
-        spillRec.writeToFile(finalIndexFile, job);
-        finalOut.close();
-        for(int i = 0; i < numSpills; i++) {
-          rfs.delete(filename[i],true);
-        }
-      }
-    }
-    
-    /**
-     * Rename srcPath to dstPath on the same volume. This is the same
-     * as RawLocalFileSystem's rename method, except that it will not
-     * fall back to a copy, and it will create the target directory
-     * if it doesn't exist.
-     */
-    private void sameVolRename(Path srcPath,
-        Path dstPath) throws IOException {
-      RawLocalFileSystem rfs = (RawLocalFileSystem)this.rfs;
-      File src = rfs.pathToFile(srcPath);
-      File dst = rfs.pathToFile(dstPath);
-      if (!dst.getParentFile().exists()) {
-        if (!dst.getParentFile().mkdirs()) {
-          throw new IOException("Unable to rename " + src + " to "
-              + dst + ": couldn't create parent directory"); 
-        }
-      }
-      
-      if (!src.renameTo(dst)) {
-        throw new IOException("Unable to rename " + src + " to " + dst);
-      }
-    }
   } // MapOutputBuffer
   
   /**
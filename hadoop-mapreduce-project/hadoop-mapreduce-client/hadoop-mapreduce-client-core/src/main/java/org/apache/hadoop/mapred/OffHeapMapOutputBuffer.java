@@ -0,0 +1,539 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.KeyPrefixComparator;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.IFile.Writer;
+import org.apache.hadoop.mapred.Task.CombineOutputCollector;
+import org.apache.hadoop.mapred.Task.CombinerRunner;
+import org.apache.hadoop.mapred.Task.TaskReporter;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.IndexedPrefixSortable;
+import org.apache.hadoop.util.IndexedSorter;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * A {@link MapOutputCollector} that keeps the serialized map output and its
+ * metadata in a direct {@link ByteBuffer} rather than on the Java heap. The
+ * buffer is sized by <code>mapreduce.task.io.sort.offheap.mb</code> and is
+ * bounded by <code>-XX:MaxDirectMemorySize</code> instead of the heap, so a
+ * map task can sort in a large buffer with a small heap, and the buffer is
+ * never scanned or moved by the garbage collector.
+ *
+ * Serialized records grow from the start of the buffer and their fixed size
+ * metadata from its end. When the two meet, the records are sorted and
+ * spilled, and the record being serialized continues at the start of the
+ * buffer; unlike {@link MapTask.MapOutputBuffer}, collection waits for the
+ * spill to finish. Keys are copied to the heap only to be compared, and
+ * records only to be written. Spill files, their indices and the final merge
+ * are the same as those of MapOutputBuffer.
+ *
+ * To use it, set <code>mapreduce.job.map.output.collector.class</code> to
+ * <code>org.apache.hadoop.mapred.OffHeapMapOutputBuffer</code>.
+ */
+@InterfaceAudience.LimitedPrivate({"MapReduce"})
+@InterfaceStability.Unstable
+public class OffHeapMapOutputBuffer<K extends Object, V extends Object>
+    implements MapOutputCollector<K, V>, IndexedPrefixSortable {
+
+  private static final Log LOG =
+    LogFactory.getLog(OffHeapMapOutputBuffer.class);
+
+  private static final int PARTITION = 0;        // partition offset in meta
+  private static final int KEYSTART = 4;         // key offset in meta
+  private static final int KEYLEN = 8;           // length of key
+  private static final int VALLEN = 12;          // length of value
+  private static final int METASIZE = 16;        // size of meta in bytes
+
+  private JobConf job;
+  private TaskReporter reporter;
+  private MapOutputFile mapOutputFile;
+  private FileSystem rfs;
+  private int partitions;
+  private Class<K> keyClass;
+  private Class<V> valClass;
+  private RawComparator<K> comparator;
+  private KeyPrefixComparator keyPrefixComparator;
+  private int partitionBits;
+  private Serializer<K> keySerializer;
+  private Serializer<V> valSerializer;
+  private IndexedSorter sorter;
+  private CompressionCodec codec;
+  private CombinerRunner<K, V> combinerRunner;
+  private CombineOutputCollector<K, V> combineCollector;
+  private MapOutputSpills<K, V> spills;
+
+  // the off-heap buffer, and a view of it for bulk transfers
+  private ByteBuffer buffer;
+  private ByteBuffer view;
+  private int capacity;
+  private int dataEnd;            // end of the serialized records
+  private int numRecords;         // records, and metadata entries, buffered
+  private final BufferOutputStream bufferOut = new BufferOutputStream();
+
+  // heap copies of the keys being compared
+  private byte[] cmpKey1 = new byte[64];
+  private byte[] cmpKey2 = new byte[64];
+
+  private Counters.Counter mapOutputByteCounter;
+  private Counters.Counter mapOutputRecordCounter;
+  private Counters.Counter fileOutputByteCounter;
+  private Counters.Counter spilledRecordsCounter;
+
+  public OffHeapMapOutputBuffer() {
+  }
+
+  @SuppressWarnings("unchecked")
+  public void init(MapOutputCollector.Context context
+                  ) throws IOException, ClassNotFoundException {
+    job = context.getJobConf();
+    reporter = context.getReporter();
+    final MapTask mapTask = context.getMapTask();
+    mapOutputFile = mapTask.getMapOutputFile();
+    spilledRecordsCounter = reporter.getCounter(TaskCounter.SPILLED_RECORDS);
+    partitions = job.getNumReduceTasks();
+    rfs = ((LocalFileSystem)FileSystem.getLocal(job)).getRaw();
+
+    final int sortmb = job.getInt(JobContext.IO_SORT_OFFHEAP_MB,
+        JobContext.DEFAULT_IO_SORT_OFFHEAP_MB);
+    if (sortmb <= 0 || (sortmb & 0x7FF) != sortmb) {
+      throw new IOException(
+          "Invalid \"" + JobContext.IO_SORT_OFFHEAP_MB + "\": " + sortmb);
+    }
+    sorter = ReflectionUtils.newInstance(job.getClass("map.sort.class",
+          QuickSort.class, IndexedSorter.class), job);
+    capacity = sortmb << 20;
+    buffer = ByteBuffer.allocateDirect(capacity)
+        .order(ByteOrder.nativeOrder());
+    view = buffer.duplicate();
+    LOG.info(JobContext.IO_SORT_OFFHEAP_MB + ": " + sortmb);
+
+    // k/v serialization
+    comparator = job.getOutputKeyComparator();
+    keyPrefixComparator =
+      MapTask.MapOutputBuffer.getKeyPrefixComparator(comparator);
+    partitionBits = 32 - Integer.numberOfLeadingZeros(partitions - 1);
+    keyClass = (Class<K>)job.getMapOutputKeyClass();
+    valClass = (Class<V>)job.getMapOutputValueClass();
+    SerializationFactory serializationFactory = new SerializationFactory(job);
+    // anything the serializers write when opened is skipped, not spilled
+    bufferOut.startRecord();
+    keySerializer = serializationFactory.getSerializer(keyClass);
+    keySerializer.open(bufferOut);
+    valSerializer = serializationFactory.getSerializer(valClass);
+    valSerializer.open(bufferOut);
+    dataEnd = bufferOut.position;
+
+    // output counters
+    mapOutputByteCounter = reporter.getCounter(TaskCounter.MAP_OUTPUT_BYTES);
+    mapOutputRecordCounter =
+      reporter.getCounter(TaskCounter.MAP_OUTPUT_RECORDS);
+    fileOutputByteCounter = reporter
+        .getCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES);
+
+    // compression
+    if (job.getCompressMapOutput()) {
+      Class<? extends CompressionCodec> codecClass =
+        job.getMapOutputCompressorClass(DefaultCodec.class);
+      codec = ReflectionUtils.newInstance(codecClass, job);
+    } else {
+      codec = null;
+    }
+
+    // combiner
+    final Counters.Counter combineInputCounter =
+      reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS);
+    combinerRunner = CombinerRunner.create(job, mapTask.getTaskID(),
+                                           combineInputCounter,
+                                           reporter, null);
+    if (combinerRunner != null) {
+      final Counters.Counter combineOutputCounter =
+        reporter.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS);
+      combineCollector = new CombineOutputCollector<K,V>(
+          combineOutputCounter, reporter, job);
+    } else {
+      combineCollector = null;
+    }
+    spills = new MapOutputSpills<K, V>(context, rfs, keyClass, valClass,
+        codec, combinerRunner, combineCollector);
+  }
+
+  public synchronized void collect(K key, V value, final int partition
+                                   ) throws IOException, InterruptedException {
+    reporter.progress();
+    if (key.getClass() != keyClass) {
+      throw new IOException("Type mismatch in key from map: expected "
+                            + keyClass.getName() + ", received "
+                            + key.getClass().getName());
+    }
+    if (value.getClass() != valClass) {
+      throw new IOException("Type mismatch in value from map: expected "
+                            + valClass.getName() + ", received "
+                            + value.getClass().getName());
+    }
+    if (partition < 0 || partition >= partitions) {
+      throw new IOException("Illegal partition for " + key + " (" +
+          partition + ")");
+    }
+    bufferOut.startRecord();
+    keySerializer.serialize(key);
+    bufferOut.startValue();
+    valSerializer.serialize(value);
+    if (bufferOut.discard) {
+      // the serializers' state is intact, but the record was dropped as it
+      // was written; serialize it again into a spill of its own
+      spills.spillSingleRecord(key, value, partition, capacity);
+      mapOutputRecordCounter.increment(1);
+      return;
+    }
+    // the buffer may have been spilled while the record was serialized
+    final int keystart = bufferOut.recordStart;
+    final int valstart = bufferOut.valueStart;
+    final int valend = bufferOut.position;
+    final int meta = metaOffset(numRecords);
+    buffer.putInt(meta + PARTITION, partition);
+    buffer.putInt(meta + KEYSTART, keystart);
+    buffer.putInt(meta + KEYLEN, valstart - keystart);
+    buffer.putInt(meta + VALLEN, valend - valstart);
+    dataEnd = valend;
+    ++numRecords;
+    mapOutputRecordCounter.increment(1);
+    mapOutputByteCounter.increment(valend - keystart);
+  }
+
+  /**
+   * Offset in the buffer of the metadata of the i-th record.
+   */
+  private int metaOffset(int i) {
+    return capacity - (i + 1) * METASIZE;
+  }
+
+  private int getMeta(int i, int field) {
+    return buffer.getInt(metaOffset(i) + field);
+  }
+
+  /**
+   * Copy length bytes at start in the buffer to dst, growing it if needed.
+   * @return the array holding the copy
+   */
+  private byte[] copy(int start, int length, byte[] dst) {
+    if (dst.length < length) {
+      dst = new byte[Math.max(length, 2 * dst.length)];
+    }
+    view.position(start);
+    view.get(dst, 0, length);
+    return dst;
+  }
+
+  /**
+   * Compare by partition, then by key.
+   * @see org.apache.hadoop.util.IndexedSortable#compare
+   */
+  public int compare(final int i, final int j) {
+    final int pi = getMeta(i, PARTITION);
+    final int pj = getMeta(j, PARTITION);
+    if (pi != pj) {
+      return pi - pj;
+    }
+    final int li = getMeta(i, KEYLEN);
+    final int lj = getMeta(j, KEYLEN);
+    cmpKey1 = copy(getMeta(i, KEYSTART), li, cmpKey1);
+    cmpKey2 = copy(getMeta(j, KEYSTART), lj, cmpKey2);
+    return comparator.compare(cmpKey1, 0, li, cmpKey2, 0, lj);
+  }
+
+  /**
+   * Swap the metadata of records i and j.
+   * @see org.apache.hadoop.util.IndexedSortable#swap
+   */
+  public void swap(final int i, final int j) {
+    final int mi = metaOffset(i);
+    final int mj = metaOffset(j);
+    final long i0 = buffer.getLong(mi);
+    final long i1 = buffer.getLong(mi + 8);
+    buffer.putLong(mi, buffer.getLong(mj));
+    buffer.putLong(mi + 8, buffer.getLong(mj + 8));
+    buffer.putLong(mj, i0);
+    buffer.putLong(mj + 8, i1);
+  }
+
+  /**
+   * The partition in the high bits, followed by as much of the key prefix
+   * as fits.
+   * @see IndexedPrefixSortable#getPrefix
+   */
+  public long getPrefix(final int i) {
+    long keyPrefix = 0;
+    if (keyPrefixComparator != null) {
+      final int length = getMeta(i, KEYLEN);
+      cmpKey1 = copy(getMeta(i, KEYSTART), length, cmpKey1);
+      keyPrefix = keyPrefixComparator.getKeyPrefix(cmpKey1, 0, length);
+    }
+    if (partitionBits == 0) {
+      return keyPrefix;
+    }
+    return ((long) getMeta(i, PARTITION) << (64 - partitionBits)) |
+        (keyPrefix >>> partitionBits);
+  }
+
+  public synchronized void flush() throws IOException, InterruptedException,
+                                          ClassNotFoundException {
+    LOG.info("Starting flush of map output");
+    if (numRecords > 0) {
+      sortAndSpill();
+    }
+    // release the sort buffer before the merge
+    freeBuffer();
+    spills.mergeParts();
+    Path outputPath = mapOutputFile.getOutputFile();
+    fileOutputByteCounter.increment(rfs.getFileStatus(outputPath).getLen());
+  }
+
+  public synchronized void close() {
+    freeBuffer();
+  }
+
+  /**
+   * Release the buffer's memory now, rather than when it is collected.
+   */
+  private void freeBuffer() {
+    if (buffer != null) {
+      if (buffer instanceof sun.nio.ch.DirectBuffer) {
+        ((sun.nio.ch.DirectBuffer) buffer).cleaner().clean();
+      }
+      buffer = null;
+      view = null;
+    }
+  }
+
+  private void sortAndSpill() throws IOException, ClassNotFoundException,
+                                     InterruptedException {
+    //approximate the length of the output file to be the length of the
+    //buffer + header lengths for the partitions
+    final long size = dataEnd + partitions * MapTask.APPROX_HEADER_LENGTH;
+    LOG.info("Spilling map output: " + numRecords + " records, " + dataEnd +
+        " bytes");
+    FSDataOutputStream out = null;
+    try {
+      // create spill file
+      final SpillRecord spillRec = new SpillRecord(partitions);
+      final Path filename = spills.getSpillFileForWrite(size);
+      out = rfs.create(filename);
+
+      sorter.sort(this, 0, numRecords, reporter);
+      int spindex = 0;
+      final IndexRecord rec = new IndexRecord();
+      for (int i = 0; i < partitions; ++i) {
+        final int spstart = spindex;
+        while (spindex < numRecords && getMeta(spindex, PARTITION) == i) {
+          ++spindex;
+        }
+        IFile.Writer<K, V> writer = null;
+        try {
+          long segmentStart = out.getPos();
+          writer = new Writer<K, V>(job, out, keyClass, valClass, codec,
+                                    spilledRecordsCounter);
+          RawKeyValueIterator kvIter = new BufferIterator(spstart, spindex);
+          if (combinerRunner == null) {
+            // spill directly
+            while (kvIter.next()) {
+              writer.append(kvIter.getKey(), kvIter.getValue());
+            }
+          } else if (spstart != spindex) {
+            combineCollector.setWriter(writer);
+            combinerRunner.combine(kvIter, combineCollector);
+          }
+
+          // close the writer
+          writer.close();
+
+          // record offsets
+          rec.startOffset = segmentStart;
+          rec.rawLength = writer.getRawLength();
+          rec.partLength = writer.getCompressedLength();
+          spillRec.putIndex(rec, i);
+
+          writer = null;
+        } finally {
+          if (null != writer) writer.close();
+        }
+      }
+      final int spill = spills.getNumSpills();
+      spills.addSpill(spillRec);
+      LOG.info("Finished spill " + spill);
+    } finally {
+      if (out != null) out.close();
+    }
+    dataEnd = 0;
+    numRecords = 0;
+  }
+
+  /**
+   * Iterates over a range of sorted records, copying each key and value to
+   * the heap.
+   */
+  private class BufferIterator implements RawKeyValueIterator {
+    private final DataInputBuffer keybuf = new DataInputBuffer();
+    private final DataInputBuffer valbuf = new DataInputBuffer();
+    private byte[] keyBytes = new byte[64];
+    private byte[] valBytes = new byte[64];
+    private final int end;
+    private int current;
+
+    BufferIterator(int start, int end) {
+      this.end = end;
+      current = start - 1;
+    }
+
+    public boolean next() throws IOException {
+      if (++current >= end) {
+        return false;
+      }
+      final int keystart = getMeta(current, KEYSTART);
+      final int keylen = getMeta(current, KEYLEN);
+      final int vallen = getMeta(current, VALLEN);
+      keyBytes = copy(keystart, keylen, keyBytes);
+      valBytes = copy(keystart + keylen, vallen, valBytes);
+      keybuf.reset(keyBytes, 0, keylen);
+      valbuf.reset(valBytes, 0, vallen);
+      return true;
+    }
+
+    public DataInputBuffer getKey() throws IOException {
+      return keybuf;
+    }
+
+    public DataInputBuffer getValue() throws IOException {
+      return valbuf;
+    }
+
+    public Progress getProgress() {
+      return null;
+    }
+
+    public void close() { }
+  }
+
+  /**
+   * Serializes records into the buffer, leaving room for the metadata of the
+   * record being written. If a record does not fit, the records before it
+   * are spilled and the part of it already written is moved to the start of
+   * the buffer, so the serializers write to one uninterrupted stream, as
+   * they do with MapOutputBuffer's BlockingBuffer. A record that does not
+   * fit in the empty buffer is discarded as it is written.
+   */
+  private class BufferOutputStream extends OutputStream {
+    private final byte[] scratch = new byte[1];
+    private int position;       // end of the bytes written
+    private int recordStart;    // start of the record being written
+    private int valueStart;     // start of its value, or -1 if not reached
+    private boolean discard;    // whether the record is too large to buffer
+
+    void startRecord() {
+      position = dataEnd;
+      recordStart = dataEnd;
+      valueStart = -1;
+      discard = false;
+    }
+
+    void startValue() {
+      valueStart = position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      scratch[0] = (byte) b;
+      write(scratch, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (!discard && len > metaOffset(numRecords) - position) {
+        makeRoom(len);
+      }
+      if (discard) {
+        return;
+      }
+      view.position(position);
+      view.put(b, off, len);
+      position += len;
+    }
+
+    /**
+     * Spill the complete records, then move the partial record to the start
+     * of the buffer. If there still is not room for len more bytes, discard
+     * the rest of the record.
+     */
+    private void makeRoom(int len) throws IOException {
+      if (numRecords > 0) {
+        try {
+          sortAndSpill();
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Spill failed", e);
+        } catch (InterruptedException e) {
+          throw (IOException) new InterruptedIOException(
+              "Spill interrupted").initCause(e);
+        }
+        final int length = position - recordStart;
+        // the destination precedes the source, so copying forward is safe
+        final byte[] chunk = new byte[Math.min(length, 64 * 1024)];
+        for (int moved = 0; moved < length; moved += chunk.length) {
+          final int n = Math.min(chunk.length, length - moved);
+          view.position(recordStart + moved);
+          view.get(chunk, 0, n);
+          view.position(moved);
+          view.put(chunk, 0, n);
+        }
+        if (valueStart >= 0) {
+          valueStart -= recordStart;
+        }
+        recordStart = 0;
+        position = length;
+        if (len <= metaOffset(numRecords) - position) {
+          return;
+        }
+      }
+      LOG.info("Record too large for off-heap buffer");
+      discard = true;
+    }
+  }
+}
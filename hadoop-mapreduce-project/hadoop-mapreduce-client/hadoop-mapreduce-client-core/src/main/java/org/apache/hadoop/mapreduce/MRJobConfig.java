@@ -151,6 +151,10 @@ public interface MRJobConfig {
 
   public static final String IO_SORT_MB = "mapreduce.task.io.sort.mb";
 
+  public static final String IO_SORT_OFFHEAP_MB =
+    "mapreduce.task.io.sort.offheap.mb";
+  public static final int DEFAULT_IO_SORT_OFFHEAP_MB = 100;
+
   public static final String INDEX_CACHE_MEMORY_LIMIT = "mapreduce.task.index.cache.limit.bytes";
 
   public static final String PRESERVE_FAILED_TASK_FILES = "mapreduce.task.files.preserve.failedtasks";
@@ -195,6 +199,9 @@ public interface MRJobConfig {
 
   public static final String MAP_SORT_SPILL_PERCENT = "mapreduce.map.sort.spill.percent";
 
+  public static final String MAP_SORT_SPILL_THREADS = "mapreduce.map.sort.spill.threads";
+  public static final int DEFAULT_MAP_SORT_SPILL_THREADS = 1;
+
   public static final String MAP_INPUT_FILE = "mapreduce.map.input.file";
 
   public static final String MAP_INPUT_PATH = "mapreduce.map.input.length";
@@ -291,6 +298,10 @@ public interface MRJobConfig {
   public static final String MAX_SHUFFLE_FETCH_RETRY_DELAY = "mapreduce.reduce.shuffle.retry-delay.max.ms";
   public static final long DEFAULT_MAX_SHUFFLE_FETCH_RETRY_DELAY = 60000;
 
+  public static final String SHUFFLE_FETCH_MAX_MAPS =
+    "mapreduce.reduce.shuffle.fetch.max-maps";
+  public static final int DEFAULT_SHUFFLE_FETCH_MAX_MAPS = 20;
+
   public static final String REDUCE_SKIP_INCR_PROC_COUNT = "mapreduce.reduce.skip.proc-count.auto-incr";
 
   public static final String REDUCE_SKIP_MAXGROUPS = "mapreduce.reduce.skip.maxgroups";
@@ -237,16 +237,31 @@ private void abortConnect(MapHost host, Set<TaskAttemptID> remaining) {
    *              shuffle available map-outputs.
    */
   @VisibleForTesting
-  protected void copyFromHost(MapHost host) throws IOException {
+  protected void copyFromHost(MapHost host)
+      throws IOException, InterruptedException {
     // Get completed maps on 'host'
     List<TaskAttemptID> maps = scheduler.getMapsForHost(host);
-    
-    // Sanity check to catch hosts with only 'OBSOLETE' maps, 
-    // especially at the tail of large jobs
-    if (maps.size() == 0) {
-      return;
+
+    // Sanity check to catch hosts with only 'OBSOLETE' maps,
+    // especially at the tail of large jobs.
+    // Keep requesting batches while the host has outputs for us; if the
+    // shuffle server kept the connection alive, the next request reuses it
+    while (maps.size() > 0 && copyMapOutputs(host, maps) && !stopped) {
+      // If merge is on, block, as run() does before the first batch
+      merger.waitForResource();
+      if (stopped) {
+        break;
+      }
+      maps = scheduler.getMapsForHost(host);
     }
-    
+  }
+
+  /**
+   * Fetch one batch of map outputs from a host in a single request.
+   * @return true if every map output in the batch was fetched
+   */
+  private boolean copyMapOutputs(MapHost host, List<TaskAttemptID> maps)
+      throws IOException {
     if(LOG.isDebugEnabled()) {
       LOG.debug("Fetcher " + id + " going to fetch from " + host + " for: "
         + maps);
@@ -262,7 +277,7 @@ protected void copyFromHost(MapHost host) throws IOException {
       openConnection(url);
       if (stopped) {
         abortConnect(host, remaining);
-        return;
+        return false;
       }
       
       // generate hash of the url
@@ -284,7 +299,7 @@ protected void copyFromHost(MapHost host) throws IOException {
       // verify that the thread wasn't stopped during calls to connect
       if (stopped) {
         abortConnect(host, remaining);
-        return;
+        return false;
       }
       input = new DataInputStream(connection.getInputStream());
 
@@ -327,8 +342,8 @@ protected void copyFromHost(MapHost host) throws IOException {
       for(TaskAttemptID left: remaining) {
         scheduler.putBackKnownMapOutput(host, left);
       }
-      
-      return;
+      closeConnection();
+      return false;
     }
     
     try {
@@ -353,10 +368,17 @@ protected void copyFromHost(MapHost host) throws IOException {
         throw new IOException("server didn't return all expected map outputs: "
             + remaining.size() + " left.");
       }
+      if (failedTasks != null) {
+        // The rest of the response is unread, so the connection must not
+        // be reused
+        closeConnection();
+      }
       input.close();
       input = null;
+      return failedTasks == null;
     } finally {
       if (input != null) {
+        closeConnection();
         IOUtils.cleanup(LOG, input);
         input = null;
       }
@@ -60,7 +60,6 @@ protected Long initialValue() {
   };
 
   private static final Log LOG = LogFactory.getLog(ShuffleSchedulerImpl.class);
-  private static final int MAX_MAPS_AT_ONCE = 20;
   private static final long INITIAL_PENALTY = 10000;
   private static final float PENALTY_GROWTH_RATE = 1.3f;
   private final static int REPORT_FAILURE_LIMIT = 10;
@@ -95,6 +94,7 @@ protected Long initialValue() {
   private volatile int maxMapRuntime = 0;
   private final int maxFailedUniqueFetches;
   private final int maxFetchFailuresBeforeReporting;
+  private final int maxMapsAtOnce;
 
   private long totalBytesShuffledTillNow = 0;
   private final DecimalFormat mbpsFormat = new DecimalFormat("0.00");
@@ -127,6 +127,9 @@ public ShuffleSchedulerImpl(JobConf job, TaskStatus status,
     this.maxFailedUniqueFetches = Math.min(totalMaps, 5);
     this.maxFetchFailuresBeforeReporting = job.getInt(
         MRJobConfig.SHUFFLE_FETCH_FAILURES, REPORT_FAILURE_LIMIT);
+    this.maxMapsAtOnce = Math.max(1, job.getInt(
+        MRJobConfig.SHUFFLE_FETCH_MAX_MAPS,
+        MRJobConfig.DEFAULT_SHUFFLE_FETCH_MAX_MAPS));
     this.reportReadErrorImmediately = job.getBoolean(
         MRJobConfig.SHUFFLE_NOTIFY_READERROR, true);
 
@@ -396,7 +399,7 @@ public synchronized List<TaskAttemptID> getMapsForHost(MapHost host) {
       TaskAttemptID id = itr.next();
       if (!obsoleteMaps.contains(id) && !finishedMaps[id.getTaskID().getId()]) {
         result.add(id);
-        if (++includedMaps >= MAX_MAPS_AT_ONCE) {
+        if (++includedMaps >= maxMapsAtOnce) {
           break;
         }
       }
@@ -46,11 +46,13 @@
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import javax.crypto.SecretKey;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.JobConf;
@@ -301,6 +303,137 @@ public void testCopyFromHostCompressFailure() throws Exception {
     verify(ss, times(1)).copyFailed(map1ID, host, true, false);
   }
 
+  @Test(timeout=10000)
+  public void testCopyFromHostRepeatedBatches() throws Exception {
+    InMemoryMapOutput<Text, Text> immo = mockMapOutput();
+    ArrayList<TaskAttemptID> maps = new ArrayList<TaskAttemptID>(2);
+    maps.add(map1ID);
+    maps.add(map2ID);
+    when(ss.getMapsForHost(host)).thenReturn(maps).thenReturn(maps)
+        .thenReturn(Collections.<TaskAttemptID>emptyList());
+    stubConnection(response(10, map1ID, map2ID), response(10, map1ID, map2ID));
+
+    Fetcher<Text,Text> underTest = new FakeFetcher<Text,Text>(job, id, ss, mm,
+        r, metrics, except, key, connection);
+    underTest.copyFromHost(host);
+
+    // two requests, with the merge resources checked before the second one
+    verify(connection, times(2)).addRequestProperty(
+        SecureShuffleUtils.HTTP_HEADER_URL_HASH, encHash);
+    verify(ss, times(3)).getMapsForHost(host);
+    verify(mm, times(2)).waitForResource();
+    verify(ss, times(2)).copySucceeded(eq(map1ID), eq(host), eq(10L),
+        anyLong(), eq(immo));
+    verify(ss, times(2)).copySucceeded(eq(map2ID), eq(host), eq(10L),
+        anyLong(), eq(immo));
+    verify(ss, never()).putBackKnownMapOutput(any(MapHost.class),
+        any(TaskAttemptID.class));
+    // responses read to the end leave the connection for reuse
+    verify(connection, never()).disconnect();
+  }
+
+  @Test(timeout=10000)
+  public void testCopyFromHostStopsOnPartialFailure() throws Exception {
+    InMemoryMapOutput<Text, Text> immo = mockMapOutput();
+    // the server only sends the first of the two map outputs, then a header
+    // for another reduce
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bout);
+    new ShuffleHeader(map1ID.toString(), 10, 10, 1).write(out);
+    out.write(new byte[10]);
+    new ShuffleHeader(map2ID.toString(), 10, 10, 2).write(out);
+    out.write(new byte[10]);
+    stubConnection(new ByteArrayInputStream(bout.toByteArray()));
+
+    Fetcher<Text,Text> underTest = new FakeFetcher<Text,Text>(job, id, ss, mm,
+        r, metrics, except, key, connection);
+    underTest.copyFromHost(host);
+
+    verify(ss).copySucceeded(eq(map1ID), eq(host), eq(10L), anyLong(),
+        eq(immo));
+    verify(ss).copyFailed(map2ID, host, true, false);
+    verify(ss).putBackKnownMapOutput(any(MapHost.class), eq(map2ID));
+    // no further batch is requested from a host that just failed
+    verify(ss, times(1)).getMapsForHost(host);
+    verify(mm, never()).waitForResource();
+    verify(connection).disconnect();
+  }
+
+  @Test(timeout=10000)
+  public void testCopyFromHostDisconnectsOnPartialRead() throws Exception {
+    InMemoryMapOutput<Text, Text> immo = mockMapOutput();
+    // the first map output is cut short
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bout);
+    new ShuffleHeader(map1ID.toString(), 10, 10, 1).write(out);
+    out.write(new byte[5]);
+    stubConnection(new ByteArrayInputStream(bout.toByteArray()));
+
+    Fetcher<Text,Text> underTest = new FakeFetcher<Text,Text>(job, id, ss, mm,
+        r, metrics, except, key, connection);
+    underTest.copyFromHost(host);
+
+    verify(immo).abort();
+    verify(ss).copyFailed(map1ID, host, true, false);
+    verify(ss).putBackKnownMapOutput(any(MapHost.class), eq(map1ID));
+    verify(ss).putBackKnownMapOutput(any(MapHost.class), eq(map2ID));
+    verify(ss, times(1)).getMapsForHost(host);
+    // the rest of the response is unread, so the connection is not reused
+    verify(connection).disconnect();
+  }
+
+  /**
+   * Stub the connection to answer each request with the next of the given
+   * responses.
+   */
+  private void stubConnection(InputStream first, InputStream... rest)
+      throws IOException {
+    String replyHash = SecureShuffleUtils.generateHash(encHash.getBytes(), key);
+    when(connection.getResponseCode()).thenReturn(200);
+    when(connection.getHeaderField(ShuffleHeader.HTTP_HEADER_NAME))
+        .thenReturn(ShuffleHeader.DEFAULT_HTTP_HEADER_NAME);
+    when(connection.getHeaderField(ShuffleHeader.HTTP_HEADER_VERSION))
+        .thenReturn(ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION);
+    when(connection.getHeaderField(
+        SecureShuffleUtils.HTTP_HEADER_REPLY_URL_HASH)).thenReturn(replyHash);
+    when(connection.getInputStream()).thenReturn(first, rest);
+  }
+
+  /**
+   * A complete response carrying the given map outputs of the given length.
+   */
+  private InputStream response(int length, TaskAttemptID... maps)
+      throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bout);
+    for (TaskAttemptID map : maps) {
+      new ShuffleHeader(map.toString(), length, length, 1).write(out);
+      out.write(new byte[length]);
+    }
+    return new ByteArrayInputStream(bout.toByteArray());
+  }
+
+  /**
+   * A map output that consumes its bytes from the response without keeping
+   * them.
+   */
+  @SuppressWarnings("unchecked")
+  private InMemoryMapOutput<Text, Text> mockMapOutput() throws IOException {
+    InMemoryMapOutput<Text, Text> immo = mock(InMemoryMapOutput.class);
+    when(mm.reserve(any(TaskAttemptID.class), anyLong(), anyInt()))
+        .thenReturn(immo);
+    doAnswer(new Answer<Void>() {
+      public Void answer(InvocationOnMock invocation) throws IOException {
+        Object[] args = invocation.getArguments();
+        IOUtils.skipFully((InputStream) args[1], (Long) args[2]);
+        return null;
+      }
+    }).when(immo).shuffle(any(MapHost.class), any(InputStream.class),
+        anyLong(), anyLong(), any(ShuffleClientMetrics.class),
+        any(Reporter.class));
+    return immo;
+  }
+
   @Test(timeout=10000)
   public void testInterruptInMemory() throws Exception {
     final int FETCHER = 2;
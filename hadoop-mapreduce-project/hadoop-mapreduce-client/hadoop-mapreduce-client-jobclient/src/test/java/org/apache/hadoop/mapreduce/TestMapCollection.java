@@ -38,9 +38,17 @@
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.io.*;
+import org.apache.hadoop.io.serializer.JavaSerialization;
+import org.apache.hadoop.io.serializer.JavaSerializationComparator;
+import org.apache.hadoop.io.serializer.WritableSerialization;
+import org.apache.hadoop.mapred.MapOutputCollector;
+import org.apache.hadoop.mapred.OffHeapMapOutputBuffer;
 import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.mapreduce.MRConfig;
+import org.apache.hadoop.util.IndexedSorter;
+import org.apache.hadoop.util.PrefixRadixSort;
 import org.apache.hadoop.util.ReflectionUtils;
 
 public class TestMapCollection {
@@ -68,6 +76,9 @@ public Configuration getConf() {
     public void setLength(int len) {
       this.len = len;
     }
+    public int getLength() {
+      return len;
+    }
     public int compareTo(FillWritable o) {
       if (o == this) return 0;
       return len - o.len;
@@ -183,16 +194,27 @@ public int compare(byte[] b1, int s1, int l1,
 
     private int numrecs;
     private int expected;
+    private boolean checkOrder;
+    private int lastLen;
 
     @Override
     protected void setup(Context job) {
       numrecs = 0;
-      expected = job.getConfiguration().getInt("test.spillmap.records", 100);
+      expected = job.getNumReduceTasks() == 1
+        ? job.getConfiguration().getInt("test.spillmap.records", 100)
+        : -1;
+      checkOrder =
+        !job.getConfiguration().getBoolean("test.disable.key.read", false);
+      lastLen = -1;
     }
 
     @Override
     protected void reduce(KeyWritable k, Iterable<ValWritable> values,
         Context context) throws IOException, InterruptedException {
+      if (checkOrder) {
+        assertTrue("Keys out of order", k.getLength() > lastLen);
+        lastLen = k.getLength();
+      }
       for (ValWritable val : values) {
         ++numrecs;
       }
@@ -200,7 +222,9 @@ protected void reduce(KeyWritable k, Iterable<ValWritable> values,
     @Override
     protected void cleanup(Context context)
         throws IOException, InterruptedException {
-      assertEquals("Unexpected record count", expected, numrecs);
+      if (expected >= 0) {
+        assertEquals("Unexpected record count", expected, numrecs);
+      }
     }
   }
 
@@ -311,7 +335,12 @@ private static void runTest(String name, int keylen, int vallen,
   }
 
   private static void runTest(String name, Job job) throws Exception {
-    job.setNumReduceTasks(1);
+    runTest(name, job, 1);
+  }
+
+  private static void runTest(String name, Job job, int reduces)
+      throws Exception {
+    job.setNumReduceTasks(reduces);
     job.getConfiguration().set(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME);
     job.getConfiguration().setInt(MRJobConfig.IO_SORT_FACTOR, 1000);
     job.getConfiguration().set("fs.defaultFS", "file:///");
@@ -537,4 +566,182 @@ public void testRandomCompress() throws Exception {
     runTest("randomCompress", job);
   }
 
+  @Test
+  public void testRandomParallelSpill() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(Job.COMPLETION_POLL_INTERVAL_KEY, 100);
+    Job job = Job.getInstance(conf);
+    conf = job.getConfiguration();
+    conf.setInt(MRJobConfig.IO_SORT_MB, 1);
+    conf.setInt(MRJobConfig.MAP_SORT_SPILL_THREADS, 3);
+    conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+    conf.setClass("test.mapcollection.class", RandomFactory.class,
+        RecordFactory.class);
+    final Random r = new Random();
+    final long seed = r.nextLong();
+    LOG.info("SEED: " + seed);
+    r.setSeed(seed);
+    conf.set(MRJobConfig.MAP_SORT_SPILL_PERCENT,
+        Float.toString(Math.max(0.1f, r.nextFloat())));
+    RandomFactory.setLengths(conf, r, 1 << 14);
+    final int records = r.nextInt(500);
+    conf.setInt("test.spillmap.records", records);
+    conf.setLong("test.randomfactory.seed", r.nextLong());
+    runTest("randomParallelSpill", job, 7);
+    assertEquals("Unexpected record count", records, job.getCounters()
+        .findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+  }
+
+  @Test
+  public void testRandomPrefixSort() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(Job.COMPLETION_POLL_INTERVAL_KEY, 100);
+    Job job = Job.getInstance(conf);
+    conf = job.getConfiguration();
+    conf.setInt(MRJobConfig.IO_SORT_MB, 1);
+    conf.setClass("map.sort.class", PrefixRadixSort.class,
+        IndexedSorter.class);
+    conf.setClass("test.mapcollection.class", RandomFactory.class,
+        RecordFactory.class);
+    final Random r = new Random();
+    final long seed = r.nextLong();
+    LOG.info("SEED: " + seed);
+    r.setSeed(seed);
+    conf.set(MRJobConfig.MAP_SORT_SPILL_PERCENT,
+        Float.toString(Math.max(0.1f, r.nextFloat())));
+    RandomFactory.setLengths(conf, r, 1 << 14);
+    final int records = r.nextInt(500);
+    conf.setInt("test.spillmap.records", records);
+    conf.setLong("test.randomfactory.seed", r.nextLong());
+    runTest("randomPrefixSort", job, 5);
+    assertEquals("Unexpected record count", records, job.getCounters()
+        .findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+  }
+
+  @Test
+  public void testRandomOffHeap() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(Job.COMPLETION_POLL_INTERVAL_KEY, 100);
+    Job job = Job.getInstance(conf);
+    conf = job.getConfiguration();
+    conf.setClass(MRJobConfig.MAP_OUTPUT_COLLECTOR_CLASS_ATTR,
+        OffHeapMapOutputBuffer.class, MapOutputCollector.class);
+    conf.setInt(MRJobConfig.IO_SORT_OFFHEAP_MB, 1);
+    conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+    conf.setClass("test.mapcollection.class", RandomFactory.class,
+        RecordFactory.class);
+    final Random r = new Random();
+    final long seed = r.nextLong();
+    LOG.info("SEED: " + seed);
+    r.setSeed(seed);
+    RandomFactory.setLengths(conf, r, 1 << 14);
+    final int records = r.nextInt(500);
+    conf.setInt("test.spillmap.records", records);
+    conf.setLong("test.randomfactory.seed", r.nextLong());
+    runTest("randomOffHeap", job, 3);
+    assertEquals("Unexpected record count", records, job.getCounters()
+        .findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+  }
+
+  @Test
+  public void testLargeRecordsOffHeap() throws Exception {
+    // records larger than the buffer are spilled on their own
+    Configuration conf = new Configuration();
+    conf.setInt(Job.COMPLETION_POLL_INTERVAL_KEY, 100);
+    Job job = Job.getInstance(conf);
+    conf = job.getConfiguration();
+    conf.setClass(MRJobConfig.MAP_OUTPUT_COLLECTOR_CLASS_ATTR,
+        OffHeapMapOutputBuffer.class, MapOutputCollector.class);
+    conf.setInt(MRJobConfig.IO_SORT_OFFHEAP_MB, 1);
+    conf.setClass("test.mapcollection.class", FixedRecordFactory.class,
+        RecordFactory.class);
+    FixedRecordFactory.setLengths(conf, 100, 1024 * 1024);
+    conf.setInt("test.spillmap.records", 5);
+    runTest("largerecOffHeap", job);
+  }
+
+  /**
+   * A value of up to 16k characters, or for one record a value larger than
+   * the off-heap buffer.
+   */
+  private static String javaSerializationValue(long record) {
+    final int length = record == 100
+        ? 3 << 19
+        : (int) (record * 7919 % (1 << 14));
+    final char[] value = new char[length];
+    Arrays.fill(value, (char) ('a' + record % 26));
+    return new String(value);
+  }
+
+  public static class JavaSerializationMapper
+      extends Mapper<KeyWritable,ValWritable,Long,String> {
+    private long record;
+
+    @Override
+    protected void map(KeyWritable k, ValWritable v, Context context)
+        throws IOException, InterruptedException {
+      context.write(record, javaSerializationValue(record));
+      ++record;
+    }
+  }
+
+  public static class JavaSerializationReducer
+      extends Reducer<Long,String,NullWritable,NullWritable> {
+    private long expected;
+
+    @Override
+    protected void reduce(Long key, Iterable<String> values, Context context)
+        throws IOException, InterruptedException {
+      assertEquals("Keys out of order", expected++, key.longValue());
+      int numvals = 0;
+      for (String value : values) {
+        assertTrue("Invalid value for " + key,
+            javaSerializationValue(key).equals(value));
+        ++numvals;
+      }
+      assertEquals("Unexpected value count for " + key, 1, numvals);
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      assertEquals("Unexpected record count",
+          context.getConfiguration().getInt("test.spillmap.records", 100),
+          expected);
+    }
+  }
+
+  @Test
+  public void testJavaSerializationOffHeap() throws Exception {
+    // the buffer fills in the middle of records written by serializers that
+    // keep state between records
+    Configuration conf = new Configuration();
+    conf.setInt(Job.COMPLETION_POLL_INTERVAL_KEY, 100);
+    Job job = Job.getInstance(conf);
+    conf = job.getConfiguration();
+    conf.setClass(MRJobConfig.MAP_OUTPUT_COLLECTOR_CLASS_ATTR,
+        OffHeapMapOutputBuffer.class, MapOutputCollector.class);
+    conf.setInt(MRJobConfig.IO_SORT_OFFHEAP_MB, 1);
+    conf.setStrings(CommonConfigurationKeysPublic.IO_SERIALIZATIONS_KEY,
+        JavaSerialization.class.getName(),
+        WritableSerialization.class.getName());
+    FixedRecordFactory.setLengths(conf, 0, 0);
+    conf.setInt("test.spillmap.records", 500);
+    conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME);
+    conf.set("fs.defaultFS", "file:///");
+    conf.setInt("test.mapcollection.num.maps", 1);
+    job.setNumReduceTasks(1);
+    job.setInputFormatClass(FakeIF.class);
+    job.setOutputFormatClass(NullOutputFormat.class);
+    job.setMapperClass(JavaSerializationMapper.class);
+    job.setReducerClass(JavaSerializationReducer.class);
+    job.setMapOutputKeyClass(Long.class);
+    job.setMapOutputValueClass(String.class);
+    job.setSortComparatorClass(JavaSerializationComparator.class);
+
+    LOG.info("Running javaSerializationOffHeap");
+    assertTrue("Job failed!", job.waitForCompletion(false));
+    assertEquals("Unexpected record count", 500, job.getCounters()
+        .findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+  }
+
 }
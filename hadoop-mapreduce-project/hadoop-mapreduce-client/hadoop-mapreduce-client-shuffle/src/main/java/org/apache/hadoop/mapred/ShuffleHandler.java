@@ -41,6 +41,7 @@
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -72,8 +73,11 @@
 import org.apache.hadoop.metrics2.lib.MutableCounterInt;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.lib.MutableStat;
 import org.apache.hadoop.security.ssl.SSLFactory;
 import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.util.Time;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.hadoop.yarn.server.api.ApplicationInitializationContext;
@@ -101,6 +105,7 @@
 import org.jboss.netty.handler.codec.frame.TooLongFrameException;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponse;
@@ -109,7 +114,12 @@
 import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.jboss.netty.handler.timeout.IdleState;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelUpstreamHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.util.CharsetUtil;
+import org.jboss.netty.util.HashedWheelTimer;
 
 import com.google.common.base.Charsets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -143,6 +153,8 @@ public class ShuffleHandler extends AuxiliaryService {
   private boolean manageOsCache;
   private int readaheadLength;
   private int maxShuffleConnections;
+  private boolean connectionKeepAliveEnabled;
+  private int connectionKeepAliveTimeOut;
   private ReadaheadPool readaheadPool = ReadaheadPool.getInstance();
 
   public static final String MAPREDUCE_SHUFFLE_SERVICEID =
@@ -168,6 +180,15 @@ public class ShuffleHandler extends AuxiliaryService {
   // 0 implies Netty default of 2 * number of available processors
   public static final int DEFAULT_MAX_SHUFFLE_THREADS = 0;
 
+  public static final String SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED =
+      "mapreduce.shuffle.connection-keep-alive.enable";
+  public static final boolean DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED =
+      false;
+
+  public static final String SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT =
+      "mapreduce.shuffle.connection-keep-alive.timeout";
+  public static final int DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT = 5;
+
   @Metrics(about="Shuffle output metrics", context="mapred")
   static class ShuffleMetrics implements ChannelFutureListener {
     @Metric("Shuffle output in bytes")
@@ -178,6 +199,11 @@ static class ShuffleMetrics implements ChannelFutureListener {
         MutableCounterInt shuffleOutputsOK;
     @Metric("# of current shuffle connections")
         MutableGaugeInt shuffleConnections;
+    @Metric("Shuffle requests and their latency")
+        MutableRate shuffleRequests;
+    @Metric(value="Shuffle output bytes per request", sampleName="Requests",
+        valueName="Bytes")
+        MutableStat shuffleRequestBytes;
 
     @Override
     public void operationComplete(ChannelFuture future) throws Exception {
@@ -286,6 +312,12 @@ protected void serviceInit(Configuration conf) throws Exception {
     
     maxShuffleConnections = conf.getInt(MAX_SHUFFLE_CONNECTIONS, 
                                         DEFAULT_MAX_SHUFFLE_CONNECTIONS);
+    connectionKeepAliveEnabled =
+        conf.getBoolean(SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED,
+                        DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED);
+    connectionKeepAliveTimeOut =
+        Math.max(1, conf.getInt(SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT,
+                                DEFAULT_SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT));
     int maxShuffleThreads = conf.getInt(MAX_SHUFFLE_THREADS,
                                         DEFAULT_MAX_SHUFFLE_THREADS);
     if (maxShuffleThreads == 0) {
@@ -362,6 +394,8 @@ class HttpPipelineFactory implements ChannelPipelineFactory {
 
     final Shuffle SHUFFLE;
     private SSLFactory sslFactory;
+    private HashedWheelTimer timer;
+    private IdleStateHandler idleStateHandler;
 
     public HttpPipelineFactory(Configuration conf) throws Exception {
       SHUFFLE = getShuffle(conf);
@@ -370,12 +404,20 @@ public HttpPipelineFactory(Configuration conf) throws Exception {
         sslFactory = new SSLFactory(SSLFactory.Mode.SERVER, conf);
         sslFactory.init();
       }
+      if (connectionKeepAliveEnabled) {
+        timer = new HashedWheelTimer();
+        idleStateHandler = new IdleStateHandler(timer, 0, 0,
+            connectionKeepAliveTimeOut);
+      }
     }
 
     public void destroy() {
       if (sslFactory != null) {
         sslFactory.destroy();
       }
+      if (timer != null) {
+        timer.stop();
+      }
     }
 
     @Override
@@ -388,6 +430,10 @@ public ChannelPipeline getPipeline() throws Exception {
       pipeline.addLast("aggregator", new HttpChunkAggregator(1 << 16));
       pipeline.addLast("encoder", new HttpResponseEncoder());
       pipeline.addLast("chunking", new ChunkedWriteHandler());
+      if (idleStateHandler != null) {
+        pipeline.addLast("idle", idleStateHandler);
+        pipeline.addLast("timeout", new TimeoutHandler());
+      }
       pipeline.addLast("shuffle", SHUFFLE);
       return pipeline;
       // TODO factor security manager into pipeline
@@ -397,6 +443,40 @@ public ChannelPipeline getPipeline() throws Exception {
 
   }
 
+  /**
+   * Closes a kept-alive connection that stays idle between two requests.
+   * A connection is never closed while a response is being written to it,
+   * however slowly the client reads.
+   */
+  static class TimeoutHandler extends IdleStateAwareChannelUpstreamHandler {
+
+    private volatile boolean enabledTimeout = true;
+
+    void setEnabledTimeout(boolean enabledTimeout) {
+      this.enabledTimeout = enabledTimeout;
+    }
+
+    @Override
+    public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e) {
+      if (e.getState() == IdleState.ALL_IDLE && enabledTimeout) {
+        e.getChannel().close();
+      }
+    }
+  }
+
+  /**
+   * The location of a map output and of the reduce's partition in it.
+   */
+  static class MapOutputInfo {
+    final Path mapOutputFileName;
+    final IndexRecord indexRecord;
+
+    MapOutputInfo(Path mapOutputFileName, IndexRecord indexRecord) {
+      this.mapOutputFileName = mapOutputFileName;
+      this.indexRecord = indexRecord;
+    }
+  }
+
   class Shuffle extends SimpleChannelUpstreamHandler {
 
     private final Configuration conf;
@@ -444,6 +524,7 @@ public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent evt)
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent evt)
         throws Exception {
+      final long startTime = Time.monotonicNow();
       HttpRequest request = (HttpRequest) evt.getMessage();
       if (request.getMethod() != GET) {
           sendError(ctx, METHOD_NOT_ALLOWED);
@@ -455,6 +536,7 @@ public void messageReceived(ChannelHandlerContext ctx, MessageEvent evt)
           || !ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION.equals(
               request.getHeader(ShuffleHeader.HTTP_HEADER_VERSION))) {
         sendError(ctx, "Incompatible shuffle request version", BAD_REQUEST);
+        return;
       }
       final Map<String,List<String>> q =
         new QueryStringDecoder(request.getUri()).getParameters();
@@ -505,31 +587,94 @@ public void messageReceived(ChannelHandlerContext ctx, MessageEvent evt)
       }
 
       Channel ch = evt.getChannel();
+      final TimeoutHandler timeoutHandler =
+          ch.getPipeline().get(TimeoutHandler.class);
+      if (timeoutHandler != null) {
+        timeoutHandler.setEnabledTimeout(false);
+      }
+      final String user = userRsrc.get(jobId);
+      final boolean keepAlive =
+          connectionKeepAliveEnabled && HttpHeaders.isKeepAlive(request);
+      // Each map output is looked up once; with keep-alive all of them are
+      // looked up up front, as the response length needs their sizes
+      final Map<String, MapOutputInfo> mapOutputInfos =
+          new HashMap<String, MapOutputInfo>(mapIds.size());
+      if (keepAlive) {
+        try {
+          for (String mapId : mapIds) {
+            mapOutputInfos.put(mapId,
+                getMapOutputInfo(user, jobId, mapId, reduceId));
+          }
+          setKeepAliveHeaders(response, mapIds, mapOutputInfos, reduceId);
+        } catch (IOException e) {
+          sendError(ctx, e);
+          return;
+        }
+      }
       ch.write(response);
       // TODO refactor the following into the pipeline
+      long bytes = 0;
       ChannelFuture lastMap = null;
       for (String mapId : mapIds) {
         try {
-          lastMap =
-            sendMapOutput(ctx, ch, userRsrc.get(jobId), jobId, mapId, reduceId);
+          MapOutputInfo info = mapOutputInfos.get(mapId);
+          if (info == null) {
+            info = getMapOutputInfo(user, jobId, mapId, reduceId);
+          }
+          lastMap = sendMapOutput(ctx, ch, user, mapId, reduceId, info);
           if (null == lastMap) {
             sendError(ctx, NOT_FOUND);
             return;
           }
+          bytes += info.indexRecord.partLength;
         } catch (IOException e) {
-          LOG.error("Shuffle error :", e);
-          StringBuffer sb = new StringBuffer(e.getMessage());
-          Throwable t = e;
-          while (t.getCause() != null) {
-            sb.append(t.getCause().getMessage());
-            t = t.getCause();
-          }
-          sendError(ctx,sb.toString() , INTERNAL_SERVER_ERROR);
+          sendError(ctx, e);
           return;
         }
       }
+      final long requestBytes = bytes;
+      metrics.shuffleConnections.incr();
       lastMap.addListener(metrics);
-      lastMap.addListener(ChannelFutureListener.CLOSE);
+      lastMap.addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) {
+          metrics.shuffleRequests.add(Time.monotonicNow() - startTime);
+          metrics.shuffleRequestBytes.add(requestBytes);
+          if (keepAlive && future.isSuccess()) {
+            // wait for the next request on this connection
+            if (timeoutHandler != null) {
+              timeoutHandler.setEnabledTimeout(true);
+            }
+          } else {
+            future.getChannel().close();
+          }
+        }
+      });
+    }
+
+    /**
+     * Set the length of the response to that of the requested map outputs
+     * and their shuffle headers, so the client can find its end and send its
+     * next request on the same connection.
+     */
+    protected void setKeepAliveHeaders(HttpResponse response,
+        List<String> mapIds, Map<String, MapOutputInfo> mapOutputInfos,
+        int reduce) throws IOException {
+      long contentLength = 0;
+      final DataOutputBuffer dob = new DataOutputBuffer();
+      for (String mapId : mapIds) {
+        final IndexRecord info = mapOutputInfos.get(mapId).indexRecord;
+        final ShuffleHeader header =
+          new ShuffleHeader(mapId, info.partLength, info.rawLength, reduce);
+        dob.reset();
+        header.write(dob);
+        contentLength += dob.getLength() + info.partLength;
+      }
+      HttpHeaders.setContentLength(response, contentLength);
+      response.setHeader(HttpHeaders.Names.CONNECTION,
+          HttpHeaders.Values.KEEP_ALIVE);
+      response.setHeader(HttpHeaders.Names.KEEP_ALIVE,
+          "timeout=" + connectionKeepAliveTimeOut);
     }
 
     protected void verifyRequest(String appid, ChannelHandlerContext ctx,
@@ -573,9 +718,8 @@ protected void verifyRequest(String appid, ChannelHandlerContext ctx,
       }
     }
 
-    protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx, Channel ch,
-        String user, String jobId, String mapId, int reduce)
-        throws IOException {
+    protected MapOutputInfo getMapOutputInfo(String user, String jobId,
+        String mapId, int reduce) throws IOException {
       // TODO replace w/ rsrc alloc
       // $x/$user/appcache/$appId/output/$mapId
       // TODO: Once Shuffle is out of NM, this can use MR APIs to convert between App and Job
@@ -601,12 +745,20 @@ protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx, Channel ch,
       }
       final IndexRecord info = 
         indexCache.getIndexInformation(mapId, reduce, indexFileName, user);
+      return new MapOutputInfo(mapOutputFileName, info);
+    }
+
+    protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx, Channel ch,
+        String user, String mapId, int reduce, MapOutputInfo mapOutputInfo)
+        throws IOException {
+      final IndexRecord info = mapOutputInfo.indexRecord;
       final ShuffleHeader header =
         new ShuffleHeader(mapId, info.partLength, info.rawLength, reduce);
       final DataOutputBuffer dob = new DataOutputBuffer();
       header.write(dob);
       ch.write(wrappedBuffer(dob.getData(), 0, dob.getLength()));
-      final File spillfile = new File(mapOutputFileName.toString());
+      final File spillfile =
+        new File(mapOutputInfo.mapOutputFileName.toString());
       RandomAccessFile spill;
       try {
         spill = SecureIOUtils.openForRandomRead(spillfile, "r", user, null);
@@ -639,11 +791,21 @@ public void operationComplete(ChannelFuture future) {
             spillfile.getAbsolutePath());
         writeFuture = ch.write(chunk);
       }
-      metrics.shuffleConnections.incr();
       metrics.shuffleOutputBytes.incr(info.partLength); // optimistic
       return writeFuture;
     }
 
+    private void sendError(ChannelHandlerContext ctx, IOException e) {
+      LOG.error("Shuffle error :", e);
+      StringBuffer sb = new StringBuffer(e.getMessage());
+      Throwable t = e;
+      while (t.getCause() != null) {
+        sb.append(t.getCause().getMessage());
+        t = t.getCause();
+      }
+      sendError(ctx, sb.toString(), INTERNAL_SERVER_ERROR);
+    }
+
     protected void sendError(ChannelHandlerContext ctx,
         HttpResponseStatus status) {
       sendError(ctx, "", status);
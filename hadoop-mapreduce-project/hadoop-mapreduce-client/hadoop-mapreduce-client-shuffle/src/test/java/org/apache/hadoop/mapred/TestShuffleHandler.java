@@ -39,6 +39,8 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CheckedOutputStream;
 import java.util.zip.Checksum;
 
@@ -69,6 +71,8 @@
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
@@ -136,9 +140,14 @@ protected void verifyRequest(String appid, ChannelHandlerContext ctx,
                   throws IOException {
           }
           @Override
+          protected MapOutputInfo getMapOutputInfo(String user, String jobId,
+              String mapId, int reduce) throws IOException {
+            return new MapOutputInfo(null, new IndexRecord(0, 5678, 5678));
+          }
+          @Override
           protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx,
-              Channel ch, String user, String jobId, String mapId, int reduce)
-                  throws IOException {
+              Channel ch, String user, String mapId, int reduce,
+              MapOutputInfo info) throws IOException {
             // send a shuffle header and a lot of data down the channel
             // to trigger a broken pipe
             ShuffleHeader header =
@@ -196,6 +205,130 @@ protected void sendError(ChannelHandlerContext ctx, String message,
         failures.size() == 0);
   }
 
+  @Test (timeout = 10000)
+  public void testKeepAlive() throws Exception {
+    final ArrayList<Throwable> failures = new ArrayList<Throwable>(1);
+    final ArrayList<Channel> channels = new ArrayList<Channel>(1);
+    final AtomicInteger lookups = new AtomicInteger();
+    final int dataLength = 1024;
+    Configuration conf = new Configuration();
+    conf.setInt(ShuffleHandler.SHUFFLE_PORT_CONFIG_KEY, 0);
+    conf.setBoolean(ShuffleHandler.SHUFFLE_CONNECTION_KEEP_ALIVE_ENABLED, true);
+    conf.setInt(ShuffleHandler.SHUFFLE_CONNECTION_KEEP_ALIVE_TIME_OUT, 1);
+    MetricsSystem ms = new MetricsSystemImpl();
+    ShuffleHandler shuffleHandler = new ShuffleHandler(ms) {
+      @Override
+      protected Shuffle getShuffle(Configuration conf) {
+        // replace the shuffle handler with one stubbed for testing
+        return new Shuffle(conf) {
+          @Override
+          public void channelOpen(ChannelHandlerContext ctx,
+              ChannelStateEvent evt) throws Exception {
+            synchronized (channels) {
+              channels.add(evt.getChannel());
+            }
+            super.channelOpen(ctx, evt);
+          }
+          @Override
+          protected void verifyRequest(String appid, ChannelHandlerContext ctx,
+              HttpRequest request, HttpResponse response, URL requestUri)
+                  throws IOException {
+          }
+          @Override
+          protected MapOutputInfo getMapOutputInfo(String user, String jobId,
+              String mapId, int reduce) throws IOException {
+            lookups.incrementAndGet();
+            return new MapOutputInfo(null,
+                new IndexRecord(0, dataLength, dataLength));
+          }
+          @Override
+          protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx,
+              Channel ch, String user, String mapId, int reduce,
+              MapOutputInfo info) throws IOException {
+            ShuffleHeader header =
+                new ShuffleHeader(mapId, dataLength, dataLength, reduce);
+            DataOutputBuffer dob = new DataOutputBuffer();
+            header.write(dob);
+            ch.write(wrappedBuffer(dob.getData(), 0, dob.getLength()));
+            return ch.write(wrappedBuffer(new byte[dataLength]));
+          }
+          @Override
+          protected void sendError(ChannelHandlerContext ctx, String message,
+              HttpResponseStatus status) {
+            failures.add(new Error(message));
+            ctx.getChannel().close();
+          }
+        };
+      }
+    };
+    shuffleHandler.init(conf);
+    shuffleHandler.start();
+
+    // every response carries its length, so the client can read it to the
+    // end and reuse the connection for the next request
+    String baseUrl = "http://127.0.0.1:"
+      + shuffleHandler.getConfig().get(ShuffleHandler.SHUFFLE_PORT_CONFIG_KEY)
+      + "/mapOutput?job=job_12345_1&reduce=1&map=";
+    String[][] requests = {
+        { "attempt_12345_1_m_1_0" },
+        { "attempt_12345_1_m_2_0", "attempt_12345_1_m_3_0" } };
+    for (String[] maps : requests) {
+      URL url = new URL(baseUrl + StringUtils.join(",", maps));
+      HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+      conn.setRequestProperty(ShuffleHeader.HTTP_HEADER_NAME,
+          ShuffleHeader.DEFAULT_HTTP_HEADER_NAME);
+      conn.setRequestProperty(ShuffleHeader.HTTP_HEADER_VERSION,
+          ShuffleHeader.DEFAULT_HTTP_HEADER_VERSION);
+      conn.connect();
+      DataInputStream input = new DataInputStream(conn.getInputStream());
+      Assert.assertEquals(HttpURLConnection.HTTP_OK, conn.getResponseCode());
+      Assert.assertEquals(HttpHeaders.Values.KEEP_ALIVE,
+          conn.getHeaderField(HttpHeaders.Names.CONNECTION));
+      Assert.assertEquals("timeout=1",
+          conn.getHeaderField(HttpHeaders.Names.KEEP_ALIVE));
+      long contentLength = 0;
+      for (String mapId : maps) {
+        ShuffleHeader header =
+            new ShuffleHeader(mapId, dataLength, dataLength, 1);
+        DataOutputBuffer dob = new DataOutputBuffer();
+        header.write(dob);
+        byte[] received = new byte[dob.getLength()];
+        input.readFully(received);
+        Assert.assertArrayEquals(
+            Arrays.copyOf(dob.getData(), dob.getLength()), received);
+        input.readFully(new byte[dataLength]);
+        contentLength += dob.getLength() + dataLength;
+      }
+      Assert.assertEquals(contentLength, conn.getContentLength());
+      Assert.assertEquals(-1, input.read());
+      input.close();
+    }
+
+    // both requests were served on one connection, and each map output
+    // was looked up once
+    Channel channel;
+    synchronized (channels) {
+      Assert.assertEquals(1, channels.size());
+      channel = channels.get(0);
+    }
+    Assert.assertEquals(3, lookups.get());
+
+    // the server closes the connection once it has been idle for the
+    // keep-alive timeout
+    Assert.assertTrue("idle connection was not closed",
+        channel.getCloseFuture().await(3, TimeUnit.SECONDS));
+
+    MetricsRecordBuilder rb = getMetrics(ms.getSource("ShuffleMetrics"));
+    assertCounter("ShuffleRequestsNumOps", 2L, rb);
+    assertCounter("ShuffleRequestBytesNumRequests", 2L, rb);
+    assertGauge("ShuffleRequestBytesAvgBytes", 1.5 * dataLength, rb);
+    assertCounter("ShuffleOutputsOK", 2, rb);
+    assertGauge("ShuffleConnections", 0, rb);
+
+    shuffleHandler.stop();
+    Assert.assertTrue("sendError called: " + failures, failures.isEmpty());
+  }
+
   @Test (timeout = 10000)
   public void testIncompatibleShuffleVersion() throws Exception {
     final int failureNum = 3;
@@ -242,9 +375,14 @@ protected void verifyRequest(String appid, ChannelHandlerContext ctx,
                   throws IOException {
           }
           @Override
+          protected MapOutputInfo getMapOutputInfo(String user, String jobId,
+              String mapId, int reduce) throws IOException {
+            return new MapOutputInfo(null, new IndexRecord(0, 5678, 5678));
+          }
+          @Override
           protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx,
-              Channel ch, String user, String jobId, String mapId, int reduce)
-                  throws IOException {
+              Channel ch, String user, String mapId, int reduce,
+              MapOutputInfo info) throws IOException {
             // send a shuffle header and a lot of data down the channel
             // to trigger a broken pipe
             ShuffleHeader header =
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes and verifies the chunked checksums of one packet, as the
+ * DataNode and the DFS client do for every packet. Direct buffers are
+ * verified by native code when libhadoop is loaded; heap buffers
+ * always take the Java path, so comparing the two shows what the native
+ * code buys.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+  @Param({"CRC32", "CRC32C"})
+  public String type;
+
+  @Param({"512"})
+  public int bytesPerChecksum;
+
+  /** Size of the data checksummed per operation; one DFS packet. */
+  @Param({"65536"})
+  public int dataSize;
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  private DataChecksum checksum;
+  private ByteBuffer data;
+  private ByteBuffer sums;
+
+  @Setup
+  public void setup() {
+    if (direct && !NativeCodeLoader.isNativeCodeLoaded()) {
+      System.err.println("WARNING: native checksums are not available, " +
+          "direct buffers are checksummed in Java");
+    }
+    checksum = DataChecksum.newDataChecksum(
+        DataChecksum.Type.valueOf(type), bytesPerChecksum);
+    int numChunks = (dataSize + bytesPerChecksum - 1) / bytesPerChecksum;
+    data = allocate(dataSize);
+    sums = allocate(numChunks * checksum.getChecksumSize());
+    byte[] bytes = new byte[dataSize];
+    new Random(0).nextBytes(bytes);
+    data.put(bytes);
+    data.flip();
+    checksum.calculateChunkedSums(data, sums);
+  }
+
+  private ByteBuffer allocate(int size) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  @Benchmark
+  public ByteBuffer calculate() {
+    checksum.calculateChunkedSums(data, sums);
+    return sums;
+  }
+
+  @Benchmark
+  public ByteBuffer verify() throws ChecksumException {
+    checksum.verifyChunkedSums(data, sums, "benchmark", 0);
+    return sums;
+  }
+}
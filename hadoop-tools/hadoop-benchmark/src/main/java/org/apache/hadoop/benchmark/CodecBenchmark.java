@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compresses and decompresses a buffer of text-like data with each codec,
+ * reusing pooled compressors the way map output and SequenceFiles do.
+ * The snappy and lz4 codecs need libhadoop; their trials fail without it.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+  @Param({"default", "gzip", "bzip2", "lz4", "snappy"})
+  public String codecName;
+
+  @Param({"65536"})
+  public int dataSize;
+
+  private CompressionCodec codec;
+  private Compressor compressor;
+  private Decompressor decompressor;
+  private byte[] data;
+  private byte[] compressed;
+  private byte[] readBuffer;
+  private final DataOutputBuffer out = new DataOutputBuffer();
+
+  @Setup
+  public void setup() throws IOException {
+    Configuration conf = new Configuration();
+    codec = new CompressionCodecFactory(conf).getCodecByName(codecName);
+    if (codec == null) {
+      throw new IllegalArgumentException("Unknown codec: " + codecName);
+    }
+    compressor = CodecPool.getCompressor(codec, conf);
+    decompressor = CodecPool.getDecompressor(codec);
+
+    // Words drawn from a small vocabulary compress roughly like logs or
+    // text records; random bytes would not compress at all
+    String[] words = new String[256];
+    Random r = new Random(0);
+    for (int i = 0; i < words.length; i++) {
+      StringBuilder w = new StringBuilder();
+      int len = 2 + r.nextInt(8);
+      for (int j = 0; j < len; j++) {
+        w.append((char) ('a' + r.nextInt(26)));
+      }
+      words[i] = w.append(' ').toString();
+    }
+    StringBuilder text = new StringBuilder(dataSize);
+    while (text.length() < dataSize) {
+      text.append(words[r.nextInt(words.length)]);
+    }
+    data = text.substring(0, dataSize).getBytes("UTF-8");
+    readBuffer = new byte[64 * 1024];
+
+    compress();
+    compressed = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, compressed, 0, compressed.length);
+  }
+
+  @TearDown
+  public void tearDown() {
+    CodecPool.returnCompressor(compressor);
+    CodecPool.returnDecompressor(decompressor);
+  }
+
+  @Benchmark
+  public int compress() throws IOException {
+    out.reset();
+    CompressionOutputStream cout;
+    if (compressor != null) {
+      compressor.reset();
+      cout = codec.createOutputStream(out, compressor);
+    } else {
+      cout = codec.createOutputStream(out);
+    }
+    cout.write(data, 0, data.length);
+    cout.finish();
+    return out.getLength();
+  }
+
+  @Benchmark
+  public long decompress() throws IOException {
+    InputStream in;
+    ByteArrayInputStream raw = new ByteArrayInputStream(compressed);
+    if (decompressor != null) {
+      decompressor.reset();
+      in = codec.createInputStream(raw, decompressor);
+    } else {
+      in = codec.createInputStream(raw);
+    }
+    long total = 0;
+    int n;
+    while ((n = in.read(readBuffer, 0, readBuffer.length)) > 0) {
+      total += n;
+    }
+    return total;
+  }
+}
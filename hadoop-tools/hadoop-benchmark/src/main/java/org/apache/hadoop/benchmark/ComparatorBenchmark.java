@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raw and deserialized comparisons of {@link Text} keys, the inner loop of
+ * the map side sort and of the reduce side merge. The two keys share a
+ * common prefix of the given length so that the comparison has to scan it.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparatorBenchmark {
+
+  @Param({"8", "64", "1024"})
+  public int prefixLength;
+
+  private final WritableComparator comparator =
+      WritableComparator.get(Text.class);
+  private Text key1;
+  private Text key2;
+  private byte[] buf1;
+  private byte[] buf2;
+
+  @Setup
+  public void setup() throws IOException {
+    Random r = new Random(0);
+    byte[] prefix = new byte[prefixLength];
+    for (int i = 0; i < prefix.length; i++) {
+      prefix[i] = (byte) ('a' + r.nextInt(26));
+    }
+    key1 = new Text(new String(prefix, "UTF-8") + "a");
+    key2 = new Text(new String(prefix, "UTF-8") + "b");
+    buf1 = serialize(key1);
+    buf2 = serialize(key2);
+  }
+
+  private static byte[] serialize(Text t) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    t.write(out);
+    byte[] b = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, b, 0, b.length);
+    return b;
+  }
+
+  /** Compare serialized keys, as the sort does. */
+  @Benchmark
+  public int compareRaw() {
+    return comparator.compare(buf1, 0, buf1.length, buf2, 0, buf2.length);
+  }
+
+  /** Compare the bytes alone, without the vint length prefix. */
+  @Benchmark
+  public int compareBytes() {
+    return WritableComparator.compareBytes(key1.getBytes(), 0,
+        key1.getLength(), key2.getBytes(), 0, key2.getLength());
+  }
+
+  /** Compare deserialized keys. */
+  @Benchmark
+  public int compareObjects() {
+    return key1.compareTo(key2);
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.ProtobufRpcEngine;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.TestProtoBufRpc.PBServerImpl;
+import org.apache.hadoop.ipc.TestProtoBufRpc.TestRpcService;
+import org.apache.hadoop.ipc.TestRPC.TestImpl;
+import org.apache.hadoop.ipc.TestRPC.TestProtocol;
+import org.apache.hadoop.ipc.WritableRpcEngine;
+import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
+import org.apache.hadoop.ipc.protobuf.TestRpcServiceProtos.TestProtobufRpcProto;
+import org.apache.hadoop.net.NetUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.BlockingService;
+import com.google.protobuf.ServiceException;
+
+/**
+ * Round trips through an in-process {@link RPC.Server} and a client proxy,
+ * for both the Writable and the Protobuf engine. This is the JMH
+ * counterpart of the RPCCallBenchmark tool; run it with several threads
+ * (-t) to measure calls sharing one connection.
+ */
+@InterfaceAudience.Private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcBenchmark {
+
+  @Param({"writable", "protobuf"})
+  public String engine;
+
+  @Param({"16", "1024"})
+  public int messageSize;
+
+  @Param({"4"})
+  public int handlers;
+
+  private RPC.Server server;
+  private TestProtocol writableProxy;
+  private TestRpcService protobufProxy;
+  private String message;
+  private EchoRequestProto request;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Configuration conf = new Configuration();
+    char[] chars = new char[messageSize];
+    Arrays.fill(chars, 'x');
+    message = new String(chars);
+
+    if ("protobuf".equals(engine)) {
+      RPC.setProtocolEngine(conf, TestRpcService.class,
+          ProtobufRpcEngine.class);
+      BlockingService service = TestProtobufRpcProto
+          .newReflectiveBlockingService(new PBServerImpl());
+      server = new RPC.Builder(conf).setProtocol(TestRpcService.class)
+          .setInstance(service).setBindAddress("localhost").setPort(0)
+          .setNumHandlers(handlers).setVerbose(false).build();
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      protobufProxy = RPC.getProxy(TestRpcService.class, 0, addr, conf);
+      request = EchoRequestProto.newBuilder().setMessage(message).build();
+    } else if ("writable".equals(engine)) {
+      RPC.setProtocolEngine(conf, TestProtocol.class,
+          WritableRpcEngine.class);
+      server = new RPC.Builder(conf).setProtocol(TestProtocol.class)
+          .setInstance(new TestImpl()).setBindAddress("localhost").setPort(0)
+          .setNumHandlers(handlers).setVerbose(false).build();
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      writableProxy = RPC.getProxy(TestProtocol.class, TestProtocol.versionID,
+          addr, conf);
+    } else {
+      throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (writableProxy != null) {
+      RPC.stopProxy(writableProxy);
+    }
+    if (protobufProxy != null) {
+      RPC.stopProxy(protobufProxy);
+    }
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Benchmark
+  public Object echo() throws IOException, ServiceException {
+    if (protobufProxy != null) {
+      return protobufProxy.echo(null, request);
+    }
+    return writableProxy.echo(message);
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes and reads a local {@link SequenceFile} of Text keys and
+ * BytesWritable values with each compression type. The local file system
+ * is checksummed, so the numbers include the client side CRC work.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceFileBenchmark {
+
+  @Param({"NONE", "RECORD", "BLOCK"})
+  public String compression;
+
+  @Param({"10000"})
+  public int numRecords;
+
+  @Param({"100"})
+  public int valueSize;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private File dir;
+  private Path readFile;
+  private Path writeFile;
+  private Text[] keys;
+  private BytesWritable value;
+
+  @Setup
+  public void setup() throws IOException {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    dir = new File(System.getProperty("java.io.tmpdir"),
+        "SequenceFileBenchmark-" + System.nanoTime());
+    if (!dir.mkdirs()) {
+      throw new IOException("Could not create " + dir);
+    }
+    readFile = new Path(dir.getAbsolutePath(), "read.seq");
+    writeFile = new Path(dir.getAbsolutePath(), "write.seq");
+
+    Random r = new Random(0);
+    keys = new Text[numRecords];
+    for (int i = 0; i < numRecords; i++) {
+      keys[i] = new Text(String.format("key-%010d", r.nextInt()));
+    }
+    byte[] v = new byte[valueSize];
+    for (int i = 0; i < v.length; i++) {
+      v[i] = (byte) ('a' + r.nextInt(8));
+    }
+    value = new BytesWritable(v);
+    writeFile(readFile);
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private void writeFile(Path file) throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+        SequenceFile.Writer.file(file),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(BytesWritable.class),
+        SequenceFile.Writer.compression(CompressionType.valueOf(compression),
+            ReflectionUtils.newInstance(DefaultCodec.class, conf)));
+    try {
+      for (Text key : keys) {
+        writer.append(key, value);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Benchmark
+  public Path write() throws IOException {
+    writeFile(writeFile);
+    return writeFile;
+  }
+
+  @Benchmark
+  public int read() throws IOException {
+    SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+        SequenceFile.Reader.file(readFile));
+    Text key = new Text();
+    BytesWritable val = new BytesWritable();
+    int count = 0;
+    try {
+      while (reader.next(key, val)) {
+        count++;
+      }
+    } finally {
+      reader.close();
+    }
+    return count;
+  }
+}